@@ -75,6 +75,12 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 
 	protected final int numMipmapLevels;
 
+	/**
+	 * The setup img loader, if it implements {@link CellStatisticsProvider},
+	 * or {@code null}.
+	 */
+	protected final CellStatisticsProvider cellStatisticsProvider;
+
 	protected final static int numInterpolationMethods = 2;
 
 	protected final static int iNearestNeighborMethod = 0;
@@ -95,7 +101,10 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 				? new HashSet< ViewId >()
 				: seq.getMissingViews().getMissingViews();
 		voxelDimensions = seq.getViewSetups().get( setupId ).getVoxelSize();
-		numMipmapLevels = ( ( ViewerImgLoader ) seq.getImgLoader() ).getSetupImgLoader( setupId ).numMipmapLevels();
+		final ViewerSetupImgLoader< ?, ? > setupImgLoader = ( ( ViewerImgLoader ) seq.getImgLoader() ).getSetupImgLoader( setupId );
+		numMipmapLevels = setupImgLoader.numMipmapLevels();
+		cellStatisticsProvider = CellStatisticsProvider.class.isInstance( setupImgLoader ) ?
+				( CellStatisticsProvider ) setupImgLoader : null;
 		currentSources = new RandomAccessibleInterval[ numMipmapLevels ];
 		currentInterpolatedSources = new RealRandomAccessible[ numMipmapLevels ][ numInterpolationMethods ];
 		currentSourceTransforms = new AffineTransform3D[ numMipmapLevels ];
@@ -203,4 +212,17 @@ public abstract class AbstractSpimSource< T extends NumericType< T > > implement
 	{
 		return setupId;
 	}
+
+	/**
+	 * Get the {@link CellStatistics} of the image at timepoint index
+	 * {@code t}, if the img loader provides them.
+	 *
+	 * @return statistics, or {@code null} if they are not available.
+	 */
+	public CellStatistics getCellStatistics( final int t, final int level )
+	{
+		if ( cellStatisticsProvider == null || !isPresent( t ) )
+			return null;
+		return cellStatisticsProvider.getCellStatistics( timePointsOrdered.get( t ).getId(), level );
+	}
 }
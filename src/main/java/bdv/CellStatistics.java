@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv;
+
+/**
+ * Summary statistics of the cells (blocks) of one mipmap level of an image:
+ * for each cell the minimum, maximum, and mean value, and the number of
+ * pixels. Cells are indexed by their flattened index in the cell grid
+ * (dimension 0 varying fastest). Optionally, a coarse histogram of all pixels
+ * of the level.
+ * <p>
+ * Statistics are computed when the image is exported, so that for example
+ * brightness can be initialized without reading pixel data.
+ */
+public class CellStatistics
+{
+	private final double[] min;
+
+	private final double[] max;
+
+	private final double[] mean;
+
+	private final long[] numElements;
+
+	private final long[] histogram;
+
+	private final double histogramMin;
+
+	private final double histogramMax;
+
+	/**
+	 * @param table
+	 *            for each cell a row { min, max, mean, number of pixels }.
+	 * @param histogram
+	 *            counts of equally sized bins covering [histogramMin,
+	 *            histogramMax), or {@code null}.
+	 */
+	public CellStatistics( final double[][] table, final long[] histogram, final double histogramMin, final double histogramMax )
+	{
+		final int n = table.length;
+		min = new double[ n ];
+		max = new double[ n ];
+		mean = new double[ n ];
+		numElements = new long[ n ];
+		for ( int i = 0; i < n; ++i )
+		{
+			min[ i ] = table[ i ][ 0 ];
+			max[ i ] = table[ i ][ 1 ];
+			mean[ i ] = table[ i ][ 2 ];
+			numElements[ i ] = ( long ) table[ i ][ 3 ];
+		}
+		this.histogram = histogram;
+		this.histogramMin = histogramMin;
+		this.histogramMax = histogramMax;
+	}
+
+	/**
+	 * @return for each cell a row { min, max, mean, number of pixels }.
+	 */
+	public double[][] getTable()
+	{
+		final double[][] table = new double[ numCells() ][];
+		for ( int i = 0; i < table.length; ++i )
+			table[ i ] = new double[] { min[ i ], max[ i ], mean[ i ], numElements[ i ] };
+		return table;
+	}
+
+	public int numCells()
+	{
+		return min.length;
+	}
+
+	public double getMin( final int cellIndex )
+	{
+		return min[ cellIndex ];
+	}
+
+	public double getMax( final int cellIndex )
+	{
+		return max[ cellIndex ];
+	}
+
+	public double getMean( final int cellIndex )
+	{
+		return mean[ cellIndex ];
+	}
+
+	public long getNumElements( final int cellIndex )
+	{
+		return numElements[ cellIndex ];
+	}
+
+	/**
+	 * @return minimum over all cells.
+	 */
+	public double getMin()
+	{
+		double m = Double.POSITIVE_INFINITY;
+		for ( final double v : min )
+			m = Math.min( m, v );
+		return m;
+	}
+
+	/**
+	 * @return maximum over all cells.
+	 */
+	public double getMax()
+	{
+		double m = Double.NEGATIVE_INFINITY;
+		for ( final double v : max )
+			m = Math.max( m, v );
+		return m;
+	}
+
+	/**
+	 * @return mean over all pixels.
+	 */
+	public double getMean()
+	{
+		double sum = 0;
+		long n = 0;
+		for ( int i = 0; i < mean.length; ++i )
+		{
+			sum += mean[ i ] * numElements[ i ];
+			n += numElements[ i ];
+		}
+		return n == 0 ? Double.NaN : sum / n;
+	}
+
+	/**
+	 * @return histogram bin counts, or {@code null} if no histogram was
+	 *         recorded.
+	 */
+	public long[] getHistogram()
+	{
+		return histogram;
+	}
+
+	public double getHistogramMin()
+	{
+		return histogramMin;
+	}
+
+	public double getHistogramMax()
+	{
+		return histogramMax;
+	}
+
+	/**
+	 * Get the value below which the given fraction of pixels lie, estimated
+	 * from the histogram.
+	 *
+	 * @param fraction
+	 *            between 0 and 1.
+	 * @return the quantile, or {@code NaN} if no histogram was recorded.
+	 */
+	public double getQuantile( final double fraction )
+	{
+		if ( histogram == null )
+			return Double.NaN;
+
+		long total = 0;
+		for ( final long c : histogram )
+			total += c;
+		final double binSize = ( histogramMax - histogramMin ) / histogram.length;
+		final double threshold = fraction * total;
+		long cumulative = 0;
+		int i = 0;
+		for ( ; i < histogram.length && cumulative < threshold; ++i )
+			cumulative += histogram[ i ];
+		return histogramMin + i * binSize;
+	}
+}
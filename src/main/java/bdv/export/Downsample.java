@@ -38,6 +38,7 @@ import net.imglib2.algorithm.neighborhood.Neighborhood;
 import net.imglib2.algorithm.neighborhood.RectangleNeighborhoodFactory;
 import net.imglib2.algorithm.neighborhood.RectangleNeighborhoodUnsafe;
 import net.imglib2.algorithm.neighborhood.RectangleShape;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.view.Views;
 
@@ -67,6 +68,15 @@ public class Downsample
 		}
 		final RandomAccessibleInterval< T > requiredInput = Views.interval( input, new FinalInterval( minRequiredInput, maxRequiredInput ) );
 
+		if ( n == 3 && output instanceof ArrayImg && DownsampleKernel.isSupported( Views.iterable( output ).firstElement() ) )
+		{
+			// average separably over primitive arrays
+			final long[] outDim = new long[ n ];
+			output.dimensions( outDim );
+			new DownsampleKernel().downsample( requiredInput.randomAccess(), minRequiredInput, outDim, factor, ( ( ArrayImg< T, ? > ) output ).update( null ) );
+			return;
+		}
+
 		final RectangleShape.NeighborhoodsAccessible< T > neighborhoods = new RectangleShape.NeighborhoodsAccessible< T >( requiredInput, spanInterval, f );
 		final RandomAccess< Neighborhood< T > > block = neighborhoods.randomAccess();
 
@@ -0,0 +1,330 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Average 3D blocks by integer factors over primitive arrays. Blocks of
+ * {@link UnsignedShortType}, {@link UnsignedByteType}, or {@link FloatType}
+ * are summed separably, first along X, then Y, then Z, so that every pass is
+ * a loop over consecutive array elements without per-pixel type access.
+ * <p>
+ * The source block is {@code outDim * factor} pixels, flattened with X
+ * fastest. Integers are rounded to the nearest value, as
+ * {@link RealType#setReal(double)} does.
+ * <p>
+ * An instance keeps the source and intermediate buffers between calls, so
+ * that repeated calls with blocks of the same size do not allocate. It is not
+ * thread-safe; use one instance per thread.
+ */
+public class DownsampleKernel
+{
+	private short[] shortSource = new short[ 0 ];
+
+	private byte[] byteSource = new byte[ 0 ];
+
+	private float[] floatSource = new float[ 0 ];
+
+	/**
+	 * X sums, then per-plane Z sums.
+	 */
+	private double[] rows = new double[ 0 ];
+
+	/**
+	 * XY sums.
+	 */
+	private double[] planes = new double[ 0 ];
+
+	/**
+	 * Whether blocks of the given type can be downsampled.
+	 */
+	public static boolean isSupported( final Object type )
+	{
+		return type instanceof UnsignedShortType || type instanceof UnsignedByteType || type instanceof FloatType;
+	}
+
+	/**
+	 * Read a block of {@code outDim * factor} pixels starting at
+	 * {@code blockMin} from a {@link RandomAccess} and store its average into
+	 * the {@link ShortArray}, {@link ByteArray}, or {@link FloatArray}
+	 * {@code outAccess} of {@code outDim} pixels.
+	 *
+	 * @param in
+	 *            access to an {@link UnsignedShortType},
+	 *            {@link UnsignedByteType}, or {@link FloatType} source.
+	 */
+	public < T extends RealType< T > > void downsample( final RandomAccess< T > in, final long[] blockMin, final long[] outDim, final int[] factor, final Object outAccess )
+	{
+		final int[] dim = new int[] { ( int ) outDim[ 0 ], ( int ) outDim[ 1 ], ( int ) outDim[ 2 ] };
+		final int[] sourceDim = new int[] { dim[ 0 ] * factor[ 0 ], dim[ 1 ] * factor[ 1 ], dim[ 2 ] * factor[ 2 ] };
+		final int size = sourceDim[ 0 ] * sourceDim[ 1 ] * sourceDim[ 2 ];
+		if ( outAccess instanceof ByteArray )
+		{
+			if ( byteSource.length < size )
+				byteSource = new byte[ size ];
+			gather( in, blockMin, sourceDim, byteSource );
+			downsample( byteSource, ( ( ByteArray ) outAccess ).getCurrentStorageArray(), dim, factor );
+		}
+		else if ( outAccess instanceof FloatArray )
+		{
+			if ( floatSource.length < size )
+				floatSource = new float[ size ];
+			gather( in, blockMin, sourceDim, floatSource );
+			downsample( floatSource, ( ( FloatArray ) outAccess ).getCurrentStorageArray(), dim, factor );
+		}
+		else
+		{
+			if ( shortSource.length < size )
+				shortSource = new short[ size ];
+			gather( in, blockMin, sourceDim, shortSource );
+			downsample( shortSource, ( ( ShortArray ) outAccess ).getCurrentStorageArray(), dim, factor );
+		}
+	}
+
+	/**
+	 * Average unsigned 16-bit {@code source} of {@code outDim * factor} pixels
+	 * into {@code target} of {@code outDim} pixels.
+	 */
+	public void downsample( final short[] source, final short[] target, final int[] outDim, final int[] factor )
+	{
+		final int ox = outDim[ 0 ];
+		final int fx = factor[ 0 ];
+		final int numRows = outDim[ 1 ] * factor[ 1 ] * outDim[ 2 ] * factor[ 2 ];
+		final double[] r = allocate( outDim, factor );
+		for ( int row = 0, i = 0, o = 0; row < numRows; ++row )
+			for ( int x = 0; x < ox; ++x )
+			{
+				int sum = 0;
+				for ( int k = 0; k < fx; ++k )
+					sum += source[ i++ ] & 0xffff;
+				r[ o++ ] = sum;
+			}
+		final double scale = sumY( outDim, factor );
+		final int planeSize = ox * outDim[ 1 ];
+		for ( int z = 0, o = 0; z < outDim[ 2 ]; ++z )
+		{
+			sumZ( z, planeSize, factor[ 2 ] );
+			for ( int i = 0; i < planeSize; ++i )
+				target[ o++ ] = ( short ) ( int ) ( rows[ i ] * scale + 0.5 );
+		}
+	}
+
+	/**
+	 * Average unsigned 8-bit {@code source} of {@code outDim * factor} pixels
+	 * into {@code target} of {@code outDim} pixels.
+	 */
+	public void downsample( final byte[] source, final byte[] target, final int[] outDim, final int[] factor )
+	{
+		final int ox = outDim[ 0 ];
+		final int fx = factor[ 0 ];
+		final int numRows = outDim[ 1 ] * factor[ 1 ] * outDim[ 2 ] * factor[ 2 ];
+		final double[] r = allocate( outDim, factor );
+		for ( int row = 0, i = 0, o = 0; row < numRows; ++row )
+			for ( int x = 0; x < ox; ++x )
+			{
+				int sum = 0;
+				for ( int k = 0; k < fx; ++k )
+					sum += source[ i++ ] & 0xff;
+				r[ o++ ] = sum;
+			}
+		final double scale = sumY( outDim, factor );
+		final int planeSize = ox * outDim[ 1 ];
+		for ( int z = 0, o = 0; z < outDim[ 2 ]; ++z )
+		{
+			sumZ( z, planeSize, factor[ 2 ] );
+			for ( int i = 0; i < planeSize; ++i )
+				target[ o++ ] = ( byte ) ( int ) ( rows[ i ] * scale + 0.5 );
+		}
+	}
+
+	/**
+	 * Average float {@code source} of {@code outDim * factor} pixels into
+	 * {@code target} of {@code outDim} pixels.
+	 */
+	public void downsample( final float[] source, final float[] target, final int[] outDim, final int[] factor )
+	{
+		final int ox = outDim[ 0 ];
+		final int fx = factor[ 0 ];
+		final int numRows = outDim[ 1 ] * factor[ 1 ] * outDim[ 2 ] * factor[ 2 ];
+		final double[] r = allocate( outDim, factor );
+		for ( int row = 0, i = 0, o = 0; row < numRows; ++row )
+			for ( int x = 0; x < ox; ++x )
+			{
+				double sum = 0;
+				for ( int k = 0; k < fx; ++k )
+					sum += source[ i++ ];
+				r[ o++ ] = sum;
+			}
+		final double scale = sumY( outDim, factor );
+		final int planeSize = ox * outDim[ 1 ];
+		for ( int z = 0, o = 0; z < outDim[ 2 ]; ++z )
+		{
+			sumZ( z, planeSize, factor[ 2 ] );
+			for ( int i = 0; i < planeSize; ++i )
+				target[ o++ ] = ( float ) ( rows[ i ] * scale );
+		}
+	}
+
+	/**
+	 * Make sure the intermediate buffers are large enough and return the
+	 * buffer for the X sums.
+	 */
+	private double[] allocate( final int[] outDim, final int[] factor )
+	{
+		final int sy = outDim[ 1 ] * factor[ 1 ];
+		final int sz = outDim[ 2 ] * factor[ 2 ];
+		final int numXSums = outDim[ 0 ] * sy * sz;
+		if ( rows.length < numXSums )
+			rows = new double[ numXSums ];
+		final int numXYSums = outDim[ 0 ] * outDim[ 1 ] * sz;
+		if ( planes.length < numXYSums )
+			planes = new double[ numXYSums ];
+		return rows;
+	}
+
+	/**
+	 * Sum the X sums in {@link #rows} along Y into {@link #planes}.
+	 *
+	 * @return the scale factor from sums to averages.
+	 */
+	private double sumY( final int[] outDim, final int[] factor )
+	{
+		final int ox = outDim[ 0 ];
+		final int oy = outDim[ 1 ];
+		final int fy = factor[ 1 ];
+		final int sz = outDim[ 2 ] * factor[ 2 ];
+		final double[] r = rows;
+		final double[] p = planes;
+		for ( int z = 0; z < sz; ++z )
+		{
+			for ( int y = 0; y < oy; ++y )
+			{
+				final int t = ( z * oy + y ) * ox;
+				int s = ( z * oy + y ) * fy * ox;
+				System.arraycopy( r, s, p, t, ox );
+				for ( int k = 1; k < fy; ++k )
+				{
+					s += ox;
+					for ( int x = 0; x < ox; ++x )
+						p[ t + x ] += r[ s + x ];
+				}
+			}
+		}
+		return 1.0 / ( ( double ) factor[ 0 ] * factor[ 1 ] * factor[ 2 ] );
+	}
+
+	/**
+	 * Sum the {@code fz} planes of XY sums in {@link #planes} that make up
+	 * target plane {@code z} into the start of {@link #rows}.
+	 */
+	private void sumZ( final int z, final int planeSize, final int fz )
+	{
+		final double[] r = rows;
+		final double[] p = planes;
+		int s = z * fz * planeSize;
+		System.arraycopy( p, s, r, 0, planeSize );
+		for ( int k = 1; k < fz; ++k )
+		{
+			s += planeSize;
+			for ( int i = 0; i < planeSize; ++i )
+				r[ i ] += p[ s + i ];
+		}
+	}
+
+	private static < T extends RealType< T > > void gather( final RandomAccess< T > in, final long[] blockMin, final int[] dim, final short[] data )
+	{
+		in.setPosition( blockMin );
+		int i = 0;
+		for ( int z = 0; z < dim[ 2 ]; ++z )
+		{
+			for ( int y = 0; y < dim[ 1 ]; ++y )
+			{
+				for ( int x = 0; x < dim[ 0 ]; ++x )
+				{
+					data[ i++ ] = ( short ) ( ( UnsignedShortType ) in.get() ).get();
+					in.fwd( 0 );
+				}
+				in.move( -dim[ 0 ], 0 );
+				in.fwd( 1 );
+			}
+			in.move( -dim[ 1 ], 1 );
+			in.fwd( 2 );
+		}
+	}
+
+	private static < T extends RealType< T > > void gather( final RandomAccess< T > in, final long[] blockMin, final int[] dim, final byte[] data )
+	{
+		in.setPosition( blockMin );
+		int i = 0;
+		for ( int z = 0; z < dim[ 2 ]; ++z )
+		{
+			for ( int y = 0; y < dim[ 1 ]; ++y )
+			{
+				for ( int x = 0; x < dim[ 0 ]; ++x )
+				{
+					data[ i++ ] = ( byte ) ( ( UnsignedByteType ) in.get() ).get();
+					in.fwd( 0 );
+				}
+				in.move( -dim[ 0 ], 0 );
+				in.fwd( 1 );
+			}
+			in.move( -dim[ 1 ], 1 );
+			in.fwd( 2 );
+		}
+	}
+
+	private static < T extends RealType< T > > void gather( final RandomAccess< T > in, final long[] blockMin, final int[] dim, final float[] data )
+	{
+		in.setPosition( blockMin );
+		int i = 0;
+		for ( int z = 0; z < dim[ 2 ]; ++z )
+		{
+			for ( int y = 0; y < dim[ 1 ]; ++y )
+			{
+				for ( int x = 0; x < dim[ 0 ]; ++x )
+				{
+					data[ i++ ] = ( ( FloatType ) in.get() ).get();
+					in.fwd( 0 );
+				}
+				in.move( -dim[ 0 ], 0 );
+				in.fwd( 1 );
+			}
+			in.move( -dim[ 1 ], 1 );
+			in.fwd( 2 );
+		}
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+
+import mpicbg.spim.data.sequence.ViewId;
+import bdv.img.hdf5.ViewLevelId;
+
+/**
+ * Records which parts of an export to a hdf5 (partition) file are complete,
+ * so that an interrupted export can be resumed. The units are planes of cells
+ * of a level, levels, and views (all levels of a timepoint and setup). Each
+ * hdf5 file has its own manifest (next to it, see
+ * {@link #getManifestFile(File)}), so the partitions of a dataset can be
+ * resumed independently.
+ * <p>
+ * Units are recorded only after everything written for them has been flushed
+ * to the hdf5 file. The manifest is an append-only log that is synced to disk
+ * after each record, a record truncated by a crash is ignored.
+ * <p>
+ * All methods are thread-safe.
+ */
+public class ExportCheckpoint
+{
+	private static final int MANIFEST_MAGIC = 0x62647663; // "bdvc"
+
+	private static final int MANIFEST_VERSION = 1;
+
+	private static final byte PLANES = 1;
+
+	private static final byte LEVEL = 2;
+
+	private static final byte VIEW = 3;
+
+	private static final byte RESET = 4;
+
+	private final File manifestFile;
+
+	private FileOutputStream manifestStream;
+
+	private DataOutputStream manifest;
+
+	private final HashMap< ViewLevelId, Integer > completedPlanes;
+
+	private final HashSet< ViewLevelId > completedLevels;
+
+	private final HashSet< ViewId > completedViews;
+
+	/**
+	 * The first error writing the manifest. After an error, no more records
+	 * are appended, so the manifest stays a consistent (older) state.
+	 */
+	private IOException failure;
+
+	/**
+	 * @return the manifest file for the given hdf5 file.
+	 */
+	public static File getManifestFile( final File hdf5File )
+	{
+		return new File( hdf5File.getPath() + ".checkpoint" );
+	}
+
+	/**
+	 * Whether an export to the given hdf5 file can be resumed, that is, both
+	 * the hdf5 file and its manifest exist.
+	 */
+	public static boolean canResume( final File hdf5File )
+	{
+		return hdf5File.exists() && getManifestFile( hdf5File ).exists();
+	}
+
+	/**
+	 * Open the manifest for an export to the given hdf5 file.
+	 *
+	 * @param hdf5File
+	 *            the hdf5 (partition) file that is written.
+	 * @param resume
+	 *            if {@code true}, the existing manifest (if any) is read and
+	 *            extended. Otherwise, an existing manifest is discarded.
+	 * @throws IOException
+	 *             if the manifest cannot be written.
+	 */
+	public ExportCheckpoint( final File hdf5File, final boolean resume ) throws IOException
+	{
+		manifestFile = getManifestFile( hdf5File );
+		completedPlanes = new HashMap< ViewLevelId, Integer >();
+		completedLevels = new HashSet< ViewLevelId >();
+		completedViews = new HashSet< ViewId >();
+		if ( resume && manifestFile.exists() && !readManifest() )
+		{
+			completedPlanes.clear();
+			completedLevels.clear();
+			completedViews.clear();
+		}
+		writeManifest();
+	}
+
+	/**
+	 * @return whether all levels of the view have been written.
+	 */
+	public synchronized boolean isViewComplete( final ViewId view )
+	{
+		return completedViews.contains( view );
+	}
+
+	/**
+	 * @return whether the level of the view has been written, including its
+	 *         constant cells and cell statistics.
+	 */
+	public synchronized boolean isLevelComplete( final ViewId view, final int level )
+	{
+		return completedLevels.contains( new ViewLevelId( view, level ) );
+	}
+
+	/**
+	 * @return the number of planes of cells of the level that have been
+	 *         written (planes are written in order).
+	 */
+	public synchronized int getNumCompletedPlanes( final ViewId view, final int level )
+	{
+		final Integer n = completedPlanes.get( new ViewLevelId( view, level ) );
+		return n == null ? 0 : n;
+	}
+
+	/**
+	 * Record that the first {@code numCompletedPlanes} planes of cells of the
+	 * level have been written.
+	 */
+	public synchronized void planesCompleted( final ViewId view, final int level, final int numCompletedPlanes )
+	{
+		completedPlanes.put( new ViewLevelId( view, level ), numCompletedPlanes );
+		append( PLANES, view, level, numCompletedPlanes );
+	}
+
+	/**
+	 * Record that the level has been written completely.
+	 */
+	public synchronized void levelCompleted( final ViewId view, final int level )
+	{
+		completedLevels.add( new ViewLevelId( view, level ) );
+		append( LEVEL, view, level, 0 );
+	}
+
+	/**
+	 * Record that all levels of the view have been written.
+	 */
+	public synchronized void viewCompleted( final ViewId view )
+	{
+		completedViews.add( view );
+		append( VIEW, view, 0, 0 );
+	}
+
+	/**
+	 * Record that the level is (re-)written from scratch. Its previous state
+	 * (and that of its view) is discarded.
+	 */
+	public synchronized void levelReset( final ViewId view, final int level )
+	{
+		reset( new ViewLevelId( view, level ) );
+		append( RESET, view, level, 0 );
+	}
+
+	/**
+	 * Close the manifest. The manifest file is kept, so that resuming a
+	 * completed export skips all views.
+	 *
+	 * @throws IOException
+	 *             if writing the manifest failed at any time. The export can
+	 *             still be complete, but it cannot be resumed from the point
+	 *             where the manifest failed.
+	 */
+	public synchronized void close() throws IOException
+	{
+		try
+		{
+			manifest.close();
+		}
+		catch ( final IOException e )
+		{
+			if ( failure == null )
+				failure = e;
+		}
+		if ( failure != null )
+			throw failure;
+	}
+
+	private void reset( final ViewLevelId id )
+	{
+		completedPlanes.remove( id );
+		completedLevels.remove( id );
+		completedViews.remove( new ViewId( id.getTimePointId(), id.getViewSetupId() ) );
+	}
+
+	private void append( final byte kind, final ViewId view, final int level, final int value )
+	{
+		if ( failure != null )
+			return;
+		try
+		{
+			writeRecord( kind, view.getTimePointId(), view.getViewSetupId(), level, value );
+			sync();
+		}
+		catch ( final IOException e )
+		{
+			// the export can go on, it just cannot be resumed from here.
+			// reported by close().
+			failure = e;
+		}
+	}
+
+	/**
+	 * Write a compacted manifest with the current state, and open it for
+	 * appending new records. (This also drops a record that was truncated by
+	 * a crash.)
+	 */
+	private void writeManifest() throws IOException
+	{
+		final File tmpFile = new File( manifestFile.getPath() + ".tmp" );
+		final FileOutputStream tmpStream = new FileOutputStream( tmpFile );
+		manifestStream = tmpStream;
+		manifest = new DataOutputStream( new BufferedOutputStream( tmpStream ) );
+		try
+		{
+			manifest.writeInt( MANIFEST_MAGIC );
+			manifest.writeInt( MANIFEST_VERSION );
+			for ( final Entry< ViewLevelId, Integer > entry : completedPlanes.entrySet() )
+				writeRecord( PLANES, entry.getKey().getTimePointId(), entry.getKey().getViewSetupId(), entry.getKey().getLevel(), entry.getValue() );
+			for ( final ViewLevelId id : completedLevels )
+				writeRecord( LEVEL, id.getTimePointId(), id.getViewSetupId(), id.getLevel(), 0 );
+			for ( final ViewId view : completedViews )
+				writeRecord( VIEW, view.getTimePointId(), view.getViewSetupId(), 0, 0 );
+			sync();
+		}
+		finally
+		{
+			manifest.close();
+		}
+		if ( manifestFile.exists() && !manifestFile.delete() )
+			throw new IOException( "could not replace " + manifestFile );
+		if ( !tmpFile.renameTo( manifestFile ) )
+			throw new IOException( "could not replace " + manifestFile );
+		manifestStream = new FileOutputStream( manifestFile, true );
+		manifest = new DataOutputStream( new BufferedOutputStream( manifestStream ) );
+	}
+
+	private void writeRecord( final byte kind, final int timepoint, final int setup, final int level, final int value ) throws IOException
+	{
+		manifest.writeByte( kind );
+		manifest.writeInt( timepoint );
+		manifest.writeInt( setup );
+		manifest.writeInt( level );
+		manifest.writeInt( value );
+	}
+
+	private void sync() throws IOException
+	{
+		manifest.flush();
+		manifestStream.getFD().sync();
+	}
+
+	/**
+	 * Read the manifest.
+	 *
+	 * @return false, if the manifest is not valid.
+	 */
+	private boolean readManifest() throws IOException
+	{
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( manifestFile ) ) );
+		try
+		{
+			if ( in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION )
+				return false;
+			while ( true )
+			{
+				final byte kind = in.readByte();
+				final int timepoint = in.readInt();
+				final int setup = in.readInt();
+				final int level = in.readInt();
+				final int value = in.readInt();
+				final ViewLevelId id = new ViewLevelId( timepoint, setup, level );
+				switch ( kind )
+				{
+				case PLANES:
+					completedPlanes.put( id, value );
+					break;
+				case LEVEL:
+					completedLevels.add( id );
+					break;
+				case VIEW:
+					completedViews.add( new ViewId( timepoint, setup ) );
+					break;
+				case RESET:
+					reset( id );
+					break;
+				default:
+					return false;
+				}
+			}
+		}
+		catch ( final EOFException e )
+		{
+			// end of manifest, possibly truncated by a crash
+		}
+		finally
+		{
+			in.close();
+		}
+		return true;
+	}
+}
@@ -29,8 +29,12 @@
 package bdv.export;
 
 import static bdv.img.hdf5.Util.reorder;
+import bdv.CellStatistics;
 import bdv.img.hdf5.Util;
+import ch.systemsx.cisd.base.mdarray.MDByteArray;
+import ch.systemsx.cisd.base.mdarray.MDFloatArray;
 import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
 import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
 import ch.systemsx.cisd.hdf5.IHDF5Writer;
 
@@ -63,6 +67,26 @@ class HDF5Access implements IHDF5Access
 		this.datasetPath = path;
 	}
 
+	@Override
+	public void createAndOpenByteDataset( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5IntStorageFeatures features )
+	{
+		hdf5Writer.uint8().createMDArray( path, reorder( dimensions ), reorder( cellDimensions ), features );
+		this.datasetPath = path;
+	}
+
+	@Override
+	public void createAndOpenFloatDataset( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5FloatStorageFeatures features )
+	{
+		hdf5Writer.float32().createMDArray( path, reorder( dimensions ), reorder( cellDimensions ), features );
+		this.datasetPath = path;
+	}
+
+	@Override
+	public void openDataset( final String path )
+	{
+		this.datasetPath = path;
+	}
+
 	@Override
 	public void writeBlockWithOffset( final short[] data, final long[] blockDimensions, final long[] offset )
 	{
@@ -72,6 +96,48 @@ class HDF5Access implements IHDF5Access
 		hdf5Writer.int16().writeMDArrayBlockWithOffset( datasetPath, array, reorderedOffset );
 	}
 
+	@Override
+	public void writeBlockWithOffset( final byte[] data, final long[] blockDimensions, final long[] offset )
+	{
+		reorder( blockDimensions, reorderedDimensions );
+		reorder( offset, reorderedOffset );
+		final MDByteArray array = new MDByteArray( data, reorderedDimensions );
+		hdf5Writer.uint8().writeMDArrayBlockWithOffset( datasetPath, array, reorderedOffset );
+	}
+
+	@Override
+	public void writeBlockWithOffset( final float[] data, final long[] blockDimensions, final long[] offset )
+	{
+		reorder( blockDimensions, reorderedDimensions );
+		reorder( offset, reorderedOffset );
+		final MDFloatArray array = new MDFloatArray( data, reorderedDimensions );
+		hdf5Writer.float32().writeMDArrayBlockWithOffset( datasetPath, array, reorderedOffset );
+	}
+
+	@Override
+	public void writeConstantCells( final String path, final double[][] constantCells )
+	{
+		hdf5Writer.writeDoubleMatrix( path, constantCells );
+	}
+
+	@Override
+	public void writeCellStatistics( final String path, final CellStatistics statistics )
+	{
+		hdf5Writer.writeDoubleMatrix( path, statistics.getTable() );
+		final long[] histogram = statistics.getHistogram();
+		if ( histogram != null )
+		{
+			hdf5Writer.int64().setArrayAttr( path, Util.histogramAttribute, histogram );
+			hdf5Writer.float64().setArrayAttr( path, Util.histogramRangeAttribute, new double[] { statistics.getHistogramMin(), statistics.getHistogramMax() } );
+		}
+	}
+
+	@Override
+	public void selectDataset( final String path )
+	{
+		this.datasetPath = path;
+	}
+
 	@Override
 	public void closeDataset()
 	{}
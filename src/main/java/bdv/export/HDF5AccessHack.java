@@ -38,11 +38,16 @@ import static ch.systemsx.cisd.hdf5.hdf5lib.H5S.H5Screate_simple;
 import static ch.systemsx.cisd.hdf5.hdf5lib.H5S.H5Sselect_hyperslab;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5P_DEFAULT;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5S_SELECT_SET;
+import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_FLOAT;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_INT16;
+import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_UINT8;
 
 import java.lang.reflect.Field;
+import java.util.HashMap;
 
+import bdv.CellStatistics;
 import bdv.img.hdf5.Util;
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
 import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
 import ch.systemsx.cisd.hdf5.IHDF5Writer;
 
@@ -60,6 +65,17 @@ class HDF5AccessHack implements IHDF5Access
 
 	private int fileSpaceId;
 
+	/**
+	 * Path of the data set that {@link #dataSetId} and {@link #fileSpaceId}
+	 * refer to.
+	 */
+	private String currentPath;
+
+	/**
+	 * { dataSetId, fileSpaceId } of all open data sets, by path.
+	 */
+	private final HashMap< String, int[] > openDataSets = new HashMap< String, int[] >();
+
 	public HDF5AccessHack( final IHDF5Writer hdf5Writer ) throws ClassNotFoundException, SecurityException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException
 	{
 		this.hdf5Writer = hdf5Writer;
@@ -82,19 +98,74 @@ class HDF5AccessHack implements IHDF5Access
 		hdf5Writer.writeIntMatrix( Util.getSubdivisionsPath( setupIdPartition ), mipmapInfo.getSubdivisions() );
 	}
 
+	@Override
+	public void writeConstantCells( final String path, final double[][] constantCells )
+	{
+		hdf5Writer.writeDoubleMatrix( path, constantCells );
+	}
+
+	@Override
+	public void writeCellStatistics( final String path, final CellStatistics statistics )
+	{
+		hdf5Writer.writeDoubleMatrix( path, statistics.getTable() );
+		final long[] histogram = statistics.getHistogram();
+		if ( histogram != null )
+		{
+			hdf5Writer.int64().setArrayAttr( path, Util.histogramAttribute, histogram );
+			hdf5Writer.float64().setArrayAttr( path, Util.histogramRangeAttribute, new double[] { statistics.getHistogramMin(), statistics.getHistogramMax() } );
+		}
+	}
+
+	@Override
+	public void openDataset( final String path )
+	{
+		dataSetId = H5Dopen( fileId, path, H5P_DEFAULT );
+		fileSpaceId = H5Dget_space( dataSetId );
+		openDataSets.put( path, new int[] { dataSetId, fileSpaceId } );
+		currentPath = path;
+	}
+
+	@Override
+	public void selectDataset( final String path )
+	{
+		if ( path.equals( currentPath ) )
+			return;
+		final int[] ids = openDataSets.get( path );
+		if ( ids == null )
+			throw new IllegalStateException( "data set " + path + " is not open" );
+		dataSetId = ids[ 0 ];
+		fileSpaceId = ids[ 1 ];
+		currentPath = path;
+	}
+
 	@Override
 	public void closeDataset()
 	{
 		H5Sclose( fileSpaceId );
 		H5Dclose( dataSetId );
+		openDataSets.remove( currentPath );
+		currentPath = null;
 	}
 
 	@Override
 	public void createAndOpenDataset( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5IntStorageFeatures features )
 	{
 		hdf5Writer.int16().createMDArray( path, reorder( dimensions ), reorder( cellDimensions ), features );
-		dataSetId = H5Dopen( fileId, path, H5P_DEFAULT );
-		fileSpaceId = H5Dget_space( dataSetId );
+		openDataset( path );
+	}
+
+	@Override
+	public void createAndOpenByteDataset( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5IntStorageFeatures features )
+	{
+		hdf5Writer.uint8().createMDArray( path, reorder( dimensions ), reorder( cellDimensions ), features );
+		openDataset( path );
+	}
+
+	@Override
+	public void createAndOpenFloatDataset( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5FloatStorageFeatures features )
+	{
+		hdf5Writer.float32().createMDArray( path, reorder( dimensions ), reorder( cellDimensions ), features );
+		openDataset( path );
 	}
 
 	@Override
@@ -108,6 +179,28 @@ class HDF5AccessHack implements IHDF5Access
 		H5Sclose( memorySpaceId );
 	}
 
+	@Override
+	public void writeBlockWithOffset( final byte[] data, final long[] blockDimensions, final long[] offset )
+	{
+		reorder( blockDimensions, reorderedDimensions );
+		reorder( offset, reorderedOffset );
+		final int memorySpaceId = H5Screate_simple( reorderedDimensions.length, reorderedDimensions, null );
+		H5Sselect_hyperslab( fileSpaceId, H5S_SELECT_SET, reorderedOffset, null, reorderedDimensions, null );
+		H5Dwrite( dataSetId, H5T_NATIVE_UINT8, memorySpaceId, fileSpaceId, H5P_DEFAULT, data );
+		H5Sclose( memorySpaceId );
+	}
+
+	@Override
+	public void writeBlockWithOffset( final float[] data, final long[] blockDimensions, final long[] offset )
+	{
+		reorder( blockDimensions, reorderedDimensions );
+		reorder( offset, reorderedOffset );
+		final int memorySpaceId = H5Screate_simple( reorderedDimensions.length, reorderedDimensions, null );
+		H5Sselect_hyperslab( fileSpaceId, H5S_SELECT_SET, reorderedOffset, null, reorderedDimensions, null );
+		H5Dwrite( dataSetId, H5T_NATIVE_FLOAT, memorySpaceId, fileSpaceId, H5P_DEFAULT, data );
+		H5Sclose( memorySpaceId );
+	}
+
 	@Override
 	public void close()
 	{
@@ -31,9 +31,12 @@ package bdv.export;
 import java.io.File;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import bdv.CellStatistics;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
 import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
 import ch.systemsx.cisd.hdf5.IHDF5Writer;
 
@@ -152,18 +155,136 @@ class Hdf5BlockWriterThread extends Thread implements IHDF5Access
 		put( new CreateAndOpenDatasetTask( path, dimensions, cellDimensions, features ) );
 	}
 
+	@Override
+	public void createAndOpenByteDataset( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5IntStorageFeatures features )
+	{
+		put( new CreateAndOpenByteDatasetTask( path, dimensions, cellDimensions, features ) );
+	}
+
+	@Override
+	public void createAndOpenFloatDataset( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5FloatStorageFeatures features )
+	{
+		put( new CreateAndOpenFloatDatasetTask( path, dimensions, cellDimensions, features ) );
+	}
+
+	@Override
+	public void openDataset( final String path )
+	{
+		put( new OpenDatasetTask( path ) );
+	}
+
 	@Override
 	public void writeBlockWithOffset( final short[] data, final long[] blockDimensions, final long[] offset )
 	{
 		put( new WriteBlockWithOffsetTask( data, blockDimensions, offset ) );
 	}
 
+	@Override
+	public void writeBlockWithOffset( final byte[] data, final long[] blockDimensions, final long[] offset )
+	{
+		put( new WriteByteBlockWithOffsetTask( data, blockDimensions, offset ) );
+	}
+
+	@Override
+	public void writeBlockWithOffset( final float[] data, final long[] blockDimensions, final long[] offset )
+	{
+		put( new WriteFloatBlockWithOffsetTask( data, blockDimensions, offset ) );
+	}
+
+	@Override
+	public void writeConstantCells( final String path, final double[][] constantCells )
+	{
+		put( new WriteConstantCellsTask( path, constantCells ) );
+	}
+
+	@Override
+	public void writeCellStatistics( final String path, final CellStatistics statistics )
+	{
+		put( new WriteCellStatisticsTask( path, statistics ) );
+	}
+
+	@Override
+	public void selectDataset( final String path )
+	{
+		put( new SelectDatasetTask( path, null ) );
+	}
+
 	@Override
 	public void closeDataset()
 	{
 		put( new CloseDatasetTask() );
 	}
 
+	/*
+	 * The following write to (or close) the data set at the given path, which
+	 * must have been created and not closed yet. Selecting the data set and
+	 * writing is enqueued as one task, so blocks of several data sets can be
+	 * enqueued concurrently by different threads.
+	 */
+
+	public void writeBlockWithOffset( final String path, final short[] data, final long[] blockDimensions, final long[] offset )
+	{
+		put( new SelectDatasetTask( path, new WriteBlockWithOffsetTask( data, blockDimensions, offset ) ) );
+	}
+
+	public void writeBlockWithOffset( final String path, final byte[] data, final long[] blockDimensions, final long[] offset )
+	{
+		put( new SelectDatasetTask( path, new WriteByteBlockWithOffsetTask( data, blockDimensions, offset ) ) );
+	}
+
+	public void writeBlockWithOffset( final String path, final float[] data, final long[] blockDimensions, final long[] offset )
+	{
+		put( new SelectDatasetTask( path, new WriteFloatBlockWithOffsetTask( data, blockDimensions, offset ) ) );
+	}
+
+	public void closeDataset( final String path )
+	{
+		put( new SelectDatasetTask( path, new CloseDatasetTask() ) );
+	}
+
+	/**
+	 * Run {@code task} on the writer thread, after all tasks that were
+	 * enqueued before. The task may use {@link #getIHDF5Writer()}.
+	 */
+	public void execute( final Runnable task )
+	{
+		put( new Hdf5Task()
+		{
+			@Override
+			public void run( final IHDF5Access hdf5Access )
+			{
+				task.run();
+			}
+		} );
+	}
+
+	/**
+	 * Wait until all tasks that were enqueued before this call have been
+	 * executed. Unlike {@link #waitUntilEmpty()}, this does not wait for tasks
+	 * that other threads enqueue meanwhile.
+	 */
+	public void flush()
+	{
+		final CountDownLatch done = new CountDownLatch( 1 );
+		if ( !put( new Hdf5Task()
+		{
+			@Override
+			public void run( final IHDF5Access hdf5Access )
+			{
+				done.countDown();
+			}
+		} ) )
+			return;
+		while ( true )
+			try
+			{
+				done.await();
+				break;
+			}
+			catch ( final InterruptedException e )
+			{}
+	}
+
 	private boolean put( final Hdf5BlockWriterThread.Hdf5Task task )
 	{
 		try
@@ -222,6 +343,56 @@ class Hdf5BlockWriterThread extends Thread implements IHDF5Access
 		}
 	}
 
+	private static class CreateAndOpenByteDatasetTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final String path;
+
+		private final long[] dimensions;
+
+		private final int[] cellDimensions;
+
+		private final HDF5IntStorageFeatures features;
+
+		public CreateAndOpenByteDatasetTask( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5IntStorageFeatures features )
+		{
+			this.path = path;
+			this.dimensions = dimensions;
+			this.cellDimensions = cellDimensions;
+			this.features = features;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.createAndOpenByteDataset( path, dimensions, cellDimensions, features );
+		}
+	}
+
+	private static class CreateAndOpenFloatDatasetTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final String path;
+
+		private final long[] dimensions;
+
+		private final int[] cellDimensions;
+
+		private final HDF5FloatStorageFeatures features;
+
+		public CreateAndOpenFloatDatasetTask( final String path, final long[] dimensions, final int[] cellDimensions, final HDF5FloatStorageFeatures features )
+		{
+			this.path = path;
+			this.dimensions = dimensions;
+			this.cellDimensions = cellDimensions;
+			this.features = features;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.createAndOpenFloatDataset( path, dimensions, cellDimensions, features );
+		}
+	}
+
 	private static class WriteBlockWithOffsetTask implements Hdf5BlockWriterThread.Hdf5Task
 	{
 		private final short[] data;
@@ -244,6 +415,125 @@ class Hdf5BlockWriterThread extends Thread implements IHDF5Access
 		}
 	}
 
+	private static class WriteByteBlockWithOffsetTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final byte[] data;
+
+		private final long[] blockDimensions;
+
+		private final long[] offset;
+
+		public WriteByteBlockWithOffsetTask( final byte[] data, final long[] blockDimensions, final long[] offset )
+		{
+			this.data = data;
+			this.blockDimensions = blockDimensions;
+			this.offset = offset;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.writeBlockWithOffset( data, blockDimensions, offset );
+		}
+	}
+
+	private static class WriteFloatBlockWithOffsetTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final float[] data;
+
+		private final long[] blockDimensions;
+
+		private final long[] offset;
+
+		public WriteFloatBlockWithOffsetTask( final float[] data, final long[] blockDimensions, final long[] offset )
+		{
+			this.data = data;
+			this.blockDimensions = blockDimensions;
+			this.offset = offset;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.writeBlockWithOffset( data, blockDimensions, offset );
+		}
+	}
+
+	private static class WriteConstantCellsTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final String path;
+
+		private final double[][] constantCells;
+
+		public WriteConstantCellsTask( final String path, final double[][] constantCells )
+		{
+			this.path = path;
+			this.constantCells = constantCells;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.writeConstantCells( path, constantCells );
+		}
+	}
+
+	private static class WriteCellStatisticsTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final String path;
+
+		private final CellStatistics statistics;
+
+		public WriteCellStatisticsTask( final String path, final CellStatistics statistics )
+		{
+			this.path = path;
+			this.statistics = statistics;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.writeCellStatistics( path, statistics );
+		}
+	}
+
+	private static class OpenDatasetTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final String path;
+
+		public OpenDatasetTask( final String path )
+		{
+			this.path = path;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.openDataset( path );
+		}
+	}
+
+	private static class SelectDatasetTask implements Hdf5BlockWriterThread.Hdf5Task
+	{
+		private final String path;
+
+		private final Hdf5Task then;
+
+		public SelectDatasetTask( final String path, final Hdf5Task then )
+		{
+			this.path = path;
+			this.then = then;
+		}
+
+		@Override
+		public void run( final IHDF5Access hdf5Access )
+		{
+			hdf5Access.selectDataset( path );
+			if ( then != null )
+				then.run( hdf5Access );
+		}
+	}
+
 	private static class CloseDatasetTask implements Hdf5BlockWriterThread.Hdf5Task
 	{
 		@Override
@@ -28,6 +28,8 @@
  */
 package bdv.export;
 
+import bdv.CellStatistics;
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
 import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
 import ch.systemsx.cisd.hdf5.IHDF5Writer;
 
@@ -37,8 +39,35 @@ interface IHDF5Access
 
 	public void createAndOpenDataset( final String path, long[] dimensions, int[] cellDimensions, HDF5IntStorageFeatures features );
 
+	public void createAndOpenByteDataset( final String path, long[] dimensions, int[] cellDimensions, HDF5IntStorageFeatures features );
+
+	public void createAndOpenFloatDataset( final String path, long[] dimensions, int[] cellDimensions, HDF5FloatStorageFeatures features );
+
+	/**
+	 * Open an existing data set (for example, to resume writing it). Like
+	 * the {@code createAndOpen*} methods, this makes it the selected data
+	 * set.
+	 */
+	public void openDataset( final String path );
+
 	public void writeBlockWithOffset( final short[] data, final long[] blockDimensions, final long[] offset );
 
+	public void writeBlockWithOffset( final byte[] data, final long[] blockDimensions, final long[] offset );
+
+	public void writeBlockWithOffset( final float[] data, final long[] blockDimensions, final long[] offset );
+
+	public void writeConstantCells( final String path, final double[][] constantCells );
+
+	public void writeCellStatistics( final String path, final CellStatistics statistics );
+
+	/**
+	 * Make the data set at {@code path}, which was created and opened earlier
+	 * and not closed yet, the target of subsequent
+	 * {@code writeBlockWithOffset} and {@link #closeDataset()} calls. Several
+	 * data sets may be open at the same time.
+	 */
+	public void selectDataset( final String path );
+
 	public void closeDataset();
 
 	public void close();
@@ -0,0 +1,566 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static bdv.img.hdf5.Util.reorder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.IntervalIndexer;
+import bdv.CellStatistics;
+import bdv.img.hdf5.Util;
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+
+/**
+ * Writes the cells of one resolution level of a view: creates the data set,
+ * enqueues cells to a {@link Hdf5BlockWriterThread}, and records the constant
+ * cells and {@link CellStatistics} of the level, which are written when the
+ * level is {@link #close() closed}.
+ * <p>
+ * {@link #writeCell(Object, long[], long[], long[], long[])} may be called
+ * concurrently by several cell creator threads.
+ * <p>
+ * With an {@link ExportCheckpoint}, the constant cells and statistics of the
+ * level so far are also written when a plane of cells is
+ * {@link #planeCompleted(int) completed}, so that writing the level can be
+ * resumed after the last completed plane.
+ */
+class LevelWriter
+{
+	/**
+	 * Attribute of the cell statistics data set: the number of planes of
+	 * cells that the (partial) statistics cover.
+	 */
+	private static final String completedPlanesAttribute = "completedPlanes";
+
+	private final Hdf5BlockWriterThread writerQueue;
+
+	private final ViewId viewIdPartition;
+
+	private final int level;
+
+	private final String path;
+
+	private final Object type;
+
+	private final int[] cellDimensions;
+
+	private final long[] numCells;
+
+	private final int[] borderSize;
+
+	private final ExportCheckpoint checkpoint;
+
+	/**
+	 * number of planes of cells that were written before (when resuming)
+	 */
+	private final int numResumedPlanes;
+
+	/**
+	 * cells that have the same value everywhere, as { cell index, value }
+	 */
+	private final ArrayList< double[] > constantCells;
+
+	/**
+	 * { min, max, mean, number of pixels } for each cell
+	 */
+	private final double[][] cellStatistics;
+
+	/**
+	 * histogram of the level (integer types only)
+	 */
+	private final long[] histogram;
+
+	/**
+	 * Create (and open) the data set for a level.
+	 *
+	 * @param writerQueue
+	 *            where to enqueue the data set and cells.
+	 * @param viewIdPartition
+	 *            the view (timepoint and setup id in the partition).
+	 * @param level
+	 *            the resolution level.
+	 * @param type
+	 *            the pixel type ({@link UnsignedShortType},
+	 *            {@link UnsignedByteType}, or {@link FloatType}).
+	 * @param dimensions
+	 *            dimensions of the level.
+	 * @param cellDimensions
+	 *            cell (chunk) dimensions of the level.
+	 * @param deflate
+	 *            whether to compress the data set.
+	 */
+	public LevelWriter(
+			final Hdf5BlockWriterThread writerQueue,
+			final ViewId viewIdPartition,
+			final int level,
+			final Object type,
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final boolean deflate )
+	{
+		this( writerQueue, viewIdPartition, level, type, dimensions, cellDimensions, deflate, null, false );
+	}
+
+	/**
+	 * Create (and open) the data set for a level, or re-open it to resume
+	 * writing.
+	 *
+	 * @param checkpoint
+	 *            records progress (may be {@code null}).
+	 * @param resume
+	 *            whether to resume a partially written level after the
+	 *            planes recorded in {@code checkpoint}. The data set and
+	 *            statistics written so far are validated. If they do not
+	 *            match the checkpoint, or if {@code resume == false}, the
+	 *            level is written from scratch. (Use
+	 *            {@link #getNumResumedPlanes()} to find out where to start.)
+	 * @see #LevelWriter(Hdf5BlockWriterThread, ViewId, int, Object, long[],
+	 *      int[], boolean)
+	 */
+	public LevelWriter(
+			final Hdf5BlockWriterThread writerQueue,
+			final ViewId viewIdPartition,
+			final int level,
+			final Object type,
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final boolean deflate,
+			final ExportCheckpoint checkpoint,
+			final boolean resume )
+	{
+		this.writerQueue = writerQueue;
+		this.viewIdPartition = viewIdPartition;
+		this.level = level;
+		this.type = type;
+		this.cellDimensions = cellDimensions.clone();
+		this.checkpoint = checkpoint;
+		path = Util.getCellsPath( viewIdPartition, level );
+
+		final int n = dimensions.length;
+		numCells = new long[ n ];
+		borderSize = new int[ n ];
+		int numCellsTotal = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			numCells[ d ] = ( dimensions[ d ] - 1 ) / cellDimensions[ d ] + 1;
+			borderSize[ d ] = ( int ) ( dimensions[ d ] - ( numCells[ d ] - 1 ) * cellDimensions[ d ] );
+			numCellsTotal *= numCells[ d ];
+		}
+
+		constantCells = new ArrayList< double[] >();
+		cellStatistics = new double[ numCellsTotal ][];
+		histogram = createHistogram( type );
+
+		int numResumedPlanes = 0;
+		if ( checkpoint != null )
+		{
+			// look at the file only after everything enqueued before has
+			// been written
+			writerQueue.flush();
+			final IHDF5Writer hdf5Writer = writerQueue.getIHDF5Writer();
+			if ( resume )
+				numResumedPlanes = restore( hdf5Writer, checkpoint.getNumCompletedPlanes( viewIdPartition, level ), dimensions );
+			if ( numResumedPlanes == 0 )
+			{
+				// remove what an interrupted export may have left
+				checkpoint.levelReset( viewIdPartition, level );
+				deleteIfExists( hdf5Writer, path );
+				deleteIfExists( hdf5Writer, Util.getConstantCellsPath( viewIdPartition, level ) );
+				deleteIfExists( hdf5Writer, Util.getCellStatisticsPath( viewIdPartition, level ) );
+			}
+		}
+		this.numResumedPlanes = numResumedPlanes;
+
+		if ( numResumedPlanes > 0 )
+			writerQueue.openDataset( path );
+		else
+			createAndOpenDataset( writerQueue, type, path, dimensions.clone(), cellDimensions.clone(), deflate );
+	}
+
+	/**
+	 * Whether a level was recorded as complete in {@code checkpoint}, and its
+	 * data sets exist.
+	 */
+	public static boolean isComplete( final Hdf5BlockWriterThread writerQueue, final ExportCheckpoint checkpoint, final ViewId viewIdPartition, final int level )
+	{
+		if ( checkpoint == null || !checkpoint.isLevelComplete( viewIdPartition, level ) )
+			return false;
+		final IHDF5Writer hdf5Writer = writerQueue.getIHDF5Writer();
+		return hdf5Writer.exists( Util.getCellsPath( viewIdPartition, level ) )
+				&& hdf5Writer.exists( Util.getCellStatisticsPath( viewIdPartition, level ) );
+	}
+
+	/**
+	 * @return the number of planes of cells that were written before and are
+	 *         not written again.
+	 */
+	public int getNumResumedPlanes()
+	{
+		return numResumedPlanes;
+	}
+
+	/**
+	 * @return number of cells in each dimension.
+	 */
+	public long[] getNumCells()
+	{
+		return numCells;
+	}
+
+	/**
+	 * Get the interval of a cell in the level.
+	 *
+	 * @param cellPos
+	 *            grid position of the cell.
+	 * @param cellMin
+	 *            receives the min of the cell.
+	 * @param cellDim
+	 *            receives the dimensions of the cell (smaller than the cell
+	 *            dimensions at the border of the level).
+	 */
+	public void getCellInterval( final long[] cellPos, final long[] cellMin, final long[] cellDim )
+	{
+		for ( int d = 0; d < cellPos.length; ++d )
+		{
+			cellMin[ d ] = cellPos[ d ] * cellDimensions[ d ];
+			final boolean isBorderCellInThisDim = ( cellPos[ d ] + 1 == numCells[ d ] );
+			cellDim[ d ] = isBorderCellInThisDim ? borderSize[ d ] : cellDimensions[ d ];
+		}
+	}
+
+	/**
+	 * Create a histogram to pass to
+	 * {@link #writeCell(Object, long[], long[], long[], long[])} by one
+	 * thread. When the thread is done, it adds it to the level histogram with
+	 * {@link #addHistogram(long[])}.
+	 */
+	public long[] createThreadHistogram()
+	{
+		return histogram == null ? null : new long[ histogram.length ];
+	}
+
+	public void addHistogram( final long[] threadHistogram )
+	{
+		if ( histogram != null )
+		{
+			synchronized ( histogram )
+			{
+				for ( int b = 0; b < histogram.length; ++b )
+					histogram[ b ] += threadHistogram[ b ];
+			}
+		}
+	}
+
+	/**
+	 * Record the statistics of a cell and enqueue it for writing.
+	 *
+	 * Constant cells are recorded in a table, so that loaders need not read
+	 * them. Constant zero cells are not written at all: reading a chunk that
+	 * was never written gives the fill value 0.
+	 *
+	 * @param access
+	 *            the {@link ByteArray}, {@link ShortArray}, or
+	 *            {@link FloatArray} holding the pixels of the cell. The
+	 *            arrays must not be modified after this call.
+	 * @param cellPos
+	 *            grid position of the cell.
+	 * @param cellMin
+	 *            min of the cell (see
+	 *            {@link #getCellInterval(long[], long[], long[])}).
+	 * @param cellDim
+	 *            dimensions of the cell.
+	 * @param threadHistogram
+	 *            histogram of the calling thread (see
+	 *            {@link #createThreadHistogram()}).
+	 */
+	public void writeCell( final Object access, final long[] cellPos, final long[] cellMin, final long[] cellDim, final long[] threadHistogram )
+	{
+		final int cellIndex = ( int ) IntervalIndexer.positionToIndex( cellPos, numCells );
+		final double[] statistics = computeStatistics( access, threadHistogram );
+		cellStatistics[ cellIndex ] = statistics;
+		if ( statistics[ 0 ] == statistics[ 1 ] )
+		{
+			final double constantValue = statistics[ 0 ];
+			final double[] entry = new double[] { cellIndex, constantValue };
+			synchronized ( constantCells )
+			{
+				constantCells.add( entry );
+			}
+			if ( constantValue == 0 )
+				return;
+		}
+		writeBlockWithOffset( writerQueue, path, access, cellDim.clone(), cellMin.clone() );
+	}
+
+	/**
+	 * Called after all cells of plane {@code plane} (and of all planes before
+	 * it) have been written. With a checkpoint, the constant cells and
+	 * statistics of the level so far are enqueued, and the plane is recorded
+	 * as complete once everything has reached the file.
+	 */
+	public void planeCompleted( final int plane )
+	{
+		if ( checkpoint == null )
+			return;
+
+		final double[][] table = new double[ cellStatistics.length ][];
+		for ( int i = 0; i < table.length; ++i )
+			table[ i ] = cellStatistics[ i ] != null ? cellStatistics[ i ] : new double[] { Double.NaN, Double.NaN, Double.NaN, 0 };
+		long[] histogramSoFar = null;
+		if ( histogram != null )
+			synchronized ( histogram )
+			{
+				histogramSoFar = histogram.clone();
+			}
+		double[][] constantCellsSoFar;
+		synchronized ( constantCells )
+		{
+			constantCellsSoFar = constantCells.toArray( new double[ constantCells.size() ][] );
+		}
+
+		final String statisticsPath = Util.getCellStatisticsPath( viewIdPartition, level );
+		if ( constantCellsSoFar.length > 0 )
+			writerQueue.writeConstantCells( Util.getConstantCellsPath( viewIdPartition, level ), constantCellsSoFar );
+		writerQueue.writeCellStatistics( statisticsPath, new CellStatistics( table, histogramSoFar, 0, getHistogramMax( type ) ) );
+		final IHDF5Writer hdf5Writer = writerQueue.getIHDF5Writer();
+		final int numCompletedPlanes = plane + 1;
+		writerQueue.execute( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				hdf5Writer.int32().setAttr( statisticsPath, completedPlanesAttribute, numCompletedPlanes );
+				hdf5Writer.file().flush();
+				checkpoint.planesCompleted( viewIdPartition, level, numCompletedPlanes );
+			}
+		} );
+	}
+
+	/**
+	 * Close the data set, and enqueue the constant cells and cell statistics
+	 * of the level. All cells must have been written. With a checkpoint, the
+	 * level is recorded as complete once everything has reached the file.
+	 */
+	public void close()
+	{
+		writerQueue.closeDataset( path );
+		if ( !constantCells.isEmpty() )
+			writerQueue.writeConstantCells( Util.getConstantCellsPath( viewIdPartition, level ), constantCells.toArray( new double[ constantCells.size() ][] ) );
+		writerQueue.writeCellStatistics( Util.getCellStatisticsPath( viewIdPartition, level ), new CellStatistics( cellStatistics, histogram, 0, getHistogramMax( type ) ) );
+		if ( checkpoint != null )
+		{
+			final IHDF5Writer hdf5Writer = writerQueue.getIHDF5Writer();
+			writerQueue.execute( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					hdf5Writer.file().flush();
+					checkpoint.levelCompleted( viewIdPartition, level );
+				}
+			} );
+		}
+	}
+
+	/**
+	 * Restore the constant cells, statistics, and histogram of the first
+	 * {@code numCompletedPlanes} planes of cells from the file.
+	 *
+	 * @return {@code numCompletedPlanes}, or 0 if the file does not match.
+	 *         Errors reading the file are passed on, so that a broken file is
+	 *         not silently overwritten.
+	 */
+	private int restore( final IHDF5Writer hdf5Writer, final int numCompletedPlanes, final long[] dimensions )
+	{
+		if ( numCompletedPlanes <= 0 || numCompletedPlanes > numCells[ 2 ] )
+			return 0;
+		final String statisticsPath = Util.getCellStatisticsPath( viewIdPartition, level );
+		final String constantCellsPath = Util.getConstantCellsPath( viewIdPartition, level );
+		if ( !hdf5Writer.exists( path ) || !hdf5Writer.exists( statisticsPath ) )
+			return 0;
+		if ( !Arrays.equals( hdf5Writer.object().getDataSetInformation( path ).getDimensions(), reorder( dimensions ) ) )
+			return 0;
+		if ( !hdf5Writer.object().hasAttribute( statisticsPath, completedPlanesAttribute )
+				|| hdf5Writer.int32().getAttr( statisticsPath, completedPlanesAttribute ) != numCompletedPlanes )
+			return 0;
+		final double[][] table = hdf5Writer.readDoubleMatrix( statisticsPath );
+		if ( table.length != cellStatistics.length )
+			return 0;
+		long[] histogramSoFar = null;
+		if ( histogram != null )
+		{
+			histogramSoFar = hdf5Writer.int64().getArrayAttr( statisticsPath, Util.histogramAttribute );
+			if ( histogramSoFar.length != histogram.length )
+				return 0;
+		}
+		final double[][] constantCellsSoFar = hdf5Writer.exists( constantCellsPath ) ? hdf5Writer.readDoubleMatrix( constantCellsPath ) : new double[ 0 ][];
+
+		// rewritten with the next plane or when closing
+		deleteIfExists( hdf5Writer, constantCellsPath );
+
+		// cells are indexed plane by plane
+		final int numCompletedCells = ( int ) ( numCompletedPlanes * numCells[ 0 ] * numCells[ 1 ] );
+		for ( int i = 0; i < numCompletedCells; ++i )
+			cellStatistics[ i ] = table[ i ];
+		if ( histogram != null )
+			System.arraycopy( histogramSoFar, 0, histogram, 0, histogram.length );
+		for ( final double[] entry : constantCellsSoFar )
+			if ( entry[ 0 ] < numCompletedCells )
+				constantCells.add( entry );
+		return numCompletedPlanes;
+	}
+
+	private static void deleteIfExists( final IHDF5Writer hdf5Writer, final String path )
+	{
+		if ( hdf5Writer.exists( path ) )
+			hdf5Writer.object().delete( path );
+	}
+
+	/**
+	 * Create a data set for cells of the given type: 8-bit and 16-bit
+	 * integers are stored with the HDF5 scale-offset filter, floats without.
+	 */
+	private static void createAndOpenDataset( final IHDF5Access writerQueue, final Object type, final String path, final long[] dimensions, final int[] cellDimensions, final boolean deflate )
+	{
+		if ( type instanceof FloatType )
+			writerQueue.createAndOpenFloatDataset( path, dimensions, cellDimensions, deflate ? HDF5FloatStorageFeatures.FLOAT_DEFLATE : HDF5FloatStorageFeatures.FLOAT_NO_COMPRESSION );
+		else
+		{
+			final HDF5IntStorageFeatures storage = deflate ? HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE : HDF5IntStorageFeatures.INT_AUTO_SCALING;
+			if ( type instanceof UnsignedByteType )
+				writerQueue.createAndOpenByteDataset( path, dimensions, cellDimensions, storage );
+			else
+				writerQueue.createAndOpenDataset( path, dimensions, cellDimensions, storage );
+		}
+	}
+
+	/**
+	 * Create a histogram for the pixels of a level: 256 bins for
+	 * {@link UnsignedByteType}, 4096 bins (of 16 values) for
+	 * {@link UnsignedShortType}, none for {@link FloatType}.
+	 */
+	private static long[] createHistogram( final Object type )
+	{
+		if ( type instanceof UnsignedByteType )
+			return new long[ 256 ];
+		else if ( type instanceof UnsignedShortType )
+			return new long[ 4096 ];
+		else
+			return null;
+	}
+
+	private static double getHistogramMax( final Object type )
+	{
+		return type instanceof UnsignedByteType ? 256 : 65536;
+	}
+
+	/**
+	 * Compute { min, max, mean, number of elements } of a {@link ByteArray},
+	 * {@link ShortArray}, or {@link FloatArray} (as unsigned integers for the
+	 * integer types) in a single pass. Elements of the integer types are
+	 * added to the histogram (see {@link #createHistogram(Object)}).
+	 */
+	private static double[] computeStatistics( final Object access, final long[] histogram )
+	{
+		if ( access instanceof ByteArray )
+		{
+			final byte[] data = ( ( ByteArray ) access ).getCurrentStorageArray();
+			int min = 255;
+			int max = 0;
+			long sum = 0;
+			for ( int i = 0; i < data.length; ++i )
+			{
+				final int v = data[ i ] & 0xff;
+				if ( v < min )
+					min = v;
+				if ( v > max )
+					max = v;
+				sum += v;
+				++histogram[ v ];
+			}
+			return new double[] { min, max, ( double ) sum / data.length, data.length };
+		}
+		else if ( access instanceof FloatArray )
+		{
+			final float[] data = ( ( FloatArray ) access ).getCurrentStorageArray();
+			float min = Float.POSITIVE_INFINITY;
+			float max = Float.NEGATIVE_INFINITY;
+			double sum = 0;
+			for ( int i = 0; i < data.length; ++i )
+			{
+				final float v = data[ i ];
+				if ( v < min )
+					min = v;
+				if ( v > max )
+					max = v;
+				sum += v;
+			}
+			return new double[] { min, max, sum / data.length, data.length };
+		}
+		else
+		{
+			final short[] data = ( ( ShortArray ) access ).getCurrentStorageArray();
+			int min = 65535;
+			int max = 0;
+			long sum = 0;
+			for ( int i = 0; i < data.length; ++i )
+			{
+				final int v = data[ i ] & 0xffff;
+				if ( v < min )
+					min = v;
+				if ( v > max )
+					max = v;
+				sum += v;
+				++histogram[ v >> 4 ];
+			}
+			return new double[] { min, max, ( double ) sum / data.length, data.length };
+		}
+	}
+
+	private static void writeBlockWithOffset( final Hdf5BlockWriterThread writerQueue, final String path, final Object access, final long[] blockDimensions, final long[] offset )
+	{
+		if ( access instanceof ByteArray )
+			writerQueue.writeBlockWithOffset( path, ( ( ByteArray ) access ).getCurrentStorageArray(), blockDimensions, offset );
+		else if ( access instanceof FloatArray )
+			writerQueue.writeBlockWithOffset( path, ( ( FloatArray ) access ).getCurrentStorageArray(), blockDimensions, offset );
+		else
+			writerQueue.writeBlockWithOffset( path, ( ( ShortArray ) access ).getCurrentStorageArray(), blockDimensions, offset );
+	}
+}
@@ -0,0 +1,552 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import bdv.export.WriteSequenceToHdf5.AfterEachPlane;
+import bdv.export.WriteSequenceToHdf5.CellCreators;
+
+/**
+ * Writes all resolution levels of a view in a single pass over the source
+ * image. The source is read in slabs of full-resolution z planes, each pixel
+ * exactly once. Full-resolution levels are cut into cells directly from the
+ * slab. For downsampled levels, each slab is added into an accumulator that
+ * holds one plane of cells of that level. When all source planes of a plane
+ * of cells have been added, the cells are written and the accumulator is
+ * reused for the next plane of cells.
+ * <p>
+ * The result is the same as writing each level from the original image with
+ * {@link WriteSequenceToHdf5}: pixels that do not fill a whole downsampling
+ * block at the upper border are dropped, and images smaller than the
+ * downsampling factor are extended by repeating the border pixel.
+ * <p>
+ * Memory is bounded by the slab (one full-resolution plane of cells, as
+ * {@code float}) plus one plane of cells (as {@code double}) for each
+ * downsampled level.
+ */
+class StreamingPyramidBuilder< T extends RealType< T > & NativeType< T > >
+{
+	private static final int n = 3;
+
+	private final RandomAccessibleInterval< T > img;
+
+	private final T type;
+
+	private final long[] sourceMin;
+
+	private final int sx;
+
+	private final int sy;
+
+	private final int sz;
+
+	private final Level[] levels;
+
+	private final CellCreators cellCreators;
+
+	/**
+	 * Number of source z planes in a slab. A multiple of the cell depth of
+	 * every full-resolution level, so that planes of cells of those levels
+	 * are never split across slabs.
+	 */
+	private final int slabDepth;
+
+	private final float[] slab;
+
+	/**
+	 * State of one resolution level.
+	 */
+	private static class Level
+	{
+		final LevelWriter writer;
+
+		final int[] factor;
+
+		final int[] cellDimensions;
+
+		final boolean fullResolution;
+
+		/**
+		 * dimensions of the level
+		 */
+		final int dx, dy, dz;
+
+		/**
+		 * source pixels with coordinates {@code >= end} do not contribute to
+		 * the level
+		 */
+		final int xEnd, yEnd, zEnd;
+
+		/**
+		 * for each source x (y): the target x (y) in the level and the weight
+		 * of the source pixel.
+		 */
+		final int[] targetX, targetY;
+
+		final double[] weightX, weightY;
+
+		final double scale;
+
+		/**
+		 * sums over the source pixels of one plane of cells ({@code dx * dy
+		 * * cellDimensions[ 2 ]}), {@code null} for full-resolution levels
+		 */
+		final double[] accumulator;
+
+		Level( final LevelWriter writer, final int[] factor, final int[] cellDimensions, final long[] dimensions, final int sx, final int sy, final int sz )
+		{
+			this.writer = writer;
+			this.factor = factor;
+			this.cellDimensions = cellDimensions;
+			fullResolution = factor[ 0 ] == 1 && factor[ 1 ] == 1 && factor[ 2 ] == 1;
+			dx = ( int ) dimensions[ 0 ];
+			dy = ( int ) dimensions[ 1 ];
+			dz = ( int ) dimensions[ 2 ];
+			xEnd = Math.min( dx * factor[ 0 ], sx );
+			yEnd = Math.min( dy * factor[ 1 ], sy );
+			zEnd = Math.min( dz * factor[ 2 ], sz );
+			targetX = new int[ xEnd ];
+			weightX = new double[ xEnd ];
+			targets( factor[ 0 ], sx, targetX, weightX );
+			targetY = new int[ yEnd ];
+			weightY = new double[ yEnd ];
+			targets( factor[ 1 ], sy, targetY, weightY );
+			scale = 1.0 / ( ( double ) factor[ 0 ] * factor[ 1 ] * factor[ 2 ] );
+			if ( fullResolution )
+				accumulator = null;
+			else
+			{
+				if ( ( long ) dx * dy * cellDimensions[ 2 ] > Integer.MAX_VALUE )
+					throw new IllegalArgumentException( "plane of cells of " + dx + "x" + dy + "x" + cellDimensions[ 2 ] + " pixels is too large for single-pass export" );
+				accumulator = new double[ dx * dy * cellDimensions[ 2 ] ];
+			}
+		}
+
+		/**
+		 * If the source is smaller than the factor (and the level has size 1),
+		 * the last source pixel stands in for the missing pixels of the
+		 * downsampling block, like with {@code Views.extendBorder}.
+		 */
+		static int weight( final int x, final int f, final int sourceSize )
+		{
+			return ( sourceSize < f && x == sourceSize - 1 ) ? f - sourceSize + 1 : 1;
+		}
+
+		private static void targets( final int f, final int sourceSize, final int[] target, final double[] weight )
+		{
+			for ( int x = 0; x < target.length; ++x )
+			{
+				target[ x ] = x / f;
+				weight[ x ] = weight( x, f, sourceSize );
+			}
+		}
+
+		/**
+		 * @return source z (exclusive) up to which planes contribute to the
+		 *         plane of cells that contains source plane {@code z}.
+		 */
+		int getCellPlaneEnd( final int z )
+		{
+			final int cellPlane = z / factor[ 2 ] / cellDimensions[ 2 ];
+			return Math.min( ( cellPlane + 1 ) * cellDimensions[ 2 ] * factor[ 2 ], zEnd );
+		}
+	}
+
+	/**
+	 * Create the data sets for all levels of a view.
+	 *
+	 * @param img
+	 *            the full-resolution image of the view.
+	 * @param viewIdPartition
+	 *            the view (timepoint and setup id in the partition).
+	 * @param mipmapInfo
+	 *            resolutions and subdivisions of the levels.
+	 * @param deflate
+	 *            whether to compress the data sets.
+	 * @param writerQueue
+	 *            where to write the levels.
+	 * @param cellCreators
+	 *            run the tasks that read the source and create cells.
+	 * @param checkpoint
+	 *            records completed levels (may be {@code null}). Levels are
+	 *            not resumed individually, because they are all written in
+	 *            the same pass.
+	 */
+	public StreamingPyramidBuilder(
+			final RandomAccessibleInterval< T > img,
+			final ViewId viewIdPartition,
+			final ExportMipmapInfo mipmapInfo,
+			final boolean deflate,
+			final Hdf5BlockWriterThread writerQueue,
+			final CellCreators cellCreators,
+			final ExportCheckpoint checkpoint )
+	{
+		this.img = img;
+		this.cellCreators = cellCreators;
+		type = img.randomAccess().get().createVariable();
+		sourceMin = new long[ n ];
+		img.min( sourceMin );
+		sx = ( int ) img.dimension( 0 );
+		sy = ( int ) img.dimension( 1 );
+		sz = ( int ) img.dimension( 2 );
+
+		final int[][] resolutions = mipmapInfo.getExportResolutions();
+		final int[][] subdivisions = mipmapInfo.getSubdivisions();
+		final int numLevels = mipmapInfo.getNumLevels();
+		levels = new Level[ numLevels ];
+		int depth = 1;
+		for ( int l = 0; l < numLevels; ++l )
+		{
+			final int[] factor = resolutions[ l ];
+			final long[] dimensions = new long[ n ];
+			for ( int d = 0; d < n; ++d )
+				dimensions[ d ] = Math.max( img.dimension( d ) / factor[ d ], 1 );
+			final LevelWriter writer = new LevelWriter( writerQueue, viewIdPartition, l, type, dimensions, subdivisions[ l ], deflate, checkpoint, false );
+			levels[ l ] = new Level( writer, factor, subdivisions[ l ], dimensions, sx, sy, sz );
+			if ( levels[ l ].fullResolution )
+				depth = lcm( depth, subdivisions[ l ][ 2 ] );
+		}
+		if ( depth == 1 && numLevels > 0 )
+			depth = subdivisions[ 0 ][ 2 ];
+		slabDepth = Math.min( depth, sz );
+		if ( ( long ) sx * sy * slabDepth > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "slab of " + sx + "x" + sy + "x" + slabDepth + " pixels is too large for single-pass export" );
+		slab = new float[ sx * sy * slabDepth ];
+	}
+
+	/**
+	 * Read the source slab by slab and write all levels. The data sets of all
+	 * levels are closed when this returns.
+	 *
+	 * @param afterEachPlane
+	 *            called after each slab (may be {@code null}).
+	 * @param progressWriter
+	 *            progress is reported as the fraction of the source that has
+	 *            been read.
+	 */
+	public void run( final AfterEachPlane afterEachPlane, final ProgressWriter progressWriter )
+	{
+		for ( int z0 = 0; z0 < sz; z0 += slabDepth )
+		{
+			final int z1 = Math.min( z0 + slabDepth, sz );
+			readSlab( z0, z1 );
+			if ( afterEachPlane != null )
+				afterEachPlane.afterEachPlane( false );
+			for ( final Level level : levels )
+			{
+				if ( level.fullResolution )
+					writeFullResolutionCells( level, z0, z1 );
+				else
+					accumulate( level, z0, z1 );
+			}
+			progressWriter.setProgress( ( double ) z1 / sz );
+		}
+		for ( final Level level : levels )
+			level.writer.close();
+	}
+
+	private interface Task
+	{
+		public void run( final int taskNum, final int numTasks );
+	}
+
+	/**
+	 * Run {@code task} on the cell creators and wait until all of them are
+	 * done. If the calling thread is interrupted, this still waits for the
+	 * tasks, then throws a {@link RuntimeException} wrapping the
+	 * {@link InterruptedException}, with the interrupt status restored.
+	 */
+	private void runInParallel( final Task task )
+	{
+		final int numTasks = cellCreators.numTasks();
+		final CountDownLatch doneSignal = new CountDownLatch( numTasks );
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final int taskNum = t;
+			cellCreators.run( taskNum, new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						task.run( taskNum, numTasks );
+					}
+					finally
+					{
+						doneSignal.countDown();
+					}
+				}
+			} );
+		}
+		// The tasks work on the slab and the accumulators, so wait for them
+		// to finish even if interrupted, then abort the export.
+		InterruptedException interrupted = null;
+		while ( true )
+		{
+			try
+			{
+				doneSignal.await();
+				break;
+			}
+			catch ( final InterruptedException e )
+			{
+				interrupted = e;
+			}
+		}
+		if ( interrupted != null )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( interrupted );
+		}
+	}
+
+	/**
+	 * Read source planes {@code [z0, z1)} into the slab. Each task reads whole
+	 * planes, which is friendly to sources that are backed by a stack of
+	 * planes.
+	 */
+	private void readSlab( final int z0, final int z1 )
+	{
+		runInParallel( new Task()
+		{
+			@Override
+			public void run( final int taskNum, final int numTasks )
+			{
+				final RandomAccess< T > in = img.randomAccess();
+				for ( int z = z0 + taskNum; z < z1; z += numTasks )
+				{
+					int i = ( z - z0 ) * sx * sy;
+					in.setPosition( sourceMin );
+					in.setPosition( sourceMin[ 2 ] + z, 2 );
+					for ( int y = 0; y < sy; ++y )
+					{
+						for ( int x = 0; x < sx; ++x )
+						{
+							slab[ i++ ] = in.get().getRealFloat();
+							in.fwd( 0 );
+						}
+						in.setPosition( sourceMin[ 0 ], 0 );
+						in.fwd( 1 );
+					}
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Write the planes of cells of a full-resolution level that lie in the
+	 * slab {@code [z0, z1)}.
+	 */
+	private void writeFullResolutionCells( final Level level, final int z0, final int z1 )
+	{
+		final int cz = level.cellDimensions[ 2 ];
+		for ( int cellPlane = z0 / cz; cellPlane * cz < z1; ++cellPlane )
+		{
+			writeCellPlane( level, cellPlane, new CellFiller< T >()
+			{
+				@Override
+				public void fill( final Cursor< T > out, final long[] cellMin, final long[] cellDim )
+				{
+					final int ox = ( int ) cellMin[ 0 ];
+					final int oy = ( int ) cellMin[ 1 ];
+					final int oz = ( int ) cellMin[ 2 ] - z0;
+					for ( int z = 0; z < cellDim[ 2 ]; ++z )
+						for ( int y = 0; y < cellDim[ 1 ]; ++y )
+						{
+							int i = ( ( oz + z ) * sy + oy + y ) * sx + ox;
+							for ( int x = 0; x < cellDim[ 0 ]; ++x )
+								out.next().setReal( slab[ i++ ] );
+						}
+				}
+			} );
+		}
+	}
+
+	/**
+	 * Add the slab {@code [z0, z1)} to the accumulator of a downsampled level,
+	 * writing planes of cells as they are completed.
+	 */
+	private void accumulate( final Level level, final int z0, final int z1 )
+	{
+		int start = z0;
+		final int end = Math.min( z1, level.zEnd );
+		while ( start < end )
+		{
+			final int cellPlaneEnd = level.getCellPlaneEnd( start );
+			final int runEnd = Math.min( end, cellPlaneEnd );
+			accumulate( level, z0, start, runEnd );
+			if ( runEnd == cellPlaneEnd )
+			{
+				final int cellPlane = start / level.factor[ 2 ] / level.cellDimensions[ 2 ];
+				writeAccumulatedCellPlane( level, cellPlane );
+				Arrays.fill( level.accumulator, 0 );
+			}
+			start = runEnd;
+		}
+	}
+
+	/**
+	 * Add source planes {@code [start, end)}, which all belong to the same
+	 * plane of cells of the level, to the accumulator. Each task adds to
+	 * different rows of the level.
+	 */
+	private void accumulate( final Level level, final int z0, final int start, final int end )
+	{
+		final int fy = level.factor[ 1 ];
+		final int fz = level.factor[ 2 ];
+		final int firstTargetZ = start / fz / level.cellDimensions[ 2 ] * level.cellDimensions[ 2 ];
+		final double[] acc = level.accumulator;
+		final int[] targetX = level.targetX;
+		final double[] weightX = level.weightX;
+		final int xEnd = level.xEnd;
+		runInParallel( new Task()
+		{
+			@Override
+			public void run( final int taskNum, final int numTasks )
+			{
+				for ( int z = start; z < end; ++z )
+				{
+					final double wz = Level.weight( z, fz, sz );
+					final int planeOffset = ( z / fz - firstTargetZ ) * level.dy;
+					for ( int ty = taskNum; ty < level.dy; ty += numTasks )
+					{
+						final int row = ( planeOffset + ty ) * level.dx;
+						final int yEnd = Math.min( ( ty + 1 ) * fy, level.yEnd );
+						for ( int y = ty * fy; y < yEnd; ++y )
+						{
+							final double w = wz * level.weightY[ y ];
+							final int i = ( ( z - z0 ) * sy + y ) * sx;
+							for ( int x = 0; x < xEnd; ++x )
+								acc[ row + targetX[ x ] ] += w * weightX[ x ] * slab[ i + x ];
+						}
+					}
+				}
+			}
+		} );
+	}
+
+	private void writeAccumulatedCellPlane( final Level level, final int cellPlane )
+	{
+		final int firstTargetZ = cellPlane * level.cellDimensions[ 2 ];
+		final double[] acc = level.accumulator;
+		final double scale = level.scale;
+		writeCellPlane( level, cellPlane, new CellFiller< T >()
+		{
+			@Override
+			public void fill( final Cursor< T > out, final long[] cellMin, final long[] cellDim )
+			{
+				final int ox = ( int ) cellMin[ 0 ];
+				final int oy = ( int ) cellMin[ 1 ];
+				final int oz = ( int ) cellMin[ 2 ] - firstTargetZ;
+				for ( int z = 0; z < cellDim[ 2 ]; ++z )
+					for ( int y = 0; y < cellDim[ 1 ]; ++y )
+					{
+						int i = ( ( oz + z ) * level.dy + oy + y ) * level.dx + ox;
+						for ( int x = 0; x < cellDim[ 0 ]; ++x )
+							out.next().setReal( acc[ i++ ] * scale );
+					}
+			}
+		} );
+	}
+
+	private interface CellFiller< T extends RealType< T > >
+	{
+		/**
+		 * Set the pixels of a cell, in flat iteration order.
+		 */
+		public void fill( final Cursor< T > out, final long[] cellMin, final long[] cellDim );
+	}
+
+	/**
+	 * Create and write all cells in a plane of cells of a level.
+	 */
+	private void writeCellPlane( final Level level, final int cellPlane, final CellFiller< T > filler )
+	{
+		final long[] minCell = new long[ n ];
+		final long[] maxCell = new long[ n ];
+		final long[] numCells = level.writer.getNumCells();
+		for ( int d = 0; d < n; ++d )
+			maxCell[ d ] = numCells[ d ] - 1;
+		minCell[ n - 1 ] = cellPlane;
+		maxCell[ n - 1 ] = cellPlane;
+		final LocalizingIntervalIterator i = new LocalizingIntervalIterator( minCell, maxCell );
+		runInParallel( new Task()
+		{
+			@Override
+			public void run( final int taskNum, final int numTasks )
+			{
+				final long[] cellMin = new long[ n ];
+				final long[] cellDim = new long[ n ];
+				final long[] cellPos = new long[ n ];
+				final ArrayImgFactory< T > cellFactory = new ArrayImgFactory< T >();
+				final long[] threadHistogram = level.writer.createThreadHistogram();
+				while ( true )
+				{
+					synchronized ( i )
+					{
+						if ( !i.hasNext() )
+							break;
+						i.fwd();
+						i.localize( cellPos );
+					}
+					level.writer.getCellInterval( cellPos, cellMin, cellDim );
+					final ArrayImg< T, ? > cell = cellFactory.create( cellDim, type );
+					filler.fill( cell.cursor(), cellMin, cellDim );
+					level.writer.writeCell( cell.update( null ), cellPos, cellMin, cellDim, threadHistogram );
+				}
+				level.writer.addHistogram( threadHistogram );
+			}
+		} );
+	}
+
+	private static int lcm( final int a, final int b )
+	{
+		int x = a;
+		int y = b;
+		while ( y != 0 )
+		{
+			final int t = x % y;
+			x = y;
+			y = t;
+		}
+		return a / x * b;
+	}
+}
@@ -29,13 +29,21 @@
 package bdv.export;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.spim.data.XmlHelpers;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
@@ -45,25 +53,26 @@ import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.TimePoints;
 import mpicbg.spim.data.sequence.ViewId;
-import net.imglib2.Cursor;
 import net.imglib2.Dimensions;
 import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.array.ArrayImg;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.img.cell.CellImg;
 import net.imglib2.iterator.LocalizingIntervalIterator;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.hdf5.MetadataIndex;
 import bdv.img.hdf5.Partition;
 import bdv.img.hdf5.Util;
 import bdv.spimdata.SequenceDescriptionMinimal;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
-import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import ch.systemsx.cisd.hdf5.IHDF5Writer;
 
@@ -120,7 +129,9 @@ public class WriteSequenceToHdf5
 	 *            heuristic to decide whether to create each resolution level by
 	 *            reading pixels from the original image or by reading back a
 	 *            finer resolution level already written to the hdf5. may be
-	 *            null (in this case always use the original image).
+	 *            null (in this case always use the original image). A
+	 *            {@link StreamingPyramid} creates all levels in a single pass
+	 *            over the original image.
 	 * @param afterEachPlane
 	 *            this is called after each "plane of chunks" is written, giving
 	 *            the opportunity to clear caches, etc.
@@ -141,6 +152,57 @@ public class WriteSequenceToHdf5
 			final AfterEachPlane afterEachPlane,
 			final int numCellCreatorThreads,
 			final ProgressWriter progressWriter )
+	{
+		writeHdf5File( seq, perSetupMipmapInfo, deflate, hdf5File, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, 1, progressWriter );
+	}
+
+	/**
+	 * Create a hdf5 file containing image data from all views and all
+	 * timepoints in a chunked, mipmaped representation, writing several views
+	 * concurrently. See
+	 * {@link #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, int, ProgressWriter)}.
+	 *
+	 * @param numConcurrentViews
+	 *            how many views are written at the same time. If this is 1,
+	 *            views are written one after the other.
+	 */
+	public static void writeHdf5File(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final File hdf5File,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final int numConcurrentViews,
+			final ProgressWriter progressWriter )
+	{
+		writeHdf5File( seq, perSetupMipmapInfo, deflate, hdf5File, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, numConcurrentViews, false, progressWriter );
+	}
+
+	/**
+	 * Create a hdf5 file containing image data from all views and all
+	 * timepoints in a chunked, mipmaped representation, optionally resuming
+	 * an interrupted export. See
+	 * {@link #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, int, boolean, ProgressWriter)}.
+	 *
+	 * @param numConcurrentViews
+	 *            how many views are written at the same time. If this is 1,
+	 *            views are written one after the other.
+	 * @param resume
+	 *            whether to resume an interrupted export to the same file.
+	 */
+	public static void writeHdf5File(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final File hdf5File,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final int numConcurrentViews,
+			final boolean resume,
+			final ProgressWriter progressWriter )
 	{
 		final HashMap< Integer, Integer > timepointIdSequenceToPartition = new HashMap< Integer, Integer >();
 		for ( final TimePoint timepoint : seq.getTimePoints().getTimePointsOrdered() )
@@ -151,7 +213,30 @@ public class WriteSequenceToHdf5
 			setupIdSequenceToPartition.put( setup.getId(), setup.getId() );
 
 		final Partition partition = new Partition( hdf5File.getPath(), timepointIdSequenceToPartition, setupIdSequenceToPartition );
-		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, progressWriter );
+		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, numConcurrentViews, resume, progressWriter );
+		writeMetadataIndex( seq, hdf5File, progressWriter );
+	}
+
+	/**
+	 * Write a {@link MetadataIndex} for a completely written hdf5 file, so
+	 * that it can be opened quickly.
+	 */
+	private static void writeMetadataIndex( final AbstractSequenceDescription< ?, ?, ? > seq, final File hdf5File, final ProgressWriter progressWriter )
+	{
+		final Hdf5ImageLoader loader = new Hdf5ImageLoader( hdf5File, null, seq, false );
+		loader.setUseMetadataIndex( false );
+		try
+		{
+			loader.writeMetadataIndex();
+		}
+		catch ( final Exception e )
+		{
+			progressWriter.err().println( "could not write metadata index: " + e.getMessage() );
+		}
+		finally
+		{
+			loader.close();
+		}
 	}
 
 	/**
@@ -181,7 +266,9 @@ public class WriteSequenceToHdf5
 	 *            heuristic to decide whether to create each resolution level by
 	 *            reading pixels from the original image or by reading back a
 	 *            finer resolution level already written to the hdf5. may be
-	 *            null (in this case always use the original image).
+	 *            null (in this case always use the original image). A
+	 *            {@link StreamingPyramid} creates all levels in a single pass
+	 *            over the original image.
 	 * @param afterEachPlane
 	 *            this is called after each "plane of chunks" is written, giving
 	 *            the opportunity to clear caches, etc.
@@ -306,6 +393,9 @@ public class WriteSequenceToHdf5
 					{
 						final String relativePath = XmlHelpers.getRelativePath( new File( partition.getPath() ), basePath ).getPath();
 						hdf5Writer.object().createOrUpdateExternalLink( relativePath, Util.getCellsPath( idPartition, level ), Util.getCellsPath( idSequence, level ) );
+						// dangling if the partition has no constant cells at this level
+						hdf5Writer.object().createOrUpdateExternalLink( relativePath, Util.getConstantCellsPath( idPartition, level ), Util.getConstantCellsPath( idSequence, level ) );
+						hdf5Writer.object().createOrUpdateExternalLink( relativePath, Util.getCellStatisticsPath( idPartition, level ), Util.getCellStatisticsPath( idSequence, level ) );
 					}
 				}
 			}
@@ -341,7 +431,9 @@ public class WriteSequenceToHdf5
 	 *            heuristic to decide whether to create each resolution level by
 	 *            reading pixels from the original image or by reading back a
 	 *            finer resolution level already written to the hdf5. may be
-	 *            null (in this case always use the original image).
+	 *            null (in this case always use the original image). A
+	 *            {@link StreamingPyramid} creates all levels in a single pass
+	 *            over the original image.
 	 * @param afterEachPlane
 	 *            this is called after each "plane of chunks" is written, giving
 	 *            the opportunity to clear caches, etc.
@@ -361,6 +453,82 @@ public class WriteSequenceToHdf5
 			final LoopbackHeuristic loopbackHeuristic,
 			final AfterEachPlane afterEachPlane,
 			final int numCellCreatorThreads,
+			final ProgressWriter progressWriter )
+	{
+		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, 1, progressWriter );
+	}
+
+	/**
+	 * Create a hdf5 partition file containing image data for a subset of views
+	 * and timepoints in a chunked, mipmaped representation, writing several
+	 * views concurrently.
+	 * <p>
+	 * The levels of each view are written one after the other, because
+	 * coarser levels may be computed from finer levels read back from the
+	 * file. But the cells of all views in flight are created by one shared
+	 * pool of {@code numCellCreatorThreads} threads. While one view waits for
+	 * the last cells of a plane or level, the threads work on the other
+	 * views, instead of sitting idle. Memory use is bounded by the number of
+	 * views in flight and the length of the block writer queue.
+	 * <p>
+	 * With {@code numConcurrentViews > 1}, {@code afterEachPlane} is called
+	 * concurrently for different views and must be thread-safe.
+	 *
+	 * @param numConcurrentViews
+	 *            how many views are written at the same time. If this is 1,
+	 *            views are written one after the other, as by
+	 *            {@link #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, ProgressWriter)}.
+	 * @see #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, ProgressWriter)
+	 */
+	public static void writeHdf5PartitionFile(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final Partition partition,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final int numConcurrentViews,
+			final ProgressWriter progressWriter )
+	{
+		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, numConcurrentViews, false, progressWriter );
+	}
+
+	/**
+	 * Create a hdf5 partition file containing image data for a subset of views
+	 * and timepoints in a chunked, mipmaped representation, optionally
+	 * resuming an interrupted export.
+	 * <p>
+	 * Progress is recorded in an {@link ExportCheckpoint} manifest next to the
+	 * partition file: completed planes of cells, levels, and views. With
+	 * {@code resume}, views and levels that are recorded as complete are
+	 * skipped, and a partially written level is continued after its last
+	 * completed plane. What was written after the last checkpoint is written
+	 * again. If the partition file cannot be opened (for example, because the
+	 * export was killed while HDF5 metadata was being written), the partition
+	 * is written from scratch. Each partition has its own manifest, so
+	 * partitions can be resumed independently.
+	 * <p>
+	 * With a {@link StreamingPyramid}, levels are all written in the same
+	 * pass, so only complete views are skipped.
+	 *
+	 * @param resume
+	 *            whether to resume an interrupted export to the same
+	 *            partition file. If {@code false}, an existing partition file
+	 *            is replaced.
+	 * @see #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, int, ProgressWriter)
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static void writeHdf5PartitionFile(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final Partition partition,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final int numConcurrentViews,
+			final boolean resume,
 			ProgressWriter progressWriter )
 	{
 		final int blockWriterQueueLength = 100;
@@ -380,22 +548,47 @@ public class WriteSequenceToHdf5
 		final BasicImgLoader imgLoader = seq.getImgLoader();
 
 		for ( final BasicViewSetup setup : seq.getViewSetupsOrdered() ) {
-			final Object type = imgLoader.getSetupImgLoader( setup.getId() ).getImageType();
-			if ( !( type instanceof UnsignedShortType ) )
-				throw new IllegalArgumentException( "Expected BasicImgLoader<UnsignedShortTyp> but your dataset has BasicImgLoader<"
-						+ type.getClass().getSimpleName() + ">.\nCurrently writing to HDF5 is only supported for UnsignedShortType." );
+			final Object type = getSetupImgLoader( imgLoader, setup.getId() ).getImageType();
+			if ( !( type instanceof UnsignedShortType || type instanceof UnsignedByteType || type instanceof FloatType ) )
+				throw new IllegalArgumentException( "Expected BasicImgLoader<UnsignedShortType> but your dataset has BasicImgLoader<"
+						+ type.getClass().getSimpleName() + ">.\nCurrently writing to HDF5 is only supported for UnsignedShortType, UnsignedByteType, and FloatType." );
 		}
 
 
 		// open HDF5 partition output file
 		final File hdf5File = new File( partition.getPath() );
-		if ( hdf5File.exists() )
-			hdf5File.delete();
-		final Hdf5BlockWriterThread writerQueue = new Hdf5BlockWriterThread( hdf5File, blockWriterQueueLength );
+		Hdf5BlockWriterThread writerQueue = null;
+		boolean resumed = false;
+		if ( resume && ExportCheckpoint.canResume( hdf5File ) )
+		{
+			try
+			{
+				writerQueue = new Hdf5BlockWriterThread( hdf5File, blockWriterQueueLength );
+				resumed = true;
+				progressWriter.out().println( "resuming export to " + hdf5File );
+			}
+			catch ( final RuntimeException e )
+			{
+				progressWriter.err().println( "cannot resume export to " + hdf5File + ", starting over: " + e.getMessage() );
+			}
+		}
+		if ( writerQueue == null )
+		{
+			if ( hdf5File.exists() )
+				hdf5File.delete();
+			writerQueue = new Hdf5BlockWriterThread( hdf5File, blockWriterQueueLength );
+		}
 		writerQueue.start();
-
-		// start CellCreatorThreads
-		final CellCreatorThread[] cellCreatorThreads = createAndStartCellCreatorThreads( numCellCreatorThreads );
+		final ExportCheckpoint checkpoint;
+		try
+		{
+			checkpoint = new ExportCheckpoint( hdf5File, resumed );
+		}
+		catch ( final IOException e )
+		{
+			writerQueue.close();
+			throw new RuntimeException( e );
+		}
 
 		// calculate number of tasks for progressWriter
 		int numTasks = 1; // first task is for writing mipmap descriptions etc...
@@ -415,6 +608,31 @@ public class WriteSequenceToHdf5
 		}
 		progressWriter.setProgress( ( double ) ++numCompletedTasks / numTasks );
 
+		if ( numConcurrentViews > 1 )
+		{
+			final ArrayList< ViewId > views = new ArrayList< ViewId >();
+			for ( final int timepointIdSequence : timepointIdsSequence )
+				for ( final int setupIdSequence : setupIdsSequence )
+					if ( seq.getViewDescriptions().get( new ViewId( timepointIdSequence, setupIdSequence ) ).isPresent() )
+					{
+						final ViewId viewIdPartition = new ViewId(
+								partition.getTimepointIdSequenceToPartition().get( timepointIdSequence ),
+								partition.getSetupIdSequenceToPartition().get( setupIdSequence ) );
+						if ( checkpoint.isViewComplete( viewIdPartition ) )
+							++numCompletedTasks;
+						else
+							views.add( new ViewId( timepointIdSequence, setupIdSequence ) );
+					}
+			writeViewsConcurrently( seq, perSetupMipmapInfo, deflate, partition, views, writerQueue, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, numConcurrentViews, checkpoint, progressWriter, numCompletedTasks, numTasks );
+			writerQueue.close();
+			closeCheckpoint( checkpoint, progressWriter );
+			progressWriter.setProgress( 1.0 );
+			return;
+		}
+
+		// start CellCreatorThreads
+		final CellCreatorThread[] cellCreatorThreads = createAndStartCellCreatorThreads( numCellCreatorThreads );
+
 		// write image data for all views to the HDF5 file
 		int timepointIndex = 0;
 		for ( final int timepointIdSequence : timepointIdsSequence )
@@ -437,8 +655,15 @@ public class WriteSequenceToHdf5
 				final int setupIdPartition = partition.getSetupIdSequenceToPartition().get( setupIdSequence );
 				progressWriter.out().printf( "proccessing setup %d / %d\n", ++setupIndex, numSetups );
 
-				@SuppressWarnings( "unchecked" )
-				final RandomAccessibleInterval< UnsignedShortType > img = ( ( BasicSetupImgLoader< UnsignedShortType > ) imgLoader.getSetupImgLoader( setupIdSequence ) ).getImage( timepointIdSequence );
+				if ( checkpoint.isViewComplete( new ViewId( timepointIdPartition, setupIdPartition ) ) )
+				{
+					progressWriter.out().println( "skipping setup (already written)" );
+					progressWriter.setProgress( ( double ) ++numCompletedTasks / numTasks );
+					continue;
+				}
+
+				@SuppressWarnings( "rawtypes" )
+				final RandomAccessibleInterval img = getSetupImgLoader( imgLoader, setupIdSequence ).getImage( timepointIdSequence );
 				final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setupIdSequence );
 				final double startCompletionRatio = ( double ) numCompletedTasks++ / numTasks;
 				final double endCompletionRatio = ( double ) numCompletedTasks / numTasks;
@@ -446,16 +671,143 @@ public class WriteSequenceToHdf5
 
 				writeViewToHdf5PartitionFile(
 						img, timepointIdPartition, setupIdPartition, mipmapInfo, false,
-						deflate, writerQueue, cellCreatorThreads, loopbackHeuristic, afterEachPlane, subProgressWriter );
+						deflate, writerQueue, cellCreators( cellCreatorThreads ), loopbackHeuristic, afterEachPlane, checkpoint, subProgressWriter );
 			}
 		}
 
 		// shutdown and close file
 		stopCellCreatorThreads( cellCreatorThreads );
 		writerQueue.close();
+		closeCheckpoint( checkpoint, progressWriter );
 		progressWriter.setProgress( 1.0 );
 	}
 
+	/**
+	 * Get the {@link BasicSetupImgLoader} of a setup. For an
+	 * {@link Hdf5ImageLoader}, this is its
+	 * {@link Hdf5ImageLoader#getTypedSetupImgLoader(int) typed loader}, so that
+	 * 8-bit and float hdf5 datasets can be re-saved.
+	 */
+	private static BasicSetupImgLoader< ? > getSetupImgLoader( final BasicImgLoader imgLoader, final int setupId )
+	{
+		if ( imgLoader instanceof Hdf5ImageLoader )
+			return ( ( Hdf5ImageLoader ) imgLoader ).getTypedSetupImgLoader( setupId );
+		return imgLoader.getSetupImgLoader( setupId );
+	}
+
+	/**
+	 * Close the checkpoint manifest of a finished export. A failure to write
+	 * the manifest is reported, but does not fail the export, which is
+	 * complete at this point.
+	 */
+	private static void closeCheckpoint( final ExportCheckpoint checkpoint, final ProgressWriter progressWriter )
+	{
+		try
+		{
+			checkpoint.close();
+		}
+		catch ( final IOException e )
+		{
+			progressWriter.err().println( "could not record export progress, the export cannot be resumed: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Write the given views, {@code numConcurrentViews} at a time, creating
+	 * the cells of all of them on one pool of {@code numCellCreatorThreads}
+	 * threads.
+	 */
+	private static void writeViewsConcurrently(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final Partition partition,
+			final List< ViewId > views,
+			final Hdf5BlockWriterThread writerQueue,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final int numConcurrentViews,
+			final ExportCheckpoint checkpoint,
+			final ProgressWriter progressWriter,
+			final int numCompletedTasks,
+			final int numTasks )
+	{
+		final BasicImgLoader imgLoader = seq.getImgLoader();
+		final ExecutorService cellCreatorPool = Executors.newFixedThreadPool( numCellCreatorThreads, namedThreadFactory( "CellCreatorThread" ) );
+		final ExecutorService viewWriterPool = Executors.newFixedThreadPool( numConcurrentViews, namedThreadFactory( "ViewWriterThread" ) );
+		final CellCreators cellCreators = cellCreators( cellCreatorPool, numCellCreatorThreads );
+
+		// progress is reported per completed view, levels of concurrently
+		// written views would make it jump back and forth.
+		final ProgressWriter viewProgressWriter = new ProgressWriter()
+		{
+			@Override
+			public PrintStream out()
+			{
+				return progressWriter.out();
+			}
+
+			@Override
+			public PrintStream err()
+			{
+				return progressWriter.err();
+			}
+
+			@Override
+			public void setProgress( final double completionRatio )
+			{}
+		};
+		final AtomicInteger completed = new AtomicInteger( numCompletedTasks );
+
+		final ArrayList< Future< ? > > futures = new ArrayList< Future< ? > >();
+		for ( final ViewId view : views )
+		{
+			futures.add( viewWriterPool.submit( new Runnable()
+			{
+				@SuppressWarnings( { "unchecked", "rawtypes" } )
+				@Override
+				public void run()
+				{
+					final int timepointIdSequence = view.getTimePointId();
+					final int setupIdSequence = view.getViewSetupId();
+					final int timepointIdPartition = partition.getTimepointIdSequenceToPartition().get( timepointIdSequence );
+					final int setupIdPartition = partition.getSetupIdSequenceToPartition().get( setupIdSequence );
+					progressWriter.out().printf( "proccessing timepoint %d setup %d\n", timepointIdSequence, setupIdSequence );
+
+					final RandomAccessibleInterval img = getSetupImgLoader( imgLoader, setupIdSequence ).getImage( timepointIdSequence );
+					final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setupIdSequence );
+					writeViewToHdf5PartitionFile(
+							img, timepointIdPartition, setupIdPartition, mipmapInfo, false,
+							deflate, writerQueue, cellCreators, loopbackHeuristic, afterEachPlane, checkpoint, viewProgressWriter );
+					synchronized ( progressWriter )
+					{
+						progressWriter.setProgress( ( double ) completed.incrementAndGet() / numTasks );
+					}
+				}
+			} ) );
+		}
+
+		try
+		{
+			for ( final Future< ? > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			throw new RuntimeException( e );
+		}
+		catch ( final ExecutionException e )
+		{
+			throw new RuntimeException( e.getCause() );
+		}
+		finally
+		{
+			viewWriterPool.shutdownNow();
+			cellCreatorPool.shutdownNow();
+		}
+	}
+
 	/**
 	 * Write a single view to a hdf5 partition file, in a chunked, mipmaped
 	 * representation. Note that the specified view must not already exist in
@@ -486,7 +838,9 @@ public class WriteSequenceToHdf5
 	 *            heuristic to decide whether to create each resolution level by
 	 *            reading pixels from the original image or by reading back a
 	 *            finer resolution level already written to the hdf5. may be
-	 *            null (in this case always use the original image).
+	 *            null (in this case always use the original image). A
+	 *            {@link StreamingPyramid} creates all levels in a single pass
+	 *            over the original image.
 	 * @param afterEachPlane
 	 *            this is called after each "plane of chunks" is written, giving
 	 *            the opportunity to clear caches, etc.
@@ -499,8 +853,8 @@ public class WriteSequenceToHdf5
 	 *            completion ratio and status output will be directed here. may
 	 *            be null.
 	 */
-	public static void writeViewToHdf5PartitionFile(
-			final RandomAccessibleInterval< UnsignedShortType > img,
+	public static < T extends RealType< T > & NativeType< T > > void writeViewToHdf5PartitionFile(
+			final RandomAccessibleInterval< T > img,
 			final Partition partition,
 			final int timepointIdPartition,
 			final int setupIdPartition,
@@ -576,7 +930,9 @@ public class WriteSequenceToHdf5
 	 *            heuristic to decide whether to create each resolution level by
 	 *            reading pixels from the original image or by reading back a
 	 *            finer resolution level already written to the hdf5. may be
-	 *            null (in this case always use the original image).
+	 *            null (in this case always use the original image). A
+	 *            {@link StreamingPyramid} creates all levels in a single pass
+	 *            over the original image.
 	 * @param afterEachPlane
 	 *            this is called after each "plane of chunks" is written, giving
 	 *            the opportunity to clear caches, etc.
@@ -584,8 +940,8 @@ public class WriteSequenceToHdf5
 	 *            completion ratio and status output will be directed here. may
 	 *            be null.
 	 */
-	public static void writeViewToHdf5PartitionFile(
-			final RandomAccessibleInterval< UnsignedShortType > img,
+	public static < T extends RealType< T > & NativeType< T > > void writeViewToHdf5PartitionFile(
+			final RandomAccessibleInterval< T > img,
 			final int timepointIdPartition,
 			final int setupIdPartition,
 			final ExportMipmapInfo mipmapInfo,
@@ -595,9 +951,26 @@ public class WriteSequenceToHdf5
 			final CellCreatorThread[] cellCreatorThreads,
 			final LoopbackHeuristic loopbackHeuristic,
 			final AfterEachPlane afterEachPlane,
+			final ProgressWriter progressWriter )
+	{
+		writeViewToHdf5PartitionFile( img, timepointIdPartition, setupIdPartition, mipmapInfo, writeMipmapInfo, deflate, writerQueue, cellCreators( cellCreatorThreads ), loopbackHeuristic, afterEachPlane, null, progressWriter );
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > void writeViewToHdf5PartitionFile(
+			final RandomAccessibleInterval< T > img,
+			final int timepointIdPartition,
+			final int setupIdPartition,
+			final ExportMipmapInfo mipmapInfo,
+			final boolean writeMipmapInfo,
+			final boolean deflate,
+			final Hdf5BlockWriterThread writerQueue,
+			final CellCreators cellCreators,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final ExportCheckpoint checkpoint,
 			ProgressWriter progressWriter )
 	{
-		final HDF5IntStorageFeatures storage = deflate ? HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE : HDF5IntStorageFeatures.INT_AUTO_SCALING;
+		final T type = Views.iterable( img ).firstElement().createVariable();
 
 		if ( progressWriter == null )
 			progressWriter = new ProgressWriterConsole();
@@ -611,6 +984,16 @@ public class WriteSequenceToHdf5
 		if ( writeMipmapInfo )
 			writerQueue.writeMipmapDescription( setupIdPartition, mipmapInfo );
 
+		final ViewId viewIdPartition = new ViewId( timepointIdPartition, setupIdPartition );
+
+		if ( loopbackHeuristic instanceof StreamingPyramid )
+		{
+			progressWriter.out().println( "writing all levels in a single pass" );
+			new StreamingPyramidBuilder< T >( img, viewIdPartition, mipmapInfo, deflate, writerQueue, cellCreators, checkpoint ).run( afterEachPlane, progressWriter );
+			viewCompleted( writerQueue, checkpoint, viewIdPartition );
+			return;
+		}
+
 		// create loopback image-loader to read already written chunks from the
 		// h5 for generating low-resolution versions.
 		final LoopBackImageLoader loopback = ( loopbackHeuristic == null ) ? null : LoopBackImageLoader.create( writerQueue.getIHDF5Writer(), timepointIdPartition, setupIdPartition, img );
@@ -625,11 +1008,18 @@ public class WriteSequenceToHdf5
 
 		for ( int level = 0; level < numLevels; ++level )
 		{
+			if ( LevelWriter.isComplete( writerQueue, checkpoint, viewIdPartition, level ) )
+			{
+				progressWriter.out().println( "skipping level " + level + " (already written)" );
+				progressWriter.setProgress( ( double ) numCompletedTasks++ / numTasks );
+				continue;
+			}
+
 			progressWriter.out().println( "writing level " + level );
 
 			final long t0 = System.currentTimeMillis();
 
-			final RandomAccessibleInterval< UnsignedShortType > sourceImg;
+			final RandomAccessibleInterval< T > sourceImg;
 			final int[] factor;
 			final boolean useLoopBack;
 			if ( loopbackHeuristic == null )
@@ -674,7 +1064,15 @@ public class WriteSequenceToHdf5
 				useLoopBack = loopbackHeuristic.decide( img, resolutions[ level ], previousLevel, factorsToPreviousLevel, subdivisions[ level ] );
 				if ( useLoopBack )
 				{
-					sourceImg = loopback.getSetupImgLoader( setupIdPartition ).getImage( timepointIdPartition, previousLevel );
+					// make sure that all cells of the previous level have
+					// been written before reading them back
+					writerQueue.flush();
+
+					// the loopback loader reads the type of the data set
+					// we have written, which is the type of img
+					@SuppressWarnings( "unchecked" )
+					final RandomAccessibleInterval< T > previousLevelImg = ( RandomAccessibleInterval< T > ) loopback.getTypedSetupImgLoader( setupIdPartition ).getImage( timepointIdPartition, previousLevel );
+					sourceImg = previousLevelImg;
 					factor = factorsToPreviousLevel;
 				}
 				else
@@ -686,63 +1084,50 @@ public class WriteSequenceToHdf5
 
 			sourceImg.dimensions( dimensions );
 			final boolean fullResolution = ( factor[ 0 ] == 1 && factor[ 1 ] == 1 && factor[ 2 ] == 1 );
-			long size = 1;
 			if ( !fullResolution )
-			{
 				for ( int d = 0; d < n; ++d )
-				{
 					dimensions[ d ] = Math.max( dimensions[ d ] / factor[ d ], 1 );
-					size *= factor[ d ];
-				}
-			}
-			final double scale = 1.0 / size;
 
 			final long[] minRequiredInput = new long[ n ];
 			final long[] maxRequiredInput = new long[ n ];
 			sourceImg.min( minRequiredInput );
 			for ( int d = 0; d < n; ++d )
 				maxRequiredInput[ d ] = minRequiredInput[ d ] + dimensions[ d ] * factor[ d ] - 1;
-			final RandomAccessibleInterval< UnsignedShortType > extendedImg = Views.interval( Views.extendBorder( sourceImg ), new FinalInterval( minRequiredInput, maxRequiredInput ) );
+			final RandomAccessibleInterval< T > extendedImg = Views.interval( Views.extendBorder( sourceImg ), new FinalInterval( minRequiredInput, maxRequiredInput ) );
 
 			final int[] cellDimensions = subdivisions[ level ];
-			final ViewId viewIdPartition = new ViewId( timepointIdPartition, setupIdPartition );
-			final String path = Util.getCellsPath( viewIdPartition, level );
-			writerQueue.createAndOpenDataset( path, dimensions.clone(), cellDimensions.clone(), storage );
+			final LevelWriter levelWriter = new LevelWriter( writerQueue, viewIdPartition, level, type, dimensions, cellDimensions, deflate, checkpoint, true );
 
-			final long[] numCells = new long[ n ];
-			final int[] borderSize = new int[ n ];
+			final long[] numCells = levelWriter.getNumCells();
 			final long[] minCell = new long[ n ];
 			final long[] maxCell = new long[ n ];
 			for ( int d = 0; d < n; ++d )
-			{
-				numCells[ d ] = ( dimensions[ d ] - 1 ) / cellDimensions[ d ] + 1;
 				maxCell[ d ] = numCells[ d ] - 1;
-				borderSize[ d ] = ( int ) ( dimensions[ d ] - ( numCells[ d ] - 1 ) * cellDimensions[ d ] );
-			}
 
 			// generate one "plane" of cells after the other to avoid cache thrashing when exporting from virtual stacks
-			for ( int lastDimCell = 0; lastDimCell < numCells[ n - 1 ]; ++lastDimCell )
+			for ( int lastDimCell = levelWriter.getNumResumedPlanes(); lastDimCell < numCells[ n - 1 ]; ++lastDimCell )
 			{
 				minCell[ n - 1 ] = lastDimCell;
 				maxCell[ n - 1 ] = lastDimCell;
 				final LocalizingIntervalIterator i = new LocalizingIntervalIterator( minCell, maxCell );
 
-				final int numThreads = cellCreatorThreads.length;
+				final int numThreads = cellCreators.numTasks();
 				final CountDownLatch doneSignal = new CountDownLatch( numThreads );
 				for ( int threadNum = 0; threadNum < numThreads; ++threadNum )
 				{
-					cellCreatorThreads[ threadNum ].run( new Runnable()
+					cellCreators.run( threadNum, new Runnable()
 					{
 						@Override
 						public void run()
 						{
-							final double[] accumulator = fullResolution ? null : new double[ cellDimensions[ 0 ] * cellDimensions[ 1 ] * cellDimensions[ 2 ] ];
+							final DownsampleKernel kernel = fullResolution ? null : new DownsampleKernel();
 							final long[] currentCellMin = new long[ n ];
-							final long[] currentCellMax = new long[ n ];
 							final long[] currentCellDim = new long[ n ];
 							final long[] currentCellPos = new long[ n ];
 							final long[] blockMin = new long[ n ];
-							final RandomAccess< UnsignedShortType > in = extendedImg.randomAccess();
+							final RandomAccess< T > in = extendedImg.randomAccess();
+							final ArrayImgFactory< T > cellFactory = new ArrayImgFactory< T >();
+							final long[] threadHistogram = levelWriter.createThreadHistogram();
 							while ( true )
 							{
 								synchronized ( i )
@@ -752,23 +1137,19 @@ public class WriteSequenceToHdf5
 									i.fwd();
 									i.localize( currentCellPos );
 								}
+								levelWriter.getCellInterval( currentCellPos, currentCellMin, currentCellDim );
 								for ( int d = 0; d < n; ++d )
-								{
-									currentCellMin[ d ] = currentCellPos[ d ] * cellDimensions[ d ];
 									blockMin[ d ] = currentCellMin[ d ] * factor[ d ];
-									final boolean isBorderCellInThisDim = ( currentCellPos[ d ] + 1 == numCells[ d ] );
-									currentCellDim[ d ] = isBorderCellInThisDim ? borderSize[ d ] : cellDimensions[ d ];
-									currentCellMax[ d ] = currentCellMin[ d ] + currentCellDim[ d ] - 1;
-								}
 
-								final ArrayImg< UnsignedShortType, ? > cell = ArrayImgs.unsignedShorts( currentCellDim );
+								final ArrayImg< T, ? > cell = cellFactory.create( currentCellDim, type );
 								if ( fullResolution )
 									copyBlock( cell.randomAccess(), currentCellDim, in, blockMin );
 								else
-									downsampleBlock( cell.cursor(), accumulator, currentCellDim, in, blockMin, factor, scale );
+									kernel.downsample( in, blockMin, currentCellDim, factor, cell.update( null ) );
 
-								writerQueue.writeBlockWithOffset( ( ( ShortArray ) cell.update( null ) ).getCurrentStorageArray(), currentCellDim.clone(), currentCellMin.clone() );
+								levelWriter.writeCell( cell.update( null ), currentCellPos, currentCellMin, currentCellDim, threadHistogram );
 							}
+							levelWriter.addHistogram( threadHistogram );
 							doneSignal.countDown();
 						}
 					} );
@@ -781,14 +1162,36 @@ public class WriteSequenceToHdf5
 				{
 					e.printStackTrace();
 				}
+				levelWriter.planeCompleted( lastDimCell );
 				if ( afterEachPlane != null )
 					afterEachPlane.afterEachPlane( useLoopBack );
 			}
-			writerQueue.closeDataset();
+			levelWriter.close();
 			progressWriter.setProgress( ( double ) numCompletedTasks++ / numTasks );
 		}
 		if ( loopback != null )
 			loopback.close();
+		viewCompleted( writerQueue, checkpoint, viewIdPartition );
+	}
+
+	/**
+	 * With a checkpoint, record that all levels of a view have been written,
+	 * once everything enqueued for them has reached the file.
+	 */
+	private static void viewCompleted( final Hdf5BlockWriterThread writerQueue, final ExportCheckpoint checkpoint, final ViewId viewIdPartition )
+	{
+		if ( checkpoint == null )
+			return;
+		final IHDF5Writer hdf5Writer = writerQueue.getIHDF5Writer();
+		writerQueue.execute( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				hdf5Writer.file().flush();
+				checkpoint.viewCompleted( viewIdPartition );
+			}
+		} );
 	}
 
 	/**
@@ -832,6 +1235,28 @@ public class WriteSequenceToHdf5
 		}
 	}
 
+	/**
+	 * Instead of deciding per level where to read the source pixels from,
+	 * generate all levels of a view in a single pass over the original image:
+	 * each source pixel is read once, and partially downsampled data for the
+	 * coarser levels is kept in accumulators that hold one plane of cells per
+	 * level. Pass an instance of this as the {@code loopbackHeuristic} of the
+	 * export methods.
+	 * <p>
+	 * This avoids reading the original image once per level, and reading
+	 * back previously written levels. It needs more memory than the default:
+	 * one full-resolution plane of cells (as {@code float}) and one plane of
+	 * cells per downsampled level (as {@code double}).
+	 */
+	public static class StreamingPyramid implements LoopbackHeuristic
+	{
+		@Override
+		public boolean decide( final RandomAccessibleInterval< ? > originalImg, final int[] factorsToOriginalImg, final int previousLevel, final int[] factorsToPreviousLevel, final int[] chunkSize )
+		{
+			return false;
+		}
+	}
+
 	public static int numElements( final int[] size )
 	{
 		int numElements = size[ 0 ];
@@ -840,6 +1265,77 @@ public class WriteSequenceToHdf5
 		return numElements;
 	}
 
+	/**
+	 * Runs the tasks that create the cells of a plane. Each task creates
+	 * cells until there are no more cells in the plane.
+	 */
+	interface CellCreators
+	{
+		/**
+		 * @return how many tasks to run for each plane.
+		 */
+		public int numTasks();
+
+		public void run( final int taskNum, final Runnable task );
+	}
+
+	/**
+	 * Run the tasks of a plane on dedicated threads, one task per thread.
+	 */
+	private static CellCreators cellCreators( final CellCreatorThread[] cellCreatorThreads )
+	{
+		return new CellCreators()
+		{
+			@Override
+			public int numTasks()
+			{
+				return cellCreatorThreads.length;
+			}
+
+			@Override
+			public void run( final int taskNum, final Runnable task )
+			{
+				cellCreatorThreads[ taskNum ].run( task );
+			}
+		};
+	}
+
+	/**
+	 * Run the tasks of a plane on an {@link ExecutorService} that may be
+	 * shared by several views.
+	 */
+	private static CellCreators cellCreators( final ExecutorService executor, final int numTasks )
+	{
+		return new CellCreators()
+		{
+			@Override
+			public int numTasks()
+			{
+				return numTasks;
+			}
+
+			@Override
+			public void run( final int taskNum, final Runnable task )
+			{
+				executor.execute( task );
+			}
+		};
+	}
+
+	private static ThreadFactory namedThreadFactory( final String name )
+	{
+		return new ThreadFactory()
+		{
+			private final AtomicInteger threadNum = new AtomicInteger();
+
+			@Override
+			public Thread newThread( final Runnable r )
+			{
+				return new Thread( r, name + " " + threadNum.getAndIncrement() );
+			}
+		};
+	}
+
 	public static CellCreatorThread[] createAndStartCellCreatorThreads( final int numThreads )
 	{
 		final CellCreatorThread[] cellCreatorThreads = new CellCreatorThread[ numThreads ];
@@ -914,55 +1410,6 @@ public class WriteSequenceToHdf5
 		}
 	}
 
-	private static < T extends RealType< T > > void downsampleBlock( final Cursor< T > out, final double[] accumulator, final long[] outDim, final RandomAccess< UnsignedShortType > randomAccess, final long[] blockMin, final int[] blockSize, final double scale )
-	{
-		final int numBlockPixels = ( int ) ( outDim[ 0 ] * outDim[ 1 ] * outDim[ 2 ] );
-		Arrays.fill( accumulator, 0, numBlockPixels, 0 );
-
-		randomAccess.setPosition( blockMin );
-
-		final int ox = ( int ) outDim[ 0 ];
-		final int oy = ( int ) outDim[ 1 ];
-		final int oz = ( int ) outDim[ 2 ];
-
-		final int sx = ox * blockSize[ 0 ];
-		final int sy = oy * blockSize[ 1 ];
-		final int sz = oz * blockSize[ 2 ];
-
-		int i = 0;
-		for ( int z = 0, bz = 0; z < sz; ++z )
-		{
-			for ( int y = 0, by = 0; y < sy; ++y )
-			{
-				for ( int x = 0, bx = 0; x < sx; ++x )
-				{
-					accumulator[ i ] += randomAccess.get().getRealDouble();
-					randomAccess.fwd( 0 );
-					if ( ++bx == blockSize[ 0 ] )
-					{
-						bx = 0;
-						++i;
-					}
-				}
-				randomAccess.move( -sx, 0 );
-				randomAccess.fwd( 1 );
-				if ( ++by == blockSize[ 1 ] )
-					by = 0;
-				else
-					i -= ox;
-			}
-			randomAccess.move( -sy, 1 );
-			randomAccess.fwd( 2 );
-			if ( ++bz == blockSize[ 2 ] )
-				bz = 0;
-			else
-				i -= ox * oy;
-		}
-
-		for ( int j = 0; j < numBlockPixels; ++j )
-			out.next().setReal( accumulator[ j ] * scale );
-	}
-
 	/**
 	 * DEPRECATED. Use
 	 * {@link #writeHdf5File(AbstractSequenceDescription, Map, boolean, File, LoopbackHeuristic, AfterEachPlane, int, ProgressWriter)}
@@ -1027,8 +1474,8 @@ public class WriteSequenceToHdf5
 	 * instead.
 	 */
 	@Deprecated
-	public static void writeViewToHdf5PartitionFile(
-			final RandomAccessibleInterval< UnsignedShortType > img,
+	public static < T extends RealType< T > & NativeType< T > > void writeViewToHdf5PartitionFile(
+			final RandomAccessibleInterval< T > img,
 			final Partition partition,
 			final int timepointIdPartition,
 			final int setupIdPartition,
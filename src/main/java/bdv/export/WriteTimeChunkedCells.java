@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.sequence.TimePoint;
+import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.hdf5.Util;
+import bdv.spimdata.SequenceDescriptionMinimal;
+import bdv.spimdata.XmlIoSpimDataMinimal;
+import ch.systemsx.cisd.base.mdarray.MDShortArray;
+import ch.systemsx.cisd.hdf5.HDF5DataClass;
+import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+
+/**
+ * Add time-chunked cells (see {@link Util#getTimeChunkedCellsPath(int, int)})
+ * to an existing bdv hdf5 file. For each setup and mipmap level, the cells of
+ * all timepoints are copied into one 4D data set whose chunks span
+ * {@code timeChunkSize} consecutive timepoints. {@link Hdf5ImageLoader} then
+ * reads the same cell of all timepoints of a chunk with one access, which
+ * makes playing back a time-lapse of a small region much faster.
+ * <p>
+ * The per-timepoint cells are kept, so the file remains readable by loaders
+ * that do not know the time-chunked layout, at the cost of storing the image
+ * data twice. Only 16-bit data sets are copied, and only if all timepoints of
+ * a setup and level have the same dimensions.
+ * <p>
+ * Usage: {@code WriteTimeChunkedCells <xml> [timeChunkSize]}
+ */
+public class WriteTimeChunkedCells
+{
+	/**
+	 * Add time-chunked cells for all setups and levels of the given sequence
+	 * to the hdf5 file.
+	 *
+	 * @param seq
+	 *            description of the sequence stored in the hdf5 file.
+	 * @param hdf5File
+	 *            the hdf5 file (or the link file of a partitioned dataset).
+	 * @param timeChunkSize
+	 *            how many consecutive timepoints to store in one chunk.
+	 * @param deflate
+	 *            whether to compress the time-chunked cells.
+	 * @param progressWriter
+	 *            completion ratio and status output will be directed here.
+	 */
+	public static void writeTimeChunkedCells( final AbstractSequenceDescription< ?, ?, ? > seq, final File hdf5File, final int timeChunkSize, final boolean deflate, ProgressWriter progressWriter )
+	{
+		if ( progressWriter == null )
+			progressWriter = new ProgressWriterConsole();
+		progressWriter.setProgress( 0 );
+
+		final IHDF5Writer hdf5Writer = HDF5Factory.open( hdf5File );
+		final List< ? extends BasicViewSetup > setups = seq.getViewSetupsOrdered();
+		final List< TimePoint > timepoints = seq.getTimePoints().getTimePointsOrdered();
+		for ( int i = 0; i < setups.size(); ++i )
+		{
+			final int setup = setups.get( i ).getId();
+			final int numLevels = hdf5Writer.readDoubleMatrix( Util.getResolutionsPath( setup ) ).length;
+			for ( int level = 0; level < numLevels; ++level )
+			{
+				final ArrayList< Integer > present = new ArrayList< Integer >();
+				for ( final TimePoint timepoint : timepoints )
+					if ( hdf5Writer.exists( Util.getCellsPath( timepoint.getId(), setup, level ) ) )
+						present.add( timepoint.getId() );
+				writeTimeChunkedCells( hdf5Writer, setup, level, present, timeChunkSize, deflate, progressWriter );
+			}
+			progressWriter.setProgress( ( double ) ( i + 1 ) / setups.size() );
+		}
+		hdf5Writer.close();
+	}
+
+	private static void writeTimeChunkedCells( final IHDF5Writer hdf5Writer, final int setup, final int level, final List< Integer > timepointIds, final int timeChunkSize, final boolean deflate, final ProgressWriter progressWriter )
+	{
+		final int numTimepoints = timepointIds.size();
+		if ( numTimepoints < 2 )
+			return;
+
+		// dimensions and cell dimensions in hdf5 order (z, y, x)
+		final HDF5DataSetInformation info = hdf5Writer.object().getDataSetInformation( Util.getCellsPath( timepointIds.get( 0 ), setup, level ) );
+		if ( !info.getTypeInformation().getDataClass().equals( HDF5DataClass.INTEGER ) || info.getTypeInformation().getElementSize() != 2 )
+		{
+			progressWriter.out().println( String.format( "setup %d level %d: not 16-bit data, skipped", setup, level ) );
+			return;
+		}
+		final long[] dimensions = info.getDimensions();
+		final int[] cellDimensions = info.tryGetChunkSizes();
+		for ( final int t : timepointIds )
+			if ( !Arrays.equals( dimensions, hdf5Writer.object().getDataSetInformation( Util.getCellsPath( t, setup, level ) ).getDimensions() ) )
+			{
+				progressWriter.out().println( String.format( "setup %d level %d: dimensions differ between timepoints, skipped", setup, level ) );
+				return;
+			}
+
+		final int n = dimensions.length;
+		final String path = Util.getTimeChunkedCellsPath( setup, level );
+		final long[] chunkedDimensions = new long[ n + 1 ];
+		final int[] chunkDimensions = new int[ n + 1 ];
+		chunkedDimensions[ 0 ] = numTimepoints;
+		chunkDimensions[ 0 ] = Math.min( timeChunkSize, numTimepoints );
+		for ( int d = 0; d < n; ++d )
+		{
+			chunkedDimensions[ d + 1 ] = dimensions[ d ];
+			chunkDimensions[ d + 1 ] = cellDimensions[ d ];
+		}
+		if ( hdf5Writer.exists( path ) )
+			hdf5Writer.object().delete( path );
+		hdf5Writer.int16().createMDArray( path, chunkedDimensions, chunkDimensions, deflate ? HDF5IntStorageFeatures.INT_AUTO_SCALING_DEFLATE : HDF5IntStorageFeatures.INT_AUTO_SCALING );
+		final int[] ids = new int[ numTimepoints ];
+		for ( int row = 0; row < numTimepoints; ++row )
+			ids[ row ] = timepointIds.get( row );
+		hdf5Writer.int32().setArrayAttr( path, Util.timepointsAttribute, ids );
+
+		final long[] numCells = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			numCells[ d ] = ( dimensions[ d ] - 1 ) / cellDimensions[ d ] + 1;
+		final int[] blockDimensions = new int[ n ];
+		final int[] chunkBlockDimensions = new int[ n + 1 ];
+		final long[] offset = new long[ n ];
+		final long[] chunkOffset = new long[ n + 1 ];
+		final long[] cellPos = new long[ n ];
+		for ( int firstRow = 0; firstRow < numTimepoints; firstRow += timeChunkSize )
+		{
+			final int numRows = Math.min( timeChunkSize, numTimepoints - firstRow );
+			Arrays.fill( cellPos, 0 );
+			while ( cellPos[ 0 ] < numCells[ 0 ] )
+			{
+				int blockSize = 1;
+				for ( int d = 0; d < n; ++d )
+				{
+					offset[ d ] = cellPos[ d ] * cellDimensions[ d ];
+					blockDimensions[ d ] = ( int ) Math.min( cellDimensions[ d ], dimensions[ d ] - offset[ d ] );
+					blockSize *= blockDimensions[ d ];
+					chunkOffset[ d + 1 ] = offset[ d ];
+					chunkBlockDimensions[ d + 1 ] = blockDimensions[ d ];
+				}
+				chunkOffset[ 0 ] = firstRow;
+				chunkBlockDimensions[ 0 ] = numRows;
+
+				final short[] data = new short[ numRows * blockSize ];
+				for ( int row = 0; row < numRows; ++row )
+				{
+					final String cellsPath = Util.getCellsPath( ids[ firstRow + row ], setup, level );
+					final short[] block = hdf5Writer.int16().readMDArrayBlockWithOffset( cellsPath, blockDimensions, offset ).getAsFlatArray();
+					System.arraycopy( block, 0, data, row * blockSize, blockSize );
+				}
+				hdf5Writer.int16().writeMDArrayBlockWithOffset( path, new MDShortArray( data, chunkBlockDimensions ), chunkOffset );
+
+				// next cell, last dimension (x) varying fastest
+				for ( int d = n - 1; d >= 0; --d )
+				{
+					if ( ++cellPos[ d ] < numCells[ d ] || d == 0 )
+						break;
+					cellPos[ d ] = 0;
+				}
+			}
+		}
+	}
+
+	public static void main( final String[] args ) throws Exception
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "usage: WriteTimeChunkedCells <xml> [timeChunkSize]" );
+			return;
+		}
+		final int timeChunkSize = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 16;
+		final SequenceDescriptionMinimal seq = new XmlIoSpimDataMinimal().load( args[ 0 ] ).getSequenceDescription();
+		if ( !( seq.getImgLoader() instanceof Hdf5ImageLoader ) )
+		{
+			System.err.println( "not a hdf5 dataset" );
+			return;
+		}
+		final Hdf5ImageLoader imgLoader = ( Hdf5ImageLoader ) seq.getImgLoader();
+		final File hdf5File = imgLoader.getHdf5File();
+		imgLoader.close();
+		writeTimeChunkedCells( seq, hdf5File, timeChunkSize, true, null );
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Periodically adjusts the number of fetcher threads of a
+ * {@link VolatileGlobalCellCache} between a minimum and a maximum.
+ * <p>
+ * The number of threads required to work off the currently enqueued requests
+ * within {@link #TARGET_DRAIN_MILLIS} is estimated from the depth of the
+ * priority queues and the mean time per load observed in {@link CacheIoTiming}
+ * since the last adjustment. Prefetch requests are not counted, so a full
+ * prefetch queue does not grow the pool. The pool grows towards that estimate
+ * quickly (at most doubling per adjustment) and shrinks slowly (one thread per
+ * adjustment), so that short pauses between frames do not tear down the pool.
+ * <p>
+ * The cache is only weakly referenced. When it is garbage collected, the
+ * adjustment thread ends.
+ */
+public class AdaptiveFetcherPool
+{
+	/**
+	 * Time between adjustments.
+	 */
+	public static final long INTERVAL_MILLIS = 250;
+
+	/**
+	 * The pool is sized so that the enqueued requests can be loaded in this
+	 * time.
+	 */
+	public static final long TARGET_DRAIN_MILLIS = 100;
+
+	private final WeakReference< VolatileGlobalCellCache > cacheRef;
+
+	private final int minNumThreads;
+
+	private final int maxNumThreads;
+
+	private final Thread thread;
+
+	private volatile boolean stopped = false;
+
+	private long lastNumLoads;
+
+	private long lastLoadNanoTime;
+
+	/**
+	 * Mean time per load in nanoseconds, or 0 if nothing was loaded yet.
+	 */
+	private double meanLoadNanoTime = 0;
+
+	public AdaptiveFetcherPool( final VolatileGlobalCellCache cache, final int minNumThreads, final int maxNumThreads )
+	{
+		cacheRef = new WeakReference< VolatileGlobalCellCache >( cache );
+		this.minNumThreads = Math.max( 1, minNumThreads );
+		this.maxNumThreads = Math.max( this.minNumThreads, maxNumThreads );
+		final CacheIoTiming timing = cache.getCacheIoTiming();
+		lastNumLoads = timing.getNumLoads();
+		lastLoadNanoTime = timing.getCumulativeLoadNanoTime();
+		thread = new Thread( "AdaptiveFetcherPool" )
+		{
+			@Override
+			public void run()
+			{
+				while ( !stopped )
+				{
+					try
+					{
+						Thread.sleep( INTERVAL_MILLIS );
+					}
+					catch ( final InterruptedException e )
+					{}
+					if ( stopped )
+						break;
+					final VolatileGlobalCellCache cache = cacheRef.get();
+					if ( cache == null )
+						break;
+					adjust( cache );
+				}
+			}
+		};
+		thread.setDaemon( true );
+	}
+
+	public void start()
+	{
+		thread.start();
+	}
+
+	public void stop()
+	{
+		stopped = true;
+		thread.interrupt();
+	}
+
+	public int getMinNumThreads()
+	{
+		return minNumThreads;
+	}
+
+	public int getMaxNumThreads()
+	{
+		return maxNumThreads;
+	}
+
+	/**
+	 * Compute the desired number of fetcher threads from the current
+	 * statistics and resize the pool accordingly.
+	 */
+	void adjust( final VolatileGlobalCellCache cache )
+	{
+		final CacheIoTiming timing = cache.getCacheIoTiming();
+		final long numLoads = timing.getNumLoads();
+		final long loadNanoTime = timing.getCumulativeLoadNanoTime();
+		if ( numLoads > lastNumLoads )
+			meanLoadNanoTime = ( double ) ( loadNanoTime - lastLoadNanoTime ) / ( numLoads - lastNumLoads );
+		lastNumLoads = numLoads;
+		lastLoadNanoTime = loadNanoTime;
+
+		final int queued = cache.getNumQueuedPriorityRequests();
+		final int current = cache.getNumFetcherThreads();
+		final int desired;
+		if ( queued == 0 )
+			desired = minNumThreads;
+		else if ( meanLoadNanoTime == 0 )
+			desired = current + 1;
+		else
+			desired = ( int ) Math.min( Integer.MAX_VALUE, Math.ceil( queued * meanLoadNanoTime / ( TARGET_DRAIN_MILLIS * 1000000.0 ) ) );
+
+		int n = current;
+		if ( desired > current )
+			n = Math.min( desired, Math.max( 2 * current, 1 ) );
+		else if ( desired < current )
+			n = current - 1;
+		n = Math.max( minNumThreads, Math.min( maxNumThreads, n ) );
+
+		synchronized ( cache )
+		{
+			if ( !stopped && n != cache.getNumFetcherThreads() )
+				cache.resizeFetcherPool( n );
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+
+/**
+ * A process-wide pool of primitive arrays, classed by element type and
+ * length. Arrays that are no longer needed are {@link #recycle(VolatileAccess)
+ * recycled} into the pool, and loaders {@link #takeShorts(int) take} their
+ * destination arrays from it. Because the cells of a dataset have only a few
+ * distinct sizes, most loads can then reuse an array instead of allocating
+ * one. Recycled arrays are
+ * <ul>
+ * <li>temporary buffers of loaders,
+ * <li>loaded cell arrays that the {@link VolatileGlobalCellCache} discards
+ * because the cell was loaded already, and
+ * <li>the arrays of cells evicted from the {@link VolatileGlobalCellCache} in
+ * byte-budgeted mode, a few frames after eviction (see
+ * {@link VolatileGlobalCellCache#setRecycleDelayFrames(int)}).
+ * </ul>
+ * <p>
+ * Only arrays that nobody else can reference may be recycled. An evicted cell
+ * is not recycled right away, because a renderer may still hold it.
+ * <p>
+ * Arrays taken from the pool contain arbitrary data and must be overwritten
+ * completely. The total size of pooled arrays is bounded by
+ * {@link #setMaxPooledBytes(long)} (initially the value of system property
+ * {@value #MAX_POOLED_BYTES_PROPERTY}, or 64 MB). Arrays recycled while the
+ * pool is full are left to the garbage collector.
+ */
+public class ArrayPool
+{
+	public static final String MAX_POOLED_BYTES_PROPERTY = "bdv.cache.arrayPoolBytes";
+
+	private static final ArrayPool instance = new ArrayPool( Long.getLong( MAX_POOLED_BYTES_PROPERTY, 64l << 20 ) );
+
+	public static ArrayPool getInstance()
+	{
+		return instance;
+	}
+
+	/**
+	 * Pooled arrays for {@code (type << 32) | length}, where type is one of
+	 * the {@link VolatileArrayCodec} type codes.
+	 */
+	private final ConcurrentHashMap< Long, ConcurrentLinkedQueue< Object > > pools;
+
+	private volatile long maxPooledBytes;
+
+	private final AtomicLong pooledBytes = new AtomicLong();
+
+	private final AtomicLong numReused = new AtomicLong();
+
+	private final AtomicLong numAllocated = new AtomicLong();
+
+	private final AtomicLong numRecycled = new AtomicLong();
+
+	private final AtomicLong numDiscarded = new AtomicLong();
+
+	public ArrayPool( final long maxPooledBytes )
+	{
+		this.maxPooledBytes = maxPooledBytes;
+		pools = new ConcurrentHashMap< Long, ConcurrentLinkedQueue< Object > >();
+	}
+
+	public byte[] takeBytes( final int length )
+	{
+		final byte[] array = ( byte[] ) poll( VolatileArrayCodec.BYTE, length, length );
+		return array != null ? array : new byte[ length ];
+	}
+
+	public short[] takeShorts( final int length )
+	{
+		final short[] array = ( short[] ) poll( VolatileArrayCodec.SHORT, length, 2l * length );
+		return array != null ? array : new short[ length ];
+	}
+
+	public int[] takeInts( final int length )
+	{
+		final int[] array = ( int[] ) poll( VolatileArrayCodec.INT, length, 4l * length );
+		return array != null ? array : new int[ length ];
+	}
+
+	public float[] takeFloats( final int length )
+	{
+		final float[] array = ( float[] ) poll( VolatileArrayCodec.FLOAT, length, 4l * length );
+		return array != null ? array : new float[ length ];
+	}
+
+	/**
+	 * Return an array to the pool. The caller must not use it afterwards.
+	 * Arrays of other types than {@code byte[]}, {@code short[]},
+	 * {@code int[]}, and {@code float[]} are ignored.
+	 */
+	public void recycle( final Object array )
+	{
+		if ( array instanceof short[] )
+			offer( VolatileArrayCodec.SHORT, ( ( short[] ) array ).length, 2l * ( ( short[] ) array ).length, array );
+		else if ( array instanceof byte[] )
+			offer( VolatileArrayCodec.BYTE, ( ( byte[] ) array ).length, ( ( byte[] ) array ).length, array );
+		else if ( array instanceof int[] )
+			offer( VolatileArrayCodec.INT, ( ( int[] ) array ).length, 4l * ( ( int[] ) array ).length, array );
+		else if ( array instanceof float[] )
+			offer( VolatileArrayCodec.FLOAT, ( ( float[] ) array ).length, 4l * ( ( float[] ) array ).length, array );
+	}
+
+	/**
+	 * Return the storage array of a volatile array access to the pool. The
+	 * caller must make sure that {@code data} is no longer used. Invalid
+	 * accesses are ignored, because loaders share a single invalid "empty"
+	 * array between cells.
+	 */
+	public void recycle( final VolatileAccess data )
+	{
+		if ( !data.isValid() )
+			return;
+		if ( data instanceof VolatileShortArray )
+			recycle( ( ( VolatileShortArray ) data ).getCurrentStorageArray() );
+		else if ( data instanceof VolatileByteArray )
+			recycle( ( ( VolatileByteArray ) data ).getCurrentStorageArray() );
+		else if ( data instanceof VolatileIntArray )
+			recycle( ( ( VolatileIntArray ) data ).getCurrentStorageArray() );
+		else if ( data instanceof VolatileFloatArray )
+			recycle( ( ( VolatileFloatArray ) data ).getCurrentStorageArray() );
+	}
+
+	private Object poll( final byte type, final int length, final long numBytes )
+	{
+		final ConcurrentLinkedQueue< Object > pool = pools.get( key( type, length ) );
+		final Object array = pool == null ? null : pool.poll();
+		if ( array == null )
+		{
+			numAllocated.incrementAndGet();
+			return null;
+		}
+		pooledBytes.addAndGet( -numBytes );
+		numReused.incrementAndGet();
+		return array;
+	}
+
+	private void offer( final byte type, final int length, final long numBytes, final Object array )
+	{
+		if ( pooledBytes.addAndGet( numBytes ) > maxPooledBytes )
+		{
+			pooledBytes.addAndGet( -numBytes );
+			numDiscarded.incrementAndGet();
+			return;
+		}
+		final Long key = key( type, length );
+		ConcurrentLinkedQueue< Object > pool = pools.get( key );
+		if ( pool == null )
+		{
+			final ConcurrentLinkedQueue< Object > newPool = new ConcurrentLinkedQueue< Object >();
+			pool = pools.putIfAbsent( key, newPool );
+			if ( pool == null )
+				pool = newPool;
+		}
+		pool.offer( array );
+		numRecycled.incrementAndGet();
+	}
+
+	private static Long key( final byte type, final int length )
+	{
+		return Long.valueOf( ( ( long ) type << 32 ) | length );
+	}
+
+	/**
+	 * Set the maximum total size of pooled arrays. 0 disables pooling.
+	 */
+	public void setMaxPooledBytes( final long maxPooledBytes )
+	{
+		this.maxPooledBytes = maxPooledBytes;
+		if ( pooledBytes.get() > maxPooledBytes )
+			clear();
+	}
+
+	public long getMaxPooledBytes()
+	{
+		return maxPooledBytes;
+	}
+
+	/**
+	 * Drop all pooled arrays.
+	 */
+	public void clear()
+	{
+		for ( final Long key : pools.keySet() )
+		{
+			final ConcurrentLinkedQueue< Object > pool = pools.remove( key );
+			if ( pool != null )
+				for ( Object array = pool.poll(); array != null; array = pool.poll() )
+					pooledBytes.addAndGet( -bytesOf( array ) );
+		}
+	}
+
+	private static long bytesOf( final Object array )
+	{
+		if ( array instanceof short[] )
+			return 2l * ( ( short[] ) array ).length;
+		else if ( array instanceof byte[] )
+			return ( ( byte[] ) array ).length;
+		else if ( array instanceof int[] )
+			return 4l * ( ( int[] ) array ).length;
+		else
+			return 4l * ( ( float[] ) array ).length;
+	}
+
+	/**
+	 * Total size of the currently pooled arrays.
+	 */
+	public long getPooledBytes()
+	{
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Number of takes that were served from the pool.
+	 */
+	public long getNumReused()
+	{
+		return numReused.get();
+	}
+
+	/**
+	 * Number of takes that had to allocate a new array.
+	 */
+	public long getNumAllocated()
+	{
+		return numAllocated.get();
+	}
+
+	/**
+	 * Number of arrays returned to the pool.
+	 */
+	public long getNumRecycled()
+	{
+		return numRecycled.get();
+	}
+
+	/**
+	 * Number of arrays not pooled because the pool was full.
+	 */
+	public long getNumDiscarded()
+	{
+		return numDiscarded.get();
+	}
+
+	public void resetStatistics()
+	{
+		numReused.set( 0 );
+		numAllocated.set( 0 );
+		numRecycled.set( 0 );
+		numDiscarded.set( 0 );
+	}
+}
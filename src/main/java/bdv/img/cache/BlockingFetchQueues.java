@@ -49,7 +49,7 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * @author Tobias Pietzsch &lt;tobias.pietzsch@gmail.com&gt;
  */
-public class BlockingFetchQueues< E >
+public class BlockingFetchQueues< E > implements FetchQueues< E >
 {
 	private final ArrayDeque< E >[] queues;
 
@@ -95,6 +95,7 @@ public class BlockingFetchQueues< E >
 	 *            if true, enqueu element at the front (LIFO). if false, enqueue
 	 *            element at the back (FIFO)
 	 */
+	@Override
 	public void put( final E element, final int priority, final boolean enqueuToFront )
 	{
 		final ReentrantLock lock = this.lock;
@@ -122,6 +123,7 @@ public class BlockingFetchQueues< E >
 	 * @return element.
 	 * @throws InterruptedException
 	 */
+	@Override
 	public E take() throws InterruptedException
 	{
 		final ReentrantLock lock = this.lock;
@@ -147,51 +149,122 @@ public class BlockingFetchQueues< E >
 	 * empty after this call returns. Removed elements are moved to the
 	 * {@link #prefetch} deque.
 	 */
+	@Override
 	public void clear()
 	{
 		final ReentrantLock lock = this.lock;
 		lock.lock();
 		try
 		{
-//			System.out.println( "prefetch size before clear = " + prefetch.size() );
+			count = moveToPrefetch( queues, prefetch, count, prefetchCapacity );
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
 
-			// make room in the prefetch deque
-			final int toRemoveFromPrefetch = Math.max( 0, Math.min( prefetch.size(), count - prefetchCapacity ) );
-//			System.out.println( "toRemoveFromPrefetch = " + toRemoveFromPrefetch );
-			if ( toRemoveFromPrefetch == prefetch.size() )
-				prefetch.clear();
-			else
-				for ( int i = 0; i < toRemoveFromPrefetch; ++i )
-					prefetch.remove();
-
-			// move queue contents to the prefetch
-			int c = prefetchCapacity; // prefetch capacity left
-			// add elements of first queue to the front of the prefetch
-			final ArrayDeque< E > q0 = queues[ 0 ];
-			final int q0n = Math.min( q0.size(), c );
-			for ( int i = 0; i < q0n; ++i )
-				prefetch.addFirst( q0.removeLast() );
-			q0.clear();
-			c -= q0n;
-			// add elements of remaining queues to the end of the prefetch
-			for ( int j = 1; j < queues.length; ++j )
-			{
-				final ArrayDeque< E > q = queues[ j ];
-				final int qn = Math.min( q.size(), c );
-				for ( int i = 0; i < qn; ++i )
-					prefetch.addLast( q.removeFirst() );
-				q.clear();
-				c -= qn;
-			}
+	/**
+	 * Empty {@code queues} and move the removed elements to the
+	 * {@code prefetch} deque (see {@link #clear()}). Elements of the first
+	 * queue are added to the front of the prefetch deque, elements of the
+	 * other queues to the back. Elements that do not fit into
+	 * {@code prefetchCapacity} are dropped, first from the prefetch deque.
+	 *
+	 * @param count
+	 *            number of elements in {@code queues} and {@code prefetch}.
+	 * @return number of elements afterwards (all in {@code prefetch}).
+	 */
+	static < E > int moveToPrefetch( final ArrayDeque< E >[] queues, final ArrayDeque< E > prefetch, final int count, final int prefetchCapacity )
+	{
+//		System.out.println( "prefetch size before clear = " + prefetch.size() );
 
-			// update count: only prefetch is non-empty now
-			count = prefetch.size();
+		// make room in the prefetch deque
+		final int toRemoveFromPrefetch = Math.max( 0, Math.min( prefetch.size(), count - prefetchCapacity ) );
+//		System.out.println( "toRemoveFromPrefetch = " + toRemoveFromPrefetch );
+		if ( toRemoveFromPrefetch == prefetch.size() )
+			prefetch.clear();
+		else
+			for ( int i = 0; i < toRemoveFromPrefetch; ++i )
+				prefetch.remove();
 
-//			System.out.println( "prefetch size after clear = " + prefetch.size() );
+		// move queue contents to the prefetch
+		int c = prefetchCapacity; // prefetch capacity left
+		// add elements of first queue to the front of the prefetch
+		final ArrayDeque< E > q0 = queues[ 0 ];
+		final int q0n = Math.min( q0.size(), c );
+		for ( int i = 0; i < q0n; ++i )
+			prefetch.addFirst( q0.removeLast() );
+		q0.clear();
+		c -= q0n;
+		// add elements of remaining queues to the end of the prefetch
+		for ( int j = 1; j < queues.length; ++j )
+		{
+			final ArrayDeque< E > q = queues[ j ];
+			final int qn = Math.min( q.size(), c );
+			for ( int i = 0; i < qn; ++i )
+				prefetch.addLast( q.removeFirst() );
+			q.clear();
+			c -= qn;
+		}
+
+//		System.out.println( "prefetch size after clear = " + prefetch.size() );
+
+		// only prefetch is non-empty now
+		return prefetch.size();
+	}
+
+	@Override
+	public int size()
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			return count;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int removeAll()
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			final int removed = count;
+			for ( final ArrayDeque< E > q : queues )
+				q.clear();
+			prefetch.clear();
+			count = 0;
+			return removed;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int[] getQueueSizes()
+	{
+		final int[] sizes = new int[ queues.length + 1 ];
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			for ( int i = 0; i < queues.length; ++i )
+				sizes[ i ] = queues[ i ].size();
+			sizes[ queues.length ] = prefetch.size();
 		}
 		finally
 		{
 			lock.unlock();
 		}
+		return sizes;
 	}
 }
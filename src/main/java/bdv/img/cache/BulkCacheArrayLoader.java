@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.List;
+
+/**
+ * A {@link CacheArrayLoader} that can load several adjacent cells with one
+ * read. When a fetcher thread loads a cell with a {@link BulkCacheArrayLoader},
+ * the {@link VolatileGlobalCellCache} collects neighboring cells (of the same
+ * timepoint, setup, and level) that are enqueued but not yet loaded, and loads
+ * them together (see {@link VolatileGlobalCellCache#MAX_BULK_LOAD_CELLS}).
+ *
+ * @param <A>
+ *            access type of the loaded arrays.
+ */
+public interface BulkCacheArrayLoader< A > extends CacheArrayLoader< A >
+{
+	/**
+	 * Load the data of several cells. The cells are adjacent along dimension
+	 * 0, ordered by increasing {@code min[i][0]}, and have identical min and
+	 * dimensions in all other dimensions. That is, their union is a box with
+	 * minimum {@code min[0]}.
+	 *
+	 * @param timepoint
+	 * @param setup
+	 * @param level
+	 * @param dimensions
+	 *            dimensions of each cell.
+	 * @param min
+	 *            minimum of each cell.
+	 * @return loaded arrays, one per cell, in the same order.
+	 * @throws InterruptedException
+	 */
+	public List< A > loadArrays( final int timepoint, final int setup, final int level, int[][] dimensions, long[][] min ) throws InterruptedException;
+}
@@ -33,7 +33,7 @@ import bdv.img.cache.VolatileGlobalCellCache.VolatileCellCache;
 /**
  * Hints to the {@link VolatileCellCache cache} on how to handle cell requests.
  * Consists of the {@link LoadingStrategy} for cells, the priority with which to
- * enqueue cells to the {@link BlockingFetchQueues} (if they are enqueued) and
+ * enqueue cells to the {@link FetchQueues} (if they are enqueued) and
  * whether they should be enqueued to the front (most recent requests are
  * handled first) or back (requests are handled in order) of the respective
  * priority level.
@@ -29,6 +29,7 @@
 package bdv.img.cache;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.imglib2.ui.util.StopWatch;
 
@@ -98,14 +99,14 @@ public class CacheIoTiming
 
 		private int numRunningThreads;
 
-		private long ioBytes;
+		private final AtomicLong ioBytes;
 
 		private IoTimeBudget ioTimeBudget;
 
 		public IoStatistics()
 		{
 			stopWatch = new StopWatch();
-			ioBytes = 0;
+			ioBytes = new AtomicLong();
 			numRunningThreads = 0;
 			ioTimeBudget = null;
 		}
@@ -126,12 +127,12 @@ public class CacheIoTiming
 
 		public void incIoBytes( final long n )
 		{
-			ioBytes += n;
+			ioBytes.addAndGet( n );
 		}
 
 		public long getIoBytes()
 		{
-			return ioBytes;
+			return ioBytes.get();
 		}
 
 		public long getIoNanoTime()
@@ -172,6 +173,10 @@ public class CacheIoTiming
 
 	private final ConcurrentHashMap< ThreadGroup, IoStatistics > perThreadGroupIoStatistics = new ConcurrentHashMap< ThreadGroup, IoStatistics >();
 
+	private final AtomicLong numLoads = new AtomicLong();
+
+	private final AtomicLong loadNanoTime = new AtomicLong();
+
 	public IoStatistics getThreadGroupIoStatistics()
 	{
 		final ThreadGroup threadGroup = Thread.currentThread().getThreadGroup();
@@ -193,4 +198,48 @@ public class CacheIoTiming
 	{
 		return getThreadGroupIoStatistics().getIoBytes();
 	}
+
+	/**
+	 * Record that a cell was loaded, taking the given time. This is
+	 * independent of {@link ThreadGroup} and counts loads by all threads.
+	 *
+	 * @param nanoTime
+	 *            time spent loading the cell.
+	 */
+	public void addLoad( final long nanoTime )
+	{
+		addLoads( 1, nanoTime );
+	}
+
+	/**
+	 * Record that several cells were loaded together, taking the given time
+	 * in total.
+	 *
+	 * @param n
+	 *            number of loaded cells.
+	 * @param nanoTime
+	 *            time spent loading the cells.
+	 */
+	public void addLoads( final int n, final long nanoTime )
+	{
+		numLoads.addAndGet( n );
+		loadNanoTime.addAndGet( nanoTime );
+	}
+
+	/**
+	 * @return the number of cells loaded so far (see {@link #addLoad(long)}).
+	 */
+	public long getNumLoads()
+	{
+		return numLoads.get();
+	}
+
+	/**
+	 * @return the total time spent loading cells so far (see
+	 *         {@link #addLoad(long)}).
+	 */
+	public long getCumulativeLoadNanoTime()
+	{
+		return loadNanoTime.get();
+	}
 }
@@ -0,0 +1,742 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and gauges of a {@link VolatileGlobalCellCache}:
+ * <ul>
+ * <li>hits (requested cell data is valid) and misses per mipmap level,</li>
+ * <li>number of loads, evictions from the byte budget, and soft/weak
+ * references cleared by the garbage collector,</li>
+ * <li>bytes of loaded cell data resident on the heap and off-heap,</li>
+ * <li>fetch queue depth per priority,</li>
+ * <li>load latency histograms per (loader, setup, level),</li>
+ * <li>reuse of cell arrays through the {@link ArrayPool}, and garbage
+ * collection count and time of the JVM.</li>
+ * </ul>
+ * Hits, misses, loads, and resident bytes are also counted per namespace
+ * (see {@link VolatileGlobalCellCache#registerNamespace(String)}), that is,
+ * per image loader if several loaders share the cache.
+ * The live values can be polled through a {@link #snapshot() snapshot} or via
+ * JMX (see {@link #registerMBean(String)}).
+ */
+public class CacheMetrics implements CacheMetricsMBean
+{
+	/**
+	 * Identifies a load latency histogram.
+	 */
+	public static final class LoadKey
+	{
+		private final String loader;
+
+		private final int setup;
+
+		private final int level;
+
+		public LoadKey( final String loader, final int setup, final int level )
+		{
+			this.loader = loader;
+			this.setup = setup;
+			this.level = level;
+		}
+
+		public String getLoader()
+		{
+			return loader;
+		}
+
+		public int getSetup()
+		{
+			return setup;
+		}
+
+		public int getLevel()
+		{
+			return level;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof LoadKey ) )
+				return false;
+			final LoadKey other = ( LoadKey ) obj;
+			return setup == other.setup && level == other.level && loader.equals( other.loader );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ( loader.hashCode() * 31 + setup ) * 31 + level;
+		}
+
+		@Override
+		public String toString()
+		{
+			return loader + " setup=" + setup + " level=" + level;
+		}
+	}
+
+	/**
+	 * Counters of one namespace of the cache.
+	 */
+	public static final class NamespaceMetrics
+	{
+		private final String name;
+
+		private final AtomicLong hits = new AtomicLong();
+
+		private final AtomicLong misses = new AtomicLong();
+
+		private final AtomicLong loads = new AtomicLong();
+
+		private final AtomicLong bytesResident = new AtomicLong();
+
+		NamespaceMetrics( final String name )
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getHits()
+		{
+			return hits.get();
+		}
+
+		public long getMisses()
+		{
+			return misses.get();
+		}
+
+		public long getLoads()
+		{
+			return loads.get();
+		}
+
+		public long getBytesResident()
+		{
+			return bytesResident.get();
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "%s: hits=%d misses=%d loads=%d bytesResident=%d", name, getHits(), getMisses(), getLoads(), getBytesResident() );
+		}
+	}
+
+	/**
+	 * Immutable copy of all values at one point in time.
+	 */
+	public static final class Snapshot
+	{
+		private final long timeMillis;
+
+		private final long[] hitsPerLevel;
+
+		private final long[] missesPerLevel;
+
+		private final long loads;
+
+		private final long evictions;
+
+		private final long referenceClears;
+
+		private final long cancelledRequests;
+
+		private final long droppedStaleRequests;
+
+		private final long droppedOutsideKeepSetRequests;
+
+		private final long bytesResident;
+
+		private final long offHeapBytes;
+
+		private final int[] queueSizes;
+
+		private final int numFetcherThreads;
+
+		private final long pooledArraysReused;
+
+		private final long pooledArraysAllocated;
+
+		private final long gcCount;
+
+		private final long gcTimeMillis;
+
+		private final Map< LoadKey, long[] > loadLatencyHistograms;
+
+		private Snapshot( final CacheMetrics m )
+		{
+			timeMillis = System.currentTimeMillis();
+			hitsPerLevel = m.getHitsPerLevel();
+			missesPerLevel = m.getMissesPerLevel();
+			loads = m.getLoads();
+			evictions = m.getEvictions();
+			referenceClears = m.getReferenceClears();
+			cancelledRequests = m.getCancelledRequests();
+			droppedStaleRequests = m.getDroppedStaleRequests();
+			droppedOutsideKeepSetRequests = m.getDroppedOutsideKeepSetRequests();
+			bytesResident = m.getBytesResident();
+			offHeapBytes = m.getOffHeapBytes();
+			queueSizes = m.getQueueSizes();
+			numFetcherThreads = m.getNumFetcherThreads();
+			pooledArraysReused = m.getPooledArraysReused();
+			pooledArraysAllocated = m.getPooledArraysAllocated();
+			gcCount = m.getGcCount();
+			gcTimeMillis = m.getGcTimeMillis();
+			final HashMap< LoadKey, long[] > histograms = new HashMap< LoadKey, long[] >();
+			for ( final Map.Entry< LoadKey, LatencyHistogram > e : m.loadLatencies.entrySet() )
+				histograms.put( e.getKey(), e.getValue().getCounts() );
+			loadLatencyHistograms = Collections.unmodifiableMap( histograms );
+		}
+
+		/**
+		 * @return when the snapshot was taken (see
+		 *         {@link System#currentTimeMillis()}).
+		 */
+		public long getTimeMillis()
+		{
+			return timeMillis;
+		}
+
+		public long getHits()
+		{
+			return sum( hitsPerLevel );
+		}
+
+		public long getMisses()
+		{
+			return sum( missesPerLevel );
+		}
+
+		public long getHits( final int level )
+		{
+			return hitsPerLevel[ level ];
+		}
+
+		public long getMisses( final int level )
+		{
+			return missesPerLevel[ level ];
+		}
+
+		public int numLevels()
+		{
+			return hitsPerLevel.length;
+		}
+
+		public long getLoads()
+		{
+			return loads;
+		}
+
+		public long getEvictions()
+		{
+			return evictions;
+		}
+
+		public long getReferenceClears()
+		{
+			return referenceClears;
+		}
+
+		public long getCancelledRequests()
+		{
+			return cancelledRequests;
+		}
+
+		public long getDroppedStaleRequests()
+		{
+			return droppedStaleRequests;
+		}
+
+		public long getDroppedOutsideKeepSetRequests()
+		{
+			return droppedOutsideKeepSetRequests;
+		}
+
+		public long getBytesResident()
+		{
+			return bytesResident;
+		}
+
+		public long getOffHeapBytes()
+		{
+			return offHeapBytes;
+		}
+
+		/**
+		 * @return number of enqueued requests per priority. The last element
+		 *         is the number of prefetch requests.
+		 */
+		public int[] getQueueSizes()
+		{
+			return queueSizes.clone();
+		}
+
+		public int getNumFetcherThreads()
+		{
+			return numFetcherThreads;
+		}
+
+		public long getPooledArraysReused()
+		{
+			return pooledArraysReused;
+		}
+
+		public long getPooledArraysAllocated()
+		{
+			return pooledArraysAllocated;
+		}
+
+		public long getGcCount()
+		{
+			return gcCount;
+		}
+
+		public long getGcTimeMillis()
+		{
+			return gcTimeMillis;
+		}
+
+		/**
+		 * @return load latency histogram bucket counts (see
+		 *         {@link LatencyHistogram}) per (loader, setup, level).
+		 */
+		public Map< LoadKey, long[] > getLoadLatencyHistograms()
+		{
+			return loadLatencyHistograms;
+		}
+	}
+
+	private final VolatileGlobalCellCache cache;
+
+	private final AtomicLongArray hits;
+
+	private final AtomicLongArray misses;
+
+	private final AtomicLong loads = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final AtomicLong referenceClears = new AtomicLong();
+
+	private final AtomicLong cancelledRequests = new AtomicLong();
+
+	private final AtomicLong droppedStaleRequests = new AtomicLong();
+
+	private final AtomicLong droppedOutsideKeepSetRequests = new AtomicLong();
+
+	private final AtomicLong bytesResident = new AtomicLong();
+
+	private final ConcurrentHashMap< LoadKey, LatencyHistogram > loadLatencies = new ConcurrentHashMap< LoadKey, LatencyHistogram >();
+
+	private final AtomicReferenceArray< NamespaceMetrics > namespaces;
+
+	private ObjectName objectName = null;
+
+	CacheMetrics( final VolatileGlobalCellCache cache, final int numLevels )
+	{
+		this.cache = cache;
+		hits = new AtomicLongArray( Math.max( 1, numLevels ) );
+		misses = new AtomicLongArray( Math.max( 1, numLevels ) );
+		namespaces = new AtomicReferenceArray< NamespaceMetrics >( VolatileGlobalCellCache.MAX_NUM_NAMESPACES );
+		namespaces.set( 0, new NamespaceMetrics( "default" ) );
+	}
+
+	void addNamespace( final int namespace, final String name )
+	{
+		namespaces.set( namespace, new NamespaceMetrics( name ) );
+	}
+
+	void removeNamespace( final int namespace )
+	{
+		namespaces.set( namespace, null );
+	}
+
+	/**
+	 * Get the counters of a namespace (see
+	 * {@link VolatileGlobalCellCache#registerNamespace(String)}).
+	 *
+	 * @return counters, or null if the namespace is not registered.
+	 */
+	public NamespaceMetrics getNamespaceMetrics( final int namespace )
+	{
+		return namespaces.get( namespace );
+	}
+
+	void recordAccess( final int namespace, final int level, final boolean hit )
+	{
+		final int l = Math.min( level, hits.length() - 1 );
+		final NamespaceMetrics n = namespaces.get( namespace );
+		if ( hit )
+		{
+			hits.incrementAndGet( l );
+			if ( n != null )
+				n.hits.incrementAndGet();
+		}
+		else
+		{
+			misses.incrementAndGet( l );
+			if ( n != null )
+				n.misses.incrementAndGet();
+		}
+	}
+
+	void recordLoad( final int namespace, final CacheArrayLoader< ? > loader, final int setup, final int level, final long nanoTime )
+	{
+		loads.incrementAndGet();
+		final NamespaceMetrics n = namespaces.get( namespace );
+		if ( n != null )
+			n.loads.incrementAndGet();
+		final LoadKey key = new LoadKey( loader.getClass().getSimpleName(), setup, level );
+		LatencyHistogram histogram = loadLatencies.get( key );
+		if ( histogram == null )
+		{
+			final LatencyHistogram h = new LatencyHistogram();
+			histogram = loadLatencies.putIfAbsent( key, h );
+			if ( histogram == null )
+				histogram = h;
+		}
+		histogram.add( nanoTime );
+	}
+
+	void recordEviction( final int namespace, final long bytes )
+	{
+		evictions.incrementAndGet();
+		addBytesResident( namespace, -bytes );
+	}
+
+	void recordReferenceClear( final int namespace, final long bytes )
+	{
+		referenceClears.incrementAndGet();
+		addBytesResident( namespace, -bytes );
+	}
+
+	void recordCancelledRequests( final int n )
+	{
+		cancelledRequests.addAndGet( n );
+	}
+
+	void recordDroppedStaleRequest()
+	{
+		droppedStaleRequests.incrementAndGet();
+	}
+
+	void recordDroppedOutsideKeepSetRequest()
+	{
+		droppedOutsideKeepSetRequests.incrementAndGet();
+	}
+
+	void addBytesResident( final int namespace, final long bytes )
+	{
+		bytesResident.addAndGet( bytes );
+		final NamespaceMetrics n = namespaces.get( namespace );
+		if ( n != null )
+			n.bytesResident.addAndGet( bytes );
+	}
+
+	void resetBytesResident()
+	{
+		bytesResident.set( 0 );
+		for ( int i = 0; i < namespaces.length(); ++i )
+		{
+			final NamespaceMetrics n = namespaces.get( i );
+			if ( n != null )
+				n.bytesResident.set( 0 );
+		}
+	}
+
+	/**
+	 * @return an immutable copy of the current values.
+	 */
+	public Snapshot snapshot()
+	{
+		return new Snapshot( this );
+	}
+
+	@Override
+	public long getHits()
+	{
+		return sum( getHitsPerLevel() );
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return sum( getMissesPerLevel() );
+	}
+
+	@Override
+	public long[] getHitsPerLevel()
+	{
+		return toArray( hits );
+	}
+
+	@Override
+	public long[] getMissesPerLevel()
+	{
+		return toArray( misses );
+	}
+
+	@Override
+	public long getLoads()
+	{
+		return loads.get();
+	}
+
+	@Override
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	@Override
+	public long getReferenceClears()
+	{
+		return referenceClears.get();
+	}
+
+	@Override
+	public long getCancelledRequests()
+	{
+		return cancelledRequests.get();
+	}
+
+	@Override
+	public long getDroppedStaleRequests()
+	{
+		return droppedStaleRequests.get();
+	}
+
+	@Override
+	public long getDroppedOutsideKeepSetRequests()
+	{
+		return droppedOutsideKeepSetRequests.get();
+	}
+
+	/**
+	 * Bytes of loaded cell data that are held on the heap by this cache. Without
+	 * a byte budget, this is approximate:
+	 * softly referenced data is counted until the garbage collector clears it
+	 * and the cache notices (see {@link VolatileGlobalCellCache#prepareNextFrame()}).
+	 */
+	@Override
+	public long getBytesResident()
+	{
+		return bytesResident.get();
+	}
+
+	@Override
+	public long getOffHeapBytes()
+	{
+		final OffHeapCellStore< ? > store = cache.getOffHeapStore();
+		return store == null ? 0 : store.getUsedBytes();
+	}
+
+	@Override
+	public int[] getQueueSizes()
+	{
+		return cache.queue.getQueueSizes();
+	}
+
+	@Override
+	public int getNumFetcherThreads()
+	{
+		return cache.getNumFetcherThreads();
+	}
+
+	@Override
+	public long getPooledArraysReused()
+	{
+		return ArrayPool.getInstance().getNumReused();
+	}
+
+	@Override
+	public long getPooledArraysAllocated()
+	{
+		return ArrayPool.getInstance().getNumAllocated();
+	}
+
+	@Override
+	public long getPooledBytes()
+	{
+		return ArrayPool.getInstance().getPooledBytes();
+	}
+
+	@Override
+	public long getGcCount()
+	{
+		long count = 0;
+		for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+			count += Math.max( 0, gc.getCollectionCount() );
+		return count;
+	}
+
+	@Override
+	public long getGcTimeMillis()
+	{
+		long time = 0;
+		for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+			time += Math.max( 0, gc.getCollectionTime() );
+		return time;
+	}
+
+	@Override
+	public String[] getLoadLatencySummary()
+	{
+		final ArrayList< String > lines = new ArrayList< String >();
+		for ( final Map.Entry< LoadKey, LatencyHistogram > e : loadLatencies.entrySet() )
+		{
+			final LatencyHistogram h = e.getValue();
+			final long[] counts = h.getCounts();
+			lines.add( String.format( "%s: n=%d mean=%.0fus p50<%dus p99<%dus",
+					e.getKey(), h.getCount(), h.getMeanNanoTime() / 1000,
+					LatencyHistogram.getPercentileUpperBoundMicros( counts, 0.5 ),
+					LatencyHistogram.getPercentileUpperBoundMicros( counts, 0.99 ) ) );
+		}
+		Collections.sort( lines );
+		return lines.toArray( new String[ lines.size() ] );
+	}
+
+	@Override
+	public String[] getNamespaceSummary()
+	{
+		final ArrayList< String > lines = new ArrayList< String >();
+		for ( int i = 0; i < namespaces.length(); ++i )
+		{
+			final NamespaceMetrics n = namespaces.get( i );
+			if ( n != null )
+				lines.add( n.toString() );
+		}
+		return lines.toArray( new String[ lines.size() ] );
+	}
+
+	/**
+	 * Reset all counters and histograms. Gauges (resident bytes, queue sizes,
+	 * number of fetcher threads) are not affected.
+	 */
+	@Override
+	public void reset()
+	{
+		for ( int i = 0; i < hits.length(); ++i )
+		{
+			hits.set( i, 0 );
+			misses.set( i, 0 );
+		}
+		loads.set( 0 );
+		evictions.set( 0 );
+		referenceClears.set( 0 );
+		cancelledRequests.set( 0 );
+		droppedStaleRequests.set( 0 );
+		droppedOutsideKeepSetRequests.set( 0 );
+		loadLatencies.clear();
+		ArrayPool.getInstance().resetStatistics();
+		for ( int i = 0; i < namespaces.length(); ++i )
+		{
+			final NamespaceMetrics n = namespaces.get( i );
+			if ( n != null )
+			{
+				n.hits.set( 0 );
+				n.misses.set( 0 );
+				n.loads.set( 0 );
+			}
+		}
+	}
+
+	/**
+	 * Register this as an MBean with the platform {@link MBeanServer}, with
+	 * object name {@code bdv.img.cache:type=CacheMetrics,name=}<em>name</em>.
+	 * If already registered, the previous registration is removed first.
+	 *
+	 * @param name
+	 *            name to identify the cache.
+	 * @return the object name.
+	 * @throws JMException
+	 */
+	public synchronized ObjectName registerMBean( final String name ) throws JMException
+	{
+		unregisterMBean();
+		final ObjectName on = new ObjectName( "bdv.img.cache:type=CacheMetrics,name=" + ObjectName.quote( name ) );
+		ManagementFactory.getPlatformMBeanServer().registerMBean( this, on );
+		objectName = on;
+		return on;
+	}
+
+	/**
+	 * Remove the registration made by {@link #registerMBean(String)}, if any.
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void unregisterMBean() throws JMException
+	{
+		if ( objectName != null )
+		{
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered( objectName ) )
+				server.unregisterMBean( objectName );
+			objectName = null;
+		}
+	}
+
+	private static long[] toArray( final AtomicLongArray a )
+	{
+		final long[] values = new long[ a.length() ];
+		for ( int i = 0; i < values.length; ++i )
+			values[ i ] = a.get( i );
+		return values;
+	}
+
+	private static long sum( final long[] values )
+	{
+		long sum = 0;
+		for ( final long v : values )
+			sum += v;
+		return sum;
+	}
+}
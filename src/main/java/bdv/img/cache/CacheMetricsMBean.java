@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+/**
+ * JMX management interface of {@link CacheMetrics}.
+ */
+public interface CacheMetricsMBean
+{
+	public long getHits();
+
+	public long getMisses();
+
+	public long[] getHitsPerLevel();
+
+	public long[] getMissesPerLevel();
+
+	public long getLoads();
+
+	public long getEvictions();
+
+	public long getReferenceClears();
+
+	/**
+	 * @return number of requests removed by
+	 *         {@link VolatileGlobalCellCache#cancelAll()}.
+	 */
+	public long getCancelledRequests();
+
+	/**
+	 * @return number of requests dropped by fetchers because they were older
+	 *         than {@link VolatileGlobalCellCache#setMaxRequestAge(int)}
+	 *         frames.
+	 */
+	public long getDroppedStaleRequests();
+
+	/**
+	 * @return number of requests dropped by fetchers because they were not
+	 *         in the {@link VolatileGlobalCellCache#setKeepSet(KeepSet) keep
+	 *         set}.
+	 */
+	public long getDroppedOutsideKeepSetRequests();
+
+	public long getBytesResident();
+
+	public long getOffHeapBytes();
+
+	public int[] getQueueSizes();
+
+	public int getNumFetcherThreads();
+
+	/**
+	 * @return number of cell arrays taken from the {@link ArrayPool} instead
+	 *         of being allocated.
+	 */
+	public long getPooledArraysReused();
+
+	/**
+	 * @return number of cell arrays that were allocated because the
+	 *         {@link ArrayPool} had none of the requested type and size.
+	 */
+	public long getPooledArraysAllocated();
+
+	/**
+	 * @return total size of the arrays currently held by the {@link ArrayPool}.
+	 */
+	public long getPooledBytes();
+
+	/**
+	 * @return number of garbage collections since JVM start, summed over all
+	 *         collectors.
+	 */
+	public long getGcCount();
+
+	/**
+	 * @return accumulated garbage collection time since JVM start in
+	 *         milliseconds, summed over all collectors.
+	 */
+	public long getGcTimeMillis();
+
+	/**
+	 * @return one line per (loader, setup, level) with number of loads, mean,
+	 *         median, and 99th percentile latency.
+	 */
+	public String[] getLoadLatencySummary();
+
+	/**
+	 * @return one line per namespace (image loader) with hits, misses, loads,
+	 *         and resident bytes.
+	 */
+	public String[] getNamespaceSummary();
+
+	/**
+	 * Reset all counters and histograms.
+	 */
+	public void reset();
+}
@@ -0,0 +1,386 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock-free alternative to {@link BlockingFetchQueues}. There is an array of
+ * {@link ConcurrentLinkedDeque}s, ordered by priority, and a prefetch deque of
+ * bounded size that provides elements when all the queues are exhausted.
+ * <p>
+ * Every enqueued element is stamped with the current generation.
+ * {@link #clear()} only increments the generation, which takes constant time
+ * regardless of the number of queued elements. Elements of older generations
+ * are moved to the prefetch deque lazily, when {@link #take()} encounters
+ * them.
+ * <p>
+ * Elements that are already queued are not added again. If an element is
+ * {@link #put(Object, int, boolean) put} while it is queued with a lower
+ * priority or with an older generation, it is re-queued and the previous
+ * queue entry is discarded when it is taken.
+ * <p>
+ * {@link #take()} polls the deques without locking. Only if all of them are
+ * empty, it waits on a {@link Condition}. {@link #put(Object, int, boolean)}
+ * takes the lock to signal only if a {@link #take()} is waiting, so puts and
+ * takes do not contend on a common lock while there are elements to fetch.
+ *
+ * @param <E>
+ *            element type. Elements are compared by
+ *            {@link Object#equals(Object)}.
+ */
+public class ConcurrentFetchQueues< E > implements FetchQueues< E >
+{
+	/**
+	 * A queue entry for an element.
+	 */
+	private static final class Node< E >
+	{
+		final E element;
+
+		final int priority;
+
+		final long generation;
+
+		Node( final E element, final int priority, final long generation )
+		{
+			this.element = element;
+			this.priority = priority;
+			this.generation = generation;
+		}
+	}
+
+	private final ConcurrentLinkedDeque< Node< E > >[] queues;
+
+	private final int prefetchCapacity;
+
+	private final ConcurrentLinkedDeque< Node< E > > prefetch;
+
+	/** Number of entries in the prefetch deque */
+	private final AtomicInteger prefetchSize;
+
+	/**
+	 * Maps queued elements to their current queue entry. Entries in
+	 * {@link #queues} and {@link #prefetch} that are not the current entry of
+	 * their element are discarded when taken.
+	 */
+	private final ConcurrentHashMap< E, Node< E > > queued;
+
+	/** Lock guarding {@link #notEmpty} */
+	private final ReentrantLock lock;
+
+	/** Condition for waiting takes */
+	private final Condition notEmpty;
+
+	/** Number of takes that are waiting (or about to wait) for an entry */
+	private final AtomicInteger numWaiting;
+
+	private volatile long generation;
+
+	public ConcurrentFetchQueues( final int numPriorities )
+	{
+		this( numPriorities, 16384 );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public ConcurrentFetchQueues( final int numPriorities, final int prefetchCapacity )
+	{
+		queues = new ConcurrentLinkedDeque[ numPriorities ];
+		for ( int i = 0; i < numPriorities; ++i )
+			queues[ i ] = new ConcurrentLinkedDeque< Node< E > >();
+		this.prefetchCapacity = prefetchCapacity;
+		prefetch = new ConcurrentLinkedDeque< Node< E > >();
+		prefetchSize = new AtomicInteger();
+		queued = new ConcurrentHashMap< E, Node< E > >();
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+		numWaiting = new AtomicInteger();
+		generation = 0;
+	}
+
+	/**
+	 * Add element to the queue of the specified priority. The element can be
+	 * added to the front or back of the queue. If the element is already
+	 * queued in the current generation with the same or higher priority,
+	 * nothing happens.
+	 *
+	 * @param element
+	 *            the element to enqueue
+	 * @param priority
+	 *            lower values mean higher priority
+	 * @param enqueuToFront
+	 *            if true, enqueu element at the front (LIFO). if false, enqueue
+	 *            element at the back (FIFO)
+	 */
+	@Override
+	public void put( final E element, final int priority, final boolean enqueuToFront )
+	{
+		final Node< E > node = new Node< E >( element, priority, generation );
+		while ( true )
+		{
+			final Node< E > previous = queued.putIfAbsent( element, node );
+			if ( previous == null )
+				break;
+			if ( previous.generation == node.generation && previous.priority <= priority )
+				return;
+			if ( queued.replace( element, previous, node ) )
+				break;
+		}
+
+		if ( enqueuToFront )
+			queues[ priority ].addFirst( node );
+		else
+			queues[ priority ].addLast( node );
+		signalNotEmpty();
+	}
+
+	/**
+	 * Remove and return an element from the highest priority non-empty queue.
+	 * If all queues are empty, then return an element from the prefetch deque.
+	 * If the prefetch deque is also empty, then block.
+	 *
+	 * @return element.
+	 * @throws InterruptedException
+	 */
+	@Override
+	public E take() throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		while ( true )
+		{
+			final long currentGeneration = generation;
+			Node< E > node = null;
+			boolean stale = false;
+			for ( final ConcurrentLinkedDeque< Node< E > > q : queues )
+			{
+				node = q.pollFirst();
+				if ( node != null )
+				{
+					stale = node.generation < currentGeneration;
+					break;
+				}
+			}
+			if ( node == null )
+			{
+				node = prefetch.pollFirst();
+				if ( node == null )
+				{
+					awaitNotEmpty();
+					continue;
+				}
+				prefetchSize.decrementAndGet();
+			}
+
+			if ( queued.get( node.element ) != node )
+				// superseded by a newer entry for the same element
+				continue;
+
+			if ( stale )
+			{
+				demoteToPrefetch( node );
+				continue;
+			}
+
+			if ( queued.remove( node.element, node ) )
+				return node.element;
+
+			// superseded concurrently
+		}
+	}
+
+	/**
+	 * Demote all currently queued elements to prefetch elements. This only
+	 * starts a new generation, the elements are moved to the prefetch deque
+	 * when {@link #take()} encounters them.
+	 */
+	@Override
+	public synchronized void clear()
+	{
+		++generation;
+	}
+
+	/**
+	 * Remove all elements, including prefetch elements. Only the mappings of
+	 * the drained entries are removed, so elements that are
+	 * {@link #put(Object, int, boolean) put} concurrently stay queued. An
+	 * entry that a concurrent {@link #take()} is just moving to the prefetch
+	 * deque stays queued as a prefetch element.
+	 *
+	 * @return the number of removed elements.
+	 */
+	@Override
+	public int removeAll()
+	{
+		int removed = 0;
+		for ( final ConcurrentLinkedDeque< Node< E > > q : queues )
+			removed += drain( q, false );
+		removed += drain( prefetch, true );
+		return removed;
+	}
+
+	/**
+	 * Get the current generation, that is, the number of times
+	 * {@link #clear()} was called.
+	 */
+	public long getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Get the number of distinct elements that are currently queued
+	 * (including prefetch elements).
+	 */
+	@Override
+	public int size()
+	{
+		return queued.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This counts queue entries, which may include superseded entries and
+	 * entries of older generations that have not been moved to the prefetch
+	 * deque yet. Counting takes time linear in the number of entries.
+	 */
+	@Override
+	public int[] getQueueSizes()
+	{
+		final int[] sizes = new int[ queues.length + 1 ];
+		for ( int i = 0; i < queues.length; ++i )
+			sizes[ i ] = queues[ i ].size();
+		sizes[ queues.length ] = prefetchSize.get();
+		return sizes;
+	}
+
+	/**
+	 * Move an entry of an older generation to the prefetch deque. Entries from
+	 * the highest priority queue are added to the front, others to the back.
+	 * If the prefetch deque is full, the entry at its back is dropped.
+	 */
+	private void demoteToPrefetch( final Node< E > node )
+	{
+		if ( prefetchSize.incrementAndGet() > prefetchCapacity )
+		{
+			final Node< E > last = prefetch.pollLast();
+			if ( last != null )
+			{
+				prefetchSize.decrementAndGet();
+				queued.remove( last.element, last );
+			}
+		}
+		if ( node.priority == 0 )
+			prefetch.addFirst( node );
+		else
+			prefetch.addLast( node );
+		signalNotEmpty();
+	}
+
+	/**
+	 * Remove all entries from a deque.
+	 *
+	 * @return the number of removed entries that were the current entry of
+	 *         their element.
+	 */
+	private int drain( final ConcurrentLinkedDeque< Node< E > > deque, final boolean isPrefetch )
+	{
+		int removed = 0;
+		Node< E > node;
+		while ( ( node = deque.pollFirst() ) != null )
+		{
+			if ( isPrefetch )
+				prefetchSize.decrementAndGet();
+			if ( queued.remove( node.element, node ) )
+				++removed;
+		}
+		return removed;
+	}
+
+	private boolean isEmpty()
+	{
+		for ( final ConcurrentLinkedDeque< Node< E > > q : queues )
+			if ( !q.isEmpty() )
+				return false;
+		return prefetch.isEmpty();
+	}
+
+	/**
+	 * Block until there is an entry in one of the deques.
+	 */
+	private void awaitNotEmpty() throws InterruptedException
+	{
+		numWaiting.incrementAndGet();
+		try
+		{
+			final ReentrantLock lock = this.lock;
+			lock.lockInterruptibly();
+			try
+			{
+				while ( isEmpty() )
+					notEmpty.await();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		finally
+		{
+			numWaiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wake up a waiting {@link #take()} after an entry was added. A take that
+	 * increments {@link #numWaiting} after this checked it, sees the entry
+	 * when it checks {@link #isEmpty()}.
+	 */
+	private void signalNotEmpty()
+	{
+		if ( numWaiting.get() > 0 )
+		{
+			final ReentrantLock lock = this.lock;
+			lock.lock();
+			try
+			{
+				notEmpty.signal();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+}
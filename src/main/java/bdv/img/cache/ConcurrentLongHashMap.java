@@ -0,0 +1,325 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent hash map from primitive {@code long} keys to objects, using open
+ * addressing with linear probing. {@link #get(long)} takes no locks and
+ * allocates nothing. Modifications are synchronized per segment.
+ * <p>
+ * Keys must be non-negative. Removed entries leave a tombstone (the key stays
+ * in its slot, with a {@code null} value). Slots are never reused for a
+ * different key, until the segment is rehashed into a new table. This
+ * guarantees that a reader that finds a key in a slot also reads the value
+ * associated with that key.
+ *
+ * @param <V>
+ *            value type.
+ */
+public class ConcurrentLongHashMap< V >
+{
+	private static final long FREE = -1;
+
+	private static final int SEGMENT_BITS = 5;
+
+	private static final int NUM_SEGMENTS = 1 << SEGMENT_BITS;
+
+	private static final int MIN_CAPACITY = 64;
+
+	private static final class Table
+	{
+		final AtomicLongArray keys;
+
+		final AtomicReferenceArray< Object > values;
+
+		final int mask;
+
+		Table( final int capacity )
+		{
+			keys = new AtomicLongArray( capacity );
+			for ( int i = 0; i < capacity; ++i )
+				keys.lazySet( i, FREE );
+			values = new AtomicReferenceArray< Object >( capacity );
+			mask = capacity - 1;
+		}
+
+		int capacity()
+		{
+			return mask + 1;
+		}
+	}
+
+	private static final class Segment
+	{
+		volatile Table table = new Table( MIN_CAPACITY );
+
+		/**
+		 * Number of slots with non-null value.
+		 */
+		int size = 0;
+
+		/**
+		 * Number of slots with a key (including tombstones).
+		 */
+		int used = 0;
+	}
+
+	private final Segment[] segments;
+
+	public ConcurrentLongHashMap()
+	{
+		segments = new Segment[ NUM_SEGMENTS ];
+		for ( int i = 0; i < NUM_SEGMENTS; ++i )
+			segments[ i ] = new Segment();
+	}
+
+	/**
+	 * Finalization step of MurmurHash3. Spreads consecutive keys over the
+	 * whole table.
+	 */
+	private static long hash( long key )
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private Segment segmentFor( final long hash )
+	{
+		return segments[ ( int ) ( hash >>> ( 64 - SEGMENT_BITS ) ) ];
+	}
+
+	/**
+	 * Get the value associated with {@code key}.
+	 *
+	 * @return the value or null if {@code key} is not in the map.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V get( final long key )
+	{
+		final long h = hash( key );
+		final Table t = segmentFor( h ).table;
+		for ( int i = ( int ) h & t.mask;; i = ( i + 1 ) & t.mask )
+		{
+			final long k = t.keys.get( i );
+			if ( k == key )
+				return ( V ) t.values.get( i );
+			if ( k == FREE )
+				return null;
+		}
+	}
+
+	/**
+	 * Associate {@code value} with {@code key}.
+	 *
+	 * @return the previous value or null.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V put( final long key, final V value )
+	{
+		if ( key < 0 )
+			throw new IllegalArgumentException( "negative key" );
+		if ( value == null )
+			throw new NullPointerException();
+		final long h = hash( key );
+		final Segment s = segmentFor( h );
+		synchronized ( s )
+		{
+			Table t = s.table;
+			int i = ( int ) h & t.mask;
+			while ( true )
+			{
+				final long k = t.keys.get( i );
+				if ( k == key )
+				{
+					final Object previous = t.values.getAndSet( i, value );
+					if ( previous == null )
+						++s.size;
+					return ( V ) previous;
+				}
+				if ( k == FREE )
+					break;
+				i = ( i + 1 ) & t.mask;
+			}
+
+			if ( 2 * ( s.used + 1 ) > t.capacity() )
+			{
+				t = rehash( s );
+				i = ( int ) h & t.mask;
+				while ( t.keys.get( i ) != FREE )
+					i = ( i + 1 ) & t.mask;
+			}
+
+			// value first, so that readers that see the key also see the value
+			t.values.set( i, value );
+			t.keys.set( i, key );
+			++s.used;
+			++s.size;
+			return null;
+		}
+	}
+
+	/**
+	 * Remove the value associated with {@code key}.
+	 *
+	 * @return the removed value or null.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V remove( final long key )
+	{
+		final long h = hash( key );
+		final Segment s = segmentFor( h );
+		synchronized ( s )
+		{
+			final Table t = s.table;
+			final int i = find( t, h, key );
+			if ( i < 0 )
+				return null;
+			final Object previous = t.values.getAndSet( i, null );
+			if ( previous != null )
+				--s.size;
+			return ( V ) previous;
+		}
+	}
+
+	/**
+	 * Remove the value associated with {@code key}, if it is {@code value}.
+	 *
+	 * @return whether the value was removed.
+	 */
+	public boolean remove( final long key, final V value )
+	{
+		final long h = hash( key );
+		final Segment s = segmentFor( h );
+		synchronized ( s )
+		{
+			final Table t = s.table;
+			final int i = find( t, h, key );
+			if ( i < 0 || !t.values.compareAndSet( i, value, null ) )
+				return false;
+			--s.size;
+			return true;
+		}
+	}
+
+	/**
+	 * @return a snapshot of all values in the map.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public ArrayList< V > values()
+	{
+		final ArrayList< V > values = new ArrayList< V >();
+		for ( final Segment s : segments )
+		{
+			final Table t = s.table;
+			for ( int i = 0; i < t.capacity(); ++i )
+			{
+				final Object value = t.values.get( i );
+				if ( value != null )
+					values.add( ( V ) value );
+			}
+		}
+		return values;
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for ( final Segment s : segments )
+			synchronized ( s )
+			{
+				size += s.size;
+			}
+		return size;
+	}
+
+	public void clear()
+	{
+		for ( final Segment s : segments )
+			synchronized ( s )
+			{
+				s.table = new Table( MIN_CAPACITY );
+				s.size = 0;
+				s.used = 0;
+			}
+	}
+
+	/**
+	 * @return slot index of {@code key} or -1.
+	 */
+	private static int find( final Table t, final long h, final long key )
+	{
+		for ( int i = ( int ) h & t.mask;; i = ( i + 1 ) & t.mask )
+		{
+			final long k = t.keys.get( i );
+			if ( k == key )
+				return i;
+			if ( k == FREE )
+				return -1;
+		}
+	}
+
+	/**
+	 * Copy the live entries of the segment into a new table, such that it is
+	 * at most a quarter full afterwards. Tombstones are dropped. Must be called
+	 * while holding the segment lock. Readers holding the old table still see
+	 * a consistent (if slightly stale) state.
+	 */
+	private static Table rehash( final Segment s )
+	{
+		final Table old = s.table;
+		int capacity = MIN_CAPACITY;
+		while ( capacity < 4 * ( s.size + 1 ) )
+			capacity <<= 1;
+		final Table t = new Table( capacity );
+		for ( int j = 0; j < old.capacity(); ++j )
+		{
+			final Object value = old.values.get( j );
+			if ( value != null )
+			{
+				final long key = old.keys.get( j );
+				int i = ( int ) hash( key ) & t.mask;
+				while ( t.keys.get( i ) != FREE )
+					i = ( i + 1 ) & t.mask;
+				t.values.lazySet( i, value );
+				t.keys.lazySet( i, key );
+			}
+		}
+		s.table = t;
+		s.used = s.size;
+		return t;
+	}
+}
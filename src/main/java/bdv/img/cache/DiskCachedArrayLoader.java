@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.io.IOException;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+
+/**
+ * A {@link CacheArrayLoader} that looks up cells in a
+ * {@link PersistentBlockCache} before delegating to another
+ * {@link CacheArrayLoader}. Cells loaded by the delegate are written to the
+ * {@link PersistentBlockCache}.
+ *
+ * @param <A>
+ *            access type.
+ */
+public class DiskCachedArrayLoader< A extends VolatileAccess > implements CacheArrayLoader< A >
+{
+	private final CacheArrayLoader< A > loader;
+
+	private final PersistentBlockCache diskCache;
+
+	public DiskCachedArrayLoader( final CacheArrayLoader< A > loader, final PersistentBlockCache diskCache )
+	{
+		this.loader = loader;
+		this.diskCache = diskCache;
+	}
+
+	@Override
+	public int getBytesPerElement()
+	{
+		return loader.getBytesPerElement();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public A loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final A cached = ( A ) diskCache.get( timepoint, setup, level, dimensions, min, getBytesPerElement() );
+		if ( cached != null )
+			return cached;
+
+		final A array = loader.loadArray( timepoint, setup, level, dimensions, min );
+		if ( array.isValid() )
+		{
+			try
+			{
+				diskCache.put( timepoint, setup, level, min, array );
+			}
+			catch ( final IOException e )
+			{
+				// the cell is still loaded, it is just not cached on disk.
+				// counted in PersistentBlockCache.getFailedWrites().
+			}
+		}
+		return array;
+	}
+
+	@Override
+	public A emptyArray( final int[] dimensions )
+	{
+		return loader.emptyArray( dimensions );
+	}
+
+	public CacheArrayLoader< A > getDelegate()
+	{
+		return loader;
+	}
+
+	public PersistentBlockCache getDiskCache()
+	{
+		return diskCache;
+	}
+}
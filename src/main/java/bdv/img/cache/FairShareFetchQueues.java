@@ -0,0 +1,302 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fetch queues shared by several clients (for example, image loaders sharing
+ * one {@link VolatileGlobalCellCache}, see {@link SharedCellCacheService}).
+ * Every element is assigned to a client by a {@link Classifier}. Each client
+ * has its own queues and prefetch deque, organized like
+ * {@link BlockingFetchQueues}. {@link #take()} returns an element of the
+ * highest priority available over all clients. Among the clients that have
+ * elements of that priority, elements are taken round-robin, so that a client
+ * enqueueing many requests cannot starve the others.
+ *
+ * @param <E>
+ *            element type.
+ */
+public class FairShareFetchQueues< E > implements FetchQueues< E >
+{
+	/**
+	 * Assigns elements to clients.
+	 */
+	public static interface Classifier< E >
+	{
+		/**
+		 * @return the client index (&ge; 0) of the element.
+		 */
+		public int getClient( E element );
+	}
+
+	/**
+	 * Queues of one client.
+	 */
+	private static final class ClientQueues< E >
+	{
+		final ArrayDeque< E >[] queues;
+
+		final ArrayDeque< E > prefetch;
+
+		int count;
+
+		@SuppressWarnings( "unchecked" )
+		ClientQueues( final int numPriorities )
+		{
+			queues = new ArrayDeque[ numPriorities ];
+			for ( int i = 0; i < numPriorities; ++i )
+				queues[ i ] = new ArrayDeque< E >();
+			prefetch = new ArrayDeque< E >();
+			count = 0;
+		}
+	}
+
+	private final int numPriorities;
+
+	private final int prefetchCapacity;
+
+	private final Classifier< E > classifier;
+
+	private final ArrayList< ClientQueues< E > > clients;
+
+	/** Client at which the round-robin search starts */
+	private int nextClient;
+
+	/** Number of elements over all clients */
+	private int count;
+
+	/** Main lock guarding all access */
+	private final ReentrantLock lock;
+
+	/** Condition for waiting takes */
+	private final Condition notEmpty;
+
+	public FairShareFetchQueues( final int numPriorities, final Classifier< E > classifier )
+	{
+		this( numPriorities, 16384, classifier );
+	}
+
+	/**
+	 * @param numPriorities
+	 *            number of priority levels.
+	 * @param prefetchCapacity
+	 *            capacity of the prefetch deque of each client.
+	 * @param classifier
+	 *            assigns elements to clients.
+	 */
+	public FairShareFetchQueues( final int numPriorities, final int prefetchCapacity, final Classifier< E > classifier )
+	{
+		this.numPriorities = numPriorities;
+		this.prefetchCapacity = prefetchCapacity;
+		this.classifier = classifier;
+		clients = new ArrayList< ClientQueues< E > >();
+		nextClient = 0;
+		count = 0;
+		lock = new ReentrantLock();
+		notEmpty = lock.newCondition();
+	}
+
+	@Override
+	public void put( final E element, final int priority, final boolean enqueuToFront )
+	{
+		final int client = classifier.getClient( element );
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			while ( clients.size() <= client )
+				clients.add( new ClientQueues< E >( numPriorities ) );
+			final ClientQueues< E > c = clients.get( client );
+			if ( enqueuToFront )
+				c.queues[ priority ].addFirst( element );
+			else
+				c.queues[ priority ].add( element );
+			++c.count;
+			++count;
+			notEmpty.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public E take() throws InterruptedException
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lockInterruptibly();
+		try
+		{
+			while ( count == 0 )
+				notEmpty.await();
+			final int numClients = clients.size();
+			for ( int p = 0; p < numPriorities; ++p )
+				for ( int i = 0; i < numClients; ++i )
+				{
+					final int client = ( nextClient + i ) % numClients;
+					final ClientQueues< E > c = clients.get( client );
+					if ( !c.queues[ p ].isEmpty() )
+						return remove( c, c.queues[ p ], client );
+				}
+			for ( int i = 0; i < numClients; ++i )
+			{
+				final int client = ( nextClient + i ) % numClients;
+				final ClientQueues< E > c = clients.get( client );
+				if ( !c.prefetch.isEmpty() )
+					return remove( c, c.prefetch, client );
+			}
+			return null;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove the first element of {@code q}, which belongs to
+	 * {@code client}, and advance the round-robin start to the next client.
+	 */
+	private E remove( final ClientQueues< E > c, final ArrayDeque< E > q, final int client )
+	{
+		--c.count;
+		--count;
+		nextClient = client + 1;
+		return q.remove();
+	}
+
+	/**
+	 * Atomically removes all elements from the queues of all clients. Removed
+	 * elements are moved to the prefetch deques of their clients, like in
+	 * {@link BlockingFetchQueues#clear()}.
+	 */
+	@Override
+	public void clear()
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			count = 0;
+			for ( final ClientQueues< E > c : clients )
+			{
+				c.count = BlockingFetchQueues.moveToPrefetch( c.queues, c.prefetch, c.count, prefetchCapacity );
+				count += c.count;
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			return count;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int[] getQueueSizes()
+	{
+		final int[] sizes = new int[ numPriorities + 1 ];
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			for ( final ClientQueues< E > c : clients )
+			{
+				for ( int i = 0; i < numPriorities; ++i )
+					sizes[ i ] += c.queues[ i ].size();
+				sizes[ numPriorities ] += c.prefetch.size();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return sizes;
+	}
+
+	/**
+	 * Get the number of currently enqueued elements (including prefetch
+	 * elements) of one client.
+	 */
+	public int size( final int client )
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			return client < clients.size() ? clients.get( client ).count : 0;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int removeAll()
+	{
+		final ReentrantLock lock = this.lock;
+		lock.lock();
+		try
+		{
+			final int removed = count;
+			for ( final ClientQueues< E > c : clients )
+			{
+				for ( final ArrayDeque< E > q : c.queues )
+					q.clear();
+				c.prefetch.clear();
+				c.count = 0;
+			}
+			count = 0;
+			return removed;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+/**
+ * Prioritized queues of elements (intended for cells to be fetched). Elements
+ * are {@link #put(Object, int, boolean) put} with a priority. {@link #take()}
+ * returns an element of the highest priority available, blocking if
+ * necessary. {@link #clear()} marks the beginning of a new frame: elements
+ * enqueued so far are demoted to prefetch requests, which are only handled
+ * when there are no other requests.
+ *
+ * @param <E>
+ *            element type.
+ *
+ * @see BlockingFetchQueues
+ * @see ConcurrentFetchQueues
+ */
+public interface FetchQueues< E >
+{
+	/**
+	 * Add element to the queue of the specified priority. The element can be
+	 * added to the front or back of the queue.
+	 *
+	 * @param element
+	 *            the element to enqueue
+	 * @param priority
+	 *            lower values mean higher priority
+	 * @param enqueuToFront
+	 *            if true, enqueu element at the front (LIFO). if false, enqueue
+	 *            element at the back (FIFO)
+	 */
+	public void put( final E element, final int priority, final boolean enqueuToFront );
+
+	/**
+	 * Remove and return an element from the highest priority non-empty queue.
+	 * If all queues are empty, then return a prefetch element. If there are no
+	 * prefetch elements either, then block.
+	 *
+	 * @return element.
+	 * @throws InterruptedException
+	 */
+	public E take() throws InterruptedException;
+
+	/**
+	 * Demote all currently enqueued elements to prefetch elements.
+	 */
+	public void clear();
+
+	/**
+	 * Get the number of currently enqueued elements, including prefetch
+	 * elements. This is only a snapshot and may be approximate.
+	 *
+	 * @return number of enqueued elements.
+	 */
+	public int size();
+
+	/**
+	 * Get the number of currently enqueued elements per priority. This is only
+	 * a snapshot and may be approximate.
+	 *
+	 * @return array of length <em>numPriorities + 1</em>. Element <em>i</em>
+	 *         is the number of elements with priority <em>i</em>, the last
+	 *         element is the number of prefetch elements.
+	 */
+	public int[] getQueueSizes();
+
+	/**
+	 * Remove all elements, including prefetch elements.
+	 *
+	 * @return the number of removed elements (may be approximate).
+	 */
+	public int removeAll();
+}
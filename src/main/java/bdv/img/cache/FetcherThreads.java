@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import org.jdom2.Element;
+
+/**
+ * Configuration of the fetcher threads of a {@link VolatileGlobalCellCache}:
+ * the (initial) number of threads, the maximum number of threads if the pool
+ * is sized adaptively (see
+ * {@link VolatileGlobalCellCache#setAdaptiveNumFetcherThreads(int, int)}),
+ * and the requested thread stack size.
+ * <p>
+ * Image loaders store a {@link FetcherThreads} and
+ * {@link #applyTo(VolatileGlobalCellCache) apply} it to their cache. It can be
+ * specified in the XML as attributes of the {@code ImageLoader} element, for
+ * example
+ *
+ * <pre>
+ * &lt;ImageLoader format="bdv.remote" fetcherThreads="16" maxFetcherThreads="256" fetcherStackSize="262144"&gt;
+ * </pre>
+ */
+public class FetcherThreads
+{
+	public static final String NUM_FETCHER_THREADS_ATTRIBUTE_NAME = "fetcherThreads";
+
+	public static final String MAX_FETCHER_THREADS_ATTRIBUTE_NAME = "maxFetcherThreads";
+
+	public static final String FETCHER_STACK_SIZE_ATTRIBUTE_NAME = "fetcherStackSize";
+
+	/**
+	 * Stack size used by {@link #latencyBound(int, int)}.
+	 */
+	public static final long LATENCY_BOUND_STACK_SIZE = 256 * 1024;
+
+	private final int numFetcherThreads;
+
+	private final int maxFetcherThreads;
+
+	private final long stackSize;
+
+	/**
+	 * A fixed number of fetcher threads.
+	 */
+	public FetcherThreads( final int numFetcherThreads )
+	{
+		this( numFetcherThreads, numFetcherThreads, 0 );
+	}
+
+	/**
+	 * @param numFetcherThreads
+	 *            (minimum) number of fetcher threads.
+	 * @param maxFetcherThreads
+	 *            maximum number of fetcher threads. If this is larger than
+	 *            {@code numFetcherThreads}, the pool is sized adaptively.
+	 * @param stackSize
+	 *            requested stack size of fetcher threads in bytes, or 0 for the
+	 *            platform default.
+	 */
+	public FetcherThreads( final int numFetcherThreads, final int maxFetcherThreads, final long stackSize )
+	{
+		this.numFetcherThreads = numFetcherThreads;
+		this.maxFetcherThreads = Math.max( numFetcherThreads, maxFetcherThreads );
+		this.stackSize = stackSize;
+	}
+
+	/**
+	 * Configuration for latency-bound loaders (remote servers), where threads
+	 * mostly wait for responses and many requests should be in flight. The
+	 * pool is sized adaptively up to {@code maxFetcherThreads} (which may be
+	 * in the hundreds) and threads use a small stack.
+	 */
+	public static FetcherThreads latencyBound( final int numFetcherThreads, final int maxFetcherThreads )
+	{
+		return new FetcherThreads( numFetcherThreads, maxFetcherThreads, LATENCY_BOUND_STACK_SIZE );
+	}
+
+	public int getNumFetcherThreads()
+	{
+		return numFetcherThreads;
+	}
+
+	public int getMaxFetcherThreads()
+	{
+		return maxFetcherThreads;
+	}
+
+	public long getStackSize()
+	{
+		return stackSize;
+	}
+
+	public boolean isAdaptive()
+	{
+		return maxFetcherThreads > numFetcherThreads;
+	}
+
+	/**
+	 * Configure the fetcher threads of {@code cache}. The stack size only
+	 * affects threads that are started after this call.
+	 */
+	public void applyTo( final VolatileGlobalCellCache cache )
+	{
+		cache.setFetcherThreadStackSize( stackSize );
+		if ( isAdaptive() )
+			cache.setAdaptiveNumFetcherThreads( numFetcherThreads, maxFetcherThreads );
+		else
+			cache.setNumFetcherThreads( numFetcherThreads );
+	}
+
+	/**
+	 * Read fetcher thread configuration from attributes of {@code elem}.
+	 * Missing attributes are taken from {@code defaults}.
+	 */
+	public static FetcherThreads fromXml( final Element elem, final FetcherThreads defaults )
+	{
+		final String num = elem.getAttributeValue( NUM_FETCHER_THREADS_ATTRIBUTE_NAME );
+		final String max = elem.getAttributeValue( MAX_FETCHER_THREADS_ATTRIBUTE_NAME );
+		final String stack = elem.getAttributeValue( FETCHER_STACK_SIZE_ATTRIBUTE_NAME );
+		if ( num == null && max == null && stack == null )
+			return defaults;
+		final int numFetcherThreads = num == null ? defaults.numFetcherThreads : Integer.parseInt( num );
+		final int maxFetcherThreads = max == null ? numFetcherThreads : Integer.parseInt( max );
+		final long stackSize = stack == null ? defaults.stackSize : Long.parseLong( stack );
+		return new FetcherThreads( numFetcherThreads, maxFetcherThreads, stackSize );
+	}
+
+	/**
+	 * Write fetcher thread configuration as attributes of {@code elem}.
+	 * Nothing is written if it equals {@code defaults}.
+	 */
+	public void toXml( final Element elem, final FetcherThreads defaults )
+	{
+		if ( equals( defaults ) )
+			return;
+		elem.setAttribute( NUM_FETCHER_THREADS_ATTRIBUTE_NAME, Integer.toString( numFetcherThreads ) );
+		if ( isAdaptive() )
+			elem.setAttribute( MAX_FETCHER_THREADS_ATTRIBUTE_NAME, Integer.toString( maxFetcherThreads ) );
+		if ( stackSize != 0 )
+			elem.setAttribute( FETCHER_STACK_SIZE_ATTRIBUTE_NAME, Long.toString( stackSize ) );
+	}
+
+	@Override
+	public boolean equals( final Object obj )
+	{
+		if ( !( obj instanceof FetcherThreads ) )
+			return false;
+		final FetcherThreads other = ( FetcherThreads ) obj;
+		return numFetcherThreads == other.numFetcherThreads && maxFetcherThreads == other.maxFetcherThreads && stackSize == other.stackSize;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return ( 31 * numFetcherThreads + maxFetcherThreads ) * 31 + ( int ) ( stackSize ^ ( stackSize >>> 32 ) );
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A spatial {@link KeepSet}: a list of boxes (in level pixel coordinates) per
+ * (timepoint, setup, level). A cell is contained if it intersects any box of
+ * its (timepoint, setup, level). Cells of a (timepoint, setup, level) without
+ * boxes are not contained.
+ * <p>
+ * Typically, the boxes are replaced every frame with the regions of the
+ * sources that are visible on screen.
+ */
+public class IntervalKeepSet implements KeepSet
+{
+	private final HashMap< Long, ArrayList< long[][] > > boxes = new HashMap< Long, ArrayList< long[][] > >();
+
+	/**
+	 * Add a box.
+	 *
+	 * @param min
+	 *            minimum of the box (inclusive), in pixel coordinates of the
+	 *            given level.
+	 * @param max
+	 *            maximum of the box (inclusive), in pixel coordinates of the
+	 *            given level.
+	 */
+	public synchronized void add( final int timepoint, final int setup, final int level, final long[] min, final long[] max )
+	{
+		final Long key = key( timepoint, setup, level );
+		ArrayList< long[][] > list = boxes.get( key );
+		if ( list == null )
+		{
+			list = new ArrayList< long[][] >();
+			boxes.put( key, list );
+		}
+		list.add( new long[][] { min.clone(), max.clone() } );
+	}
+
+	/**
+	 * Remove all boxes.
+	 */
+	public synchronized void clear()
+	{
+		boxes.clear();
+	}
+
+	@Override
+	public synchronized boolean contains( final int timepoint, final int setup, final int level, final long[] cellMin, final int[] cellDimensions )
+	{
+		final ArrayList< long[][] > list = boxes.get( key( timepoint, setup, level ) );
+		if ( list == null )
+			return false;
+		A: for ( final long[][] box : list )
+		{
+			final long[] min = box[ 0 ];
+			final long[] max = box[ 1 ];
+			for ( int d = 0; d < cellMin.length; ++d )
+				if ( cellMin[ d ] > max[ d ] || cellMin[ d ] + cellDimensions[ d ] - 1 < min[ d ] )
+					continue A;
+			return true;
+		}
+		return false;
+	}
+
+	private static Long key( final int timepoint, final int setup, final int level )
+	{
+		return ( ( long ) timepoint << 32 ) | ( ( long ) setup << 16 ) | level;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies with logarithmic buckets. Bucket 0
+ * counts latencies below 1 microsecond, bucket <em>i &gt; 0</em> counts
+ * latencies in [2<sup>i-1</sup>, 2<sup>i</sup>) microseconds. The last bucket
+ * also counts all larger latencies.
+ */
+public class LatencyHistogram
+{
+	public static final int NUM_BUCKETS = 32;
+
+	private final AtomicLongArray counts;
+
+	private final AtomicLong count;
+
+	private final AtomicLong sumNanoTime;
+
+	public LatencyHistogram()
+	{
+		counts = new AtomicLongArray( NUM_BUCKETS );
+		count = new AtomicLong();
+		sumNanoTime = new AtomicLong();
+	}
+
+	public void add( final long nanoTime )
+	{
+		final long micros = nanoTime / 1000;
+		final int bucket = Math.min( NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros( micros ) );
+		counts.incrementAndGet( bucket );
+		count.incrementAndGet();
+		sumNanoTime.addAndGet( nanoTime );
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * @return mean latency in nanoseconds, or 0 if the histogram is empty.
+	 */
+	public double getMeanNanoTime()
+	{
+		final long n = count.get();
+		return n == 0 ? 0 : ( double ) sumNanoTime.get() / n;
+	}
+
+	/**
+	 * @return a copy of the bucket counts.
+	 */
+	public long[] getCounts()
+	{
+		final long[] c = new long[ NUM_BUCKETS ];
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			c[ i ] = counts.get( i );
+		return c;
+	}
+
+	/**
+	 * Get the (exclusive) upper bound of bucket {@code i} in microseconds.
+	 */
+	public static long getBucketUpperBoundMicros( final int i )
+	{
+		return 1l << i;
+	}
+
+	/**
+	 * Estimate a percentile from bucket counts.
+	 *
+	 * @param counts
+	 *            bucket counts, see {@link #getCounts()}.
+	 * @param p
+	 *            percentile in [0, 1].
+	 * @return the upper bound (in microseconds) of the bucket containing the
+	 *         percentile, or 0 if there are no counts.
+	 */
+	public static long getPercentileUpperBoundMicros( final long[] counts, final double p )
+	{
+		long total = 0;
+		for ( final long c : counts )
+			total += c;
+		if ( total == 0 )
+			return 0;
+		final long rank = ( long ) Math.ceil( p * total );
+		long sum = 0;
+		for ( int i = 0; i < counts.length; ++i )
+		{
+			sum += counts[ i ];
+			if ( sum >= rank )
+				return getBucketUpperBoundMicros( i );
+		}
+		return getBucketUpperBoundMicros( counts.length - 1 );
+	}
+
+	public void reset()
+	{
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			counts.set( i, 0 );
+		count.set( 0 );
+		sumNanoTime.set( 0 );
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+
+/**
+ * Second cache tier that keeps cell data outside the Java heap. Cells evicted
+ * from the {@link VolatileGlobalCellCache} are {@link #put(Object, VolatileAccess)
+ * copied} into direct {@link ByteBuffer}s, and {@link #take(Object) copied back}
+ * into new (valid) volatile arrays when they are accessed again.
+ * <p>
+ * The store is bounded by {@link #getMaxBytes()}. When it is full, the least
+ * recently stored or accessed cells are dropped. Direct buffers of dropped
+ * cells are kept for reuse (cells mostly have the same size) as long as they
+ * fit into the budget, because allocating direct memory is expensive and it is
+ * only released by the garbage collector.
+ * <p>
+ * Only {@link VolatileByteArray}, {@link VolatileShortArray},
+ * {@link VolatileIntArray}, and {@link VolatileFloatArray} can be stored.
+ *
+ * @param <K>
+ *            key type.
+ */
+public class OffHeapCellStore< K >
+{
+	private static class Stored
+	{
+		final ByteBuffer buffer;
+
+		final byte type;
+
+		Stored( final ByteBuffer buffer, final byte type )
+		{
+			this.buffer = buffer;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Stored cells, least recently used first.
+	 */
+	private final LinkedHashMap< K, Stored > stored;
+
+	/**
+	 * Unused direct buffers, by capacity.
+	 */
+	private final HashMap< Integer, ArrayDeque< ByteBuffer > > freeBuffers;
+
+	private long maxBytes;
+
+	/**
+	 * Sum of capacities of buffers in {@link #stored}.
+	 */
+	private long usedBytes;
+
+	/**
+	 * Sum of capacities of buffers that {@link #put(Object, VolatileAccess)}
+	 * calls are currently writing (outside the lock). These count against the
+	 * budget, so that concurrent puts cannot exceed it.
+	 */
+	private long reservedBytes;
+
+	/**
+	 * Sum of capacities of buffers in {@link #stored} and
+	 * {@link #freeBuffers}.
+	 */
+	private long allocatedBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong stores = new AtomicLong();
+
+	private final AtomicLong drops = new AtomicLong();
+
+	/**
+	 * @param maxBytes
+	 *            maximum amount of direct memory to use.
+	 */
+	public OffHeapCellStore( final long maxBytes )
+	{
+		stored = new LinkedHashMap< K, Stored >( 16, 0.75f, true );
+		freeBuffers = new HashMap< Integer, ArrayDeque< ByteBuffer > >();
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Copy the data of a cell into the store. If the type of {@code data} is
+	 * not supported, or it doesn't fit into the store, nothing happens.
+	 *
+	 * @param key
+	 *            key of the cell.
+	 * @param data
+	 *            (valid) data of the cell.
+	 * @return whether the data was stored.
+	 */
+	public boolean put( final K key, final VolatileAccess data )
+	{
+		final byte type = VolatileArrayCodec.typeOf( data );
+		if ( type == VolatileArrayCodec.UNSUPPORTED )
+			return false;
+		final int numBytes = VolatileArrayCodec.numBytes( data, type );
+
+		final ByteBuffer buffer;
+		synchronized ( this )
+		{
+			if ( numBytes > maxBytes )
+				return false;
+			remove( key );
+			makeRoom( numBytes );
+			if ( usedBytes + reservedBytes + numBytes > maxBytes )
+				return false; // the budget is taken by concurrent puts
+			buffer = allocate( numBytes );
+			reservedBytes += numBytes;
+		}
+
+		VolatileArrayCodec.write( data, type, buffer );
+
+		synchronized ( this )
+		{
+			reservedBytes -= numBytes;
+			remove( key );
+			makeRoom( numBytes );
+			stored.put( key, new Stored( buffer, type ) );
+			usedBytes += numBytes;
+		}
+		stores.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Remove a cell from the store and return its data as a new valid volatile
+	 * array on the Java heap.
+	 *
+	 * @param key
+	 *            key of the cell.
+	 * @return the data of the cell, or null if the cell is not in the store.
+	 */
+	public VolatileAccess take( final K key )
+	{
+		final Stored s;
+		synchronized ( this )
+		{
+			s = stored.remove( key );
+			if ( s != null )
+				usedBytes -= s.buffer.capacity();
+		}
+		if ( s == null )
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+
+		final ByteBuffer buffer = s.buffer;
+		final VolatileAccess data = VolatileArrayCodec.read( s.type, buffer, buffer.capacity() );
+
+		synchronized ( this )
+		{
+			recycle( buffer );
+		}
+		hits.incrementAndGet();
+		return data;
+	}
+
+	/**
+	 * Set the maximum amount of direct memory to use. If necessary, cells are
+	 * dropped to meet the new limit.
+	 */
+	public synchronized void setMaxBytes( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+		makeRoom( 0 );
+		trimFreeBuffers();
+	}
+
+	public synchronized long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * @return number of bytes occupied by stored cells.
+	 */
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+
+	/**
+	 * @return number of bytes of direct memory held by the store, including
+	 *         buffers that are kept for reuse.
+	 */
+	public synchronized long getAllocatedBytes()
+	{
+		return allocatedBytes;
+	}
+
+	/**
+	 * @return number of stored cells.
+	 */
+	public synchronized int size()
+	{
+		return stored.size();
+	}
+
+	/**
+	 * @return number of {@link #take(Object)} calls that found the cell.
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return number of {@link #take(Object)} calls that did not find the
+	 *         cell.
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return number of cells {@link #put(Object, VolatileAccess) stored}.
+	 */
+	public long getStores()
+	{
+		return stores.get();
+	}
+
+	/**
+	 * @return number of cells that were dropped to make room for other cells.
+	 */
+	public long getDrops()
+	{
+		return drops.get();
+	}
+
+	/**
+	 * Remove all cells and release all direct buffers.
+	 */
+	public synchronized void clear()
+	{
+		stored.clear();
+		freeBuffers.clear();
+		usedBytes = 0;
+		allocatedBytes = 0;
+	}
+
+	private void remove( final K key )
+	{
+		final Stored s = stored.remove( key );
+		if ( s != null )
+		{
+			usedBytes -= s.buffer.capacity();
+			recycle( s.buffer );
+		}
+	}
+
+	/**
+	 * Drop least recently used cells until {@code numBytes} more bytes fit into
+	 * the store, in addition to the {@link #reservedBytes}.
+	 */
+	private void makeRoom( final int numBytes )
+	{
+		final Iterator< Map.Entry< K, Stored > > it = stored.entrySet().iterator();
+		while ( usedBytes + reservedBytes + numBytes > maxBytes && it.hasNext() )
+		{
+			final ByteBuffer buffer = it.next().getValue().buffer;
+			it.remove();
+			usedBytes -= buffer.capacity();
+			recycle( buffer );
+			drops.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Get a buffer of the given capacity, reusing a free buffer if possible.
+	 */
+	private ByteBuffer allocate( final int numBytes )
+	{
+		final ArrayDeque< ByteBuffer > free = freeBuffers.get( numBytes );
+		ByteBuffer buffer = free == null ? null : free.poll();
+		if ( buffer == null )
+		{
+			allocatedBytes += numBytes;
+			trimFreeBuffers();
+			buffer = ByteBuffer.allocateDirect( numBytes ).order( ByteOrder.nativeOrder() );
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	private void recycle( final ByteBuffer buffer )
+	{
+		final int capacity = buffer.capacity();
+		ArrayDeque< ByteBuffer > free = freeBuffers.get( capacity );
+		if ( free == null )
+		{
+			free = new ArrayDeque< ByteBuffer >();
+			freeBuffers.put( capacity, free );
+		}
+		free.add( buffer );
+		trimFreeBuffers();
+	}
+
+	/**
+	 * Release free buffers until the allocated direct memory fits into the
+	 * budget.
+	 */
+	private void trimFreeBuffers()
+	{
+		final Iterator< ArrayDeque< ByteBuffer > > it = freeBuffers.values().iterator();
+		while ( allocatedBytes > maxBytes && it.hasNext() )
+		{
+			final ArrayDeque< ByteBuffer > free = it.next();
+			while ( allocatedBytes > maxBytes && !free.isEmpty() )
+				allocatedBytes -= free.poll().capacity();
+			if ( free.isEmpty() )
+				it.remove();
+		}
+	}
+}
@@ -0,0 +1,567 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+
+/**
+ * Persistent local cache for cell data, intended for image loaders that fetch
+ * cells over the network. Use {@link DiskCachedArrayLoader} to put it in front
+ * of any {@link CacheArrayLoader}.
+ * <p>
+ * Each dataset has its own directory (see {@link #open(File, String, long)}).
+ * Cells are keyed by (timepoint, setup, level, cell min). Cell data is
+ * appended to fixed-size, memory-mapped segment files. The location of each
+ * cell is appended to an index file, which is read (and compacted) when the
+ * cache is opened again. When the total size of segment files exceeds the
+ * limit, the oldest segment is deleted together with all cells in it.
+ * <p>
+ * All methods are thread-safe. Cell data is copied to and from the mapped
+ * segments without holding the lock. A cache directory can only be used by
+ * one process at a time.
+ */
+public class PersistentBlockCache
+{
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final int INDEX_MAGIC = 0x42445643; // "BDVC"
+
+	private static final int INDEX_VERSION = 1;
+
+	private static final String INDEX_FILE_NAME = "index";
+
+	private static final String LOCK_FILE_NAME = "lock";
+
+	private static final String SEGMENT_FORMAT = "segment-%08d";
+
+	private static final class BlockKey
+	{
+		final int timepoint;
+
+		final int setup;
+
+		final int level;
+
+		final long[] min;
+
+		final int hashcode;
+
+		BlockKey( final int timepoint, final int setup, final int level, final long[] min )
+		{
+			this.timepoint = timepoint;
+			this.setup = setup;
+			this.level = level;
+			this.min = min;
+			int h = Arrays.hashCode( min );
+			h = 31 * h + level;
+			h = 31 * h + setup;
+			h = 31 * h + timepoint;
+			hashcode = h;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof BlockKey ) )
+				return false;
+			final BlockKey that = ( BlockKey ) obj;
+			return timepoint == that.timepoint && setup == that.setup && level == that.level && Arrays.equals( min, that.min );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashcode;
+		}
+	}
+
+	private static final class Segment
+	{
+		final int id;
+
+		final File file;
+
+		final MappedByteBuffer buffer;
+
+		Segment( final int id, final File file, final int size ) throws IOException
+		{
+			this.id = id;
+			this.file = file;
+			final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+			try
+			{
+				if ( raf.length() != size )
+					raf.setLength( size );
+				buffer = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, size );
+				buffer.order( ByteOrder.nativeOrder() );
+			}
+			finally
+			{
+				// the mapping stays valid after closing the channel
+				raf.close();
+			}
+		}
+
+		ByteBuffer slice( final int offset )
+		{
+			final ByteBuffer b = buffer.duplicate();
+			b.order( ByteOrder.nativeOrder() );
+			b.position( offset );
+			return b;
+		}
+	}
+
+	private static final class Location
+	{
+		final Segment segment;
+
+		final int offset;
+
+		final int length;
+
+		final byte type;
+
+		Location( final Segment segment, final int offset, final int length, final byte type )
+		{
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.type = type;
+		}
+	}
+
+	private final File directory;
+
+	private final long maxBytes;
+
+	private final int segmentSize;
+
+	private final HashMap< BlockKey, Location > index;
+
+	/**
+	 * Segments by id, i.e., oldest first.
+	 */
+	private final TreeMap< Integer, Segment > segments;
+
+	private Segment activeSegment;
+
+	private int activeOffset;
+
+	private DataOutputStream indexLog;
+
+	private final RandomAccessFile lockFile;
+
+	private final FileLock lock;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong writes = new AtomicLong();
+
+	private final AtomicLong failedWrites = new AtomicLong();
+
+	/**
+	 * Open (or create) the cache for a dataset.
+	 *
+	 * @param baseDirectory
+	 *            directory containing the caches of all datasets.
+	 * @param datasetId
+	 *            identifies the dataset, for example the URL of the server.
+	 * @param maxBytes
+	 *            size limit for the dataset's cache.
+	 */
+	public static PersistentBlockCache open( final File baseDirectory, final String datasetId, final long maxBytes ) throws IOException
+	{
+		final String name = datasetId.replaceAll( "[^a-zA-Z0-9._-]", "_" ) + "-" + Integer.toHexString( datasetId.hashCode() );
+		return new PersistentBlockCache( new File( baseDirectory, name ), maxBytes, DEFAULT_SEGMENT_SIZE );
+	}
+
+	/**
+	 * @param directory
+	 *            directory for index and segment files.
+	 * @param maxBytes
+	 *            size limit for segment files.
+	 * @param segmentSize
+	 *            size of each segment file in bytes.
+	 */
+	public PersistentBlockCache( final File directory, final long maxBytes, final int segmentSize ) throws IOException
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.segmentSize = segmentSize;
+		index = new HashMap< BlockKey, Location >();
+		segments = new TreeMap< Integer, Segment >();
+
+		if ( !directory.isDirectory() && !directory.mkdirs() )
+			throw new IOException( "could not create cache directory " + directory );
+
+		lockFile = new RandomAccessFile( new File( directory, LOCK_FILE_NAME ), "rw" );
+		lock = lockFile.getChannel().tryLock();
+		if ( lock == null )
+		{
+			lockFile.close();
+			throw new IOException( "cache directory " + directory + " is in use by another process" );
+		}
+
+		readIndex();
+		writeIndex();
+		evictSegments();
+	}
+
+	/**
+	 * Get a cell from the cache.
+	 *
+	 * @param dimensions
+	 *            dimensions of the cell. Used to check that the stored data has
+	 *            the expected size.
+	 * @param min
+	 *            minimum of the cell.
+	 * @param bytesPerElement
+	 *            bytes per element of the expected data.
+	 * @return a new valid volatile array, or null if the cell is not in the
+	 *         cache.
+	 */
+	public VolatileAccess get( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final int bytesPerElement )
+	{
+		final Location location;
+		synchronized ( this )
+		{
+			location = index.get( new BlockKey( timepoint, setup, level, min ) );
+		}
+		long numBytes = bytesPerElement;
+		for ( final int d : dimensions )
+			numBytes *= d;
+		if ( location == null || location.length != numBytes )
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return VolatileArrayCodec.read( location.type, location.segment.slice( location.offset ), location.length );
+	}
+
+	/**
+	 * Put a cell into the cache. If the type of {@code data} is not supported,
+	 * nothing happens.
+	 *
+	 * @param min
+	 *            minimum of the cell.
+	 * @param data
+	 *            (valid) data of the cell.
+	 * @throws IOException
+	 *             if the cell cannot be written. The failure is counted in
+	 *             {@link #getFailedWrites()}.
+	 */
+	public void put( final int timepoint, final int setup, final int level, final long[] min, final VolatileAccess data ) throws IOException
+	{
+		try
+		{
+			write( timepoint, setup, level, min, data );
+		}
+		catch ( final IOException e )
+		{
+			failedWrites.incrementAndGet();
+			throw e;
+		}
+	}
+
+	private void write( final int timepoint, final int setup, final int level, final long[] min, final VolatileAccess data ) throws IOException
+	{
+		final byte type = VolatileArrayCodec.typeOf( data );
+		if ( type == VolatileArrayCodec.UNSUPPORTED )
+			return;
+		final int numBytes = VolatileArrayCodec.numBytes( data, type );
+		if ( numBytes > segmentSize )
+			return;
+
+		final BlockKey key = new BlockKey( timepoint, setup, level, min.clone() );
+		final Segment segment;
+		final int offset;
+		synchronized ( this )
+		{
+			if ( indexLog == null || index.containsKey( key ) )
+				return;
+			if ( activeSegment == null || activeOffset + numBytes > segmentSize )
+				newSegment();
+			segment = activeSegment;
+			offset = activeOffset;
+			activeOffset += numBytes;
+		}
+
+		VolatileArrayCodec.write( data, type, segment.slice( offset ) );
+
+		synchronized ( this )
+		{
+			// the segment may have been evicted in the meantime
+			if ( indexLog == null || segments.get( segment.id ) != segment )
+				return;
+			final Location location = new Location( segment, offset, numBytes, type );
+			index.put( key, location );
+			writeIndexRecord( indexLog, key, location );
+			indexLog.flush();
+		}
+		writes.incrementAndGet();
+	}
+
+	/**
+	 * Flush all cached data to disk and close the index. After closing,
+	 * {@link #get} always misses and {@link #put} does nothing.
+	 *
+	 * @throws IOException
+	 *             if the index or lock file cannot be closed. The cache is
+	 *             closed anyway.
+	 */
+	public synchronized void close() throws IOException
+	{
+		try
+		{
+			for ( final Segment segment : segments.values() )
+				segment.buffer.force();
+			if ( indexLog != null )
+				indexLog.close();
+			lock.release();
+			lockFile.close();
+		}
+		finally
+		{
+			indexLog = null;
+			index.clear();
+			segments.clear();
+			activeSegment = null;
+		}
+	}
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * @return the size of all segment files in bytes.
+	 */
+	public synchronized long getBytes()
+	{
+		return ( long ) segments.size() * segmentSize;
+	}
+
+	/**
+	 * @return number of cells in the cache.
+	 */
+	public synchronized int size()
+	{
+		return index.size();
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	public long getWrites()
+	{
+		return writes.get();
+	}
+
+	/**
+	 * @return the number of cells that could not be written.
+	 */
+	public long getFailedWrites()
+	{
+		return failedWrites.get();
+	}
+
+	private File segmentFile( final int id )
+	{
+		return new File( directory, String.format( SEGMENT_FORMAT, id ) );
+	}
+
+	private void newSegment() throws IOException
+	{
+		final int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+		activeSegment = new Segment( id, segmentFile( id ), segmentSize );
+		activeOffset = 0;
+		segments.put( id, activeSegment );
+		evictSegments();
+	}
+
+	/**
+	 * Delete the oldest segments (and the cells they contain) until the size
+	 * limit is met. The active segment is never deleted.
+	 */
+	private void evictSegments()
+	{
+		while ( getBytes() > maxBytes && segments.size() > 1 && segments.firstEntry().getValue() != activeSegment )
+		{
+			final Segment oldest = segments.pollFirstEntry().getValue();
+			final Iterator< Location > it = index.values().iterator();
+			while ( it.hasNext() )
+				if ( it.next().segment == oldest )
+					it.remove();
+			// Cells that are being read right now remain accessible through
+			// the mapping, even after the file is deleted.
+			if ( !oldest.file.delete() )
+				oldest.file.deleteOnExit();
+		}
+	}
+
+	/**
+	 * Read the index file. Records that refer to missing segments are skipped.
+	 * The active segment is set to the newest segment, after its last cell.
+	 */
+	private void readIndex() throws IOException
+	{
+		final File indexFile = new File( directory, INDEX_FILE_NAME );
+		if ( !indexFile.exists() )
+			return;
+
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) );
+		try
+		{
+			if ( in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION )
+				return;
+			while ( true )
+			{
+				final int timepoint = in.readInt();
+				final int setup = in.readInt();
+				final int level = in.readInt();
+				final long[] min = new long[ in.readInt() ];
+				for ( int d = 0; d < min.length; ++d )
+					min[ d ] = in.readLong();
+				final int segmentId = in.readInt();
+				final int offset = in.readInt();
+				final int length = in.readInt();
+				final byte type = in.readByte();
+
+				Segment segment = segments.get( segmentId );
+				if ( segment == null )
+				{
+					final File file = segmentFile( segmentId );
+					if ( !file.exists() || file.length() != segmentSize )
+						continue;
+					segment = new Segment( segmentId, file, segmentSize );
+					segments.put( segmentId, segment );
+				}
+				if ( offset < 0 || length < 0 || offset + length > segmentSize )
+					continue;
+				index.put( new BlockKey( timepoint, setup, level, min ), new Location( segment, offset, length, type ) );
+			}
+		}
+		catch ( final EOFException e )
+		{
+			// end of index, possibly truncated by a crash
+		}
+		finally
+		{
+			in.close();
+		}
+
+		if ( !segments.isEmpty() )
+		{
+			activeSegment = segments.lastEntry().getValue();
+			activeOffset = 0;
+			for ( final Location location : index.values() )
+				if ( location.segment == activeSegment )
+					activeOffset = Math.max( activeOffset, location.offset + location.length );
+		}
+	}
+
+	/**
+	 * Write a compacted index with all current records, and open it for
+	 * appending new records.
+	 */
+	private void writeIndex() throws IOException
+	{
+		final File indexFile = new File( directory, INDEX_FILE_NAME );
+		final File tmpFile = new File( directory, INDEX_FILE_NAME + ".tmp" );
+		final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) );
+		try
+		{
+			out.writeInt( INDEX_MAGIC );
+			out.writeInt( INDEX_VERSION );
+			for ( final Map.Entry< BlockKey, Location > entry : index.entrySet() )
+				writeIndexRecord( out, entry.getKey(), entry.getValue() );
+		}
+		finally
+		{
+			out.close();
+		}
+		if ( indexFile.exists() && !indexFile.delete() )
+			throw new IOException( "could not replace " + indexFile );
+		if ( !tmpFile.renameTo( indexFile ) )
+			throw new IOException( "could not replace " + indexFile );
+		indexLog = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( indexFile, true ) ) );
+	}
+
+	private static void writeIndexRecord( final DataOutputStream out, final BlockKey key, final Location location ) throws IOException
+	{
+		out.writeInt( key.timepoint );
+		out.writeInt( key.setup );
+		out.writeInt( key.level );
+		out.writeInt( key.min.length );
+		for ( final long m : key.min )
+			out.writeLong( m );
+		out.writeInt( location.segment.id );
+		out.writeInt( location.offset );
+		out.writeInt( location.length );
+		out.writeByte( location.type );
+	}
+}
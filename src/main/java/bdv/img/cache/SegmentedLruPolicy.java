@@ -0,0 +1,267 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segmented LRU eviction policy with a byte budget. Elements are
+ * {@link #add(Object, long) added} to a probationary segment. When they are
+ * {@link #touch(Object) accessed} again, they are promoted to a protected
+ * segment. The protected segment may use at most {@link #PROTECTED_FRACTION}
+ * of the budget; its least recently used elements are demoted back to
+ * probation. Eviction takes least recently used elements from probation first,
+ * then from the protected segment. This makes the policy resistant to scans
+ * (for example prefetching a large number of cells that are never looked at
+ * again).
+ * <p>
+ * Elements can be pinned (see {@link Pinning}) to exclude them from eviction
+ * temporarily. If all remaining elements are pinned, the budget is exceeded
+ * until they are unpinned.
+ *
+ * @param <E>
+ *            element type. Elements are compared by
+ *            {@link Object#equals(Object)}.
+ */
+public class SegmentedLruPolicy< E >
+{
+	public static interface Pinning< E >
+	{
+		/**
+		 * @return true, if the element must not be evicted right now.
+		 */
+		public boolean isPinned( E element );
+	}
+
+	/**
+	 * Fraction of the budget that can be used by the protected segment.
+	 */
+	public static final double PROTECTED_FRACTION = 0.8;
+
+	/**
+	 * Probationary segment. Maps element to size in bytes, least recently used
+	 * element first.
+	 */
+	private final LinkedHashMap< E, Long > probation;
+
+	/**
+	 * Protected segment. Maps element to size in bytes, least recently used
+	 * element first.
+	 */
+	private final LinkedHashMap< E, Long > protectedSegment;
+
+	private long maxBytes;
+
+	private long maxProtectedBytes;
+
+	private long bytes;
+
+	private long protectedBytes;
+
+	/**
+	 * @param maxBytes
+	 *            the byte budget.
+	 */
+	public SegmentedLruPolicy( final long maxBytes )
+	{
+		probation = new LinkedHashMap< E, Long >();
+		protectedSegment = new LinkedHashMap< E, Long >();
+		setMaxBytes( maxBytes );
+	}
+
+	/**
+	 * Set the byte budget. This does not evict elements, call
+	 * {@link #evict(Pinning)} to do that.
+	 */
+	public synchronized void setMaxBytes( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+		maxProtectedBytes = ( long ) ( maxBytes * PROTECTED_FRACTION );
+	}
+
+	public synchronized long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	 * @return the sum of the sizes of all elements in the policy.
+	 */
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	public synchronized int size()
+	{
+		return probation.size() + protectedSegment.size();
+	}
+
+	/**
+	 * Add an element to the probationary segment. If the element is already
+	 * present, it is touched instead.
+	 *
+	 * @param element
+	 *            element to add.
+	 * @param elementBytes
+	 *            size of the element in bytes.
+	 */
+	public synchronized void add( final E element, final long elementBytes )
+	{
+		if ( probation.containsKey( element ) || protectedSegment.containsKey( element ) )
+		{
+			touch( element );
+			return;
+		}
+		probation.put( element, elementBytes );
+		bytes += elementBytes;
+	}
+
+	/**
+	 * Record an access to an element. An element in probation is promoted to
+	 * the protected segment, an element in the protected segment becomes most
+	 * recently used. Elements that are not in the policy are ignored.
+	 */
+	public synchronized void touch( final E element )
+	{
+		Long elementBytes = protectedSegment.remove( element );
+		if ( elementBytes != null )
+		{
+			protectedSegment.put( element, elementBytes );
+			return;
+		}
+
+		elementBytes = probation.remove( element );
+		if ( elementBytes != null )
+		{
+			protectedSegment.put( element, elementBytes );
+			protectedBytes += elementBytes;
+
+			// demote least recently used protected elements to probation
+			final Iterator< Map.Entry< E, Long > > it = protectedSegment.entrySet().iterator();
+			while ( protectedBytes > maxProtectedBytes && protectedSegment.size() > 1 )
+			{
+				final Map.Entry< E, Long > eldest = it.next();
+				it.remove();
+				protectedBytes -= eldest.getValue();
+				probation.put( eldest.getKey(), eldest.getValue() );
+			}
+		}
+	}
+
+	/**
+	 * Remove an element from the policy.
+	 *
+	 * @return true, if the element was present.
+	 */
+	public synchronized boolean remove( final E element )
+	{
+		Long elementBytes = probation.remove( element );
+		if ( elementBytes == null )
+		{
+			elementBytes = protectedSegment.remove( element );
+			if ( elementBytes == null )
+				return false;
+			protectedBytes -= elementBytes;
+		}
+		bytes -= elementBytes;
+		return true;
+	}
+
+	/**
+	 * Remove least recently used elements until the budget is met. Pinned
+	 * elements are skipped.
+	 *
+	 * @param pinning
+	 *            decides which elements are pinned. May be null.
+	 * @return list of evicted elements.
+	 */
+	public synchronized List< E > evict( final Pinning< E > pinning )
+	{
+		final ArrayList< E > evicted = new ArrayList< E >();
+		if ( bytes > maxBytes )
+			protectedBytes -= evict( probation, pinning, evicted );
+		if ( bytes > maxBytes )
+			protectedBytes -= evict( protectedSegment, pinning, evicted );
+		return evicted;
+	}
+
+	/**
+	 * Remove all elements from the policy.
+	 *
+	 * @return list of removed elements.
+	 */
+	public synchronized List< E > clear()
+	{
+		final ArrayList< E > removed = new ArrayList< E >( size() );
+		removed.addAll( probation.keySet() );
+		removed.addAll( protectedSegment.keySet() );
+		probation.clear();
+		protectedSegment.clear();
+		bytes = 0;
+		protectedBytes = 0;
+		return removed;
+	}
+
+	/**
+	 * Evict unpinned elements from {@code segment} in LRU order until the
+	 * budget is met. Pinned elements that are passed over are moved to the
+	 * most recently used end of {@code segment}, so that later calls do not
+	 * scan them again before the unpinned elements.
+	 *
+	 * @return the number of evicted bytes if {@code segment} is the protected
+	 *         segment, 0 otherwise.
+	 */
+	private long evict( final LinkedHashMap< E, Long > segment, final Pinning< E > pinning, final List< E > evicted )
+	{
+		long evictedBytes = 0;
+		final ArrayList< Map.Entry< E, Long > > pinned = new ArrayList< Map.Entry< E, Long > >();
+		final Iterator< Map.Entry< E, Long > > it = segment.entrySet().iterator();
+		while ( bytes > maxBytes && it.hasNext() )
+		{
+			final Map.Entry< E, Long > e = it.next();
+			it.remove();
+			if ( pinning != null && pinning.isPinned( e.getKey() ) )
+			{
+				pinned.add( e );
+				continue;
+			}
+			bytes -= e.getValue();
+			evictedBytes += e.getValue();
+			evicted.add( e.getKey() );
+		}
+		for ( final Map.Entry< E, Long > e : pinned )
+			segment.put( e.getKey(), e.getValue() );
+		return segment == protectedSegment ? evictedBytes : 0;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+/**
+ * A process-wide {@link VolatileGlobalCellCache} that image loaders can share,
+ * instead of each creating its own cache with its own fetcher threads and
+ * memory.
+ * <p>
+ * Each loader {@link #register(String) registers} and obtains a namespace,
+ * which it passes to
+ * {@link VolatileGlobalCellCache.VolatileCellCache#VolatileCellCache(int, int, int, int, CacheHints, CacheArrayLoader)}.
+ * All loaders share one byte budget (see
+ * {@link #setMaxCacheSizeInBytes(long)}) and one pool of fetcher threads.
+ * Fetch requests are scheduled with {@link FairShareFetchQueues}, so
+ * requests of equal priority are served round-robin across loaders. Per-loader
+ * statistics are available from {@link #getStatistics(int)}.
+ */
+public class SharedCellCacheService
+{
+	/**
+	 * Number of queue priorities of the shared cache. Priorities of loaders
+	 * with more mipmap levels are clamped.
+	 */
+	public static final int DEFAULT_NUM_PRIORITIES = 16;
+
+	private static SharedCellCacheService instance = null;
+
+	/**
+	 * Get the process-wide instance. It is created on first use with
+	 * {@link #DEFAULT_NUM_PRIORITIES}, one fetcher thread per available
+	 * processor, and no byte budget (loaded cells are softly referenced).
+	 */
+	public static synchronized SharedCellCacheService getInstance()
+	{
+		if ( instance == null )
+			instance = new SharedCellCacheService( DEFAULT_NUM_PRIORITIES, new FetcherThreads( Runtime.getRuntime().availableProcessors() ), -1 );
+		return instance;
+	}
+
+	private final VolatileGlobalCellCache cache;
+
+	/**
+	 * Create a shared cache. Usually, {@link #getInstance()} should be used
+	 * instead.
+	 *
+	 * @param numPriorities
+	 *            number of queue priorities.
+	 * @param fetcherThreads
+	 *            configuration of fetcher threads.
+	 * @param maxCacheSizeInBytes
+	 *            byte budget for loaded cell data of all loaders. If &le; 0,
+	 *            loaded cells are softly referenced.
+	 */
+	public SharedCellCacheService( final int numPriorities, final FetcherThreads fetcherThreads, final long maxCacheSizeInBytes )
+	{
+		cache = new VolatileGlobalCellCache( numPriorities, 0, maxCacheSizeInBytes, new FairShareFetchQueues< Long >( numPriorities, VolatileGlobalCellCache.NAMESPACE_CLASSIFIER ) );
+		fetcherThreads.applyTo( cache );
+	}
+
+	/**
+	 * Register a loader with the shared cache. Loaders registered with the
+	 * same name share a namespace. Each loader must {@link #unregister(int)}
+	 * when it is closed.
+	 *
+	 * @param name
+	 *            name of the loader (for example, the dataset path or URL),
+	 *            used in statistics.
+	 * @return the namespace of the loader.
+	 */
+	public int register( final String name )
+	{
+		return cache.registerNamespace( name );
+	}
+
+	/**
+	 * Unregister a loader from the shared cache. When the last loader of a
+	 * namespace is unregistered, the cells of the namespace are removed and
+	 * the namespace is freed (see
+	 * {@link VolatileGlobalCellCache#unregisterNamespace(int)}).
+	 *
+	 * @param namespace
+	 *            the namespace returned by {@link #register(String)}.
+	 */
+	public void unregister( final int namespace )
+	{
+		cache.unregisterNamespace( namespace );
+	}
+
+	/**
+	 * Remove all cells of a loader from the shared cache, for example when
+	 * the loader is closed.
+	 */
+	public void clear( final int namespace )
+	{
+		cache.clearNamespace( namespace );
+	}
+
+	public VolatileGlobalCellCache getCache()
+	{
+		return cache;
+	}
+
+	/**
+	 * Set the byte budget shared by all loaders (see
+	 * {@link VolatileGlobalCellCache#setMaxCacheSizeInBytes(long)}).
+	 */
+	public void setMaxCacheSizeInBytes( final long maxCacheSizeInBytes )
+	{
+		cache.setMaxCacheSizeInBytes( maxCacheSizeInBytes );
+	}
+
+	/**
+	 * Configure the fetcher threads shared by all loaders.
+	 */
+	public void setFetcherThreads( final FetcherThreads fetcherThreads )
+	{
+		fetcherThreads.applyTo( cache );
+	}
+
+	/**
+	 * Get statistics of one loader.
+	 *
+	 * @param namespace
+	 *            the namespace returned by {@link #register(String)}.
+	 */
+	public CacheMetrics.NamespaceMetrics getStatistics( final int namespace )
+	{
+		return cache.getMetrics().getNamespaceMetrics( namespace );
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import bdv.img.cache.VolatileImgCells.CellCache;
+
+/**
+ * A {@link CellCache} for images in which some cells are known to have the
+ * same value everywhere. Such constant cells are not loaded but created
+ * directly, valid, and are not put into the wrapped cache. Constant cells with
+ * the same value and size share one array, so they take (almost) no memory.
+ * All other cells are handled by the wrapped cache.
+ *
+ * @param <A>
+ *            access type of the cells.
+ */
+public class SparseCellCache< A extends VolatileAccess > implements CellCache< A >
+{
+	/**
+	 * Creates the shared data of constant cells.
+	 */
+	public static interface ConstantArrayFactory< A >
+	{
+		/**
+		 * @return a valid array of {@code numElements} elements, all of which
+		 *         have the given value.
+		 */
+		public A createConstantArray( final int numElements, final double value );
+	}
+
+	private final CellCache< A > cache;
+
+	private final ConstantArrayFactory< A > factory;
+
+	/**
+	 * Maps cell index to value of constant cells.
+	 */
+	private final HashMap< Integer, Double > constantValues;
+
+	private final ConcurrentHashMap< Integer, VolatileCell< A > > constantCells;
+
+	private final ConcurrentHashMap< ArrayKey, A > constantArrays;
+
+	/**
+	 * @param cache
+	 *            handles cells that are not constant.
+	 * @param constantCells
+	 *            for each constant cell, the flattened index of the cell in the
+	 *            cell grid and its value.
+	 * @param factory
+	 *            creates the data of constant cells.
+	 */
+	public SparseCellCache( final CellCache< A > cache, final double[][] constantCells, final ConstantArrayFactory< A > factory )
+	{
+		this.cache = cache;
+		this.factory = factory;
+		constantValues = new HashMap< Integer, Double >( constantCells.length * 2 );
+		for ( final double[] cell : constantCells )
+			constantValues.put( ( int ) cell[ 0 ], cell[ 1 ] );
+		this.constantCells = new ConcurrentHashMap< Integer, VolatileCell< A > >();
+		constantArrays = new ConcurrentHashMap< ArrayKey, A >();
+	}
+
+	@Override
+	public VolatileCell< A > get( final int index )
+	{
+		if ( constantValues.containsKey( index ) )
+			return constantCells.get( index );
+		return cache.get( index );
+	}
+
+	@Override
+	public VolatileCell< A > load( final int index, final int[] cellDims, final long[] cellMin )
+	{
+		final Double value = constantValues.get( index );
+		if ( value == null )
+			return cache.load( index, cellDims, cellMin );
+
+		int numElements = 1;
+		for ( final int d : cellDims )
+			numElements *= d;
+		final ArrayKey key = new ArrayKey( numElements, value );
+		A data = constantArrays.get( key );
+		if ( data == null )
+		{
+			data = factory.createConstantArray( numElements, value );
+			final A previous = constantArrays.putIfAbsent( key, data );
+			if ( previous != null )
+				data = previous;
+		}
+		final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, data );
+		final VolatileCell< A > previous = constantCells.putIfAbsent( index, cell );
+		return previous != null ? previous : cell;
+	}
+
+	@Override
+	public void setCacheHints( final CacheHints cacheHints )
+	{
+		cache.setCacheHints( cacheHints );
+	}
+
+	/**
+	 * @return the number of cells that are known to be constant.
+	 */
+	public int numConstantCells()
+	{
+		return constantValues.size();
+	}
+
+	private static final class ArrayKey
+	{
+		private final int numElements;
+
+		private final double value;
+
+		ArrayKey( final int numElements, final double value )
+		{
+			this.numElements = numElements;
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( !( obj instanceof ArrayKey ) )
+				return false;
+			final ArrayKey other = ( ArrayKey ) obj;
+			return numElements == other.numElements && Double.doubleToLongBits( value ) == Double.doubleToLongBits( other.value );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			final long bits = Double.doubleToLongBits( value );
+			return 31 * numElements + ( int ) ( bits ^ ( bits >>> 32 ) );
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.util.List;
+
+/**
+ * A {@link CacheArrayLoader} for data that stores the cells of several
+ * timepoints together. When a fetcher thread loads a cell with a
+ * {@link TimeChunkedCacheArrayLoader}, the {@link VolatileGlobalCellCache}
+ * reads the same cell for all timepoints of the chunk with one
+ * {@link #loadTimeChunk(int[], int, int, int[], long[])} call, and puts the
+ * cells of the other timepoints into the cache as well. Scrolling through
+ * time at a fixed position then finds them already loaded.
+ *
+ * @param <A>
+ *            access type of the loaded arrays.
+ */
+public interface TimeChunkedCacheArrayLoader< A > extends CacheArrayLoader< A >
+{
+	/**
+	 * Get the timepoints whose cells are stored together with the cells of
+	 * {@code timepoint}.
+	 *
+	 * @return timepoints of the chunk (including {@code timepoint}), or just
+	 *         {@code timepoint} if the data is not time-chunked.
+	 */
+	public int[] getChunkTimepoints( final int timepoint, final int setup, final int level );
+
+	/**
+	 * Load the data of the cell with the given dimensions and minimum for each
+	 * of the given timepoints, which were obtained from
+	 * {@link #getChunkTimepoints(int, int, int)}.
+	 *
+	 * @return loaded arrays, one per timepoint, in the same order.
+	 * @throws InterruptedException
+	 */
+	public List< A > loadTimeChunk( final int[] timepoints, final int setup, final int level, int[] dimensions, long[] min ) throws InterruptedException;
+}
@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.nio.ByteBuffer;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+
+/**
+ * Copy the data of {@link VolatileByteArray}, {@link VolatileShortArray},
+ * {@link VolatileIntArray}, and {@link VolatileFloatArray} to and from
+ * {@link ByteBuffer}s. Used by cache tiers that store cells outside of Java
+ * arrays.
+ */
+final class VolatileArrayCodec
+{
+	static final byte UNSUPPORTED = -1;
+
+	static final byte BYTE = 0;
+
+	static final byte SHORT = 1;
+
+	static final byte INT = 2;
+
+	static final byte FLOAT = 3;
+
+	/**
+	 * @return type code of {@code data}, or {@link #UNSUPPORTED}.
+	 */
+	static byte typeOf( final VolatileAccess data )
+	{
+		if ( data instanceof VolatileShortArray )
+			return SHORT;
+		else if ( data instanceof VolatileByteArray )
+			return BYTE;
+		else if ( data instanceof VolatileIntArray )
+			return INT;
+		else if ( data instanceof VolatileFloatArray )
+			return FLOAT;
+		else
+			return UNSUPPORTED;
+	}
+
+	/**
+	 * @return size of the data of {@code data} in bytes.
+	 */
+	static int numBytes( final VolatileAccess data, final byte type )
+	{
+		switch ( type )
+		{
+		case BYTE:
+			return ( ( VolatileByteArray ) data ).getCurrentStorageArray().length;
+		case SHORT:
+			return 2 * ( ( VolatileShortArray ) data ).getCurrentStorageArray().length;
+		case INT:
+			return 4 * ( ( VolatileIntArray ) data ).getCurrentStorageArray().length;
+		case FLOAT:
+			return 4 * ( ( VolatileFloatArray ) data ).getCurrentStorageArray().length;
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Copy the data of {@code data} into {@code buffer}, starting at the
+	 * buffer's current position. The position of {@code buffer} is not
+	 * modified. The byte order of {@code buffer} is used.
+	 */
+	static void write( final VolatileAccess data, final byte type, final ByteBuffer buffer )
+	{
+		switch ( type )
+		{
+		case BYTE:
+			buffer.duplicate().put( ( ( VolatileByteArray ) data ).getCurrentStorageArray() );
+			break;
+		case SHORT:
+			buffer.asShortBuffer().put( ( ( VolatileShortArray ) data ).getCurrentStorageArray() );
+			break;
+		case INT:
+			buffer.asIntBuffer().put( ( ( VolatileIntArray ) data ).getCurrentStorageArray() );
+			break;
+		case FLOAT:
+			buffer.asFloatBuffer().put( ( ( VolatileFloatArray ) data ).getCurrentStorageArray() );
+			break;
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Create a new valid volatile array of the given type from
+	 * {@code numBytes} bytes of {@code buffer}, starting at the buffer's
+	 * current position. The position of {@code buffer} is not modified. The
+	 * byte order of {@code buffer} is used.
+	 */
+	static VolatileAccess read( final byte type, final ByteBuffer buffer, final int numBytes )
+	{
+		switch ( type )
+		{
+		case BYTE:
+		{
+			final byte[] array = ArrayPool.getInstance().takeBytes( numBytes );
+			buffer.duplicate().get( array );
+			return new VolatileByteArray( array, true );
+		}
+		case SHORT:
+		{
+			final short[] array = ArrayPool.getInstance().takeShorts( numBytes / 2 );
+			buffer.asShortBuffer().get( array );
+			return new VolatileShortArray( array, true );
+		}
+		case INT:
+		{
+			final int[] array = ArrayPool.getInstance().takeInts( numBytes / 4 );
+			buffer.asIntBuffer().get( array );
+			return new VolatileIntArray( array, true );
+		}
+		case FLOAT:
+		{
+			final float[] array = ArrayPool.getInstance().takeFloats( numBytes / 4 );
+			buffer.asFloatBuffer().get( array );
+			return new VolatileFloatArray( array, true );
+		}
+		default:
+			throw new IllegalArgumentException();
+		}
+	}
+
+	private VolatileArrayCodec()
+	{}
+}
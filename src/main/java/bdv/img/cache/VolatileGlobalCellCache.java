@@ -32,8 +32,11 @@ import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
 import bdv.img.cache.CacheIoTiming.IoStatistics;
@@ -42,13 +45,59 @@ import bdv.img.cache.VolatileImgCells.CellCache;
 
 public class VolatileGlobalCellCache implements Cache
 {
-	private final int maxNumTimepoints;
+	private final int maxNumLevels;
 
-	private final int maxNumSetups;
+	/**
+	 * Number of bits of a view-level id that identify the namespace (see
+	 * {@link #registerNamespace(String)}).
+	 */
+	public static final int NAMESPACE_BITS = 8;
 
-	private final int maxNumLevels;
+	public static final int MAX_NUM_NAMESPACES = 1 << NAMESPACE_BITS;
 
-	class Key
+	/**
+	 * Number of bits of a view-level id that identify the (timepoint, setup,
+	 * level) within its namespace.
+	 */
+	private static final int LOCAL_VIEW_LEVEL_ID_BITS = 31 - NAMESPACE_BITS;
+
+	/**
+	 * View-level ids of the (timepoint, setup, level) combinations of a
+	 * namespace.
+	 */
+	private static class NamespaceViewLevelIds
+	{
+		/**
+		 * Ids of combinations with {@code 0 <= timepoint},
+		 * {@code 0 <= setup < 2^24}, and {@code 0 <= level < 2^8}, by
+		 * {@link #packedKey(int, int, int)}.
+		 */
+		final ConcurrentLongHashMap< Integer > packed = new ConcurrentLongHashMap< Integer >();
+
+		/**
+		 * Ids of all other combinations. Guarded by the
+		 * {@link VolatileGlobalCellCache#viewLevelIds} lock.
+		 */
+		final HashMap< ViewLevelKey, Integer > other = new HashMap< ViewLevelKey, Integer >();
+
+		/**
+		 * Number of assigned ids.
+		 */
+		int numIds = 0;
+
+		/**
+		 * @return the key in {@link #packed}, or -1 if the combination is
+		 *         out of its range.
+		 */
+		static long packedKey( final int timepoint, final int setup, final int level )
+		{
+			if ( timepoint < 0 || setup < 0 || setup >= ( 1 << 24 ) || level < 0 || level >= ( 1 << 8 ) )
+				return -1;
+			return ( ( long ) level << 55 ) | ( ( long ) setup << 31 ) | timepoint;
+		}
+	}
+
+	private static final class ViewLevelKey
 	{
 		private final int timepoint;
 
@@ -56,42 +105,242 @@ public class VolatileGlobalCellCache implements Cache
 
 		private final int level;
 
-		private final int index;
-
-		public Key( final int timepoint, final int setup, final int level, final int index )
+		ViewLevelKey( final int timepoint, final int setup, final int level )
 		{
 			this.timepoint = timepoint;
 			this.setup = setup;
 			this.level = level;
-			this.index = index;
-
-			final long value = ( ( index * maxNumLevels + level ) * maxNumSetups + setup ) * maxNumTimepoints + timepoint;
-			hashcode = ( int ) ( value ^ ( value >>> 32 ) );
 		}
 
 		@Override
 		public boolean equals( final Object other )
 		{
-			if ( this == other )
-				return true;
-			if ( !( other instanceof VolatileGlobalCellCache.Key ) )
+			if ( !( other instanceof ViewLevelKey ) )
 				return false;
-			final Key that = ( Key ) other;
-			return ( this.timepoint == that.timepoint ) && ( this.setup == that.setup ) && ( this.level == that.level ) && ( this.index == that.index );
+			final ViewLevelKey that = ( ViewLevelKey ) other;
+			return timepoint == that.timepoint && setup == that.setup && level == that.level;
 		}
 
-		final int hashcode;
-
 		@Override
 		public int hashCode()
 		{
-			return hashcode;
+			return ( timepoint * 31 + setup ) * 31 + level;
+		}
+	}
+
+	/**
+	 * Maps (timepoint, setup, level) to a dense view-level id, per namespace.
+	 * Entries are created when a namespace is used for the first time. Cell
+	 * keys are formed from the view-level id (upper 32 bits) and the flattened
+	 * cell index (lower 32 bits), see {@link #cellKey(int, int)}. The
+	 * namespace is stored in the upper bits of the view-level id, see
+	 * {@link #getNamespace(long)}.
+	 */
+	private final NamespaceViewLevelIds[] viewLevelIds = new NamespaceViewLevelIds[ MAX_NUM_NAMESPACES ];
+
+	/**
+	 * Names of registered namespaces, null for free slots. Guarded by
+	 * {@code namespaceNames}.
+	 */
+	private final String[] namespaceNames = new String[ MAX_NUM_NAMESPACES ];
+
+	/**
+	 * Number of {@link #registerNamespace(String)} calls per namespace that
+	 * have not been matched by {@link #unregisterNamespace(int)}. Guarded by
+	 * {@code namespaceNames}.
+	 */
+	private final int[] namespaceRegistrations = new int[ MAX_NUM_NAMESPACES ];
+
+	/**
+	 * Register a namespace. Cells requested through {@link VolatileCellCache}s
+	 * of different namespaces are distinct, even if they have the same
+	 * (timepoint, setup, level, index). This allows several image loaders to
+	 * share one cache (see {@link SharedCellCacheService}). Namespace 0 is used
+	 * by default.
+	 * <p>
+	 * If a namespace of the same name is registered already, it is returned,
+	 * so that loaders of the same dataset share cells. Each call must be
+	 * matched by {@link #unregisterNamespace(int)} when the namespace is no
+	 * longer used.
+	 *
+	 * @param name
+	 *            name of the namespace, for example the name of the dataset.
+	 * @return the namespace index.
+	 * @throws IllegalStateException
+	 *             if {@link #MAX_NUM_NAMESPACES} namespaces are registered.
+	 */
+	public int registerNamespace( final String name )
+	{
+		synchronized ( namespaceNames )
+		{
+			int free = -1;
+			for ( int namespace = 1; namespace < MAX_NUM_NAMESPACES; ++namespace )
+			{
+				final String n = namespaceNames[ namespace ];
+				if ( n == null )
+				{
+					if ( free < 0 )
+						free = namespace;
+				}
+				else if ( n.equals( name ) )
+				{
+					++namespaceRegistrations[ namespace ];
+					return namespace;
+				}
+			}
+			if ( free < 0 )
+				throw new IllegalStateException( "too many namespaces" );
+			namespaceNames[ free ] = name;
+			namespaceRegistrations[ free ] = 1;
+			metrics.addNamespace( free, name );
+			return free;
+		}
+	}
+
+	/**
+	 * Unregister a namespace obtained from {@link #registerNamespace(String)}.
+	 * When all registrations of the namespace are undone, its cells are
+	 * removed from the cache (see {@link #clearNamespace(int)}) and its slot
+	 * can be used for another namespace.
+	 *
+	 * @param namespace
+	 *            the namespace index.
+	 */
+	public void unregisterNamespace( final int namespace )
+	{
+		synchronized ( namespaceNames )
+		{
+			if ( namespace <= 0 || namespace >= MAX_NUM_NAMESPACES || namespaceNames[ namespace ] == null )
+				throw new IllegalArgumentException( "namespace " + namespace + " is not registered" );
+			if ( --namespaceRegistrations[ namespace ] > 0 )
+				return;
+			clearNamespace( namespace );
+			clearViewLevelIds( namespace );
+			metrics.removeNamespace( namespace );
+			namespaceNames[ namespace ] = null;
 		}
 	}
 
+	/**
+	 * @return the name of a registered namespace, or null.
+	 */
+	public String getNamespaceName( final int namespace )
+	{
+		synchronized ( namespaceNames )
+		{
+			return namespaceNames[ namespace ];
+		}
+	}
+
+	/**
+	 * Get the namespace of a cell key.
+	 */
+	public static int getNamespace( final long key )
+	{
+		return ( int ) ( key >>> ( 32 + LOCAL_VIEW_LEVEL_ID_BITS ) );
+	}
+
+	/**
+	 * Assigns cell keys to their namespace, for {@link FairShareFetchQueues}.
+	 */
+	public static final FairShareFetchQueues.Classifier< Long > NAMESPACE_CLASSIFIER = new FairShareFetchQueues.Classifier< Long >()
+	{
+		@Override
+		public int getClient( final Long key )
+		{
+			return getNamespace( key );
+		}
+	};
+
+	/**
+	 * Get the dense id of a (timepoint, setup, level) combination in the
+	 * default namespace.
+	 */
+	protected int getViewLevelId( final int timepoint, final int setup, final int level )
+	{
+		return getViewLevelId( 0, timepoint, setup, level );
+	}
+
+	/**
+	 * Get the dense id of a (namespace, timepoint, setup, level) combination.
+	 * An id is assigned when the combination is requested for the first time,
+	 * and stays the same until the namespace is unregistered (see
+	 * {@link #unregisterNamespace(int)}). Any timepoint, setup, and level can
+	 * be used. Only the number of distinct combinations per namespace is
+	 * limited (to 2<sup>{@value #LOCAL_VIEW_LEVEL_ID_BITS}</sup>).
+	 *
+	 * @throws IllegalStateException
+	 *             if the namespace has run out of ids.
+	 */
+	protected int getViewLevelId( final int namespace, final int timepoint, final int setup, final int level )
+	{
+		if ( namespace < 0 || namespace >= MAX_NUM_NAMESPACES )
+			throw new IllegalArgumentException( "namespace out of range" );
+		final long packedKey = NamespaceViewLevelIds.packedKey( timepoint, setup, level );
+		NamespaceViewLevelIds ids = viewLevelIds[ namespace ];
+		if ( ids != null && packedKey >= 0 )
+		{
+			final Integer id = ids.packed.get( packedKey );
+			if ( id != null )
+				return id;
+		}
+		synchronized ( viewLevelIds )
+		{
+			ids = viewLevelIds[ namespace ];
+			if ( ids == null )
+			{
+				ids = new NamespaceViewLevelIds();
+				viewLevelIds[ namespace ] = ids;
+			}
+			final ViewLevelKey key = packedKey >= 0 ? null : new ViewLevelKey( timepoint, setup, level );
+			final Integer existing = key == null ? ids.packed.get( packedKey ) : ids.other.get( key );
+			if ( existing != null )
+				return existing;
+			final int localId = ids.numIds;
+			if ( localId >= ( 1 << LOCAL_VIEW_LEVEL_ID_BITS ) )
+				throw new IllegalStateException( String.format(
+						"cannot assign a view-level id to (timepoint %d, setup %d, level %d): namespace %d already uses the maximum of %d (timepoint, setup, level) combinations",
+						timepoint, setup, level, namespace, 1 << LOCAL_VIEW_LEVEL_ID_BITS ) );
+			ids.numIds = localId + 1;
+			final int newId = ( namespace << LOCAL_VIEW_LEVEL_ID_BITS ) | localId;
+			if ( key == null )
+				ids.packed.put( packedKey, newId );
+			else
+				ids.other.put( key, newId );
+			return newId;
+		}
+	}
+
+	/**
+	 * Forget the view-level ids of an unregistered namespace, so that they can
+	 * be assigned again when the namespace slot is reused. The cells of the
+	 * namespace must have been removed (see {@link #clearNamespace(int)}).
+	 */
+	private void clearViewLevelIds( final int namespace )
+	{
+		synchronized ( viewLevelIds )
+		{
+			viewLevelIds[ namespace ] = null;
+		}
+	}
+
+	/**
+	 * Pack view-level id and flattened cell index into a {@code long} key.
+	 */
+	protected static long cellKey( final int viewLevelId, final int index )
+	{
+		return ( ( long ) viewLevelId << 32 ) | ( index & 0xffffffffL );
+	}
+
 	class Entry< A extends VolatileAccess >
 	{
-		private final Key key;
+		private final long key;
+
+		private final int timepoint;
+
+		private final int setup;
+
+		private final int level;
 
 		private VolatileCell< A > data;
 
@@ -105,12 +354,44 @@ public class VolatileGlobalCellCache implements Cache
 		 */
 		private long enqueueFrame;
 
-		public Entry( final Key key, final VolatileCell< A > data, final CacheArrayLoader< A > loader )
+		/**
+		 * When was this entry last accessed by a renderer (see
+		 * {@link VolatileGlobalCellCache#currentQueueFrame}). Entries accessed
+		 * in the current frame are not evicted in byte-budgeted mode (see
+		 * {@link VolatileGlobalCellCache#setMaxCacheSizeInBytes(long)}).
+		 * Loading an entry does not count as an access, so that cells loaded
+		 * by fetcher threads ahead of rendering (prefetched) can be evicted.
+		 */
+		private volatile long accessFrame;
+
+		/**
+		 * When was this entry evicted from the {@link #evictionPolicy} (see
+		 * {@link VolatileGlobalCellCache#currentQueueFrame}), or -1.
+		 */
+		private long evictionFrame;
+
+		public Entry( final long key, final int timepoint, final int setup, final int level, final VolatileCell< A > data, final CacheArrayLoader< A > loader )
 		{
 			this.key = key;
+			this.timepoint = timepoint;
+			this.setup = setup;
+			this.level = level;
 			this.data = data;
 			this.loader = loader;
 			enqueueFrame = -1;
+			accessFrame = -1;
+			evictionFrame = -1;
+		}
+
+		/**
+		 * Size of the cell data in bytes.
+		 */
+		private long sizeInBytes()
+		{
+			long numElements = 1;
+			for ( final int d : data.getDimensions() )
+				numElements *= d;
+			return numElements * loader.getBytesPerElement();
 		}
 
 		private void loadIfNotValid() throws InterruptedException
@@ -119,49 +400,80 @@ public class VolatileGlobalCellCache implements Cache
 			{
 				final int[] cellDims = data.getDimensions();
 				final long[] cellMin = data.getMin();
-				final int timepoint = key.timepoint;
-				final int setup = key.setup;
-				final int level = key.level;
 				synchronized ( this )
 				{
 					if ( !data.getData().isValid() )
 					{
-						final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, loader.loadArray( timepoint, setup, level, cellDims, cellMin ) );
-						data = cell;
-						enqueueFrame = Long.MAX_VALUE;
-						softReferenceCache.put( key, new MySoftReference( this, finalizeQueue ) );
-						notifyAll();
+						final long t0 = System.nanoTime();
+						final A array = loader.loadArray( timepoint, setup, level, cellDims, cellMin );
+						final long t = System.nanoTime() - t0;
+						cacheIoTiming.addLoad( t );
+						metrics.recordLoad( getNamespace( key ), loader, setup, level, t );
+						setLoadedArray( array );
 					}
 				}
+				evictIfOverBudget();
 			}
 		}
+
+		/**
+		 * Set the loaded data, if the entry is not valid yet. This is used for
+		 * data that was loaded by a {@link BulkCacheArrayLoader}. Otherwise,
+		 * {@code array} was never visible to anyone else and is recycled into
+		 * the {@link ArrayPool}.
+		 */
+		private synchronized void setLoadedArrayIfNotValid( final A array )
+		{
+			if ( !data.getData().isValid() )
+				setLoadedArray( array );
+			else
+				ArrayPool.getInstance().recycle( array );
+		}
+
+		/**
+		 * Replace the data by a valid cell containing {@code array}. Must be
+		 * called while holding the lock on this entry.
+		 */
+		private void setLoadedArray( final A array )
+		{
+			data = new VolatileCell< A >( data.getDimensions(), data.getMin(), array );
+			enqueueFrame = Long.MAX_VALUE;
+			retainLoadedEntry( this );
+			notifyAll();
+		}
 	}
 
-	interface GetKey< K >
+	interface GetKey
 	{
-		public K getKey();
+		public long getKey();
 	}
 
-	class MySoftReference extends SoftReference< Entry< ? > > implements GetKey< Key >
+	class MySoftReference extends SoftReference< Entry< ? > > implements GetKey
 	{
-		private final Key key;
+		private final long key;
+
+		/**
+		 * Size of the referenced cell data, for {@link CacheMetrics#getBytesResident()}.
+		 */
+		private final long sizeInBytes;
 
 		public MySoftReference( final Entry< ? > referent, final ReferenceQueue< ? super Entry< ? > > q )
 		{
 			super( referent, q );
 			key = referent.key;
+			sizeInBytes = referent.sizeInBytes();
 		}
 
 		@Override
-		public Key getKey()
+		public long getKey()
 		{
 			return key;
 		}
 	}
 
-	class MyWeakReference extends WeakReference< Entry< ? > > implements GetKey< Key >
+	class MyWeakReference extends WeakReference< Entry< ? > > implements GetKey
 	{
-		private final Key key;
+		private final long key;
 
 		public MyWeakReference( final Entry< ? > referent, final ReferenceQueue< ? super Entry< ? > > q )
 		{
@@ -169,185 +481,908 @@ public class VolatileGlobalCellCache implements Cache
 			key = referent.key;
 		}
 
-		@Override
-		public Key getKey()
+		@Override
+		public long getKey()
+		{
+			return key;
+		}
+	}
+
+	protected static final int MAX_PER_FRAME_FINALIZE_ENTRIES = 500;
+
+	protected void finalizeRemovedCacheEntries()
+	{
+		synchronized ( softReferenceCache )
+		{
+			for ( int i = 0; i < MAX_PER_FRAME_FINALIZE_ENTRIES; ++i )
+			{
+				final Reference< ? extends Entry< ? > > poll = finalizeQueue.poll();
+				if ( poll == null )
+					break;
+				final long key = ( ( GetKey ) poll ).getKey();
+				final Reference< Entry< ? > > ref = softReferenceCache.get( key );
+				if ( ref == poll )
+					softReferenceCache.remove( key );
+				metrics.recordReferenceClear( getNamespace( key ), poll instanceof MySoftReference ? ( ( MySoftReference ) poll ).sizeInBytes : 0 );
+			}
+		}
+	}
+
+	protected final ConcurrentLongHashMap< Reference< Entry< ? > > > softReferenceCache = new ConcurrentLongHashMap< Reference< Entry< ? > > >();
+
+	protected final ReferenceQueue< Entry< ? > > finalizeQueue = new ReferenceQueue< Entry< ? > >();
+
+	protected final FetchQueues< Long > queue;
+
+	protected volatile long currentQueueFrame = 0;
+
+	/**
+	 * Guards increments of {@link #currentQueueFrame} (and updates of
+	 * {@link #oldestValidRequestFrame}), which happen in
+	 * {@link #prepareNextFrame()} and {@link #cancelAll()}.
+	 */
+	private final Object frameLock = new Object();
+
+	/**
+	 * If non-null, loaded entries are strongly referenced by this policy
+	 * instead of being softly reachable, and evicted when the byte budget is
+	 * exceeded.
+	 */
+	protected volatile SegmentedLruPolicy< Entry< ? > > evictionPolicy = null;
+
+	/**
+	 * If non-null, cells evicted from the {@link #evictionPolicy} are copied
+	 * into this off-heap store, and copied back when they are requested again.
+	 */
+	protected volatile OffHeapCellStore< Long > offHeapStore = null;
+
+	/**
+	 * Default for {@link #setRecycleDelayFrames(int)}.
+	 */
+	public static final int DEFAULT_RECYCLE_DELAY_FRAMES = 4;
+
+	/**
+	 * Data of entries evicted from the {@link #evictionPolicy} is recycled into
+	 * the {@link ArrayPool} when the entry has not been accessed for this many
+	 * frames. If &le; 0, it is not recycled.
+	 */
+	private volatile int recycleDelayFrames = DEFAULT_RECYCLE_DELAY_FRAMES;
+
+	/**
+	 * Evicted entries whose data waits to be recycled, in the order of
+	 * eviction. Guarded by itself.
+	 */
+	private final ArrayDeque< Entry< ? > > evictedEntries = new ArrayDeque< Entry< ? > >();
+
+	/**
+	 * Total size of the data of {@link #evictedEntries}. Guarded by
+	 * {@link #evictedEntries}.
+	 */
+	private long evictedBytes = 0;
+
+	/**
+	 * Entries that were accessed in the current frame are not evicted.
+	 */
+	private final SegmentedLruPolicy.Pinning< Entry< ? > > accessedInCurrentFrame = new SegmentedLruPolicy.Pinning< Entry< ? > >()
+	{
+		@Override
+		public boolean isPinned( final Entry< ? > entry )
+		{
+			return entry.accessFrame >= currentQueueFrame;
+		}
+	};
+
+	class Fetcher extends Thread
+	{
+		Fetcher( final String name, final long stackSize )
+		{
+			super( null, null, name, stackSize );
+			pauseUntilTimeMillis = fetcherPauseUntilTimeMillis;
+		}
+
+		@Override
+		public final void run()
+		{
+			Long key = null;
+			while ( true )
+			{
+				while ( key == null )
+					try
+					{
+						key = queue.take();
+					}
+					catch ( final InterruptedException e )
+					{
+						if ( stopped )
+							return;
+					}
+				long waitMillis = pauseUntilTimeMillis - System.currentTimeMillis();
+				while ( waitMillis > 0 )
+				{
+					try
+					{
+						synchronized ( lock )
+						{
+							lock.wait( waitMillis );
+						}
+					}
+					catch ( final InterruptedException e )
+					{}
+					waitMillis = pauseUntilTimeMillis - System.currentTimeMillis();
+				}
+				try
+				{
+					loadIfNotValid( key );
+					key = null;
+				}
+				catch ( final InterruptedException e )
+				{}
+				if ( stopped && key == null )
+					return;
+			}
+		}
+
+		private final Object lock = new Object();
+
+		private volatile long pauseUntilTimeMillis;
+
+		private volatile boolean stopped = false;
+
+		public void pauseUntil( final long timeMillis )
+		{
+			pauseUntilTimeMillis = timeMillis;
+			interrupt();
+		}
+
+		public void wakeUp()
+		{
+			pauseUntilTimeMillis = 0;
+			synchronized ( lock )
+			{
+				lock.notify();
+			}
+		}
+
+		/**
+		 * Let the thread terminate after it has finished loading the current
+		 * request (if any).
+		 */
+		public void shutdown()
+		{
+			stopped = true;
+			interrupt();
+		}
+	}
+
+	/**
+	 * pause all {@link Fetcher} threads for the specified number of milliseconds.
+	 */
+	public void pauseFetcherThreadsFor( final long ms )
+	{
+		pauseFetcherThreadsUntil( System.currentTimeMillis() + ms );
+	}
+
+	/**
+	 * pause all {@link Fetcher} threads until the given time (see
+	 * {@link System#currentTimeMillis()}).
+	 */
+	public void pauseFetcherThreadsUntil( final long timeMillis )
+	{
+		fetcherPauseUntilTimeMillis = timeMillis;
+		for ( final Fetcher f : fetchers )
+			f.pauseUntil( timeMillis );
+	}
+
+	/**
+	 * Wake up all Fetcher threads immediately. This ends any
+	 * {@link #pauseFetcherThreadsFor(long)} and
+	 * {@link #pauseFetcherThreadsUntil(long)} set earlier.
+	 */
+	public void wakeFetcherThreads()
+	{
+		fetcherPauseUntilTimeMillis = 0;
+		for ( final Fetcher f : fetchers )
+			f.wakeUp();
+	}
+
+	/**
+	 * Set the number of {@link Fetcher} threads. Threads are started or shut
+	 * down as necessary. Threads that are shut down finish loading their
+	 * current request first. This disables adaptive sizing of the fetcher
+	 * pool (see {@link #setAdaptiveNumFetcherThreads(int, int)}).
+	 *
+	 * @param numFetcherThreads
+	 *            the number of fetcher threads.
+	 */
+	public synchronized void setNumFetcherThreads( final int numFetcherThreads )
+	{
+		if ( adaptiveFetcherPool != null )
+		{
+			adaptiveFetcherPool.stop();
+			adaptiveFetcherPool = null;
+		}
+		resizeFetcherPool( numFetcherThreads );
+	}
+
+	/**
+	 * Stop adaptive sizing of the fetcher pool and shut down all
+	 * {@link Fetcher} threads. Threads finish loading their current request
+	 * first. Enqueued requests are not loaded until fetcher threads are
+	 * started again with {@link #setNumFetcherThreads(int)}. Loaders call this
+	 * when they close a cache that they created themselves, so that the
+	 * threads do not keep the cache alive.
+	 */
+	public synchronized void shutdownFetcherThreads()
+	{
+		setNumFetcherThreads( 0 );
+	}
+
+	/**
+	 * Let the number of {@link Fetcher} threads vary between
+	 * {@code minNumFetcherThreads} and {@code maxNumFetcherThreads}, depending
+	 * on the number of enqueued requests and the observed time it takes to
+	 * load a cell (see {@link AdaptiveFetcherPool}).
+	 *
+	 * @param minNumFetcherThreads
+	 *            minimum number of fetcher threads.
+	 * @param maxNumFetcherThreads
+	 *            maximum number of fetcher threads.
+	 */
+	public synchronized void setAdaptiveNumFetcherThreads( final int minNumFetcherThreads, final int maxNumFetcherThreads )
+	{
+		if ( adaptiveFetcherPool != null )
+			adaptiveFetcherPool.stop();
+		resizeFetcherPool( Math.max( minNumFetcherThreads, Math.min( maxNumFetcherThreads, fetchers.size() ) ) );
+		adaptiveFetcherPool = new AdaptiveFetcherPool( this, minNumFetcherThreads, maxNumFetcherThreads );
+		adaptiveFetcherPool.start();
+	}
+
+	/**
+	 * Set the stack size (in bytes) requested for {@link Fetcher} threads
+	 * started from now on. A small stack size allows to run hundreds of
+	 * fetcher threads for latency-bound loaders (e.g., remote loaders where
+	 * most time is spent waiting for the server). 0 means the platform
+	 * default. Note that the stack size is only a hint to the JVM, see
+	 * {@link Thread#Thread(ThreadGroup, Runnable, String, long)}.
+	 *
+	 * @param stackSize
+	 *            requested stack size in bytes, or 0.
+	 */
+	public synchronized void setFetcherThreadStackSize( final long stackSize )
+	{
+		fetcherThreadStackSize = stackSize;
+	}
+
+	/**
+	 * @return the current number of {@link Fetcher} threads.
+	 */
+	public synchronized int getNumFetcherThreads()
+	{
+		return fetchers.size();
+	}
+
+	/**
+	 * @return the number of currently enqueued requests (including prefetch
+	 *         requests).
+	 */
+	public int getNumQueuedRequests()
+	{
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of currently enqueued requests, excluding prefetch
+	 *         requests. This is only a snapshot and may be approximate (see
+	 *         {@link FetchQueues#getQueueSizes()}).
+	 */
+	public int getNumQueuedPriorityRequests()
+	{
+		final int[] sizes = queue.getQueueSizes();
+		int n = 0;
+		for ( int i = 0; i < sizes.length - 1; ++i )
+			n += sizes[ i ];
+		return n;
+	}
+
+	synchronized void resizeFetcherPool( final int numFetcherThreads )
+	{
+		while ( fetchers.size() < numFetcherThreads )
+		{
+			final Fetcher f = new Fetcher( "Fetcher-" + nextFetcherId++, fetcherThreadStackSize );
+			f.setDaemon( true );
+			fetchers.add( f );
+			f.start();
+		}
+		while ( fetchers.size() > Math.max( 0, numFetcherThreads ) )
+			fetchers.remove( fetchers.size() - 1 ).shutdown();
+	}
+
+	private final CopyOnWriteArrayList< Fetcher > fetchers;
+
+	private int nextFetcherId = 0;
+
+	private long fetcherThreadStackSize = 0;
+
+	private volatile long fetcherPauseUntilTimeMillis = 0;
+
+	private AdaptiveFetcherPool adaptiveFetcherPool = null;
+
+	private final CacheIoTiming cacheIoTiming;
+
+	private final CacheMetrics metrics;
+
+	/**
+	 * Name of the system property that selects the default fetch queue
+	 * implementation. If set to {@code "true"}, {@link ConcurrentFetchQueues}
+	 * are used instead of {@link BlockingFetchQueues} by constructors that do
+	 * not specify the queue implementation explicitly.
+	 */
+	public static final String CONCURRENT_FETCH_QUEUES_PROPERTY = "bdv.cache.concurrentFetchQueues";
+
+	/**
+	 *
+	 * @param maxNumTimepoints
+	 *            the highest occurring timepoint id plus 1. This is not used
+	 *            anymore (it was used to compute a hashcode).
+	 * @param maxNumSetups
+	 *            the highest occurring setup id plus 1. This is not used
+	 *            anymore (it was used to compute a hashcode).
+	 * @param maxNumLevels
+	 *            the highest occurring mipmap level plus 1.
+	 * @param numFetcherThreads
+	 */
+	public VolatileGlobalCellCache( final int maxNumTimepoints, final int maxNumSetups, final int maxNumLevels, final int numFetcherThreads )
+	{
+		this( maxNumTimepoints, maxNumSetups, maxNumLevels, numFetcherThreads, -1 );
+	}
+
+	/**
+	 *
+	 * @param maxNumTimepoints
+	 *            the highest occurring timepoint id plus 1. This is not used
+	 *            anymore (it was used to compute a hashcode).
+	 * @param maxNumSetups
+	 *            the highest occurring setup id plus 1. This is not used
+	 *            anymore (it was used to compute a hashcode).
+	 * @param maxNumLevels
+	 *            the highest occurring mipmap level plus 1.
+	 * @param numFetcherThreads
+	 * @param maxCacheSizeInBytes
+	 *            byte budget for loaded cell data (see
+	 *            {@link #setMaxCacheSizeInBytes(long)}). If &le; 0, loaded
+	 *            cells are held by {@link SoftReference}s instead.
+	 */
+	public VolatileGlobalCellCache( final int maxNumTimepoints, final int maxNumSetups, final int maxNumLevels, final int numFetcherThreads, final long maxCacheSizeInBytes )
+	{
+		this( maxNumTimepoints, maxNumSetups, maxNumLevels, numFetcherThreads, maxCacheSizeInBytes, Boolean.getBoolean( CONCURRENT_FETCH_QUEUES_PROPERTY ) );
+	}
+
+	/**
+	 *
+	 * @param maxNumTimepoints
+	 *            the highest occurring timepoint id plus 1. This is not used
+	 *            anymore (it was used to compute a hashcode).
+	 * @param maxNumSetups
+	 *            the highest occurring setup id plus 1. This is not used
+	 *            anymore (it was used to compute a hashcode).
+	 * @param maxNumLevels
+	 *            the highest occurring mipmap level plus 1.
+	 * @param numFetcherThreads
+	 * @param maxCacheSizeInBytes
+	 *            byte budget for loaded cell data (see
+	 *            {@link #setMaxCacheSizeInBytes(long)}). If &le; 0, loaded
+	 *            cells are held by {@link SoftReference}s instead.
+	 * @param concurrentFetchQueues
+	 *            whether to use lock-free {@link ConcurrentFetchQueues}
+	 *            instead of {@link BlockingFetchQueues}. The default is
+	 *            taken from the {@value #CONCURRENT_FETCH_QUEUES_PROPERTY}
+	 *            system property.
+	 */
+	public VolatileGlobalCellCache( final int maxNumTimepoints, final int maxNumSetups, final int maxNumLevels, final int numFetcherThreads, final long maxCacheSizeInBytes, final boolean concurrentFetchQueues )
+	{
+		this( maxNumLevels, numFetcherThreads, maxCacheSizeInBytes, concurrentFetchQueues
+				? new ConcurrentFetchQueues< Long >( maxNumLevels )
+				: new BlockingFetchQueues< Long >( maxNumLevels ) );
+	}
+
+	/**
+	 *
+	 * @param maxNumLevels
+	 *            the highest occurring mipmap level plus 1. Queue priorities
+	 *            (see {@link CacheHints#getQueuePriority()}) must be smaller
+	 *            than this; larger priorities are clamped.
+	 * @param numFetcherThreads
+	 * @param maxCacheSizeInBytes
+	 *            byte budget for loaded cell data (see
+	 *            {@link #setMaxCacheSizeInBytes(long)}). If &le; 0, loaded
+	 *            cells are held by {@link SoftReference}s instead.
+	 * @param queue
+	 *            the fetch queues to use. They must support
+	 *            {@code maxNumLevels} priorities.
+	 */
+	public VolatileGlobalCellCache( final int maxNumLevels, final int numFetcherThreads, final long maxCacheSizeInBytes, final FetchQueues< Long > queue )
+	{
+		this.maxNumLevels = maxNumLevels;
+
+		namespaceNames[ 0 ] = "default";
+		cacheIoTiming = new CacheIoTiming();
+		metrics = new CacheMetrics( this, maxNumLevels );
+		this.queue = queue;
+		fetchers = new CopyOnWriteArrayList< Fetcher >();
+		resizeFetcherPool( numFetcherThreads );
+		setMaxCacheSizeInBytes( maxCacheSizeInBytes );
+	}
+
+	/**
+	 * Set the byte budget for loaded cell data. If {@code maxCacheSizeInBytes
+	 * &gt; 0}, loaded cells are kept in a {@link SegmentedLruPolicy} and
+	 * evicted when the budget is exceeded. Cells that have been accessed in
+	 * the current frame (see {@link #prepareNextFrame()}) are never evicted.
+	 * Cells that were loaded before the budget was set remain softly
+	 * referenced.
+	 * <p>
+	 * If {@code maxCacheSizeInBytes &le; 0}, loaded cells are held by
+	 * {@link SoftReference}s and removed only when the garbage collector clears
+	 * them.
+	 *
+	 * @param maxCacheSizeInBytes
+	 *            byte budget for loaded cell data.
+	 */
+	public synchronized void setMaxCacheSizeInBytes( final long maxCacheSizeInBytes )
+	{
+		if ( maxCacheSizeInBytes > 0 )
+		{
+			if ( evictionPolicy == null )
+				evictionPolicy = new SegmentedLruPolicy< Entry< ? > >( maxCacheSizeInBytes );
+			else
+				evictionPolicy.setMaxBytes( maxCacheSizeInBytes );
+			evictIfOverBudget();
+		}
+		else if ( evictionPolicy != null )
+		{
+			final SegmentedLruPolicy< Entry< ? > > policy = evictionPolicy;
+			evictionPolicy = null;
+			synchronized ( softReferenceCache )
+			{
+				for ( final Entry< ? > entry : policy.clear() )
+				{
+					final Reference< Entry< ? > > ref = softReferenceCache.get( entry.key );
+					if ( ref != null && ref.get() == entry )
+						softReferenceCache.put( entry.key, new MySoftReference( entry, finalizeQueue ) );
+					else
+						metrics.addBytesResident( getNamespace( entry.key ), -entry.sizeInBytes() );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the byte budget for loaded cell data.
+	 *
+	 * @return the byte budget, or -1 if loaded cells are held by
+	 *         {@link SoftReference}s.
+	 */
+	public long getMaxCacheSizeInBytes()
+	{
+		final SegmentedLruPolicy< Entry< ? > > policy = evictionPolicy;
+		return policy == null ? -1 : policy.getMaxBytes();
+	}
+
+	/**
+	 * Set the size limit for the off-heap tier. If {@code maxOffHeapSizeInBytes
+	 * &gt; 0}, cells that are evicted because the byte budget (see
+	 * {@link #setMaxCacheSizeInBytes(long)}) is exceeded are copied into an
+	 * {@link OffHeapCellStore}. When such a cell is requested again, its data is
+	 * copied back to the Java heap instead of loading it. Without a byte budget
+	 * there is no eviction, and therefore the off-heap tier is not used.
+	 * <p>
+	 * If {@code maxOffHeapSizeInBytes &le; 0}, the off-heap tier is disabled
+	 * and its memory released.
+	 *
+	 * @param maxOffHeapSizeInBytes
+	 *            maximum amount of direct memory used for the off-heap tier.
+	 */
+	public synchronized void setMaxOffHeapCacheSizeInBytes( final long maxOffHeapSizeInBytes )
+	{
+		if ( maxOffHeapSizeInBytes > 0 )
+		{
+			if ( offHeapStore == null )
+				offHeapStore = new OffHeapCellStore< Long >( maxOffHeapSizeInBytes );
+			else
+				offHeapStore.setMaxBytes( maxOffHeapSizeInBytes );
+		}
+		else if ( offHeapStore != null )
+		{
+			final OffHeapCellStore< Long > store = offHeapStore;
+			offHeapStore = null;
+			store.clear();
+		}
+	}
+
+	/**
+	 * Get the off-heap tier, e.g., to query its hit/miss counters.
+	 *
+	 * @return the {@link OffHeapCellStore} or null if the off-heap tier is
+	 *         disabled.
+	 */
+	public OffHeapCellStore< ? > getOffHeapStore()
+	{
+		return offHeapStore;
+	}
+
+	/**
+	 * Keep a reference to an {@link Entry} whose data has just been loaded.
+	 * Depending on whether there is a byte budget, the entry is either added to
+	 * the {@link #evictionPolicy} or referenced by a {@link SoftReference}.
+	 */
+	protected void retainLoadedEntry( final Entry< ? > entry )
+	{
+		metrics.addBytesResident( getNamespace( entry.key ), entry.sizeInBytes() );
+		final SegmentedLruPolicy< Entry< ? > > policy = evictionPolicy;
+		if ( policy == null )
+			softReferenceCache.put( entry.key, new MySoftReference( entry, finalizeQueue ) );
+		else
+			policy.add( entry, entry.sizeInBytes() );
+	}
+
+	/**
+	 * Evict least recently used entries that have not been accessed in the
+	 * current frame, until the byte budget is met.
+	 */
+	protected void evictIfOverBudget()
+	{
+		final SegmentedLruPolicy< Entry< ? > > policy = evictionPolicy;
+		if ( policy == null )
+			return;
+		final List< Entry< ? > > evicted = policy.evict( accessedInCurrentFrame );
+		if ( evicted.isEmpty() )
+			return;
+		for ( final Entry< ? > entry : evicted )
+			metrics.recordEviction( getNamespace( entry.key ), entry.sizeInBytes() );
+		final OffHeapCellStore< Long > store = offHeapStore;
+		if ( store != null )
+			for ( final Entry< ? > entry : evicted )
+				store.put( entry.key, entry.data.getData() );
+		final ArrayList< Entry< ? > > removed = new ArrayList< Entry< ? > >( evicted.size() );
+		synchronized ( softReferenceCache )
+		{
+			for ( final Entry< ? > entry : evicted )
+			{
+				final Reference< Entry< ? > > ref = softReferenceCache.get( entry.key );
+				if ( ref != null && ref.get() == entry )
+				{
+					softReferenceCache.remove( entry.key );
+					removed.add( entry );
+				}
+			}
+		}
+		// the data of evicted entries is not recycled right away: a renderer
+		// may still hold the cell, and a concurrent get() may have found the
+		// entry before it was removed.
+		if ( recycleDelayFrames > 0 )
+			deferRecycling( removed );
+	}
+
+	/**
+	 * Queue the data of entries that have just been evicted (and removed from
+	 * {@link #softReferenceCache}) for recycling by
+	 * {@link #recycleEvictedEntries()}. No more than
+	 * {@link ArrayPool#getMaxPooledBytes()} is queued, the data of the oldest
+	 * entries is left to the garbage collector.
+	 */
+	private void deferRecycling( final List< Entry< ? > > entries )
+	{
+		final long frame = currentQueueFrame;
+		final long maxBytes = ArrayPool.getInstance().getMaxPooledBytes();
+		synchronized ( evictedEntries )
 		{
-			return key;
+			for ( final Entry< ? > entry : entries )
+			{
+				entry.evictionFrame = frame;
+				evictedEntries.addLast( entry );
+				evictedBytes += entry.sizeInBytes();
+			}
+			while ( evictedBytes > maxBytes && !evictedEntries.isEmpty() )
+				evictedBytes -= evictedEntries.pollFirst().sizeInBytes();
 		}
 	}
 
-	protected static final int MAX_PER_FRAME_FINALIZE_ENTRIES = 500;
-
-	protected void finalizeRemovedCacheEntries()
+	/**
+	 * Recycle the data of evicted entries into the {@link ArrayPool}, once
+	 * {@link #recycleDelayFrames} frames have started since they were evicted.
+	 * An entry that was accessed after it was evicted (by a concurrent get())
+	 * is only recycled if that access is as long ago. Otherwise its data is
+	 * left to the garbage collector.
+	 */
+	private void recycleEvictedEntries()
 	{
-		synchronized ( softReferenceCache )
+		final int delay = recycleDelayFrames;
+		final long frame = currentQueueFrame;
+		final ArrayPool pool = ArrayPool.getInstance();
+		synchronized ( evictedEntries )
 		{
-			for ( int i = 0; i < MAX_PER_FRAME_FINALIZE_ENTRIES; ++i )
+			while ( !evictedEntries.isEmpty() )
 			{
-				final Reference< ? extends Entry< ? > > poll = finalizeQueue.poll();
-				if ( poll == null )
+				final Entry< ? > entry = evictedEntries.peekFirst();
+				if ( delay > 0 && frame - entry.evictionFrame < delay )
 					break;
-				@SuppressWarnings( "unchecked" )
-				final Key key = ( ( GetKey< Key > ) poll ).getKey();
-				final Reference< Entry< ? > > ref = softReferenceCache.get( key );
-				if ( ref == poll )
-					softReferenceCache.remove( key );
+				evictedEntries.pollFirst();
+				evictedBytes -= entry.sizeInBytes();
+				if ( delay > 0 && frame - entry.accessFrame >= delay )
+					pool.recycle( entry.data.getData() );
 			}
 		}
 	}
 
-	protected final ConcurrentHashMap< Key, Reference< Entry< ? > > > softReferenceCache = new ConcurrentHashMap< Key, Reference< Entry< ? > > >();
-
-	protected final ReferenceQueue< Entry< ? > > finalizeQueue = new ReferenceQueue< Entry< ? > >();
+	/**
+	 * Set after how many frames (see {@link #prepareNextFrame()}) the data of
+	 * a cell that was evicted in byte-budgeted mode (see
+	 * {@link #setMaxCacheSizeInBytes(long)}) is recycled into the
+	 * {@link ArrayPool}, for loading other cells into. The data is only
+	 * recycled if the cell has not been accessed for that many frames, so a
+	 * renderer must not hold on to a cell for longer without accessing it
+	 * through the cache. If &le; 0, the data of evicted cells is left to the
+	 * garbage collector. The default is
+	 * {@value #DEFAULT_RECYCLE_DELAY_FRAMES}.
+	 *
+	 * @param recycleDelayFrames
+	 *            number of frames.
+	 */
+	public void setRecycleDelayFrames( final int recycleDelayFrames )
+	{
+		this.recycleDelayFrames = recycleDelayFrames;
+		if ( recycleDelayFrames <= 0 )
+			recycleEvictedEntries();
+	}
 
-	protected final BlockingFetchQueues< Key > queue;
+	public int getRecycleDelayFrames()
+	{
+		return recycleDelayFrames;
+	}
 
-	protected volatile long currentQueueFrame = 0;
+	/**
+	 * Record that the {@link Entry} is accessed in the current frame. This
+	 * protects it from eviction until the next {@link #prepareNextFrame()}.
+	 * Only the first access per frame is passed on to the
+	 * {@link #evictionPolicy}, to keep the per-access overhead low.
+	 */
+	protected void touchEntry( final Entry< ? > entry )
+	{
+		final long frame = currentQueueFrame;
+		if ( entry.accessFrame < frame )
+		{
+			entry.accessFrame = frame;
+			final SegmentedLruPolicy< Entry< ? > > policy = evictionPolicy;
+			if ( policy != null )
+				policy.touch( entry );
+		}
+	}
 
-	class Fetcher extends Thread
+	/**
+	 * Load the data for the {@link VolatileCell} referenced by k, if
+	 * <ul>
+	 * <li>the {@link VolatileCell} is in the cache,
+	 * <li>the data is not yet loaded (valid), and
+	 * <li>the request is not stale (see {@link #setMaxRequestAge(int)},
+	 * {@link #cancelAll()}) and in the {@link #setKeepSet(KeepSet) keep set}.
+	 * </ul>
+	 * This is used by the {@link Fetcher} threads to handle enqueued requests.
+	 *
+	 * @param k
+	 * @throws InterruptedException
+	 */
+	protected void loadIfNotValid( final long k ) throws InterruptedException
 	{
-		@Override
-		public final void run()
+		final Reference< Entry< ? > > ref = softReferenceCache.get( k );
+		if ( ref != null )
 		{
-			Key key = null;
-			while ( true )
+			final Entry< ? > entry = ref.get();
+			if ( entry != null && !entry.data.getData().isValid() )
 			{
-				while ( key == null )
-					try
-					{
-						key = queue.take();
-					}
-					catch ( final InterruptedException e )
-					{}
-				long waitMillis = pauseUntilTimeMillis - System.currentTimeMillis();
-				while ( waitMillis > 0 )
+				if ( isStaleRequest( entry ) )
 				{
-					try
-					{
-						synchronized ( lock )
-						{
-							lock.wait( waitMillis );
-						}
-					}
-					catch ( final InterruptedException e )
-					{}
-					waitMillis = pauseUntilTimeMillis - System.currentTimeMillis();
+					metrics.recordDroppedStaleRequest();
+					return;
 				}
-				try
+				if ( !isInKeepSet( entry ) )
 				{
-					loadIfNotValid( key );
-					key = null;
+					metrics.recordDroppedOutsideKeepSetRequest();
+					return;
 				}
-				catch ( final InterruptedException e )
-				{}
+				if ( entry.loader instanceof TimeChunkedCacheArrayLoader )
+					timeChunkLoadIfNotValid( entry );
+				else if ( entry.loader instanceof BulkCacheArrayLoader )
+					bulkLoadIfNotValid( entry );
+				else
+					loadEntryIfNotValid( entry );
 			}
 		}
+	}
 
-		private final Object lock = new Object();
+	/**
+	 * Maximum number of adjacent cells that are loaded together by a
+	 * {@link BulkCacheArrayLoader}.
+	 */
+	public static final int MAX_BULK_LOAD_CELLS = 16;
 
-		private volatile long pauseUntilTimeMillis = 0;
+	/**
+	 * Load the data for the {@link Entry}, if it is not yet loaded (valid),
+	 * together with adjacent enqueued entries. The {@link Entry} must use a
+	 * {@link BulkCacheArrayLoader}. Neighbors along dimension 0 (i.e., with
+	 * cell index one less or one more) that use the same loader, are enqueued,
+	 * and are not yet loaded, are read with one
+	 * {@link BulkCacheArrayLoader#loadArrays(int, int, int, int[][], long[][])}
+	 * call. When fetchers later take their keys from the queue, they find them
+	 * already valid.
+	 * <p>
+	 * Entries are not locked while reading, so a cell may occasionally be read
+	 * twice if it is loaded concurrently by another thread.
+	 *
+	 * @throws InterruptedException
+	 */
+	protected < A extends VolatileAccess > void bulkLoadIfNotValid( final Entry< A > entry ) throws InterruptedException
+	{
+		if ( entry.data.getData().isValid() )
+			return;
+
+		final ArrayList< Entry< A > > batch = new ArrayList< Entry< A > >();
+		batch.add( entry );
+		Entry< A > e = entry;
+		while ( batch.size() < MAX_BULK_LOAD_CELLS && ( e = getBulkLoadNeighbor( e, -1 ) ) != null )
+			batch.add( 0, e );
+		e = entry;
+		while ( batch.size() < MAX_BULK_LOAD_CELLS && ( e = getBulkLoadNeighbor( e, 1 ) ) != null )
+			batch.add( e );
+
+		if ( batch.size() == 1 )
+		{
+			loadEntryIfNotValid( entry );
+			return;
+		}
 
-		public void pauseUntil( final long timeMillis )
+		final int n = batch.size();
+		final int[][] dimensions = new int[ n ][];
+		final long[][] min = new long[ n ][];
+		for ( int i = 0; i < n; ++i )
 		{
-			pauseUntilTimeMillis = timeMillis;
-			interrupt();
+			final VolatileCell< A > cell = batch.get( i ).data;
+			dimensions[ i ] = cell.getDimensions();
+			min[ i ] = cell.getMin();
 		}
 
-		public void wakeUp()
+		final BulkCacheArrayLoader< A > loader = ( BulkCacheArrayLoader< A > ) entry.loader;
+		final long t0 = System.nanoTime();
+		final List< A > arrays = loader.loadArrays( entry.timepoint, entry.setup, entry.level, dimensions, min );
+		final long t = System.nanoTime() - t0;
+		cacheIoTiming.addLoads( n, t );
+		for ( int i = 0; i < n; ++i )
 		{
-			pauseUntilTimeMillis = 0;
-			synchronized ( lock )
-			{
-				lock.notify();
-			}
+			metrics.recordLoad( getNamespace( entry.key ), loader, entry.setup, entry.level, t / n );
+			batch.get( i ).setLoadedArrayIfNotValid( arrays.get( i ) );
 		}
+		evictIfOverBudget();
 	}
 
 	/**
-	 * pause all {@link Fetcher} threads for the specified number of milliseconds.
+	 * Load the data for the {@link Entry}, if it is not yet loaded (valid),
+	 * together with the same cell of the other timepoints in its time chunk.
+	 * The {@link Entry} must use a {@link TimeChunkedCacheArrayLoader}. The
+	 * cells of the other timepoints are put into the cache (creating entries
+	 * if necessary) unless they are already loaded. If the data is not
+	 * time-chunked, the entry is loaded as usual (with a
+	 * {@link BulkCacheArrayLoader}, if possible).
+	 *
+	 * @throws InterruptedException
 	 */
-	public void pauseFetcherThreadsFor( final long ms )
+	protected < A extends VolatileAccess > void timeChunkLoadIfNotValid( final Entry< A > entry ) throws InterruptedException
 	{
-		pauseFetcherThreadsUntil( System.currentTimeMillis() + ms );
-	}
+		if ( entry.data.getData().isValid() )
+			return;
 
-	/**
-	 * pause all {@link Fetcher} threads until the given time (see
-	 * {@link System#currentTimeMillis()}).
-	 */
-	public void pauseFetcherThreadsUntil( final long timeMillis )
-	{
-		for ( final Fetcher f : fetchers )
-			f.pauseUntil( timeMillis );
-	}
+		final TimeChunkedCacheArrayLoader< A > loader = ( TimeChunkedCacheArrayLoader< A > ) entry.loader;
+		final int[] timepoints = loader.getChunkTimepoints( entry.timepoint, entry.setup, entry.level );
+		if ( timepoints.length <= 1 )
+		{
+			if ( loader instanceof BulkCacheArrayLoader )
+				bulkLoadIfNotValid( entry );
+			else
+				loadEntryIfNotValid( entry );
+			return;
+		}
 
-	/**
-	 * Wake up all Fetcher threads immediately. This ends any
-	 * {@link #pauseFetcherThreadsFor(long)} and
-	 * {@link #pauseFetcherThreadsUntil(long)} set earlier.
-	 */
-	public void wakeFetcherThreads()
-	{
-		for ( final Fetcher f : fetchers )
-			f.wakeUp();
+		final int[] cellDims = entry.data.getDimensions();
+		final long[] cellMin = entry.data.getMin();
+		final long t0 = System.nanoTime();
+		final List< A > arrays = loader.loadTimeChunk( timepoints, entry.setup, entry.level, cellDims, cellMin );
+		final long t = System.nanoTime() - t0;
+		final int n = timepoints.length;
+		cacheIoTiming.addLoads( n, t );
+		final int namespace = getNamespace( entry.key );
+		final int index = ( int ) entry.key;
+		for ( int i = 0; i < n; ++i )
+		{
+			metrics.recordLoad( namespace, loader, entry.setup, entry.level, t / n );
+			if ( timepoints[ i ] == entry.timepoint )
+				entry.setLoadedArrayIfNotValid( arrays.get( i ) );
+			else
+			{
+				final long k = cellKey( getViewLevelId( namespace, timepoints[ i ], entry.setup, entry.level ), index );
+				putLoadedIfNotValid( k, timepoints[ i ], entry.setup, entry.level, cellDims, cellMin, loader, arrays.get( i ) );
+			}
+		}
+		evictIfOverBudget();
 	}
 
-	private final ArrayList< Fetcher > fetchers;
-
-	private final CacheIoTiming cacheIoTiming;
-
 	/**
-	 *
-	 * @param maxNumTimepoints
-	 *            the highest occurring timepoint id plus 1. This is only used to
-	 *            compute a hashcode, thus it can be initialized with a best
-	 *            guess if necessary.
-	 * @param maxNumSetups
-	 *            the highest occurring setup id plus 1. This is only used to
-	 *            compute a hashcode, thus it can be initialized with a best
-	 *            guess if necessary.
-	 * @param maxNumLevels
-	 *            the highest occurring mipmap level plus 1.
-	 * @param numFetcherThreads
+	 * Put a loaded array into the cache, for a cell that was not requested
+	 * itself but was read together with a requested cell. If there is an
+	 * {@link Entry} for the key already, its data is set if it is not yet
+	 * loaded. Otherwise a new loaded {@link Entry} is created.
 	 */
-	public VolatileGlobalCellCache( final int maxNumTimepoints, final int maxNumSetups, final int maxNumLevels, final int numFetcherThreads )
+	private < A extends VolatileAccess > void putLoadedIfNotValid( final long k, final int timepoint, final int setup, final int level, final int[] cellDims, final long[] cellMin, final CacheArrayLoader< A > loader, final A array )
 	{
-		this.maxNumTimepoints = maxNumTimepoints;
-		this.maxNumSetups = maxNumSetups;
-		this.maxNumLevels = maxNumLevels;
-
-		cacheIoTiming = new CacheIoTiming();
-		queue = new BlockingFetchQueues< Key >( maxNumLevels );
-		fetchers = new ArrayList< Fetcher >();
-		for ( int i = 0; i < numFetcherThreads; ++i )
+		Entry< ? > entry = null;
+		Entry< A > created = null;
+		synchronized ( softReferenceCache )
 		{
-			final Fetcher f = new Fetcher();
-			f.setDaemon( true );
-			f.setName( "Fetcher-" + i );
-			fetchers.add( f );
-			f.start();
+			final Reference< Entry< ? > > ref = softReferenceCache.get( k );
+			if ( ref != null )
+				entry = ref.get();
+			if ( entry == null )
+			{
+				created = new Entry< A >( k, timepoint, setup, level, new VolatileCell< A >( cellDims, cellMin, array ), loader );
+				created.enqueueFrame = Long.MAX_VALUE;
+				softReferenceCache.put( k, new MyWeakReference( created, finalizeQueue ) );
+			}
+		}
+		if ( created != null )
+			retainLoadedEntry( created );
+		else if ( entry.loader == loader )
+		{
+			@SuppressWarnings( "unchecked" )
+			final Entry< A > e = ( Entry< A > ) entry;
+			e.setLoadedArrayIfNotValid( array );
 		}
+		else
+			ArrayPool.getInstance().recycle( array );
 	}
 
 	/**
-	 * Load the data for the {@link VolatileCell} referenced by k, if
-	 * <ul>
-	 * <li>the {@link VolatileCell} is in the cache, and
-	 * <li>the data is not yet loaded (valid).
-	 * </ul>
+	 * Get the neighbor of {@code entry} along dimension 0, if it can be loaded
+	 * together with {@code entry}.
 	 *
-	 * @param k
-	 * @throws InterruptedException
+	 * @param direction
+	 *            -1 for the left neighbor, 1 for the right neighbor.
+	 * @return the neighbor, or null if there is no enqueued neighbor that
+	 *         uses the same loader and is adjacent.
 	 */
-	protected void loadIfNotValid( final Key k ) throws InterruptedException
+	@SuppressWarnings( "unchecked" )
+	private < A extends VolatileAccess > Entry< A > getBulkLoadNeighbor( final Entry< A > entry, final int direction )
 	{
+		final long k = entry.key + direction;
+		if ( ( k >>> 32 ) != ( entry.key >>> 32 ) )
+			return null;
 		final Reference< Entry< ? > > ref = softReferenceCache.get( k );
-		if ( ref != null )
-		{
-			final Entry< ? > entry = ref.get();
-			if ( entry != null )
-				loadEntryIfNotValid( entry );
-		}
+		if ( ref == null )
+			return null;
+		final Entry< ? > neighbor = ref.get();
+		if ( neighbor == null || neighbor.loader != entry.loader || neighbor.enqueueFrame < 0 || neighbor.data.getData().isValid() )
+			return null;
+		if ( isStaleRequest( neighbor ) || !isInKeepSet( neighbor ) )
+			return null;
+
+		final VolatileCell< ? > left = direction < 0 ? neighbor.data : entry.data;
+		final VolatileCell< ? > right = direction < 0 ? entry.data : neighbor.data;
+		final int[] leftDims = left.getDimensions();
+		final int[] rightDims = right.getDimensions();
+		final long[] leftMin = left.getMin();
+		final long[] rightMin = right.getMin();
+		if ( leftMin[ 0 ] + leftDims[ 0 ] != rightMin[ 0 ] )
+			return null;
+		for ( int d = 1; d < leftDims.length; ++d )
+			if ( leftDims[ d ] != rightDims[ d ] || leftMin[ d ] != rightMin[ d ] )
+				return null;
+		return ( Entry< A > ) neighbor;
 	}
 
 	/**
@@ -368,8 +1403,7 @@ public class VolatileGlobalCellCache implements Cache
 		if ( entry.enqueueFrame < currentQueueFrame )
 		{
 			entry.enqueueFrame = currentQueueFrame;
-			final Key k = entry.key;
-			queue.put( k, priority, enqueuToFront );
+			queue.put( entry.key, Math.min( priority, maxNumLevels - 1 ), enqueuToFront );
 		}
 	}
 
@@ -382,7 +1416,7 @@ public class VolatileGlobalCellCache implements Cache
 	{
 		final IoStatistics stats = cacheIoTiming.getThreadGroupIoStatistics();
 		final IoTimeBudget budget = stats.getIoTimeBudget();
-		final long timeLeft = budget.timeLeft( priority );
+		final long timeLeft = budget.timeLeft( Math.min( priority, maxNumLevels - 1 ) );
 		if ( timeLeft > 0 )
 		{
 			synchronized ( entry )
@@ -400,7 +1434,7 @@ public class VolatileGlobalCellCache implements Cache
 				{}
 				stats.stop();
 				final long t = stats.getIoNanoTime() - t0;
-				budget.use( t, priority );
+				budget.use( t, Math.min( priority, maxNumLevels - 1 ) );
 			}
 		}
 		else
@@ -443,13 +1477,29 @@ public class VolatileGlobalCellCache implements Cache
 	 */
 	public VolatileCell< ? > getGlobalIfCached( final int timepoint, final int setup, final int level, final int index, final CacheHints cacheHints )
 	{
-		final Key k = new Key( timepoint, setup, level, index );
+		return getGlobalIfCached( cellKey( getViewLevelId( timepoint, setup, level ), index ), cacheHints );
+	}
+
+	/**
+	 * Get a cell if it is in the cache or null. See
+	 * {@link #getGlobalIfCached(int, int, int, int, CacheHints)}.
+	 *
+	 * @param k
+	 *            key of the cell, see {@link #cellKey(int, int)}.
+	 * @param cacheHints
+	 *            {@link LoadingStrategy}, queue priority, and queue order.
+	 * @return a cell with the specified key or null.
+	 */
+	protected VolatileCell< ? > getGlobalIfCached( final long k, final CacheHints cacheHints )
+	{
 		final Reference< Entry< ? > > ref = softReferenceCache.get( k );
 		if ( ref != null )
 		{
 			final Entry< ? > entry = ref.get();
 			if ( entry != null )
 			{
+				touchEntry( entry );
+				metrics.recordAccess( getNamespace( entry.key ), entry.level, entry.data.getData().isValid() );
 				switch ( cacheHints.getLoadingStrategy() )
 				{
 				case VOLATILE:
@@ -514,8 +1564,22 @@ public class VolatileGlobalCellCache implements Cache
 	 */
 	public < A extends VolatileAccess > VolatileCell< ? > createGlobal( final int[] cellDims, final long[] cellMin, final int timepoint, final int setup, final int level, final int index, final CacheHints cacheHints, final CacheArrayLoader< A > loader )
 	{
-		final Key k = new Key( timepoint, setup, level, index );
+		final long k = cellKey( getViewLevelId( timepoint, setup, level ), index );
+		return createGlobal( cellDims, cellMin, k, timepoint, setup, level, cacheHints, loader );
+	}
+
+	/**
+	 * Create a new cell with the specified key, if it isn't in the cache
+	 * already. See
+	 * {@link #createGlobal(int[], long[], int, int, int, int, CacheHints, CacheArrayLoader)}.
+	 *
+	 * @param k
+	 *            key of the cell, see {@link #cellKey(int, int)}.
+	 */
+	protected < A extends VolatileAccess > VolatileCell< ? > createGlobal( final int[] cellDims, final long[] cellMin, final long k, final int timepoint, final int setup, final int level, final CacheHints cacheHints, final CacheArrayLoader< A > loader )
+	{
 		Entry< ? > entry = null;
+		boolean promoted = false;
 
 		synchronized ( softReferenceCache )
 		{
@@ -525,11 +1589,31 @@ public class VolatileGlobalCellCache implements Cache
 
 			if ( entry == null )
 			{
-				final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, loader.emptyArray( cellDims ) );
-				entry = new Entry< A >( k, cell, loader );
+				final OffHeapCellStore< Long > store = offHeapStore;
+				@SuppressWarnings( "unchecked" )
+				final A offHeapData = store == null ? null : ( A ) store.take( k );
+				if ( offHeapData != null )
+				{
+					final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, offHeapData );
+					entry = new Entry< A >( k, timepoint, setup, level, cell, loader );
+					entry.enqueueFrame = Long.MAX_VALUE;
+					promoted = true;
+				}
+				else
+				{
+					final VolatileCell< A > cell = new VolatileCell< A >( cellDims, cellMin, loader.emptyArray( cellDims ) );
+					entry = new Entry< A >( k, timepoint, setup, level, cell, loader );
+				}
 				softReferenceCache.put( k, new MyWeakReference( entry, finalizeQueue ) );
 			}
 		}
+		touchEntry( entry );
+		metrics.recordAccess( getNamespace( k ), level, entry.data.getData().isValid() );
+		if ( promoted )
+		{
+			retainLoadedEntry( entry );
+			evictIfOverBudget();
+		}
 
 		switch ( cacheHints.getLoadingStrategy() )
 		{
@@ -564,6 +1648,8 @@ public class VolatileGlobalCellCache implements Cache
 	 * <li>some cleaning up of garbage collected entries ({@link #finalizeRemovedCacheEntries()}).
 	 * <li>the internal frame counter is incremented, which will enable
 	 * previously enqueued requests to be enqueued again for the new frame.
+	 * <li>the data of cells that were evicted long enough ago is recycled (see
+	 * {@link #setRecycleDelayFrames(int)}).
 	 * </ul>
 	 */
 	@Override
@@ -571,7 +1657,95 @@ public class VolatileGlobalCellCache implements Cache
 	{
 		queue.clear();
 		finalizeRemovedCacheEntries();
-		++currentQueueFrame;
+		synchronized ( frameLock )
+		{
+			++currentQueueFrame;
+		}
+		recycleEvictedEntries();
+	}
+
+	/**
+	 * Requests enqueued before this frame have been cancelled by
+	 * {@link #cancelAll()}.
+	 */
+	private volatile long oldestValidRequestFrame = 0;
+
+	/**
+	 * If &ge; 0, requests enqueued more than this many frames ago are dropped
+	 * (see {@link #setMaxRequestAge(int)}).
+	 */
+	private volatile int maxRequestAgeFrames = -1;
+
+	private volatile KeepSet keepSet = null;
+
+	/**
+	 * Remove all enqueued requests (including prefetch requests) and start a
+	 * new frame. Unlike {@link #prepareNextFrame()}, pending requests are not
+	 * kept for prefetching. Requests that fetcher threads already took from
+	 * the queue are dropped instead of loaded. Cells requested again are
+	 * enqueued again.
+	 */
+	public void cancelAll()
+	{
+		synchronized ( frameLock )
+		{
+			oldestValidRequestFrame = ++currentQueueFrame;
+		}
+		metrics.recordCancelledRequests( queue.removeAll() );
+	}
+
+	/**
+	 * Drop enqueued requests without loading them, if they were enqueued more
+	 * than {@code maxRequestAgeFrames} frames ago (see
+	 * {@link #prepareNextFrame()}). 0 means that only requests of the current
+	 * frame are loaded, that is, there is no prefetching. Negative values
+	 * (the default) mean that requests never expire.
+	 */
+	public void setMaxRequestAge( final int maxRequestAgeFrames )
+	{
+		this.maxRequestAgeFrames = maxRequestAgeFrames;
+	}
+
+	public int getMaxRequestAge()
+	{
+		return maxRequestAgeFrames;
+	}
+
+	/**
+	 * Set a {@link KeepSet} of cells that are still worth loading. Enqueued
+	 * requests for cells that are not contained are dropped without loading
+	 * them. If {@code null} (the default), all requests are loaded.
+	 */
+	public void setKeepSet( final KeepSet keepSet )
+	{
+		this.keepSet = keepSet;
+	}
+
+	public KeepSet getKeepSet()
+	{
+		return keepSet;
+	}
+
+	/**
+	 * Whether the request for an entry is stale, because it was enqueued more
+	 * than {@link #maxRequestAgeFrames} ago or before {@link #cancelAll()}.
+	 */
+	private boolean isStaleRequest( final Entry< ? > entry )
+	{
+		final long frame = entry.enqueueFrame;
+		if ( frame < oldestValidRequestFrame )
+			return true;
+		final int maxAge = maxRequestAgeFrames;
+		return maxAge >= 0 && frame < currentQueueFrame - maxAge;
+	}
+
+	private boolean isInKeepSet( final Entry< ? > entry )
+	{
+		final KeepSet keep = keepSet;
+		if ( keep == null )
+			return true;
+		final VolatileCell< ? > cell = entry.data;
+		return keep.contains( entry.timepoint, entry.setup, entry.level, cell.getMin(), cell.getDimensions() );
 	}
 
 	/**
@@ -604,18 +1778,71 @@ public class VolatileGlobalCellCache implements Cache
 		return cacheIoTiming;
 	}
 
+	/**
+	 * Get the {@link CacheMetrics} of this cache. Use
+	 * {@link CacheMetrics#snapshot()} to poll them, or
+	 * {@link CacheMetrics#registerMBean(String)} to expose them via JMX.
+	 */
+	public CacheMetrics getMetrics()
+	{
+		return metrics;
+	}
+
 	/**
 	 * Remove all references to loaded data as well as all enqueued requests
-	 * from the cache.
+	 * from the cache. Assigned view-level ids are kept, so that
+	 * {@link VolatileCellCache}s created before stay valid and repeated
+	 * clearing does not use up ids.
 	 */
 	public void clearCache()
 	{
+		final SegmentedLruPolicy< Entry< ? > > policy = evictionPolicy;
+		if ( policy != null )
+			policy.clear();
+		final OffHeapCellStore< Long > store = offHeapStore;
+		if ( store != null )
+			store.clear();
 		for ( final Reference< Entry< ? > > ref : softReferenceCache.values() )
 			ref.clear();
 		softReferenceCache.clear();
-		prepareNextFrame();
-		// TODO: add a full clear to BlockingFetchQueues.
-		// (BlockingFetchQueues.clear() moves stuff to the prefetchQueue.)
+		synchronized ( evictedEntries )
+		{
+			evictedEntries.clear();
+			evictedBytes = 0;
+		}
+		metrics.resetBytesResident();
+		finalizeRemovedCacheEntries();
+		cancelAll();
+	}
+
+	/**
+	 * Remove all references to loaded data of one namespace (see
+	 * {@link #registerNamespace(String)}) from the cache. Enqueued requests of
+	 * the namespace are dropped when fetcher threads take them. Cells in the
+	 * off-heap store are not removed; they are evicted eventually.
+	 */
+	public void clearNamespace( final int namespace )
+	{
+		final SegmentedLruPolicy< Entry< ? > > policy = evictionPolicy;
+		synchronized ( softReferenceCache )
+		{
+			for ( final Reference< Entry< ? > > ref : softReferenceCache.values() )
+			{
+				final long key = ( ( GetKey ) ref ).getKey();
+				if ( getNamespace( key ) != namespace )
+					continue;
+				final Entry< ? > entry = ref.get();
+				if ( entry != null )
+				{
+					if ( policy != null && policy.remove( entry ) )
+						metrics.addBytesResident( namespace, -entry.sizeInBytes() );
+					else if ( ref instanceof MySoftReference )
+						metrics.addBytesResident( namespace, -( ( MySoftReference ) ref ).sizeInBytes );
+				}
+				ref.clear();
+				softReferenceCache.remove( key, ref );
+			}
+		}
 	}
 
 	public class VolatileCellCache< A extends VolatileAccess > implements CellCache< A >
@@ -626,31 +1853,44 @@ public class VolatileGlobalCellCache implements Cache
 
 		private final int level;
 
+		private final int viewLevelId;
+
 		private CacheHints cacheHints;
 
 		private final CacheArrayLoader< A > loader;
 
 		public VolatileCellCache( final int timepoint, final int setup, final int level, final CacheHints cacheHints, final CacheArrayLoader< A > loader )
+		{
+			this( 0, timepoint, setup, level, cacheHints, loader );
+		}
+
+		/**
+		 * @param namespace
+		 *            the namespace of the cells (see
+		 *            {@link VolatileGlobalCellCache#registerNamespace(String)}).
+		 */
+		public VolatileCellCache( final int namespace, final int timepoint, final int setup, final int level, final CacheHints cacheHints, final CacheArrayLoader< A > loader )
 		{
 			this.timepoint = timepoint;
 			this.setup = setup;
 			this.level = level;
 			this.cacheHints = cacheHints;
 			this.loader = loader;
+			viewLevelId = getViewLevelId( namespace, timepoint, setup, level );
 		}
 
 		@SuppressWarnings( "unchecked" )
 		@Override
 		public VolatileCell< A > get( final int index )
 		{
-			return ( VolatileCell< A > ) getGlobalIfCached( timepoint, setup, level, index, cacheHints );
+			return ( VolatileCell< A > ) getGlobalIfCached( cellKey( viewLevelId, index ), cacheHints );
 		}
 
 		@SuppressWarnings( "unchecked" )
 		@Override
 		public VolatileCell< A > load( final int index, final int[] cellDims, final long[] cellMin )
 		{
-			return ( VolatileCell< A > ) createGlobal( cellDims, cellMin, timepoint, setup, level, index, cacheHints, loader );
+			return ( VolatileCell< A > ) createGlobal( cellDims, cellMin, cellKey( viewLevelId, index ), timepoint, setup, level, cacheHints, loader );
 		}
 
 		@Override
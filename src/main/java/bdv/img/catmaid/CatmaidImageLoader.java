@@ -28,12 +28,18 @@
  */
 package bdv.img.catmaid;
 
+import java.io.File;
+import java.io.IOException;
+
 import bdv.AbstractViewerSetupImgLoader;
 import bdv.ViewerImgLoader;
 import bdv.ViewerSetupImgLoader;
 import bdv.img.cache.CacheHints;
 import bdv.img.cache.CachedCellImg;
+import bdv.img.cache.DiskCachedArrayLoader;
+import bdv.img.cache.FetcherThreads;
 import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.PersistentBlockCache;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.img.cache.VolatileImgCells;
 import bdv.img.cache.VolatileImgCells.CellCache;
@@ -61,8 +67,24 @@ public class CatmaidImageLoader extends AbstractViewerSetupImgLoader< ARGBType,
 
 	private VolatileGlobalCellCache cache;
 
+	/**
+	 * Default configuration of fetcher threads for this loader. For many concurrent requests
+	 * to a high-latency server, consider
+	 * {@link FetcherThreads#latencyBound(int, int)}.
+	 */
+	public static final FetcherThreads DEFAULT_FETCHER_THREADS = new FetcherThreads( 10 );
+
+	protected FetcherThreads fetcherThreads = DEFAULT_FETCHER_THREADS;
+
 	private final CatmaidVolatileIntArrayLoader loader;
 
+	/**
+	 * If non-null, used instead of {@link #loader}.
+	 */
+	private DiskCachedArrayLoader< VolatileIntArray > diskCachedLoader;
+
+	private final String urlFormat;
+
 	final static private int[][] blockDimensions(
 			final int tileWidth,
 			final int tileHeight,
@@ -120,8 +142,10 @@ public class CatmaidImageLoader extends AbstractViewerSetupImgLoader< ARGBType,
 			mipmapTransforms[ l ] = mipmapTransform;
 		}
 
+		this.urlFormat = urlFormat;
 		loader = new CatmaidVolatileIntArrayLoader( urlFormat, tileWidth, tileHeight, zScales );
-		cache = new VolatileGlobalCellCache( 1, 1, numScales, 10 );
+		cache = new VolatileGlobalCellCache( 1, 1, numScales, 0 );
+		fetcherThreads.applyTo( cache );
 	}
 
 	public CatmaidImageLoader(
@@ -220,7 +244,7 @@ public class CatmaidImageLoader extends AbstractViewerSetupImgLoader< ARGBType,
 
 		final int priority = numScales - 1 - level;
 		final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
-		final CellCache< VolatileIntArray > c = cache.new VolatileCellCache< VolatileIntArray >( timepointId, setupId, level, cacheHints, loader );
+		final CellCache< VolatileIntArray > c = cache.new VolatileCellCache< VolatileIntArray >( timepointId, setupId, level, cacheHints, diskCachedLoader != null ? diskCachedLoader : loader );
 		final VolatileImgCells< VolatileIntArray > cells = new VolatileImgCells< VolatileIntArray >( c, new Fraction(), dimensions, blockDimensions[ level ] );
 		final CachedCellImg< T, VolatileIntArray > img = new CachedCellImg< T, VolatileIntArray >( cells );
 		return img;
@@ -278,4 +302,35 @@ public class CatmaidImageLoader extends AbstractViewerSetupImgLoader< ARGBType,
 	{
 		this.cache = cache;
 	}
+
+	/**
+	 * Configure the fetcher threads of the cache (see {@link FetcherThreads}).
+	 */
+	public synchronized void setFetcherThreads( final FetcherThreads fetcherThreads )
+	{
+		this.fetcherThreads = fetcherThreads;
+		if ( cache != null )
+			fetcherThreads.applyTo( cache );
+	}
+
+	public FetcherThreads getFetcherThreads()
+	{
+		return fetcherThreads;
+	}
+
+	/**
+	 * Keep fetched cells in a persistent local {@link PersistentBlockCache},
+	 * so that each cell is fetched over the network only once, also across
+	 * sessions. Images obtained before this call keep fetching directly.
+	 *
+	 * @param baseDirectory
+	 *            directory containing the disk caches of all datasets.
+	 * @param maxBytes
+	 *            size limit for the disk cache of this dataset.
+	 */
+	public void setDiskCache( final File baseDirectory, final long maxBytes ) throws IOException
+	{
+		final PersistentBlockCache diskCache = PersistentBlockCache.open( baseDirectory, urlFormat, maxBytes );
+		diskCachedLoader = new DiskCachedArrayLoader< VolatileIntArray >( loader, diskCache );
+	}
 }
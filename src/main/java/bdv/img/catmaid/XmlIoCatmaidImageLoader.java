@@ -32,6 +32,8 @@ import java.io.File;
 
 import org.jdom2.Element;
 
+import bdv.img.cache.FetcherThreads;
+
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.ImgLoaderIo;
 import mpicbg.spim.data.generic.sequence.XmlIoBasicImgLoader;
@@ -82,7 +84,7 @@ public class XmlIoCatmaidImageLoader
 		for ( int i = 0; i < numScales; ++i )
 			blockSize[ i ] = new int[]{ blockWidth, blockHeight, blockDepth };
 		
-		return new CatmaidImageLoader(
+		final CatmaidImageLoader imgLoader = new CatmaidImageLoader(
 				width,
 				height,
 				depth,
@@ -91,5 +93,9 @@ public class XmlIoCatmaidImageLoader
 				tileWidth,
 				tileHeight,
 				blockSize );
+		final FetcherThreads fetcherThreads = FetcherThreads.fromXml( elem, CatmaidImageLoader.DEFAULT_FETCHER_THREADS );
+		if ( !fetcherThreads.equals( CatmaidImageLoader.DEFAULT_FETCHER_THREADS ) )
+			imgLoader.setFetcherThreads( fetcherThreads );
+		return imgLoader;
 	}
 }
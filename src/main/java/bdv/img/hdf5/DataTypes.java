@@ -0,0 +1,277 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.util.Arrays;
+
+import net.imglib2.Volatile;
+import net.imglib2.img.NativeImg;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.volatiles.VolatileFloatType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.SparseCellCache.ConstantArrayFactory;
+import ch.systemsx.cisd.hdf5.HDF5DataClass;
+import ch.systemsx.cisd.hdf5.HDF5DataTypeInformation;
+
+/**
+ * Pixel types of the {@code cells} data sets of a bdv hdf5 file. Setups are
+ * stored as 16-bit integers (read as {@link UnsignedShortType}), unless they
+ * were exported from 8-bit ({@link UnsignedByteType}) or {@link FloatType}
+ * images.
+ */
+class DataTypes
+{
+	static interface DataType<
+			T extends NativeType< T > & RealType< T >,
+			V extends Volatile< T > & NativeType< V >,
+			A extends VolatileAccess >
+		extends ConstantArrayFactory< A >
+	{
+		/**
+		 * @return name of the type in a {@link MetadataIndex}.
+		 */
+		public String getName();
+
+		public T getType();
+
+		public V getVolatileType();
+
+		public T createLinkedType( NativeImg< T, A > img );
+
+		public V createLinkedVolatileType( NativeImg< V, A > img );
+
+		public CacheArrayLoader< A > createArrayLoader( final IHDF5Access hdf5Access );
+	}
+
+	static DataType< UnsignedByteType, VolatileUnsignedByteType, VolatileByteArray > UnsignedByte =
+			new DataType< UnsignedByteType, VolatileUnsignedByteType, VolatileByteArray >()
+	{
+		private final UnsignedByteType type = new UnsignedByteType();
+
+		private final VolatileUnsignedByteType volatileType = new VolatileUnsignedByteType();
+
+		@Override
+		public String getName()
+		{
+			return "uint8";
+		}
+
+		@Override
+		public UnsignedByteType getType()
+		{
+			return type;
+		}
+
+		@Override
+		public VolatileUnsignedByteType getVolatileType()
+		{
+			return volatileType;
+		}
+
+		@Override
+		public UnsignedByteType createLinkedType( final NativeImg< UnsignedByteType, VolatileByteArray > img )
+		{
+			return new UnsignedByteType( img );
+		}
+
+		@Override
+		public VolatileUnsignedByteType createLinkedVolatileType( final NativeImg< VolatileUnsignedByteType, VolatileByteArray > img )
+		{
+			return new VolatileUnsignedByteType( img );
+		}
+
+		@Override
+		public CacheArrayLoader< VolatileByteArray > createArrayLoader( final IHDF5Access hdf5Access )
+		{
+			return new Hdf5VolatileByteArrayLoader( hdf5Access );
+		}
+
+		@Override
+		public VolatileByteArray createConstantArray( final int numElements, final double value )
+		{
+			final byte[] data = new byte[ numElements ];
+			Arrays.fill( data, ( byte ) value );
+			return new VolatileByteArray( data, true );
+		}
+	};
+
+	static DataType< UnsignedShortType, VolatileUnsignedShortType, VolatileShortArray > UnsignedShort =
+			new DataType< UnsignedShortType, VolatileUnsignedShortType, VolatileShortArray >()
+	{
+		private final UnsignedShortType type = new UnsignedShortType();
+
+		private final VolatileUnsignedShortType volatileType = new VolatileUnsignedShortType();
+
+		@Override
+		public String getName()
+		{
+			return "uint16";
+		}
+
+		@Override
+		public UnsignedShortType getType()
+		{
+			return type;
+		}
+
+		@Override
+		public VolatileUnsignedShortType getVolatileType()
+		{
+			return volatileType;
+		}
+
+		@Override
+		public UnsignedShortType createLinkedType( final NativeImg< UnsignedShortType, VolatileShortArray > img )
+		{
+			return new UnsignedShortType( img );
+		}
+
+		@Override
+		public VolatileUnsignedShortType createLinkedVolatileType( final NativeImg< VolatileUnsignedShortType, VolatileShortArray > img )
+		{
+			return new VolatileUnsignedShortType( img );
+		}
+
+		@Override
+		public CacheArrayLoader< VolatileShortArray > createArrayLoader( final IHDF5Access hdf5Access )
+		{
+			return new Hdf5VolatileShortArrayLoader( hdf5Access );
+		}
+
+		@Override
+		public VolatileShortArray createConstantArray( final int numElements, final double value )
+		{
+			final short[] data = new short[ numElements ];
+			Arrays.fill( data, ( short ) value );
+			return new VolatileShortArray( data, true );
+		}
+	};
+
+	static DataType< FloatType, VolatileFloatType, VolatileFloatArray > Float =
+			new DataType< FloatType, VolatileFloatType, VolatileFloatArray >()
+	{
+		private final FloatType type = new FloatType();
+
+		private final VolatileFloatType volatileType = new VolatileFloatType();
+
+		@Override
+		public String getName()
+		{
+			return "float32";
+		}
+
+		@Override
+		public FloatType getType()
+		{
+			return type;
+		}
+
+		@Override
+		public VolatileFloatType getVolatileType()
+		{
+			return volatileType;
+		}
+
+		@Override
+		public FloatType createLinkedType( final NativeImg< FloatType, VolatileFloatArray > img )
+		{
+			return new FloatType( img );
+		}
+
+		@Override
+		public VolatileFloatType createLinkedVolatileType( final NativeImg< VolatileFloatType, VolatileFloatArray > img )
+		{
+			return new VolatileFloatType( img );
+		}
+
+		@Override
+		public CacheArrayLoader< VolatileFloatArray > createArrayLoader( final IHDF5Access hdf5Access )
+		{
+			return new Hdf5VolatileFloatArrayLoader( hdf5Access );
+		}
+
+		@Override
+		public VolatileFloatArray createConstantArray( final int numElements, final double value )
+		{
+			final float[] data = new float[ numElements ];
+			Arrays.fill( data, ( float ) value );
+			return new VolatileFloatArray( data, true );
+		}
+	};
+
+	/**
+	 * @return the type with the given {@link DataType#getName() name}, or
+	 *         {@code null} if there is none.
+	 */
+	static DataType< ?, ?, ? > forName( final String name )
+	{
+		if ( UnsignedByte.getName().equals( name ) )
+			return UnsignedByte;
+		else if ( UnsignedShort.getName().equals( name ) )
+			return UnsignedShort;
+		else if ( Float.getName().equals( name ) )
+			return Float;
+		else
+			return null;
+	}
+
+	/**
+	 * @return the type for reading a {@code cells} data set with the given
+	 *         hdf5 type, or {@code null} if it is not supported.
+	 */
+	static DataType< ?, ?, ? > forTypeInformation( final HDF5DataTypeInformation ti )
+	{
+		if ( ti.getDataClass().equals( HDF5DataClass.INTEGER ) )
+		{
+			switch ( ti.getElementSize() )
+			{
+			case 1:
+				return UnsignedByte;
+			case 2:
+				return UnsignedShort;
+			}
+		}
+		else if ( ti.getDataClass().equals( HDF5DataClass.FLOAT ) )
+		{
+			if ( ti.getElementSize() == 4 )
+				return Float;
+		}
+		return null;
+	}
+}
@@ -29,6 +29,8 @@
 package bdv.img.hdf5;
 
 import static bdv.img.hdf5.Util.reorder;
+import bdv.CellStatistics;
+import ch.systemsx.cisd.base.mdarray.MDByteArray;
 import ch.systemsx.cisd.base.mdarray.MDFloatArray;
 import ch.systemsx.cisd.base.mdarray.MDShortArray;
 import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
@@ -66,6 +68,90 @@ class HDF5Access implements IHDF5Access
 			return new DimsAndExistence( new long[] { 1, 1, 1 }, false );
 	}
 
+	@Override
+	public synchronized double[][] readConstantCells( final ViewLevelId id )
+	{
+		final String path = Util.getConstantCellsPath( id );
+		try
+		{
+			if ( hdf5Reader.exists( path ) )
+				return hdf5Reader.readDoubleMatrix( path );
+		}
+		catch ( final Exception e )
+		{
+			// dangling link to a missing partition file
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized CellStatistics readCellStatistics( final ViewLevelId id )
+	{
+		return readCellStatistics( hdf5Reader, id );
+	}
+
+	static CellStatistics readCellStatistics( final IHDF5Reader hdf5Reader, final ViewLevelId id )
+	{
+		final String path = Util.getCellStatisticsPath( id );
+		try
+		{
+			if ( !hdf5Reader.exists( path ) )
+				return null;
+			final double[][] table = hdf5Reader.readDoubleMatrix( path );
+			if ( hdf5Reader.object().hasAttribute( path, Util.histogramAttribute ) )
+			{
+				final long[] histogram = hdf5Reader.int64().getArrayAttr( path, Util.histogramAttribute );
+				final double[] range = hdf5Reader.float64().getArrayAttr( path, Util.histogramRangeAttribute );
+				return new CellStatistics( table, histogram, range[ 0 ], range[ 1 ] );
+			}
+			return new CellStatistics( table, null, 0, 0 );
+		}
+		catch ( final Exception e )
+		{
+			// dangling link to a missing partition file
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized TimeChunkedLayout readTimeChunkedLayout( final int setup, final int level )
+	{
+		return readTimeChunkedLayout( hdf5Reader, setup, level );
+	}
+
+	static TimeChunkedLayout readTimeChunkedLayout( final IHDF5Reader hdf5Reader, final int setup, final int level )
+	{
+		final String path = Util.getTimeChunkedCellsPath( setup, level );
+		try
+		{
+			if ( !hdf5Reader.exists( path ) )
+				return null;
+			final int[] timepoints = hdf5Reader.int32().getArrayAttr( path, Util.timepointsAttribute );
+			final int[] chunkSizes = hdf5Reader.object().getDataSetInformation( path ).tryGetChunkSizes();
+			return new TimeChunkedLayout( timepoints, chunkSizes == null ? 1 : chunkSizes[ 0 ] );
+		}
+		catch ( final Exception e )
+		{
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized short[] readTimeChunkedShortBlock( final int setup, final int level, final int firstRow, final int numRows, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		return readTimeChunkedShortBlock( hdf5Reader, setup, level, firstRow, numRows, dimensions, min );
+	}
+
+	static short[] readTimeChunkedShortBlock( final IHDF5Reader hdf5Reader, final int setup, final int level, final int firstRow, final int numRows, final int[] dimensions, final long[] min )
+	{
+		final int[] blockDimensions = new int[] { numRows, dimensions[ 2 ], dimensions[ 1 ], dimensions[ 0 ] };
+		final long[] offset = new long[] { firstRow, min[ 2 ], min[ 1 ], min[ 0 ] };
+		final MDShortArray array = hdf5Reader.int16().readMDArrayBlockWithOffset( Util.getTimeChunkedCellsPath( setup, level ), blockDimensions, offset );
+		return array.getAsFlatArray();
+	}
+
 	@Override
 	public synchronized short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
@@ -86,21 +172,54 @@ class HDF5Access implements IHDF5Access
 
 	@Override
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final short[] shorts = readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min );
+		final float[] pixels = new float[ shorts.length ];
+		UnsignedShortToFloat.convert( shorts, pixels, shorts.length );
+		return pixels;
+	}
+
+	@Override
+	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	{
+		final short[] shorts = readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min );
+		UnsignedShortToFloat.convert( shorts, dataBlock, shorts.length );
+		return dataBlock;
+	}
+
+	@Override
+	public synchronized byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		Util.reorder( dimensions, reorderedDimensions );
+		Util.reorder( min, reorderedMin );
+		final MDByteArray array = hdf5Reader.uint8().readMDArrayBlockWithOffset( Util.getCellsPath( timepoint, setup, level ), reorderedDimensions, reorderedMin );
+		return array.getAsFlatArray();
+	}
+
+	@Override
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final byte[] dataBlock ) throws InterruptedException
+	{
+		System.arraycopy( readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min ), 0, dataBlock, 0, dataBlock.length );
+		return dataBlock;
+	}
+
+	@Override
+	public synchronized float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
 		if ( Thread.interrupted() )
 			throw new InterruptedException();
 		Util.reorder( dimensions, reorderedDimensions );
 		Util.reorder( min, reorderedMin );
 		final MDFloatArray array = hdf5Reader.float32().readMDArrayBlockWithOffset( Util.getCellsPath( timepoint, setup, level ), reorderedDimensions, reorderedMin );
-		final float[] pixels = array.getAsFlatArray();
-		unsignedShort( pixels );
-		return pixels;
+		return array.getAsFlatArray();
 	}
 
 	@Override
-	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
 	{
-		System.arraycopy( readShortMDArrayBlockWithOffsetAsFloat( timepoint, setup, level, dimensions, min ), 0, dataBlock, 0, dataBlock.length );
+		System.arraycopy( readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min ), 0, dataBlock, 0, dataBlock.length );
 		return dataBlock;
 	}
 
@@ -114,10 +233,4 @@ class HDF5Access implements IHDF5Access
 		closeAllDataSets();
 		hdf5Reader.close();
 	}
-
-	protected static final void unsignedShort( final float[] pixels )
-	{
-		for ( int j = 0; j < pixels.length; ++j )
-			pixels[ j ] = ((short)pixels[ j ]) & 0xffff;
-	}
 }
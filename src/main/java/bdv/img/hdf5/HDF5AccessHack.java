@@ -42,11 +42,14 @@ import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5S_MAX_RANK;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5S_SELECT_SET;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_FLOAT;
 import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_INT16;
+import static ch.systemsx.cisd.hdf5.hdf5lib.HDF5Constants.H5T_NATIVE_UINT8;
 
 import java.lang.reflect.Field;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 
+import bdv.CellStatistics;
+import bdv.img.cache.ArrayPool;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 
 /**
@@ -175,10 +178,46 @@ class HDF5AccessHack implements IHDF5Access
 			return new DimsAndExistence( new long[] { 1, 1, 1 }, false );
 	}
 
+	@Override
+	public synchronized double[][] readConstantCells( final ViewLevelId id )
+	{
+		final String path = Util.getConstantCellsPath( id );
+		try
+		{
+			if ( hdf5Reader.exists( path ) )
+				return hdf5Reader.readDoubleMatrix( path );
+		}
+		catch ( final Exception e )
+		{
+			// dangling link to a missing partition file
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized CellStatistics readCellStatistics( final ViewLevelId id )
+	{
+		return HDF5Access.readCellStatistics( hdf5Reader, id );
+	}
+
+	@Override
+	public synchronized TimeChunkedLayout readTimeChunkedLayout( final int setup, final int level )
+	{
+		return HDF5Access.readTimeChunkedLayout( hdf5Reader, setup, level );
+	}
+
+	@Override
+	public synchronized short[] readTimeChunkedShortBlock( final int setup, final int level, final int firstRow, final int numRows, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		return HDF5Access.readTimeChunkedShortBlock( hdf5Reader, setup, level, firstRow, numRows, dimensions, min );
+	}
+
 	@Override
 	public synchronized short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final short[] dataBlock = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final short[] dataBlock = ArrayPool.getInstance().takeShorts( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
 		readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
 		return dataBlock;
 	}
@@ -203,13 +242,59 @@ class HDF5AccessHack implements IHDF5Access
 	@Override
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final float[] dataBlock = new float[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final float[] dataBlock = ArrayPool.getInstance().takeFloats( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
 		readShortMDArrayBlockWithOffsetAsFloat( timepoint, setup, level, dimensions, min, dataBlock );
 		return dataBlock;
 	}
 
 	@Override
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	{
+		// Read native shorts (without HDF5 numeric conversion) and convert
+		// outside of the lock, so that other threads can read meanwhile.
+		final int numElements = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ];
+		final short[] shorts = ArrayPool.getInstance().takeShorts( numElements );
+		readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, shorts );
+		UnsignedShortToFloat.convert( shorts, dataBlock, numElements );
+		ArrayPool.getInstance().recycle( shorts );
+		return dataBlock;
+	}
+
+	@Override
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final byte[] dataBlock = ArrayPool.getInstance().takeBytes( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+		readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return dataBlock;
+	}
+
+	@Override
+	public synchronized byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final byte[] dataBlock ) throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		Util.reorder( dimensions, reorderedDimensions );
+		Util.reorder( min, reorderedMin );
+
+		final OpenDataSet dataset = openDataSetCache.getDataSet( new ViewLevelId( timepoint, setup, level ) );
+		final int memorySpaceId = H5Screate_simple( reorderedDimensions.length, reorderedDimensions, null );
+		H5Sselect_hyperslab( dataset.fileSpaceId, H5S_SELECT_SET, reorderedMin, null, reorderedDimensions, null );
+		H5Dread( dataset.dataSetId, H5T_NATIVE_UINT8, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
+		H5Sclose( memorySpaceId );
+
+		return dataBlock;
+	}
+
+	@Override
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final float[] dataBlock = ArrayPool.getInstance().takeFloats( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+		readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return dataBlock;
+	}
+
+	@Override
+	public synchronized float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
 	{
 		if ( Thread.interrupted() )
 			throw new InterruptedException();
@@ -221,7 +306,7 @@ class HDF5AccessHack implements IHDF5Access
 		H5Sselect_hyperslab( dataset.fileSpaceId, H5S_SELECT_SET, reorderedMin, null, reorderedDimensions, null );
 		H5Dread( dataset.dataSetId, H5T_NATIVE_FLOAT, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
 		H5Sclose( memorySpaceId );
-		HDF5Access.unsignedShort( dataBlock );
+
 		return dataBlock;
 	}
 
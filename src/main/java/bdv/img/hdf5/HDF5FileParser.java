@@ -0,0 +1,982 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parse the structure of an hdf5 file in pure Java, as far as needed to locate
+ * the chunks of chunked data sets: superblock (versions 0 to 3), object
+ * headers (versions 1 and 2), old-style groups (symbol tables), new-style
+ * groups (compact and dense link storage), and data sets with version 1 B-tree
+ * chunk index. Supported filters are deflate, shuffle, fletcher32, and
+ * scale-offset for integer data.
+ * <p>
+ * Anything else (external links, layout message version 4, shared messages,
+ * unknown filters, ...) is reported as an {@link IOException}, so that callers
+ * can fall back to the HDF5 library.
+ * <p>
+ * Groups are read once and then cached, so this class can be used
+ * concurrently.
+ */
+class HDF5FileParser
+{
+	/**
+	 * The layout of a chunked data set and the location of its chunks.
+	 * Dimensions are in hdf5 (row-major) order.
+	 */
+	public static class ChunkedDataSet
+	{
+		public static final int FILTER_DEFLATE = 1;
+
+		public static final int FILTER_SHUFFLE = 2;
+
+		public static final int FILTER_FLETCHER32 = 3;
+
+		public static final int FILTER_SCALEOFFSET = 6;
+
+		/**
+		 * Scale type of the scale-offset filter for integers (minimum number
+		 * of bits).
+		 */
+		public static final int SCALEOFFSET_TYPE_INT = 2;
+
+		/**
+		 * Indices into the {@link #filterParameters} of the scale-offset
+		 * filter.
+		 */
+		public static final int SCALEOFFSET_PARM_SCALETYPE = 0;
+
+		public static final int SCALEOFFSET_PARM_CLASS = 3;
+
+		public static final int SCALEOFFSET_PARM_FILLAVAIL = 7;
+
+		public static final int SCALEOFFSET_PARM_FILLVAL = 8;
+
+		/**
+		 * Data set dimensions.
+		 */
+		public final long[] dimensions;
+
+		/**
+		 * Chunk dimensions.
+		 */
+		public final int[] chunkDimensions;
+
+		/**
+		 * Number of chunks in each dimension.
+		 */
+		public final int[] gridDimensions;
+
+		/**
+		 * Datatype class (0 is fixed-point, 1 is floating-point).
+		 */
+		public final int datatypeClass;
+
+		public final int elementSize;
+
+		public final boolean signed;
+
+		public final boolean bigEndian;
+
+		/**
+		 * Ids of the filters in the pipeline, in the order in which they were
+		 * applied when writing.
+		 */
+		public final int[] filters;
+
+		/**
+		 * Client data values of each filter in {@link #filters}.
+		 */
+		public final int[][] filterParameters;
+
+		/**
+		 * Address of each chunk (flattened grid index), or -1 for
+		 * unallocated chunks.
+		 */
+		final long[] chunkAddresses;
+
+		/**
+		 * Stored (filtered) size of each chunk in bytes.
+		 */
+		final int[] chunkSizes;
+
+		/**
+		 * Filter mask of each chunk. Bit i is set if filter i was not
+		 * applied.
+		 */
+		final int[] chunkFilterMasks;
+
+		ChunkedDataSet( final long[] dimensions, final int[] chunkDimensions, final int datatypeClass, final int elementSize, final boolean signed, final boolean bigEndian, final int[] filters, final int[][] filterParameters )
+		{
+			this.dimensions = dimensions;
+			this.chunkDimensions = chunkDimensions;
+			this.datatypeClass = datatypeClass;
+			this.elementSize = elementSize;
+			this.signed = signed;
+			this.bigEndian = bigEndian;
+			this.filters = filters;
+			this.filterParameters = filterParameters;
+			gridDimensions = new int[ dimensions.length ];
+			int numChunks = 1;
+			for ( int d = 0; d < dimensions.length; ++d )
+			{
+				gridDimensions[ d ] = ( int ) ( ( dimensions[ d ] + chunkDimensions[ d ] - 1 ) / chunkDimensions[ d ] );
+				numChunks *= gridDimensions[ d ];
+			}
+			chunkAddresses = new long[ numChunks ];
+			chunkSizes = new int[ numChunks ];
+			chunkFilterMasks = new int[ numChunks ];
+			for ( int i = 0; i < numChunks; ++i )
+				chunkAddresses[ i ] = -1;
+		}
+
+		/**
+		 * Get the flattened grid index of the chunk at the given grid
+		 * position.
+		 */
+		public int getChunkIndex( final long[] gridPosition )
+		{
+			int index = 0;
+			for ( int d = 0; d < gridPosition.length; ++d )
+				index = index * gridDimensions[ d ] + ( int ) gridPosition[ d ];
+			return index;
+		}
+
+		public long getChunkAddress( final int chunkIndex )
+		{
+			return chunkAddresses[ chunkIndex ];
+		}
+
+		public int getChunkSize( final int chunkIndex )
+		{
+			return chunkSizes[ chunkIndex ];
+		}
+
+		public int getChunkFilterMask( final int chunkIndex )
+		{
+			return chunkFilterMasks[ chunkIndex ];
+		}
+
+		/**
+		 * Number of bytes of an unfiltered chunk.
+		 */
+		public int getChunkBytes()
+		{
+			int n = elementSize;
+			for ( final int c : chunkDimensions )
+				n *= c;
+			return n;
+		}
+	}
+
+	private static final int MSG_DATASPACE = 0x01;
+
+	private static final int MSG_LINK_INFO = 0x02;
+
+	private static final int MSG_DATATYPE = 0x03;
+
+	private static final int MSG_FILL_VALUE_OLD = 0x04;
+
+	private static final int MSG_FILL_VALUE = 0x05;
+
+	private static final int MSG_LINK = 0x06;
+
+	private static final int MSG_LAYOUT = 0x08;
+
+	private static final int MSG_FILTER_PIPELINE = 0x0b;
+
+	private static final int MSG_CONTINUATION = 0x10;
+
+	private static final int MSG_SYMBOL_TABLE = 0x11;
+
+	private static final byte[] SIGNATURE = new byte[] { ( byte ) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n' };
+
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private final MappedFile file;
+
+	private final int sizeOfOffsets;
+
+	private final int sizeOfLengths;
+
+	private final long baseAddress;
+
+	private final long rootObjectHeaderAddress;
+
+	/**
+	 * Maps group object header address to the hard links in the group (name
+	 * to object header address).
+	 */
+	private final ConcurrentHashMap< Long, Map< String, Long > > groups;
+
+	public HDF5FileParser( final MappedFile file ) throws IOException
+	{
+		this.file = file;
+		groups = new ConcurrentHashMap< Long, Map< String, Long > >();
+
+		long superblockAddress = -1;
+		for ( long a = 0; a + SIGNATURE.length <= file.size(); a = ( a == 0 ) ? 512 : 2 * a )
+		{
+			final ByteBuffer b = file.read( a, SIGNATURE.length );
+			boolean match = true;
+			for ( int i = 0; i < SIGNATURE.length; ++i )
+				match &= b.get( i ) == SIGNATURE[ i ];
+			if ( match )
+			{
+				superblockAddress = a;
+				break;
+			}
+		}
+		if ( superblockAddress < 0 )
+			throw new IOException( "not an hdf5 file" );
+
+		final ByteBuffer b = file.read( superblockAddress, 256 );
+		b.position( SIGNATURE.length );
+		final int version = u8( b );
+		if ( version == 0 || version == 1 )
+		{
+			skip( b, 3 ); // free-space, root group symbol table, reserved
+			skip( b, 1 ); // shared header message format
+			sizeOfOffsets = u8( b );
+			sizeOfLengths = u8( b );
+			skip( b, 1 + 2 + 2 + 4 ); // reserved, group K's, consistency flags
+			if ( version == 1 )
+				skip( b, 4 ); // indexed storage K, reserved
+			baseAddress = offset( b );
+			skip( b, 3 * sizeOfOffsets ); // free-space info, end of file, driver info
+			skip( b, sizeOfOffsets ); // root link name offset
+			rootObjectHeaderAddress = offset( b );
+		}
+		else if ( version == 2 || version == 3 )
+		{
+			sizeOfOffsets = u8( b );
+			sizeOfLengths = u8( b );
+			skip( b, 1 ); // flags
+			baseAddress = offset( b );
+			skip( b, 2 * sizeOfOffsets ); // superblock extension, end of file
+			rootObjectHeaderAddress = offset( b );
+		}
+		else
+			throw new IOException( "unsupported superblock version " + version );
+	}
+
+	/**
+	 * Get the object header address of the object at the given path
+	 * (relative to the root group).
+	 */
+	public long getObjectHeaderAddress( final String path ) throws IOException
+	{
+		long address = rootObjectHeaderAddress;
+		for ( final String name : path.split( "/" ) )
+		{
+			if ( name.isEmpty() )
+				continue;
+			final Long child = getGroup( address ).get( name );
+			if ( child == null )
+				throw new IOException( "no hard link \"" + name + "\" in path " + path );
+			address = child;
+		}
+		return address;
+	}
+
+	/**
+	 * Read the layout and chunk index of the chunked data set at the given
+	 * path.
+	 */
+	public ChunkedDataSet readChunkedDataSet( final String path ) throws IOException
+	{
+		long[] dimensions = null;
+		int datatypeClass = -1;
+		int elementSize = 0;
+		boolean signed = false;
+		boolean bigEndian = false;
+		int[] chunkDimensions = null;
+		long btreeAddress = -1;
+		int[] filters = new int[ 0 ];
+		final ArrayList< int[] > filterParameters = new ArrayList< int[] >();
+
+		for ( final Message message : readObjectHeader( getObjectHeaderAddress( path ) ) )
+		{
+			final ByteBuffer b = message.data;
+			switch ( message.type )
+			{
+			case MSG_DATASPACE:
+			{
+				final int version = u8( b );
+				final int rank = u8( b );
+				skip( b, 1 ); // flags
+				skip( b, version == 1 ? 5 : 1 );
+				dimensions = new long[ rank ];
+				for ( int d = 0; d < rank; ++d )
+					dimensions[ d ] = length( b );
+				break;
+			}
+			case MSG_DATATYPE:
+			{
+				final int classAndVersion = u8( b );
+				datatypeClass = classAndVersion & 0x0f;
+				final int bits = u8( b );
+				skip( b, 2 );
+				elementSize = ( int ) u32( b );
+				if ( datatypeClass != 0 && datatypeClass != 1 )
+					throw new IOException( "unsupported datatype class " + datatypeClass );
+				bigEndian = ( bits & 0x01 ) != 0;
+				signed = datatypeClass == 0 && ( bits & 0x08 ) != 0;
+				break;
+			}
+			case MSG_FILL_VALUE_OLD:
+				checkZeroFillValue( b, ( int ) u32( b ) );
+				break;
+			case MSG_FILL_VALUE:
+			{
+				final int version = u8( b );
+				if ( version == 1 || version == 2 )
+				{
+					skip( b, 2 ); // allocation time, write time
+					final boolean defined = u8( b ) != 0;
+					if ( version == 1 || defined )
+						checkZeroFillValue( b, ( int ) u32( b ) );
+				}
+				else if ( version == 3 )
+				{
+					if ( ( u8( b ) & 0x20 ) != 0 )
+						checkZeroFillValue( b, ( int ) u32( b ) );
+				}
+				else
+					throw new IOException( "unsupported fill value message version " + version );
+				break;
+			}
+			case MSG_LAYOUT:
+			{
+				final int version = u8( b );
+				final int dimensionality;
+				if ( version == 1 || version == 2 )
+				{
+					dimensionality = u8( b );
+					final int layoutClass = u8( b );
+					if ( layoutClass != 2 )
+						throw new IOException( "data set is not chunked" );
+					skip( b, 5 );
+				}
+				else if ( version == 3 )
+				{
+					final int layoutClass = u8( b );
+					if ( layoutClass != 2 )
+						throw new IOException( "data set is not chunked" );
+					dimensionality = u8( b );
+				}
+				else
+					throw new IOException( "unsupported layout message version " + version );
+				btreeAddress = offset( b );
+				// the last dimension is the element size
+				chunkDimensions = new int[ dimensionality - 1 ];
+				for ( int d = 0; d < dimensionality - 1; ++d )
+					chunkDimensions[ d ] = ( int ) u32( b );
+				break;
+			}
+			case MSG_FILTER_PIPELINE:
+				filterParameters.clear();
+				filters = readFilterPipeline( b, filterParameters );
+				break;
+			}
+		}
+
+		if ( dimensions == null || datatypeClass < 0 || chunkDimensions == null )
+			throw new IOException( path + " is not a chunked data set" );
+		if ( dimensions.length != chunkDimensions.length )
+			throw new IOException( "chunk dimensionality does not match data set rank" );
+
+		for ( int i = 0; i < filters.length; ++i )
+			if ( filters[ i ] == ChunkedDataSet.FILTER_SCALEOFFSET )
+				checkScaleOffset( filterParameters.get( i ), datatypeClass );
+
+		final ChunkedDataSet dataSet = new ChunkedDataSet( dimensions, chunkDimensions, datatypeClass, elementSize, signed, bigEndian, filters, filterParameters.toArray( new int[ 0 ][] ) );
+		if ( btreeAddress >= 0 )
+			readChunkIndex( btreeAddress, dataSet );
+		return dataSet;
+	}
+
+	/**
+	 * Read a filter pipeline message.
+	 *
+	 * @param parameters
+	 *            the client data values of each filter are added to this list.
+	 * @return the ids of the filters.
+	 */
+	private int[] readFilterPipeline( final ByteBuffer b, final List< int[] > parameters ) throws IOException
+	{
+		final int version = u8( b );
+		final int numFilters = u8( b );
+		if ( version == 1 )
+			skip( b, 6 );
+		final int[] filters = new int[ numFilters ];
+		for ( int i = 0; i < numFilters; ++i )
+		{
+			final int id = u16( b );
+			final int nameLength = ( version == 1 || id >= 256 ) ? u16( b ) : 0;
+			skip( b, 2 ); // flags
+			final int numValues = u16( b );
+			skip( b, version == 1 ? ( nameLength + 7 ) / 8 * 8 : nameLength );
+			final int[] values = new int[ numValues ];
+			for ( int j = 0; j < numValues; ++j )
+				values[ j ] = ( int ) u32( b );
+			if ( version == 1 && ( numValues % 2 ) != 0 )
+				skip( b, 4 );
+			if ( id != ChunkedDataSet.FILTER_DEFLATE && id != ChunkedDataSet.FILTER_SHUFFLE && id != ChunkedDataSet.FILTER_FLETCHER32 && id != ChunkedDataSet.FILTER_SCALEOFFSET )
+				throw new IOException( "unsupported filter " + id );
+			filters[ i ] = id;
+			parameters.add( values );
+		}
+		return filters;
+	}
+
+	/**
+	 * Only the integer (minimum bits) variant of the scale-offset filter is
+	 * supported, this is what JHDF5 uses for integer data with auto-scaling.
+	 */
+	private static void checkScaleOffset( final int[] parameters, final int datatypeClass ) throws IOException
+	{
+		if ( datatypeClass != 0
+				|| parameters.length <= ChunkedDataSet.SCALEOFFSET_PARM_FILLVAL
+				|| parameters[ ChunkedDataSet.SCALEOFFSET_PARM_SCALETYPE ] != ChunkedDataSet.SCALEOFFSET_TYPE_INT
+				|| parameters[ ChunkedDataSet.SCALEOFFSET_PARM_CLASS ] != 0 )
+			throw new IOException( "unsupported scale-offset filter parameters" );
+	}
+
+	private static void checkZeroFillValue( final ByteBuffer b, final int size ) throws IOException
+	{
+		for ( int i = 0; i < size; ++i )
+			if ( b.get() != 0 )
+				throw new IOException( "unsupported non-zero fill value" );
+	}
+
+	/**
+	 * Read all entries of a version 1 B-tree chunk index into the data set.
+	 */
+	private void readChunkIndex( final long address, final ChunkedDataSet dataSet ) throws IOException
+	{
+		final int n = dataSet.dimensions.length;
+		final int keySize = 4 + 4 + 8 * ( n + 1 );
+		final ByteBuffer header = file.read( baseAddress + address, 8 );
+		checkSignature( header, "TREE" );
+		if ( u8( header ) != 1 )
+			throw new IOException( "not a chunk index B-tree" );
+		final int level = u8( header );
+		final int numEntries = u16( header );
+
+		final ByteBuffer b = file.read( baseAddress + address, 8 + 2 * sizeOfOffsets + numEntries * ( keySize + sizeOfOffsets ) + keySize );
+		b.position( 8 + 2 * sizeOfOffsets );
+		final long[] gridPosition = new long[ n ];
+		for ( int i = 0; i < numEntries; ++i )
+		{
+			final int chunkSize = ( int ) u32( b );
+			final int filterMask = ( int ) u32( b );
+			for ( int d = 0; d < n; ++d )
+				gridPosition[ d ] = b.getLong() / dataSet.chunkDimensions[ d ];
+			skip( b, 8 ); // element size dimension
+			final long child = offset( b );
+			if ( level > 0 )
+				readChunkIndex( child, dataSet );
+			else
+			{
+				final int chunkIndex = dataSet.getChunkIndex( gridPosition );
+				dataSet.chunkAddresses[ chunkIndex ] = baseAddress + child;
+				dataSet.chunkSizes[ chunkIndex ] = chunkSize;
+				dataSet.chunkFilterMasks[ chunkIndex ] = filterMask;
+			}
+		}
+	}
+
+	/*
+	 * Groups
+	 */
+
+	private Map< String, Long > getGroup( final long address ) throws IOException
+	{
+		Map< String, Long > links = groups.get( address );
+		if ( links == null )
+		{
+			links = readGroup( address );
+			groups.put( address, links );
+		}
+		return links;
+	}
+
+	private Map< String, Long > readGroup( final long address ) throws IOException
+	{
+		final HashMap< String, Long > links = new HashMap< String, Long >();
+		for ( final Message message : readObjectHeader( address ) )
+		{
+			final ByteBuffer b = message.data;
+			switch ( message.type )
+			{
+			case MSG_SYMBOL_TABLE:
+			{
+				final long btreeAddress = offset( b );
+				final long heapAddress = offset( b );
+				readSymbolTable( btreeAddress, readLocalHeap( heapAddress ), links );
+				break;
+			}
+			case MSG_LINK:
+				readLink( b, links );
+				break;
+			case MSG_LINK_INFO:
+			{
+				skip( b, 1 ); // version
+				final int flags = u8( b );
+				if ( ( flags & 0x01 ) != 0 )
+					skip( b, 8 ); // maximum creation index
+				final long heapAddress = offset( b );
+				final long nameIndexAddress = offset( b );
+				if ( heapAddress >= 0 )
+				{
+					final FractalHeap heap = new FractalHeap( heapAddress );
+					for ( final ByteBuffer record : readV2BTreeRecords( nameIndexAddress ) )
+					{
+						skip( record, 4 ); // name hash
+						readLink( heap.getObject( record ), links );
+					}
+				}
+				break;
+			}
+			}
+		}
+		return links;
+	}
+
+	/**
+	 * Read a link message and add it to {@code links} if it is a hard link.
+	 */
+	private void readLink( final ByteBuffer b, final Map< String, Long > links ) throws IOException
+	{
+		final int version = u8( b );
+		if ( version != 1 )
+			throw new IOException( "unsupported link message version " + version );
+		final int flags = u8( b );
+		final int linkType = ( flags & 0x08 ) != 0 ? u8( b ) : 0;
+		if ( ( flags & 0x04 ) != 0 )
+			skip( b, 8 ); // creation order
+		if ( ( flags & 0x10 ) != 0 )
+			skip( b, 1 ); // character set
+		final int nameLength = ( int ) unsigned( b, 1 << ( flags & 0x03 ) );
+		final byte[] name = new byte[ nameLength ];
+		b.get( name );
+		if ( linkType == 0 )
+			links.put( new String( name, UTF8 ), offset( b ) );
+	}
+
+	private byte[] readLocalHeap( final long address ) throws IOException
+	{
+		final ByteBuffer b = file.read( baseAddress + address, 8 + 2 * sizeOfLengths + sizeOfOffsets );
+		checkSignature( b, "HEAP" );
+		skip( b, 4 ); // version, reserved
+		final int dataSize = ( int ) length( b );
+		skip( b, sizeOfLengths ); // free list offset
+		final long dataAddress = offset( b );
+		final byte[] data = new byte[ dataSize ];
+		file.read( baseAddress + dataAddress, dataSize ).get( data );
+		return data;
+	}
+
+	private void readSymbolTable( final long address, final byte[] heap, final Map< String, Long > links ) throws IOException
+	{
+		final ByteBuffer header = file.read( baseAddress + address, 8 );
+		checkSignature( header, "TREE" );
+		if ( u8( header ) != 0 )
+			throw new IOException( "not a group B-tree" );
+		final int level = u8( header );
+		final int numEntries = u16( header );
+
+		final ByteBuffer b = file.read( baseAddress + address, 8 + 2 * sizeOfOffsets + numEntries * ( sizeOfLengths + sizeOfOffsets ) + sizeOfLengths );
+		b.position( 8 + 2 * sizeOfOffsets );
+		for ( int i = 0; i < numEntries; ++i )
+		{
+			skip( b, sizeOfLengths ); // key
+			final long child = offset( b );
+			if ( level > 0 )
+				readSymbolTable( child, heap, links );
+			else
+				readSymbolTableNode( child, heap, links );
+		}
+	}
+
+	private void readSymbolTableNode( final long address, final byte[] heap, final Map< String, Long > links ) throws IOException
+	{
+		final ByteBuffer header = file.read( baseAddress + address, 8 );
+		checkSignature( header, "SNOD" );
+		skip( header, 2 ); // version, reserved
+		final int numSymbols = u16( header );
+		final int entrySize = 2 * sizeOfOffsets + 24;
+		final ByteBuffer b = file.read( baseAddress + address + 8, numSymbols * entrySize );
+		for ( int i = 0; i < numSymbols; ++i )
+		{
+			b.position( i * entrySize );
+			final int nameOffset = ( int ) offset( b );
+			final long objectHeaderAddress = offset( b );
+			int end = nameOffset;
+			while ( end < heap.length && heap[ end ] != 0 )
+				++end;
+			links.put( new String( heap, nameOffset, end - nameOffset, UTF8 ), objectHeaderAddress );
+		}
+	}
+
+	/*
+	 * Object headers
+	 */
+
+	private static class Message
+	{
+		final int type;
+
+		final ByteBuffer data;
+
+		Message( final int type, final ByteBuffer data )
+		{
+			this.type = type;
+			this.data = data;
+		}
+	}
+
+	private List< Message > readObjectHeader( final long address ) throws IOException
+	{
+		final ArrayList< Message > messages = new ArrayList< Message >();
+		final ArrayList< long[] > continuations = new ArrayList< long[] >();
+		final ByteBuffer prefix = file.read( baseAddress + address, 16 );
+		if ( prefix.get( 0 ) == 'O' && prefix.get( 1 ) == 'H' && prefix.get( 2 ) == 'D' && prefix.get( 3 ) == 'R' )
+		{
+			final ByteBuffer b = file.read( baseAddress + address, 4 + 1 + 1 + 16 + 4 + 8 );
+			skip( b, 4 );
+			if ( u8( b ) != 2 )
+				throw new IOException( "unsupported object header version" );
+			final int flags = u8( b );
+			if ( ( flags & 0x20 ) != 0 )
+				skip( b, 16 ); // times
+			if ( ( flags & 0x10 ) != 0 )
+				skip( b, 4 ); // attribute phase change values
+			final long chunkSize = unsigned( b, 1 << ( flags & 0x03 ) );
+			readMessagesV2( baseAddress + address + b.position(), chunkSize, flags, messages, continuations );
+			for ( int i = 0; i < continuations.size(); ++i )
+			{
+				final long[] c = continuations.get( i );
+				checkSignature( file.read( baseAddress + c[ 0 ], 4 ), "OCHK" );
+				readMessagesV2( baseAddress + c[ 0 ] + 4, c[ 1 ] - 8, flags, messages, continuations );
+			}
+		}
+		else
+		{
+			if ( u8( prefix ) != 1 )
+				throw new IOException( "unsupported object header version" );
+			skip( prefix, 7 ); // reserved, number of messages, reference count
+			final long headerSize = u32( prefix );
+			readMessagesV1( baseAddress + address + 16, headerSize, messages, continuations );
+			for ( int i = 0; i < continuations.size(); ++i )
+			{
+				final long[] c = continuations.get( i );
+				readMessagesV1( baseAddress + c[ 0 ], c[ 1 ], messages, continuations );
+			}
+		}
+		return messages;
+	}
+
+	private void readMessagesV1( final long address, final long size, final List< Message > messages, final List< long[] > continuations ) throws IOException
+	{
+		final ByteBuffer b = file.read( address, ( int ) size );
+		while ( b.remaining() >= 8 )
+		{
+			final int type = u16( b );
+			final int messageSize = u16( b );
+			final int flags = u8( b );
+			skip( b, 3 );
+			addMessage( type, flags, slice( b, messageSize ), messages, continuations );
+		}
+	}
+
+	private void readMessagesV2( final long address, final long size, final int headerFlags, final List< Message > messages, final List< long[] > continuations ) throws IOException
+	{
+		final ByteBuffer b = file.read( address, ( int ) size );
+		final int messageHeaderSize = ( headerFlags & 0x04 ) != 0 ? 6 : 4;
+		while ( b.remaining() >= messageHeaderSize )
+		{
+			final int type = u8( b );
+			final int messageSize = u16( b );
+			final int flags = u8( b );
+			if ( ( headerFlags & 0x04 ) != 0 )
+				skip( b, 2 ); // creation order
+			addMessage( type, flags, slice( b, messageSize ), messages, continuations );
+		}
+	}
+
+	private void addMessage( final int type, final int flags, final ByteBuffer data, final List< Message > messages, final List< long[] > continuations ) throws IOException
+	{
+		if ( type == MSG_CONTINUATION )
+			continuations.add( new long[] { offset( data ), length( data ) } );
+		else if ( type != 0 )
+		{
+			if ( ( flags & 0x02 ) != 0 )
+				throw new IOException( "unsupported shared message" );
+			messages.add( new Message( type, data ) );
+		}
+	}
+
+	/*
+	 * Version 2 B-trees
+	 */
+
+	private List< ByteBuffer > readV2BTreeRecords( final long address ) throws IOException
+	{
+		final ByteBuffer b = file.read( baseAddress + address, 4 + 1 + 1 + 4 + 2 + 2 + 1 + 1 + sizeOfOffsets + 2 + sizeOfLengths );
+		checkSignature( b, "BTHD" );
+		skip( b, 2 ); // version, type
+		final int nodeSize = ( int ) u32( b );
+		final int recordSize = u16( b );
+		final int depth = u16( b );
+		skip( b, 2 ); // split and merge percent
+		final long rootAddress = offset( b );
+		final int rootNumRecords = u16( b );
+
+		// sizes of the "number of records" fields of child pointers, see the
+		// hdf5 specification of version 2 B-tree internal nodes
+		final int prefixSize = 4 + 1 + 1 + 4;
+		final long[] maxNumRecords = new long[ depth + 1 ];
+		final int[] maxNumRecordsSize = new int[ depth + 1 ];
+		final long[] cumulativeMaxNumRecords = new long[ depth + 1 ];
+		final int[] cumulativeMaxNumRecordsSize = new int[ depth + 1 ];
+		maxNumRecords[ 0 ] = ( nodeSize - prefixSize ) / recordSize;
+		maxNumRecordsSize[ 0 ] = encodedSize( maxNumRecords[ 0 ] );
+		cumulativeMaxNumRecords[ 0 ] = maxNumRecords[ 0 ];
+		cumulativeMaxNumRecordsSize[ 0 ] = maxNumRecordsSize[ 0 ];
+		for ( int u = 1; u <= depth; ++u )
+		{
+			final int pointerSize = sizeOfOffsets + maxNumRecordsSize[ u - 1 ] + ( u > 1 ? cumulativeMaxNumRecordsSize[ u - 1 ] : 0 );
+			maxNumRecords[ u ] = ( nodeSize - ( prefixSize + pointerSize ) ) / ( recordSize + pointerSize );
+			maxNumRecordsSize[ u ] = encodedSize( maxNumRecords[ u ] );
+			cumulativeMaxNumRecords[ u ] = ( maxNumRecords[ u ] + 1 ) * cumulativeMaxNumRecords[ u - 1 ] + maxNumRecords[ u ];
+			cumulativeMaxNumRecordsSize[ u ] = encodedSize( cumulativeMaxNumRecords[ u ] );
+		}
+
+		final ArrayList< ByteBuffer > records = new ArrayList< ByteBuffer >();
+		if ( rootAddress >= 0 )
+			readV2BTreeNode( rootAddress, depth, rootNumRecords, nodeSize, recordSize, maxNumRecordsSize, cumulativeMaxNumRecordsSize, records );
+		return records;
+	}
+
+	private void readV2BTreeNode( final long address, final int depth, final int numRecords, final int nodeSize, final int recordSize, final int[] maxNumRecordsSize, final int[] cumulativeMaxNumRecordsSize, final List< ByteBuffer > records ) throws IOException
+	{
+		final ByteBuffer b = file.read( baseAddress + address, nodeSize );
+		checkSignature( b, depth == 0 ? "BTLF" : "BTIN" );
+		skip( b, 2 ); // version, type
+		for ( int i = 0; i < numRecords; ++i )
+			records.add( slice( b, recordSize ) );
+		if ( depth > 0 )
+		{
+			for ( int i = 0; i <= numRecords; ++i )
+			{
+				final long child = offset( b );
+				final int childNumRecords = ( int ) unsigned( b, maxNumRecordsSize[ depth - 1 ] );
+				if ( depth > 1 )
+					skip( b, cumulativeMaxNumRecordsSize[ depth - 1 ] );
+				readV2BTreeNode( child, depth - 1, childNumRecords, nodeSize, recordSize, maxNumRecordsSize, cumulativeMaxNumRecordsSize, records );
+			}
+		}
+	}
+
+	private static int encodedSize( final long n )
+	{
+		return ( 63 - Long.numberOfLeadingZeros( Math.max( n, 1 ) ) ) / 8 + 1;
+	}
+
+	/*
+	 * Fractal heaps
+	 */
+
+	private class FractalHeap
+	{
+		private final int tableWidth;
+
+		private final long startingBlockSize;
+
+		private final int maxDirectRows;
+
+		private final int offsetSize;
+
+		private final ArrayList< long[] > directBlocks;
+
+		FractalHeap( final long address ) throws IOException
+		{
+			final ByteBuffer b = file.read( baseAddress + address, 256 );
+			checkSignature( b, "FRHP" );
+			skip( b, 1 + 2 ); // version, heap id length
+			final int filterLength = u16( b );
+			if ( filterLength != 0 )
+				throw new IOException( "unsupported filtered fractal heap" );
+			skip( b, 1 + 4 + sizeOfLengths + sizeOfOffsets + sizeOfLengths + sizeOfOffsets + 8 * sizeOfLengths );
+			tableWidth = u16( b );
+			startingBlockSize = length( b );
+			final long maxDirectBlockSize = length( b );
+			final int maxHeapSize = u16( b );
+			skip( b, 2 ); // starting number of rows
+			final long rootAddress = offset( b );
+			final int currentNumRows = u16( b );
+
+			offsetSize = ( maxHeapSize + 7 ) / 8;
+			maxDirectRows = log2( maxDirectBlockSize ) - log2( startingBlockSize ) + 2;
+			directBlocks = new ArrayList< long[] >();
+			if ( rootAddress >= 0 )
+			{
+				if ( currentNumRows == 0 )
+					directBlocks.add( new long[] { 0, rootAddress, startingBlockSize } );
+				else
+					readIndirectBlock( rootAddress, currentNumRows );
+			}
+		}
+
+		private long rowBlockSize( final int row )
+		{
+			return row == 0 ? startingBlockSize : startingBlockSize << ( row - 1 );
+		}
+
+		private void readIndirectBlock( final long address, final int numRows ) throws IOException
+		{
+			final int numEntries = numRows * tableWidth;
+			final ByteBuffer b = file.read( baseAddress + address, 4 + 1 + sizeOfOffsets + offsetSize + numEntries * sizeOfOffsets );
+			checkSignature( b, "FHIB" );
+			skip( b, 1 + sizeOfOffsets );
+			long blockOffset = unsigned( b, offsetSize );
+			for ( int row = 0; row < numRows; ++row )
+			{
+				final long size = rowBlockSize( row );
+				for ( int col = 0; col < tableWidth; ++col )
+				{
+					final long child = offset( b );
+					if ( child >= 0 )
+					{
+						if ( row < maxDirectRows )
+							directBlocks.add( new long[] { blockOffset, child, size } );
+						else
+							readIndirectBlock( child, log2( size ) - log2( startingBlockSize * tableWidth ) + 1 );
+					}
+					blockOffset += size;
+				}
+			}
+		}
+
+		/**
+		 * Get the object for a managed-object heap id.
+		 */
+		ByteBuffer getObject( final ByteBuffer heapId ) throws IOException
+		{
+			final int flags = u8( heapId );
+			if ( ( flags & 0x30 ) != 0 )
+				throw new IOException( "unsupported huge or tiny fractal heap object" );
+			final long objectOffset = unsigned( heapId, offsetSize );
+			for ( final long[] block : directBlocks )
+				if ( objectOffset >= block[ 0 ] && objectOffset < block[ 0 ] + block[ 2 ] )
+					return file.read( baseAddress + block[ 1 ] + objectOffset - block[ 0 ], ( int ) ( block[ 0 ] + block[ 2 ] - objectOffset ) );
+			throw new IOException( "fractal heap object not found" );
+		}
+	}
+
+	private static int log2( final long n )
+	{
+		return 63 - Long.numberOfLeadingZeros( n );
+	}
+
+	/*
+	 * Decoding helpers
+	 */
+
+	private static void checkSignature( final ByteBuffer b, final String signature ) throws IOException
+	{
+		for ( int i = 0; i < 4; ++i )
+			if ( b.get() != signature.charAt( i ) )
+				throw new IOException( "expected " + signature + " signature" );
+	}
+
+	private static ByteBuffer slice( final ByteBuffer b, final int length )
+	{
+		final ByteBuffer s = b.slice();
+		s.limit( length );
+		b.position( b.position() + length );
+		return s.order( b.order() );
+	}
+
+	private static void skip( final ByteBuffer b, final int n )
+	{
+		b.position( b.position() + n );
+	}
+
+	private static int u8( final ByteBuffer b )
+	{
+		return b.get() & 0xff;
+	}
+
+	private static int u16( final ByteBuffer b )
+	{
+		return b.getShort() & 0xffff;
+	}
+
+	private static long u32( final ByteBuffer b )
+	{
+		return b.getInt() & 0xffffffffl;
+	}
+
+	/**
+	 * Read a little-endian unsigned integer of {@code n} bytes.
+	 */
+	private static long unsigned( final ByteBuffer b, final int n )
+	{
+		long value = 0;
+		for ( int i = 0; i < n; ++i )
+			value |= ( b.get() & 0xffl ) << ( 8 * i );
+		return value;
+	}
+
+	/**
+	 * Read an address. Returns -1 for the undefined address.
+	 */
+	private long offset( final ByteBuffer b )
+	{
+		final long value = unsigned( b, sizeOfOffsets );
+		final long undefined = sizeOfOffsets == 8 ? -1 : ( 1l << ( 8 * sizeOfOffsets ) ) - 1;
+		return value == undefined ? -1 : value;
+	}
+
+	private long length( final ByteBuffer b )
+	{
+		return unsigned( b, sizeOfLengths );
+	}
+}
@@ -28,15 +28,19 @@
  */
 package bdv.img.hdf5;
 
+import static bdv.img.hdf5.Util.getCellsPath;
 import static bdv.img.hdf5.Util.getResolutionsPath;
 import static bdv.img.hdf5.Util.getSubdivisionsPath;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -58,32 +62,43 @@ import net.imglib2.FinalInterval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Volatile;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.NativeImg;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgFactory;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
 import net.imglib2.img.cell.CellImg;
 import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.img.cell.DefaultCell;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Fraction;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 import bdv.AbstractViewerSetupImgLoader;
+import bdv.CellStatistics;
+import bdv.CellStatisticsProvider;
 import bdv.ViewerImgLoader;
+import bdv.img.cache.ArrayPool;
+import bdv.img.cache.CacheArrayLoader;
 import bdv.img.cache.CacheHints;
 import bdv.img.cache.CachedCellImg;
+import bdv.img.cache.FetcherThreads;
 import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.SharedCellCacheService;
+import bdv.img.cache.SparseCellCache;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.img.cache.VolatileImgCells;
 import bdv.img.cache.VolatileImgCells.CellCache;
+import bdv.img.hdf5.DataTypes.DataType;
 import bdv.util.ConstantRandomAccessible;
 import bdv.util.MipmapTransforms;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
@@ -107,12 +122,19 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 
 	protected VolatileGlobalCellCache cache;
 
+	/**
+	 * Default configuration of fetcher threads for this loader.
+	 */
+	public static final FetcherThreads DEFAULT_FETCHER_THREADS = new FetcherThreads( 1 );
+
+	protected FetcherThreads fetcherThreads = DEFAULT_FETCHER_THREADS;
+
 	protected Hdf5VolatileShortArrayLoader shortLoader;
 
 	/**
-	 * Maps setup id to {@link SetupImgLoader}.
+	 * Maps setup id to {@link TypedSetupImgLoader}.
 	 */
-	protected final HashMap< Integer, SetupImgLoader > setupImgLoaders;
+	protected final HashMap< Integer, TypedSetupImgLoader< ?, ?, ? > > setupImgLoaders;
 
 	/**
 	 * List of partitions if the dataset is split across several files
@@ -127,7 +149,25 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 	 * dimensions of one image. This is filled in when an image is loaded for
 	 * the first time.
 	 */
-	protected final HashMap< ViewLevelId, DimsAndExistence > cachedDimsAndExistence;
+	protected final ConcurrentHashMap< ViewLevelId, DimsAndExistence > cachedDimsAndExistence;
+
+	/**
+	 * Maps {@link ViewLevelId} (timepoint, setup, level) to the table of
+	 * constant cells of that image (see {@link #getConstantCells(ViewLevelId)}).
+	 * This is filled in when an image is requested for the first time.
+	 */
+	protected final ConcurrentHashMap< ViewLevelId, double[][] > cachedConstantCells;
+
+	/**
+	 * Maps {@link ViewLevelId} (timepoint, setup, level) to the
+	 * {@link CellStatistics} of that image (see
+	 * {@link #getCellStatistics(ViewLevelId)}), or to
+	 * {@link #NO_CELL_STATISTICS} if there are none. This is filled in when
+	 * the statistics are requested for the first time.
+	 */
+	private final ConcurrentHashMap< ViewLevelId, CellStatistics > cachedCellStatistics;
+
+	private static final CellStatistics NO_CELL_STATISTICS = new CellStatistics( new double[ 0 ][], null, 0, 0 );
 
 	protected final AbstractSequenceDescription< ?, ?, ? > sequenceDescription;
 
@@ -155,8 +195,10 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 	{
 		this.existingHdf5Reader = existingHdf5Reader;
 		this.hdf5File = hdf5File;
-		setupImgLoaders = new HashMap< Integer, SetupImgLoader >();
-		cachedDimsAndExistence = new HashMap< ViewLevelId, DimsAndExistence >();
+		setupImgLoaders = new HashMap< Integer, TypedSetupImgLoader< ?, ?, ? > >();
+		cachedDimsAndExistence = new ConcurrentHashMap< ViewLevelId, DimsAndExistence >();
+		cachedConstantCells = new ConcurrentHashMap< ViewLevelId, double[][] >();
+		cachedCellStatistics = new ConcurrentHashMap< ViewLevelId, CellStatistics >();
 		this.sequenceDescription = sequenceDescription;
 		partitions = new ArrayList< Partition >();
 		if ( hdf5Partitions != null )
@@ -167,6 +209,38 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 
 	private boolean isOpen = false;
 
+	/**
+	 * Whether to read cells through {@link MappedHDF5Access}.
+	 */
+	private boolean memoryMapped = false;
+
+	/**
+	 * Whether to use a {@link MetadataIndex} sidecar file.
+	 */
+	private boolean useMetadataIndex = true;
+
+	/**
+	 * Whether to create a missing or out of date {@link MetadataIndex} sidecar
+	 * file in the background.
+	 */
+	private boolean createMetadataIndex = false;
+
+	/**
+	 * Whether to open {@link Partition} files directly (see
+	 * {@link PartitionedHDF5Access}).
+	 */
+	private boolean partitionedAccess = false;
+
+	/**
+	 * Shared cache to use, or {@code null} if this loader owns its cache.
+	 */
+	private SharedCellCacheService sharedCache = null;
+
+	/**
+	 * Namespace of this loader in {@link #sharedCache}.
+	 */
+	private int namespace = 0;
+
 	private void open()
 	{
 		if ( ! isOpen )
@@ -179,44 +253,164 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 
 				final IHDF5Reader hdf5Reader = ( existingHdf5Reader != null ) ? existingHdf5Reader : HDF5Factory.openForReading( hdf5File );
 
+				// the index is not used for files that are still being written
+				final MetadataIndex index = ( useMetadataIndex && existingHdf5Reader == null ) ? MetadataIndex.load( hdf5File, partitions ) : null;
+
+				hdf5Access = createHdf5Access( hdf5Reader );
+				// pooled, memory-mapped, and partitioned access only make
+				// sense if we open the file ourselves
+				if ( existingHdf5Reader == null )
+				{
+					hdf5Access = wrapHdf5Access( hdf5File, hdf5Access );
+					if ( partitionedAccess && !partitions.isEmpty() )
+						hdf5Access = new PartitionedHDF5Access( hdf5Access, hdf5File, partitions, new PartitionedHDF5Access.AccessFactory()
+						{
+							@Override
+							public IHDF5Access open( final File partitionFile ) throws Exception
+							{
+								return wrapHdf5Access( partitionFile, createHdf5Access( HDF5Factory.openForReading( partitionFile ) ) );
+							}
+						} );
+				}
+				shortLoader = new Hdf5VolatileShortArrayLoader( hdf5Access );
+
 				maxNumLevels = 0;
 				final List< ? extends BasicViewSetup > setups = sequenceDescription.getViewSetupsOrdered();
 				for ( final BasicViewSetup setup : setups )
 				{
 					final int setupId = setup.getId();
 
-					final double[][] resolutions = hdf5Reader.readDoubleMatrix( getResolutionsPath( setupId ) );
+					double[][] resolutions = index == null ? null : index.getResolutions( setupId );
+					int[][] subdivisions = index == null ? null : index.getSubdivisions( setupId );
+					if ( resolutions == null || subdivisions == null )
+					{
+						resolutions = hdf5Reader.readDoubleMatrix( getResolutionsPath( setupId ) );
+						subdivisions = hdf5Reader.readIntMatrix( getSubdivisionsPath( setupId ) );
+					}
 					final AffineTransform3D[] transforms = new AffineTransform3D[ resolutions.length ];
 					for ( int level = 0; level < resolutions.length; level++ )
 						transforms[ level ] = MipmapTransforms.getMipmapTransformDefault( resolutions[ level ] );
-					final int[][] subdivisions = hdf5Reader.readIntMatrix( getSubdivisionsPath( setupId ) );
 
 					if ( resolutions.length > maxNumLevels )
 						maxNumLevels = resolutions.length;
 
-					setupImgLoaders.put( setupId, new SetupImgLoader( setupId, new MipmapInfo( resolutions, transforms, subdivisions ) ) );
+					DataType< ?, ?, ? > dataType = index == null ? null : DataTypes.forName( index.getDataType( setupId ) );
+					if ( dataType == null )
+						dataType = readDataType( hdf5Reader, setupId );
+
+					setupImgLoaders.put( setupId, createSetupImgLoader( setupId, new MipmapInfo( resolutions, transforms, subdivisions ), dataType ) );
 				}
 
 				cachedDimsAndExistence.clear();
+				cachedConstantCells.clear();
+				cachedCellStatistics.clear();
+				if ( index != null )
+					cachedDimsAndExistence.putAll( index.getDimsAndExistence() );
 
 				final List< TimePoint > timepoints = sequenceDescription.getTimePoints().getTimePointsOrdered();
 				final int maxNumTimepoints = timepoints.get( timepoints.size() - 1 ).getId() + 1;
 				final int maxNumSetups = setups.get( setups.size() - 1 ).getId() + 1;
-				try
+				if ( sharedCache != null )
 				{
-					hdf5Access = new HDF5AccessHack( hdf5Reader );
+					cache = sharedCache.getCache();
+					if ( namespace == 0 )
+						namespace = sharedCache.register( hdf5File.getAbsolutePath() );
 				}
-				catch ( final Exception e )
+				else
 				{
-					e.printStackTrace();
-					hdf5Access = new HDF5Access( hdf5Reader );
+					cache = new VolatileGlobalCellCache( maxNumTimepoints, maxNumSetups, maxNumLevels, 0 );
+					// with partitioned access, have one fetcher per partition
+					// unless fetcher threads are configured explicitly
+					if ( hdf5Access instanceof PartitionedHDF5Access && fetcherThreads.equals( DEFAULT_FETCHER_THREADS ) )
+						new FetcherThreads( Math.max( 1, ( ( PartitionedHDF5Access ) hdf5Access ).numPartitions() ) ).applyTo( cache );
+					else
+						fetcherThreads.applyTo( cache );
 				}
-				shortLoader = new Hdf5VolatileShortArrayLoader( hdf5Access );
-				cache = new VolatileGlobalCellCache( maxNumTimepoints, maxNumSetups, maxNumLevels, 1 );
+
+				// without an index, scan the image dimensions in the background
+				if ( existingHdf5Reader == null && index == null )
+					startScanThread( useMetadataIndex && createMetadataIndex );
 			}
 		}
 	}
 
+	private < T extends NativeType< T > & RealType< T >, V extends Volatile< T > & NativeType< V >, A extends VolatileAccess >
+			TypedSetupImgLoader< T, V, A > createSetupImgLoader( final int setupId, final MipmapInfo mipmapInfo, final DataType< T, V, A > dataType )
+	{
+		if ( dataType == DataTypes.UnsignedShort )
+		{
+			@SuppressWarnings( "unchecked" )
+			final TypedSetupImgLoader< T, V, A > loader = ( TypedSetupImgLoader< T, V, A > ) ( TypedSetupImgLoader< ?, ?, ? > ) new SetupImgLoader( setupId, mipmapInfo );
+			return loader;
+		}
+		return new TypedSetupImgLoader< T, V, A >( setupId, mipmapInfo, dataType );
+	}
+
+	/**
+	 * Determine the pixel type of a setup from the full resolution
+	 * {@code cells} data set of the first timepoint that has one. Files that
+	 * were written before other types were supported contain only 16-bit
+	 * data, so this defaults to {@link UnsignedShortType}.
+	 */
+	private DataType< ?, ?, ? > readDataType( final IHDF5Reader hdf5Reader, final int setupId )
+	{
+		for ( final TimePoint timepoint : sequenceDescription.getTimePoints().getTimePointsOrdered() )
+		{
+			final String path = getCellsPath( timepoint.getId(), setupId, 0 );
+			try
+			{
+				if ( hdf5Reader.exists( path ) )
+				{
+					final DataType< ?, ?, ? > dataType = DataTypes.forTypeInformation( hdf5Reader.getDataSetInformation( path ).getTypeInformation() );
+					if ( dataType != null )
+						return dataType;
+					break;
+				}
+			}
+			catch ( final Exception e )
+			{
+				// external link to a missing partition file, try next timepoint
+			}
+		}
+		return DataTypes.UnsignedShort;
+	}
+
+	private static IHDF5Access createHdf5Access( final IHDF5Reader hdf5Reader )
+	{
+		try
+		{
+			return new HDF5AccessHack( hdf5Reader );
+		}
+		catch ( final Exception e )
+		{
+			e.printStackTrace();
+			return new HDF5Access( hdf5Reader );
+		}
+	}
+
+	/**
+	 * Wrap an access to a file we opened ourselves into a
+	 * {@link MappedHDF5Access}, depending on the settings of this loader.
+	 */
+	private IHDF5Access wrapHdf5Access( final File file, final IHDF5Access access )
+	{
+		IHDF5Access wrapped = access;
+		if ( memoryMapped )
+		{
+			try
+			{
+				wrapped = new MappedHDF5Access( file, wrapped );
+			}
+			catch ( final IOException e )
+			{
+				System.err.println( String.format(
+						"could not memory-map %s (%s), reading through JHDF5.",
+						file, e.getMessage() ) );
+			}
+		}
+		return wrapped;
+	}
+
 	/**
 	 * Clear the cache and close the hdf5 file. Images that were obtained from
 	 * this loader before {@link #close()} will stop working. Requesting images
@@ -233,7 +427,16 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 					return;
 				isOpen = false;
 
-				cache.clearCache();
+				if ( sharedCache != null )
+				{
+					sharedCache.unregister( namespace );
+					namespace = 0;
+				}
+				else
+				{
+					cache.clearCache();
+					cache.shutdownFetcherThreads();
+				}
 				hdf5Access.closeAllDataSets();
 
 				// only close reader if we constructed it ourselves
@@ -255,7 +458,7 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 			for ( final BasicViewSetup setup : setups )
 			{
 				final int s = setup.getId();
-				final int numLevels = getSetupImgLoader( s ).numMipmapLevels();
+				final int numLevels = getTypedSetupImgLoader( s ).numMipmapLevels();
 				for ( int l = 0; l < numLevels; ++l )
 					getDimsAndExistence( new ViewLevelId( t, s, l ) );
 			}
@@ -291,6 +494,238 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		return cache;
 	}
 
+	/**
+	 * Configure the fetcher threads of the cache (see {@link FetcherThreads}).
+	 */
+	public synchronized void setFetcherThreads( final FetcherThreads fetcherThreads )
+	{
+		this.fetcherThreads = fetcherThreads;
+		if ( cache != null && sharedCache == null )
+			fetcherThreads.applyTo( cache );
+	}
+
+	public FetcherThreads getFetcherThreads()
+	{
+		return fetcherThreads;
+	}
+
+	/**
+	 * Read chunked cell data directly from the memory-mapped hdf5 file,
+	 * bypassing the HDF5 library (see {@link MappedHDF5Access}). Data sets
+	 * that cannot be read this way are still read through the library. Takes
+	 * effect when the loader is (re-)opened.
+	 */
+	public synchronized void setMemoryMapped( final boolean memoryMapped )
+	{
+		this.memoryMapped = memoryMapped;
+	}
+
+	public boolean isMemoryMapped()
+	{
+		return memoryMapped;
+	}
+
+	/**
+	 * Set whether the files of a dataset that is split into {@link Partition
+	 * partitions} should be opened directly, each with its own reader, instead
+	 * of reading everything through the external links of the master file.
+	 * Unless fetcher threads are configured explicitly, one fetcher thread per
+	 * partition is used then. This is off by default. Partitions are only
+	 * read in parallel if they are also {@link #setMemoryMapped(boolean)
+	 * memory-mapped}, because the HDF5 library serializes all reads. Takes
+	 * effect when the loader is (re-)opened.
+	 */
+	public synchronized void setPartitionedAccess( final boolean partitionedAccess )
+	{
+		this.partitionedAccess = partitionedAccess;
+	}
+
+	public boolean getPartitionedAccess()
+	{
+		return partitionedAccess;
+	}
+
+	/**
+	 * Set whether metadata (resolutions, subdivisions, data types, image
+	 * dimensions) should be loaded from a {@link MetadataIndex} sidecar file
+	 * if it is present and up to date. Without an index, the image dimensions
+	 * are scanned in the background after opening (see
+	 * {@link #scanDimsAndExistence(int)}). Takes effect when the loader is
+	 * (re-)opened.
+	 */
+	public synchronized void setUseMetadataIndex( final boolean useMetadataIndex )
+	{
+		this.useMetadataIndex = useMetadataIndex;
+	}
+
+	public boolean getUseMetadataIndex()
+	{
+		return useMetadataIndex;
+	}
+
+	/**
+	 * Set whether a {@link MetadataIndex} sidecar file should be created next
+	 * to the hdf5 file if it is missing or out of date (and
+	 * {@link #setUseMetadataIndex(boolean) metadata index} is used). Without
+	 * an index, all image dimensions are scanned in the background after
+	 * opening. If this is set, the index is written when the scan is done.
+	 * This is off by default, because it writes to the directory of the
+	 * dataset. If the index cannot be written (for example,
+	 * because the directory is read-only), nothing happens. Takes effect when
+	 * the loader is (re-)opened.
+	 */
+	public synchronized void setCreateMetadataIndex( final boolean createMetadataIndex )
+	{
+		this.createMetadataIndex = createMetadataIndex;
+	}
+
+	public boolean getCreateMetadataIndex()
+	{
+		return createMetadataIndex;
+	}
+
+	/**
+	 * Read the {@link DimsAndExistence} of all images which are not cached
+	 * yet, using {@code numThreads} threads. The HDF5 library serializes all
+	 * calls, so the threads only help when reading from the memory-mapped
+	 * file. Unless the loader is memory-mapped already (see
+	 * {@link #setMemoryMapped(boolean)}), the scan therefore maps the file
+	 * itself and unmaps it when done. Data sets that cannot be read from the
+	 * mapped file are read through the HDF5 library. Returns early if the
+	 * loader is closed meanwhile.
+	 */
+	public void scanDimsAndExistence( final int numThreads ) throws InterruptedException
+	{
+		open();
+		final IHDF5Access access = hdf5Access;
+		IHDF5Access mappedScanAccess = null;
+		if ( existingHdf5Reader == null && !memoryMapped && numThreads > 1 )
+		{
+			final IHDF5Access fallback = createHdf5Access( HDF5Factory.openForReading( hdf5File ) );
+			try
+			{
+				mappedScanAccess = new MappedHDF5Access( hdf5File, fallback );
+			}
+			catch ( final IOException e )
+			{
+				// scan through the HDF5 library
+				fallback.close();
+			}
+		}
+		final boolean ownScanAccess = mappedScanAccess != null;
+		final IHDF5Access scanAccess = ownScanAccess ? mappedScanAccess : access;
+		final List< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( final TimePoint timepoint : sequenceDescription.getTimePoints().getTimePointsOrdered() )
+		{
+			final int t = timepoint.getId();
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call() throws Exception
+				{
+					for ( final BasicViewSetup setup : sequenceDescription.getViewSetupsOrdered() )
+					{
+						final int s = setup.getId();
+						final int numLevels = setupImgLoaders.get( s ).numMipmapLevels();
+						for ( int l = 0; l < numLevels; ++l )
+						{
+							if ( !isOpen || hdf5Access != access )
+								return null;
+							final ViewLevelId id = new ViewLevelId( t, s, l );
+							if ( !cachedDimsAndExistence.containsKey( id ) )
+								cachedDimsAndExistence.putIfAbsent( id, scanAccess.getDimsAndExistence( id ) );
+						}
+					}
+					return null;
+				}
+			} );
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, numThreads ) );
+		try
+		{
+			executor.invokeAll( tasks );
+		}
+		finally
+		{
+			executor.shutdown();
+			if ( ownScanAccess )
+				scanAccess.close();
+		}
+	}
+
+	/**
+	 * Scan the dimensions of all images (see
+	 * {@link #scanDimsAndExistence(int)}) and write a {@link MetadataIndex}
+	 * for the hdf5 file.
+	 */
+	public void writeMetadataIndex() throws IOException, InterruptedException
+	{
+		open();
+		final IHDF5Access access = hdf5Access;
+		scanDimsAndExistence( Runtime.getRuntime().availableProcessors() );
+		if ( !isOpen || hdf5Access != access )
+			throw new IOException( "loader was closed while scanning" );
+
+		final MetadataIndex index = new MetadataIndex();
+		for ( final BasicViewSetup setup : sequenceDescription.getViewSetupsOrdered() )
+		{
+			final int setupId = setup.getId();
+			final TypedSetupImgLoader< ?, ?, ? > setupImgLoader = setupImgLoaders.get( setupId );
+			final MipmapInfo mipmapInfo = setupImgLoader.getMipmapInfo();
+			index.putMipmapInfo( setupId, mipmapInfo.getResolutions(), mipmapInfo.getSubdivisions() );
+			index.putDataType( setupId, setupImgLoader.getDataType().getName() );
+		}
+		for ( final Map.Entry< ViewLevelId, DimsAndExistence > entry : cachedDimsAndExistence.entrySet() )
+			index.putDimsAndExistence( entry.getKey(), entry.getValue() );
+		index.save( hdf5File, partitions );
+	}
+
+	/**
+	 * Scan the {@link DimsAndExistence} of all images in a background thread,
+	 * with one scanning thread per processor (see
+	 * {@link #scanDimsAndExistence(int)}).
+	 *
+	 * @param writeIndex
+	 *            whether to write a {@link MetadataIndex} after the scan.
+	 */
+	private void startScanThread( final boolean writeIndex )
+	{
+		final Thread thread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					if ( writeIndex )
+						writeMetadataIndex();
+					else
+						scanDimsAndExistence( Runtime.getRuntime().availableProcessors() );
+				}
+				catch ( final Exception e )
+				{
+					// not essential (for example, the directory may be read-only)
+				}
+			}
+		}, "Hdf5ImageLoader metadata scan" );
+		thread.setDaemon( true );
+		thread.setPriority( Thread.MIN_PRIORITY );
+		thread.start();
+	}
+
+	/**
+	 * Load cells into the given shared cache instead of a cache owned by this
+	 * loader. Must be called before the loader is opened. The fetcher threads
+	 * of the shared cache are used, {@link #setFetcherThreads(FetcherThreads)}
+	 * has no effect.
+	 */
+	public synchronized void useSharedCache( final SharedCellCacheService sharedCache )
+	{
+		if ( isOpen )
+			throw new IllegalStateException( "loader is already open" );
+		this.sharedCache = sharedCache;
+	}
+
 	public Hdf5VolatileShortArrayLoader getShortArrayLoader()
 	{
 		open();
@@ -325,6 +760,48 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		return dims;
 	}
 
+	/**
+	 * Get the cells of an image that have the same value everywhere. These
+	 * are recorded by the exporter (see {@link Util#getConstantCellsPath(ViewLevelId)})
+	 * and are created without reading the hdf5 file.
+	 *
+	 * @return for each constant cell, the flattened index of the cell in the
+	 *         cell grid and its value. Empty if there are no constant cells.
+	 */
+	public double[][] getConstantCells( final ViewLevelId id )
+	{
+		open();
+		double[][] constantCells = cachedConstantCells.get( id );
+		if ( constantCells == null )
+		{
+			constantCells = hdf5Access.readConstantCells( id );
+			if ( constantCells == null )
+				constantCells = new double[ 0 ][];
+			cachedConstantCells.put( id, constantCells );
+		}
+		return constantCells;
+	}
+
+	/**
+	 * Get the statistics of the cells of an image, as recorded by the exporter
+	 * (see {@link Util#getCellStatisticsPath(ViewLevelId)}).
+	 *
+	 * @return the statistics, or {@code null} if there are none.
+	 */
+	public CellStatistics getCellStatistics( final ViewLevelId id )
+	{
+		open();
+		CellStatistics statistics = cachedCellStatistics.get( id );
+		if ( statistics == null )
+		{
+			statistics = hdf5Access.readCellStatistics( id );
+			if ( statistics == null )
+				statistics = NO_CELL_STATISTICS;
+			cachedCellStatistics.put( id, statistics );
+		}
+		return statistics == NO_CELL_STATISTICS ? null : statistics;
+	}
+
 	public void printMipmapInfo()
 	{
 		open();
@@ -332,7 +809,7 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		{
 			final int setupId = setup.getId();
 			System.out.println( "setup " + setupId );
-			final MipmapInfo mipmapInfo = getSetupImgLoader( setupId ).getMipmapInfo();
+			final MipmapInfo mipmapInfo = getTypedSetupImgLoader( setupId ).getMipmapInfo();
 			final double[][] reslevels = mipmapInfo.getResolutions();
 			final int[][] subdiv = mipmapInfo.getSubdivisions();
 			final int numLevels = mipmapInfo.getNumLevels();
@@ -380,17 +857,58 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 			t.set( ( t.get() - currentMin ) * scale );
 	}
 
+	/**
+	 * Get the loader for a 16-bit setup (all files written before other pixel
+	 * types were supported). For setups of any pixel type, use
+	 * {@link #getTypedSetupImgLoader(int)}.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if the setup does not have {@link UnsignedShortType} pixels.
+	 */
 	@Override
 	public SetupImgLoader getSetupImgLoader( final int setupId )
+	{
+		final TypedSetupImgLoader< ?, ?, ? > loader = getTypedSetupImgLoader( setupId );
+		if ( loader == null || loader instanceof SetupImgLoader )
+			return ( SetupImgLoader ) loader;
+		throw new UnsupportedOperationException( "setup " + setupId + " has " + loader.getDataType().getName()
+				+ " pixels, use getTypedSetupImgLoader() to load it" );
+	}
+
+	/**
+	 * Get the loader for a setup with any pixel type, see {@link DataTypes}.
+	 * For 16-bit setups, this is a {@link SetupImgLoader}.
+	 */
+	public TypedSetupImgLoader< ?, ?, ? > getTypedSetupImgLoader( final int setupId )
 	{
 		open();
 		return setupImgLoaders.get( setupId );
 	}
 
-	public class SetupImgLoader extends AbstractViewerSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType > implements MultiResolutionSetupImgLoader< UnsignedShortType >
+	/**
+	 * Loader for a setup with {@link UnsignedShortType} pixels.
+	 */
+	public class SetupImgLoader extends TypedSetupImgLoader< UnsignedShortType, VolatileUnsignedShortType, VolatileShortArray >
+	{
+		protected SetupImgLoader( final int setupId, final MipmapInfo mipmapInfo )
+		{
+			super( setupId, mipmapInfo, DataTypes.UnsignedShort );
+		}
+	}
+
+	/**
+	 * Loader for a setup with pixel type {@code T}, see {@link DataTypes}.
+	 */
+	public class TypedSetupImgLoader< T extends NativeType< T > & RealType< T >, V extends Volatile< T > & NativeType< V >, A extends VolatileAccess >
+		extends AbstractViewerSetupImgLoader< T, V >
+		implements MultiResolutionSetupImgLoader< T >, CellStatisticsProvider
 	{
 		private final int setupId;
 
+		private final DataType< T, V, A > dataType;
+
+		private final CacheArrayLoader< A > arrayLoader;
+
 		/**
 		 * Description of available mipmap levels for the setup. Contains for
 		 * each mipmap level, the subsampling factors and subdivision block
@@ -398,17 +916,30 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		 */
 		private final MipmapInfo mipmapInfo;
 
-		protected SetupImgLoader( final int setupId, final MipmapInfo mipmapInfo  )
+		protected TypedSetupImgLoader( final int setupId, final MipmapInfo mipmapInfo, final DataType< T, V, A > dataType )
 		{
-			super( new UnsignedShortType(), new VolatileUnsignedShortType() );
+			super( dataType.getType(), dataType.getVolatileType() );
 			this.setupId = setupId;
 			this.mipmapInfo = mipmapInfo;
+			this.dataType = dataType;
+			arrayLoader = dataType.createArrayLoader( hdf5Access );
+		}
+
+		DataType< T, V, A > getDataType()
+		{
+			return dataType;
 		}
 
-		private RandomAccessibleInterval< UnsignedShortType > loadImageCompletely( final int timepointId, final int level )
+		@Override
+		public CellStatistics getCellStatistics( final int timepointId, final int level )
+		{
+			return Hdf5ImageLoader.this.getCellStatistics( new ViewLevelId( timepointId, setupId, level ) );
+		}
+
+		private RandomAccessibleInterval< T > loadImageCompletely( final int timepointId, final int level )
 		{
 			open();
-			Img< UnsignedShortType > img = null;
+			Img< T > img = null;
 			final DimsAndExistence dimsAndExistence = getDimsAndExistence( new ViewLevelId( timepointId, setupId, level ) );
 			final long[] dimsLong = dimsAndExistence.exists() ? dimsAndExistence.getDimensions() : null;
 			final int n = dimsLong.length;
@@ -419,34 +950,39 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 				// use ArrayImg
 				for ( int d = 0; d < dimsInt.length; ++d )
 					dimsInt[ d ] = ( int ) dimsLong[ d ];
-				short[] data = null;
+				A data = null;
 				try
 				{
-					data = hdf5Access.readShortMDArrayBlockWithOffset( timepointId, setupId, level, dimsInt, min );
+					data = arrayLoader.loadArray( timepointId, setupId, level, dimsInt, min );
 				}
 				catch ( final InterruptedException e )
-				{}
-				img = ArrayImgs.unsignedShorts( data, dimsLong );
+				{
+					data = arrayLoader.emptyArray( dimsInt );
+				}
+				final ArrayImg< T, A > arrayImg = new ArrayImg< T, A >( data, dimsLong, new Fraction() );
+				arrayImg.setLinkedType( dataType.createLinkedType( arrayImg ) );
+				img = arrayImg;
 			}
 			else
 			{
 				final int[] cellDimensions = computeCellDimensions(
 						dimsLong,
 						mipmapInfo.getSubdivisions()[ level ] );
-				final CellImgFactory< UnsignedShortType > factory = new CellImgFactory< UnsignedShortType >( cellDimensions );
-				@SuppressWarnings( "unchecked" )
-				final CellImg< UnsignedShortType, ShortArray, DefaultCell< ShortArray > > cellImg =
-					( CellImg< UnsignedShortType, ShortArray, DefaultCell< ShortArray > > ) factory.create( dimsLong, new UnsignedShortType() );
-				final Cursor< DefaultCell< ShortArray > > cursor = cellImg.getCells().cursor();
+				final CellImgFactory< T > factory = new CellImgFactory< T >( cellDimensions );
+				final CellImg< T, ?, ? > cellImg = factory.create( dimsLong, dataType.getType() );
+				final Cursor< ? > cursor = cellImg.getCells().cursor();
 				while ( cursor.hasNext() )
 				{
-					final DefaultCell< ShortArray > cell = cursor.next();
-					final short[] dataBlock = cell.getData().getCurrentStorageArray();
+					final DefaultCell< ? > cell = ( DefaultCell< ? > ) cursor.next();
+					final Object dataBlock = cell.getData().getCurrentStorageArray();
 					cell.dimensions( dimsInt );
 					cell.min( min );
 					try
 					{
-						hdf5Access.readShortMDArrayBlockWithOffset( timepointId, setupId, level, dimsInt, min, dataBlock );
+						final A data = arrayLoader.loadArray( timepointId, setupId, level, dimsInt, min );
+						final Object loaded = ( ( ArrayDataAccess< ? > ) data ).getCurrentStorageArray();
+						System.arraycopy( loaded, 0, dataBlock, 0, ( int ) Intervals.numElements( dimsInt ) );
+						ArrayPool.getInstance().recycle( loaded );
 					}
 					catch ( final InterruptedException e )
 					{}
@@ -488,7 +1024,7 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		}
 
 		@Override
-		public RandomAccessibleInterval< UnsignedShortType > getImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+		public RandomAccessibleInterval< T > getImage( final int timepointId, final int level, final ImgLoaderHint... hints )
 		{
 			final ViewLevelId id = new ViewLevelId( timepointId, setupId, level );
 			if ( ! existsImageData( id ) )
@@ -496,20 +1032,20 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 				System.err.println(	String.format(
 						"image data for timepoint %d setup %d level %d could not be found. Partition file missing?",
 						id.getTimePointId(), id.getViewSetupId(), id.getLevel() ) );
-				return getMissingDataImage( id, new UnsignedShortType() );
+				return getMissingDataImage( id, dataType.getType().createVariable() );
 			}
 
 			if ( Arrays.asList( hints ).contains( ImgLoaderHints.LOAD_COMPLETELY ) )
 				return loadImageCompletely( timepointId, level );
 
-			final CachedCellImg< UnsignedShortType, VolatileShortArray >  img = prepareCachedImage( id, LoadingStrategy.BLOCKING );
-			final UnsignedShortType linkedType = new UnsignedShortType( img );
+			final CachedCellImg< T, A > img = prepareCachedImage( id, LoadingStrategy.BLOCKING );
+			final T linkedType = dataType.createLinkedType( img );
 			img.setLinkedType( linkedType );
 			return img;
 		}
 
 		@Override
-		public RandomAccessibleInterval< VolatileUnsignedShortType > getVolatileImage( final int timepointId, final int level, final ImgLoaderHint... hints )
+		public RandomAccessibleInterval< V > getVolatileImage( final int timepointId, final int level, final ImgLoaderHint... hints )
 		{
 			final ViewLevelId id = new ViewLevelId( timepointId, setupId, level );
 			if ( ! existsImageData( id ) )
@@ -517,10 +1053,10 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 				System.err.println(	String.format(
 						"image data for timepoint %d setup %d level %d could not be found. Partition file missing?",
 						id.getTimePointId(), id.getViewSetupId(), id.getLevel() ) );
-				return getMissingDataImage( id, new VolatileUnsignedShortType() );
+				return getMissingDataImage( id, dataType.getVolatileType().createVariable() );
 			}
-			final CachedCellImg< VolatileUnsignedShortType, VolatileShortArray >  img = prepareCachedImage( id, LoadingStrategy.BUDGETED );
-			final VolatileUnsignedShortType linkedType = new VolatileUnsignedShortType( img );
+			final CachedCellImg< V, A > img = prepareCachedImage( id, LoadingStrategy.BUDGETED );
+			final V linkedType = dataType.createLinkedVolatileType( img );
 			img.setLinkedType( linkedType );
 			return img;
 		}
@@ -528,9 +1064,10 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		/**
 		 * (Almost) create a {@link CellImg} backed by the cache.
 		 * The created image needs a {@link NativeImg#setLinkedType(net.imglib2.type.Type) linked type} before it can be used.
-		 * The type should be either {@link UnsignedShortType} and {@link VolatileUnsignedShortType}.
+		 * The type should be either the {@link DataType#getType() type} or the
+		 * {@link DataType#getVolatileType() volatile type} of the setup.
 		 */
-		protected < T extends NativeType< T > > CachedCellImg< T, VolatileShortArray > prepareCachedImage( final ViewLevelId id, final LoadingStrategy loadingStrategy )
+		protected < S extends NativeType< S > > CachedCellImg< S, A > prepareCachedImage( final ViewLevelId id, final LoadingStrategy loadingStrategy )
 		{
 			open();
 			final int timepointId = id.getTimePointId();
@@ -541,9 +1078,12 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 
 			final int priority = mipmapInfo.getMaxLevel() - level;
 			final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
-			final CellCache< VolatileShortArray > c = cache.new VolatileCellCache< VolatileShortArray >( timepointId, setupId, level, cacheHints, shortLoader );
-			final VolatileImgCells< VolatileShortArray > cells = new VolatileImgCells< VolatileShortArray >( c, new Fraction(), dimensions, cellDimensions );
-			final CachedCellImg< T, VolatileShortArray > img = new CachedCellImg< T, VolatileShortArray >( cells );
+			CellCache< A > c = cache.new VolatileCellCache< A >( namespace, timepointId, setupId, level, cacheHints, arrayLoader );
+			final double[][] constantCells = getConstantCells( id );
+			if ( constantCells.length > 0 )
+				c = new SparseCellCache< A >( c, constantCells, dataType );
+			final VolatileImgCells< A > cells = new VolatileImgCells< A >( c, new Fraction(), dimensions, cellDimensions );
+			final CachedCellImg< S, A > img = new CachedCellImg< S, A >( cells );
 			return img;
 		}
 
@@ -553,10 +1093,10 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		 * {@link #getDimsAndExistence(ViewLevelId)}) then use that. Otherwise
 		 * create a 1x1x1 image.
 		 */
-		protected < T > RandomAccessibleInterval< T > getMissingDataImage( final ViewLevelId id, final T constant )
+		protected < S > RandomAccessibleInterval< S > getMissingDataImage( final ViewLevelId id, final S constant )
 		{
 			final long[] d = getDimsAndExistence( id ).getDimensions();
-			return Views.interval( new ConstantRandomAccessible< T >( constant, 3 ), new FinalInterval( d ) );
+			return Views.interval( new ConstantRandomAccessible< S >( constant, 3 ), new FinalInterval( d ) );
 		}
 
 		@Override
@@ -568,27 +1108,27 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		@Override
 		public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final int level, final boolean normalize, final ImgLoaderHint... hints )
 		{
-			final RandomAccessibleInterval< UnsignedShortType > ushortImg = getImage( timepointId, level, hints );
+			final RandomAccessibleInterval< T > img = getImage( timepointId, level, hints );
 
-			// copy unsigned short img to float img
+			// copy img to float img
 
 			// create float img
 			final FloatType f = new FloatType();
 			final ImgFactory< FloatType > imgFactory;
-			if ( Intervals.numElements( ushortImg ) <= Integer.MAX_VALUE )
+			if ( Intervals.numElements( img ) <= Integer.MAX_VALUE )
 			{
 				imgFactory = new ArrayImgFactory< FloatType >();
 			}
 			else
 			{
-				final long[] dimsLong = new long[ ushortImg.numDimensions() ];
-				ushortImg.dimensions( dimsLong );
+				final long[] dimsLong = new long[ img.numDimensions() ];
+				img.dimensions( dimsLong );
 				final int[] cellDimensions = computeCellDimensions(
 						dimsLong,
 						mipmapInfo.getSubdivisions()[ level ] );
 				imgFactory = new CellImgFactory< FloatType >( cellDimensions );
 			}
-			final Img< FloatType > floatImg = imgFactory.create( ushortImg, f );
+			final Img< FloatType > floatImg = imgFactory.create( img, f );
 
 			// set up executor service
 			final int numProcessors = Runtime.getRuntime().availableProcessors();
@@ -608,14 +1148,14 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 				// the last thread may has to run longer if the number of pixels cannot be divided by the number of threads
 				final long loopSize = ( portionID == numPortions - 1 ) ? threadChunkSize + threadChunkMod : threadChunkSize;
 
-				if ( Views.iterable( ushortImg ).iterationOrder().equals( floatImg.iterationOrder() ) )
+				if ( Views.iterable( img ).iterationOrder().equals( floatImg.iterationOrder() ) )
 				{
 					tasks.add( new Callable< Void >()
 					{
 						@Override
 						public Void call() throws Exception
 						{
-							final Cursor< UnsignedShortType > in = Views.iterable( ushortImg ).cursor();
+							final Cursor< T > in = Views.iterable( img ).cursor();
 							final Cursor< FloatType > out = floatImg.cursor();
 
 							in.jumpFwd( startPosition );
@@ -635,14 +1175,14 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 						@Override
 						public Void call() throws Exception
 						{
-							final Cursor< UnsignedShortType > in = Views.iterable( ushortImg ).localizingCursor();
+							final Cursor< T > in = Views.iterable( img ).localizingCursor();
 							final RandomAccess< FloatType > out = floatImg.randomAccess();
 
 							in.jumpFwd( startPosition );
 
 							for ( long j = 0; j < loopSize; ++j )
 							{
-								final UnsignedShortType vin = in.next();
+								final T vin = in.next();
 								out.setPosition( in );
 								out.get().set( vin.getRealFloat() );
 							}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import bdv.img.cache.ArrayPool;
+import bdv.img.cache.BulkCacheArrayLoader;
+
+public class Hdf5VolatileFloatArrayLoader implements BulkCacheArrayLoader< VolatileFloatArray >
+{
+	private final IHDF5Access hdf5Access;
+
+	private VolatileFloatArray theEmptyArray;
+
+	public Hdf5VolatileFloatArrayLoader( final IHDF5Access hdf5Access )
+	{
+		this.hdf5Access = hdf5Access;
+		theEmptyArray = new VolatileFloatArray( 32 * 32 * 32, false );
+	}
+
+	@Override
+	public VolatileFloatArray loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final float[] array = hdf5Access.readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min );
+		return new VolatileFloatArray( array, true );
+	}
+
+	/**
+	 * Read the union of the cells with one hyperslab and split it into one
+	 * array per cell.
+	 */
+	@Override
+	public List< VolatileFloatArray > loadArrays( final int timepoint, final int setup, final int level, final int[][] dimensions, final long[][] min ) throws InterruptedException
+	{
+		final int n = dimensions.length;
+		final int[] unionDimensions = dimensions[ 0 ].clone();
+		for ( int i = 1; i < n; ++i )
+			unionDimensions[ 0 ] += dimensions[ i ][ 0 ];
+		final float[] union = hdf5Access.readFloatMDArrayBlockWithOffset( timepoint, setup, level, unionDimensions, min[ 0 ] );
+
+		final int unionWidth = unionDimensions[ 0 ];
+		int numLines = 1;
+		for ( int d = 1; d < unionDimensions.length; ++d )
+			numLines *= unionDimensions[ d ];
+
+		final ArrayPool pool = ArrayPool.getInstance();
+		final ArrayList< VolatileFloatArray > arrays = new ArrayList< VolatileFloatArray >( n );
+		int offset = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			final int width = dimensions[ i ][ 0 ];
+			final float[] array = pool.takeFloats( width * numLines );
+			for ( int line = 0; line < numLines; ++line )
+				System.arraycopy( union, line * unionWidth + offset, array, line * width, width );
+			arrays.add( new VolatileFloatArray( array, true ) );
+			offset += width;
+		}
+		pool.recycle( union );
+		return arrays;
+	}
+
+	@Override
+	public VolatileFloatArray emptyArray( final int[] dimensions )
+	{
+		int numEntities = 1;
+		for ( int i = 0; i < dimensions.length; ++i )
+			numEntities *= dimensions[ i ];
+		if ( theEmptyArray.getCurrentStorageArray().length < numEntities )
+			theEmptyArray = new VolatileFloatArray( numEntities, false );
+		return theEmptyArray;
+	}
+
+	@Override
+	public int getBytesPerElement()
+	{
+		return 4;
+	}
+}
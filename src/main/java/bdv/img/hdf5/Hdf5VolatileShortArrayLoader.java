@@ -28,19 +28,41 @@
  */
 package bdv.img.hdf5;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
-import bdv.img.cache.CacheArrayLoader;
+import bdv.img.cache.ArrayPool;
+import bdv.img.cache.BulkCacheArrayLoader;
+import bdv.img.cache.TimeChunkedCacheArrayLoader;
 
-public class Hdf5VolatileShortArrayLoader implements CacheArrayLoader< VolatileShortArray >
+/**
+ * Loads cells of 16-bit data. Adjacent cells are read together (see
+ * {@link BulkCacheArrayLoader}). For setups and levels that have time-chunked
+ * cells (see {@link Util#getTimeChunkedCellsPath(int, int)}), the same cell
+ * of all timepoints of a chunk is read together (see
+ * {@link TimeChunkedCacheArrayLoader}).
+ */
+public class Hdf5VolatileShortArrayLoader implements BulkCacheArrayLoader< VolatileShortArray >, TimeChunkedCacheArrayLoader< VolatileShortArray >
 {
 	private final IHDF5Access hdf5Access;
 
 	private VolatileShortArray theEmptyArray;
 
+	private static final TimeChunkedLayout NOT_TIME_CHUNKED = new TimeChunkedLayout( new int[ 0 ], 1 );
+
+	/**
+	 * Time-chunked layouts for {@code (setup << 8) | level}, read on first use.
+	 * {@link #NOT_TIME_CHUNKED} if there are no time-chunked cells.
+	 */
+	private final ConcurrentHashMap< Integer, TimeChunkedLayout > timeChunkedLayouts;
+
 	public Hdf5VolatileShortArrayLoader( final IHDF5Access hdf5Access )
 	{
 		this.hdf5Access = hdf5Access;
 		theEmptyArray = new VolatileShortArray( 32 * 32 * 32, false );
+		timeChunkedLayouts = new ConcurrentHashMap< Integer, TimeChunkedLayout >();
 	}
 
 	@Override
@@ -50,6 +72,83 @@ public class Hdf5VolatileShortArrayLoader implements CacheArrayLoader< VolatileS
 		return new VolatileShortArray( array, true );
 	}
 
+	/**
+	 * Read the union of the cells with one hyperslab and split it into one
+	 * array per cell.
+	 */
+	@Override
+	public List< VolatileShortArray > loadArrays( final int timepoint, final int setup, final int level, final int[][] dimensions, final long[][] min ) throws InterruptedException
+	{
+		final int n = dimensions.length;
+		final int[] unionDimensions = dimensions[ 0 ].clone();
+		for ( int i = 1; i < n; ++i )
+			unionDimensions[ 0 ] += dimensions[ i ][ 0 ];
+		final short[] union = hdf5Access.readShortMDArrayBlockWithOffset( timepoint, setup, level, unionDimensions, min[ 0 ] );
+
+		final int unionWidth = unionDimensions[ 0 ];
+		int numLines = 1;
+		for ( int d = 1; d < unionDimensions.length; ++d )
+			numLines *= unionDimensions[ d ];
+
+		final ArrayPool pool = ArrayPool.getInstance();
+		final ArrayList< VolatileShortArray > arrays = new ArrayList< VolatileShortArray >( n );
+		int offset = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			final int width = dimensions[ i ][ 0 ];
+			final short[] array = pool.takeShorts( width * numLines );
+			for ( int line = 0; line < numLines; ++line )
+				System.arraycopy( union, line * unionWidth + offset, array, line * width, width );
+			arrays.add( new VolatileShortArray( array, true ) );
+			offset += width;
+		}
+		pool.recycle( union );
+		return arrays;
+	}
+
+	private TimeChunkedLayout getTimeChunkedLayout( final int setup, final int level )
+	{
+		final Integer key = ( setup << 8 ) | level;
+		TimeChunkedLayout layout = timeChunkedLayouts.get( key );
+		if ( layout == null )
+		{
+			layout = hdf5Access.readTimeChunkedLayout( setup, level );
+			if ( layout == null )
+				layout = NOT_TIME_CHUNKED;
+			timeChunkedLayouts.put( key, layout );
+		}
+		return layout;
+	}
+
+	@Override
+	public int[] getChunkTimepoints( final int timepoint, final int setup, final int level )
+	{
+		return getTimeChunkedLayout( setup, level ).getChunkTimepoints( timepoint );
+	}
+
+	/**
+	 * Read the cell for all timepoints with one hyperslab of the time-chunked
+	 * cells and split it into one array per timepoint.
+	 */
+	@Override
+	public List< VolatileShortArray > loadTimeChunk( final int[] timepoints, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final int n = timepoints.length;
+		final int firstRow = getTimeChunkedLayout( setup, level ).getRow( timepoints[ 0 ] );
+		final short[] rows = hdf5Access.readTimeChunkedShortBlock( setup, level, firstRow, n, dimensions, min );
+
+		final int numElements = dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ];
+		final ArrayPool pool = ArrayPool.getInstance();
+		final ArrayList< VolatileShortArray > arrays = new ArrayList< VolatileShortArray >( n );
+		for ( int i = 0; i < n; ++i )
+		{
+			final short[] array = pool.takeShorts( numElements );
+			System.arraycopy( rows, i * numElements, array, 0, numElements );
+			arrays.add( new VolatileShortArray( array, true ) );
+		}
+		return arrays;
+	}
+
 	@Override
 	public VolatileShortArray emptyArray( final int[] dimensions )
 	{
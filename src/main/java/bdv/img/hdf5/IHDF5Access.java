@@ -28,10 +28,41 @@
  */
 package bdv.img.hdf5;
 
+import bdv.CellStatistics;
+
 interface IHDF5Access
 {
 	public DimsAndExistence getDimsAndExistence( final ViewLevelId id );
 
+	/**
+	 * @return the table of constant cells of the given image (see
+	 *         {@link Util#getConstantCellsPath(ViewLevelId)}), or {@code null}
+	 *         if there is none.
+	 */
+	public double[][] readConstantCells( final ViewLevelId id );
+
+	/**
+	 * @return the statistics of the cells of the given image (see
+	 *         {@link Util#getCellStatisticsPath(ViewLevelId)}), or
+	 *         {@code null} if there are none.
+	 */
+	public CellStatistics readCellStatistics( final ViewLevelId id );
+
+	/**
+	 * @return the layout of the time-chunked cells of the given setup and
+	 *         level (see {@link Util#getTimeChunkedCellsPath(int, int)}), or
+	 *         {@code null} if there are none.
+	 */
+	public TimeChunkedLayout readTimeChunkedLayout( final int setup, final int level );
+
+	/**
+	 * Read the block with the given (x, y, z) dimensions and minimum from
+	 * rows {@code firstRow} to {@code firstRow + numRows - 1} of the
+	 * time-chunked cells of the given setup and level. The returned array
+	 * holds the blocks of the rows one after the other.
+	 */
+	public short[] readTimeChunkedShortBlock( final int setup, final int level, final int firstRow, final int numRows, final int[] dimensions, final long[] min ) throws InterruptedException;
+
 	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException;
 
 	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final short[] dataBlock ) throws InterruptedException;
@@ -40,6 +71,14 @@ interface IHDF5Access
 
 	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException;
 
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException;
+
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final byte[] dataBlock ) throws InterruptedException;
+
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException;
+
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException;
+
 	public void closeAllDataSets();
 
 	public void close();
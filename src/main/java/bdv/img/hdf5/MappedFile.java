@@ -0,0 +1,112 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only file mapped into memory in segments of at most
+ * {@link #SEGMENT_SIZE} bytes. {@link #read(long, int)} can be called
+ * concurrently from any number of threads.
+ */
+class MappedFile
+{
+	static final long SEGMENT_SIZE = 1l << 30;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long size;
+
+	private final MappedByteBuffer[] segments;
+
+	public MappedFile( final File path ) throws IOException
+	{
+		file = new RandomAccessFile( path, "r" );
+		channel = file.getChannel();
+		size = channel.size();
+		final int numSegments = ( int ) ( ( size + SEGMENT_SIZE - 1 ) / SEGMENT_SIZE );
+		segments = new MappedByteBuffer[ numSegments ];
+		for ( int i = 0; i < numSegments; ++i )
+		{
+			final long position = i * SEGMENT_SIZE;
+			segments[ i ] = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.min( SEGMENT_SIZE, size - position ) );
+		}
+	}
+
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * Get a little-endian buffer of {@code length} bytes starting at
+	 * {@code address}, or less if the end of the file is reached. If the
+	 * range lies within one segment, the buffer is a view of the mapped
+	 * memory. Otherwise, the bytes are copied.
+	 */
+	public ByteBuffer read( final long address, final int length ) throws IOException
+	{
+		if ( address < 0 || address >= size )
+			throw new IOException( "address " + address + " outside of file" );
+		final int n = ( int ) Math.min( length, size - address );
+		final int segment = ( int ) ( address / SEGMENT_SIZE );
+		final int offset = ( int ) ( address - segment * SEGMENT_SIZE );
+		final ByteBuffer buffer;
+		if ( offset + n <= segments[ segment ].capacity() )
+		{
+			final ByteBuffer view = segments[ segment ].duplicate();
+			view.position( offset );
+			view.limit( offset + n );
+			buffer = view.slice();
+		}
+		else
+		{
+			buffer = ByteBuffer.allocate( n );
+			while ( buffer.hasRemaining() )
+				if ( channel.read( buffer, address + buffer.position() ) < 0 )
+					throw new IOException( "unexpected end of file" );
+			buffer.flip();
+		}
+		return buffer.order( ByteOrder.LITTLE_ENDIAN );
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+		file.close();
+	}
+}
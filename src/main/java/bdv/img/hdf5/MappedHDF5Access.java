@@ -0,0 +1,602 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import bdv.CellStatistics;
+import bdv.img.cache.ArrayPool;
+import bdv.img.hdf5.HDF5FileParser.ChunkedDataSet;
+
+/**
+ * Read cells of a bdv hdf5 file without going through the HDF5 library. The
+ * file is memory-mapped, the chunk index of each {@code cells} data set is
+ * parsed once by {@link HDF5FileParser}, and chunks are read directly from the
+ * mapped memory and decoded (deflate, shuffle, integer scale-offset) on the
+ * calling thread. There is no lock on the read path, so any number of fetcher
+ * threads can read and decode in parallel.
+ * <p>
+ * Data sets that cannot be read this way (for example, partitions reached
+ * through external links, or unsupported filters) are read through a fallback
+ * {@link IHDF5Access}. A warning is printed the first time this happens for a
+ * file, and {@link #getFallbackDataSets()} tells which data sets are affected
+ * and why.
+ */
+class MappedHDF5Access implements IHDF5Access
+{
+	/**
+	 * Marks data sets that must be read through the fallback.
+	 */
+	private static final ChunkedDataSet UNSUPPORTED = new ChunkedDataSet( new long[ 0 ], new int[ 0 ], -1, 0, false, false, new int[ 0 ], new int[ 0 ][] );
+
+	/**
+	 * Size of the header (minimum bits and minimum value) of a chunk encoded
+	 * by the scale-offset filter.
+	 */
+	private static final int SCALEOFFSET_HEADER_SIZE = 21;
+
+	private final File hdf5File;
+
+	private final MappedFile file;
+
+	private final HDF5FileParser parser;
+
+	private final IHDF5Access fallback;
+
+	private final ConcurrentHashMap< ViewLevelId, ChunkedDataSet > dataSets;
+
+	/**
+	 * Maps data sets that are read through the fallback to the reason.
+	 */
+	private final ConcurrentHashMap< ViewLevelId, String > fallbackDataSets;
+
+	private static final ThreadLocal< Inflater > inflater = new ThreadLocal< Inflater >()
+	{
+		@Override
+		protected Inflater initialValue()
+		{
+			return new Inflater();
+		}
+	};
+
+	/**
+	 * @param hdf5File
+	 *            the file to map.
+	 * @param fallback
+	 *            access to the same file through the HDF5 library.
+	 * @throws IOException
+	 *             if the file cannot be mapped or is not an hdf5 file that
+	 *             can be parsed.
+	 */
+	public MappedHDF5Access( final File hdf5File, final IHDF5Access fallback ) throws IOException
+	{
+		this.hdf5File = hdf5File;
+		this.fallback = fallback;
+		file = new MappedFile( hdf5File );
+		try
+		{
+			parser = new HDF5FileParser( file );
+		}
+		catch ( final IOException e )
+		{
+			file.close();
+			throw e;
+		}
+		dataSets = new ConcurrentHashMap< ViewLevelId, ChunkedDataSet >();
+		fallbackDataSets = new ConcurrentHashMap< ViewLevelId, String >();
+	}
+
+	/**
+	 * Get the data sets (that were accessed so far) which are read through the
+	 * fallback access, and the reason why they cannot be read directly.
+	 */
+	public Map< ViewLevelId, String > getFallbackDataSets()
+	{
+		return Collections.unmodifiableMap( fallbackDataSets );
+	}
+
+	/**
+	 * Get the parsed data set for a view level, or {@link #UNSUPPORTED}.
+	 */
+	private ChunkedDataSet getDataSet( final ViewLevelId id )
+	{
+		ChunkedDataSet dataSet = dataSets.get( id );
+		if ( dataSet == null )
+		{
+			String reason = null;
+			try
+			{
+				dataSet = parser.readChunkedDataSet( Util.getCellsPath( id ) );
+				if ( dataSet.dimensions.length != 3 || !( isInt16( dataSet ) || isUint8( dataSet ) || isFloat32( dataSet ) ) )
+					reason = "unsupported data type or rank";
+			}
+			catch ( final IOException e )
+			{
+				reason = e.getMessage();
+			}
+			catch ( final RuntimeException e )
+			{
+				// malformed or truncated structures
+				reason = e.toString();
+			}
+			if ( reason != null )
+			{
+				dataSet = UNSUPPORTED;
+				if ( fallbackDataSets.isEmpty() )
+					System.err.println( String.format(
+							"%s: cannot read %s directly (%s), reading through JHDF5.",
+							hdf5File, Util.getCellsPath( id ), reason ) );
+				fallbackDataSets.put( id, reason );
+			}
+			dataSets.put( id, dataSet );
+		}
+		return dataSet;
+	}
+
+	private static boolean isInt16( final ChunkedDataSet dataSet )
+	{
+		return dataSet.datatypeClass == 0 && dataSet.elementSize == 2 && dataSet.signed;
+	}
+
+	private static boolean isUint8( final ChunkedDataSet dataSet )
+	{
+		return dataSet.datatypeClass == 0 && dataSet.elementSize == 1 && !dataSet.signed;
+	}
+
+	private static boolean isFloat32( final ChunkedDataSet dataSet )
+	{
+		return dataSet.datatypeClass == 1 && dataSet.elementSize == 4;
+	}
+
+	@Override
+	public DimsAndExistence getDimsAndExistence( final ViewLevelId id )
+	{
+		final ChunkedDataSet dataSet = getDataSet( id );
+		if ( dataSet == UNSUPPORTED )
+			return fallback.getDimsAndExistence( id );
+		return new DimsAndExistence( Util.reorder( dataSet.dimensions ), true );
+	}
+
+	@Override
+	public double[][] readConstantCells( final ViewLevelId id )
+	{
+		return fallback.readConstantCells( id );
+	}
+
+	@Override
+	public CellStatistics readCellStatistics( final ViewLevelId id )
+	{
+		return fallback.readCellStatistics( id );
+	}
+
+	@Override
+	public TimeChunkedLayout readTimeChunkedLayout( final int setup, final int level )
+	{
+		return fallback.readTimeChunkedLayout( setup, level );
+	}
+
+	@Override
+	public short[] readTimeChunkedShortBlock( final int setup, final int level, final int firstRow, final int numRows, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		return fallback.readTimeChunkedShortBlock( setup, level, firstRow, numRows, dimensions, min );
+	}
+
+	@Override
+	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final short[] dataBlock = ArrayPool.getInstance().takeShorts( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+		readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return dataBlock;
+	}
+
+	@Override
+	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final short[] dataBlock ) throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		final ChunkedDataSet dataSet = getDataSet( new ViewLevelId( timepoint, setup, level ) );
+		if ( !isInt16( dataSet ) )
+			return fallback.readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		try
+		{
+			readBlock( dataSet, dimensions, min, dataBlock );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+		return dataBlock;
+	}
+
+	@Override
+	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final float[] dataBlock = ArrayPool.getInstance().takeFloats( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+		readShortMDArrayBlockWithOffsetAsFloat( timepoint, setup, level, dimensions, min, dataBlock );
+		return dataBlock;
+	}
+
+	@Override
+	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	{
+		final short[] shorts = readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min );
+		UnsignedShortToFloat.convert( shorts, dataBlock, shorts.length );
+		ArrayPool.getInstance().recycle( shorts );
+		return dataBlock;
+	}
+
+	@Override
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final byte[] dataBlock = ArrayPool.getInstance().takeBytes( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+		readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return dataBlock;
+	}
+
+	@Override
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final byte[] dataBlock ) throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		final ChunkedDataSet dataSet = getDataSet( new ViewLevelId( timepoint, setup, level ) );
+		if ( !isUint8( dataSet ) )
+			return fallback.readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		try
+		{
+			readBlock( dataSet, dimensions, min, dataBlock );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+		return dataBlock;
+	}
+
+	@Override
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final float[] dataBlock = ArrayPool.getInstance().takeFloats( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+		readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return dataBlock;
+	}
+
+	@Override
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	{
+		if ( Thread.interrupted() )
+			throw new InterruptedException();
+		final ChunkedDataSet dataSet = getDataSet( new ViewLevelId( timepoint, setup, level ) );
+		if ( !isFloat32( dataSet ) )
+			return fallback.readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		try
+		{
+			readBlock( dataSet, dimensions, min, dataBlock );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+		return dataBlock;
+	}
+
+	/**
+	 * Copy the block with the given (imglib2 order) dimensions and min from
+	 * all intersecting chunks into {@code dataBlock}, which is a
+	 * {@code short[]}, {@code byte[]}, or {@code float[]} matching the element
+	 * type of {@code dataSet}.
+	 */
+	private void readBlock( final ChunkedDataSet dataSet, final int[] dimensions, final long[] min, final Object dataBlock ) throws IOException
+	{
+		// hdf5 (row-major) order
+		final long[] bmin = new long[] { min[ 2 ], min[ 1 ], min[ 0 ] };
+		final long[] bmax = new long[] { min[ 2 ] + dimensions[ 2 ], min[ 1 ] + dimensions[ 1 ], min[ 0 ] + dimensions[ 0 ] };
+		final int[] c = dataSet.chunkDimensions;
+		final int bsy = dimensions[ 1 ];
+		final int bsx = dimensions[ 0 ];
+
+		final long[] grid = new long[ 3 ];
+		final long[] cmin = new long[ 3 ];
+		final long[] lo = new long[ 3 ];
+		final long[] hi = new long[ 3 ];
+		for ( grid[ 0 ] = bmin[ 0 ] / c[ 0 ]; grid[ 0 ] * c[ 0 ] < bmax[ 0 ]; ++grid[ 0 ] )
+			for ( grid[ 1 ] = bmin[ 1 ] / c[ 1 ]; grid[ 1 ] * c[ 1 ] < bmax[ 1 ]; ++grid[ 1 ] )
+				for ( grid[ 2 ] = bmin[ 2 ] / c[ 2 ]; grid[ 2 ] * c[ 2 ] < bmax[ 2 ]; ++grid[ 2 ] )
+				{
+					for ( int d = 0; d < 3; ++d )
+					{
+						cmin[ d ] = grid[ d ] * c[ d ];
+						lo[ d ] = Math.max( bmin[ d ], cmin[ d ] );
+						hi[ d ] = Math.min( bmax[ d ], cmin[ d ] + c[ d ] );
+					}
+					final int len = ( int ) ( hi[ 2 ] - lo[ 2 ] );
+					final Buffer chunk = view( readChunk( dataSet, dataSet.getChunkIndex( grid ) ), dataBlock );
+					for ( long z = lo[ 0 ]; z < hi[ 0 ]; ++z )
+						for ( long y = lo[ 1 ]; y < hi[ 1 ]; ++y )
+						{
+							final int dst = ( int ) ( ( ( z - bmin[ 0 ] ) * bsy + ( y - bmin[ 1 ] ) ) * bsx + ( lo[ 2 ] - bmin[ 2 ] ) );
+							if ( chunk == null )
+								fill( dataBlock, dst, len );
+							else
+								copy( chunk, ( int ) ( ( ( z - cmin[ 0 ] ) * c[ 1 ] + ( y - cmin[ 1 ] ) ) * c[ 2 ] + ( lo[ 2 ] - cmin[ 2 ] ) ), dataBlock, dst, len );
+						}
+				}
+	}
+
+	/**
+	 * View a decoded chunk as a buffer of the element type of
+	 * {@code dataBlock}.
+	 */
+	private static Buffer view( final ByteBuffer chunk, final Object dataBlock )
+	{
+		if ( chunk == null )
+			return null;
+		else if ( dataBlock instanceof short[] )
+			return chunk.asShortBuffer();
+		else if ( dataBlock instanceof float[] )
+			return chunk.asFloatBuffer();
+		else
+			return chunk;
+	}
+
+	/**
+	 * Copy {@code len} elements starting at element {@code src} of the
+	 * {@link #view(ByteBuffer, Object) chunk view} to {@code dataBlock}.
+	 */
+	private static void copy( final Buffer chunk, final int src, final Object dataBlock, final int dst, final int len )
+	{
+		chunk.position( src );
+		if ( dataBlock instanceof short[] )
+			( ( ShortBuffer ) chunk ).get( ( short[] ) dataBlock, dst, len );
+		else if ( dataBlock instanceof float[] )
+			( ( FloatBuffer ) chunk ).get( ( float[] ) dataBlock, dst, len );
+		else
+			( ( ByteBuffer ) chunk ).get( ( byte[] ) dataBlock, dst, len );
+	}
+
+	private static void fill( final Object dataBlock, final int dst, final int len )
+	{
+		if ( dataBlock instanceof short[] )
+			Arrays.fill( ( short[] ) dataBlock, dst, dst + len, ( short ) 0 );
+		else if ( dataBlock instanceof byte[] )
+			Arrays.fill( ( byte[] ) dataBlock, dst, dst + len, ( byte ) 0 );
+		else
+			Arrays.fill( ( float[] ) dataBlock, dst, dst + len, 0 );
+	}
+
+	/**
+	 * Read and decode a chunk. Returns {@code null} for unallocated chunks
+	 * (which read as zero).
+	 */
+	private ByteBuffer readChunk( final ChunkedDataSet dataSet, final int chunkIndex ) throws IOException
+	{
+		final long address = dataSet.getChunkAddress( chunkIndex );
+		if ( address < 0 )
+			return null;
+		final int chunkBytes = dataSet.getChunkBytes();
+		ByteBuffer data = file.read( address, dataSet.getChunkSize( chunkIndex ) );
+		final int mask = dataSet.getChunkFilterMask( chunkIndex );
+		final int[] filters = dataSet.filters;
+		for ( int i = filters.length - 1; i >= 0; --i )
+		{
+			if ( ( mask & ( 1 << i ) ) != 0 )
+				continue;
+			switch ( filters[ i ] )
+			{
+			case ChunkedDataSet.FILTER_DEFLATE:
+				data = inflate( data, chunkBytes );
+				break;
+			case ChunkedDataSet.FILTER_SCALEOFFSET:
+				data = decodeScaleOffset( data, dataSet, dataSet.filterParameters[ i ] );
+				break;
+			case ChunkedDataSet.FILTER_SHUFFLE:
+				data = unshuffle( data, dataSet.elementSize );
+				break;
+			case ChunkedDataSet.FILTER_FLETCHER32:
+				data.limit( data.limit() - 4 );
+				break;
+			}
+		}
+		if ( data.remaining() < chunkBytes )
+			throw new IOException( "chunk too short" );
+		return data.slice().order( dataSet.bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN );
+	}
+
+	/**
+	 * Inflate a deflated chunk.
+	 *
+	 * @param size
+	 *            expected size of the inflated data. (This is not exact if
+	 *            other filters are applied before deflate.)
+	 */
+	private static ByteBuffer inflate( final ByteBuffer data, final int size ) throws IOException
+	{
+		final byte[] input;
+		final int inputOffset;
+		final int inputLength = data.remaining();
+		if ( data.hasArray() )
+		{
+			input = data.array();
+			inputOffset = data.arrayOffset() + data.position();
+		}
+		else
+		{
+			// mapped memory
+			input = new byte[ inputLength ];
+			data.get( input );
+			inputOffset = 0;
+		}
+		byte[] output = new byte[ size ];
+		final Inflater inf = inflater.get();
+		inf.reset();
+		inf.setInput( input, inputOffset, inputLength );
+		int n = 0;
+		try
+		{
+			while ( !inf.finished() )
+			{
+				if ( n == output.length )
+					output = Arrays.copyOf( output, 2 * output.length + 1 );
+				final int r = inf.inflate( output, n, output.length - n );
+				if ( r == 0 && ( inf.needsInput() || inf.needsDictionary() ) )
+					throw new IOException( "truncated deflated chunk" );
+				n += r;
+			}
+		}
+		catch ( final DataFormatException e )
+		{
+			throw new IOException( e );
+		}
+		return ByteBuffer.wrap( output, 0, n );
+	}
+
+	/**
+	 * Decode a chunk encoded by the scale-offset filter with the integer
+	 * (minimum bits) scale type. The chunk starts with a header containing the
+	 * number of bits per value (minbits) and the minimum value (minval), both
+	 * little endian. It is followed by a big endian bit stream of
+	 * {@code minbits} bits per value, which stores value minus minval. If a
+	 * fill value is defined, the largest {@code minbits}-bit number stands for
+	 * the fill value. With {@code minbits} equal to the full precision, the
+	 * values are stored as they are.
+	 */
+	private static ByteBuffer decodeScaleOffset( final ByteBuffer data, final ChunkedDataSet dataSet, final int[] parameters ) throws IOException
+	{
+		final int elementSize = dataSet.elementSize;
+		final int numElements = dataSet.getChunkBytes() / elementSize;
+		if ( data.remaining() < SCALEOFFSET_HEADER_SIZE )
+			throw new IOException( "scale-offset chunk too short" );
+		final int p = data.position();
+		int minbits = 0;
+		for ( int i = 0; i < 4; ++i )
+			minbits |= ( data.get( p + i ) & 0xff ) << ( 8 * i );
+		final int minvalSize = Math.min( 8, data.get( p + 4 ) & 0xff );
+		long minval = 0;
+		for ( int i = 0; i < minvalSize; ++i )
+			minval |= ( long ) ( data.get( p + 5 + i ) & 0xff ) << ( 8 * i );
+
+		final byte[] output = new byte[ numElements * elementSize ];
+		final ByteBuffer out = ByteBuffer.wrap( output ).order( dataSet.bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN );
+		if ( minbits == 8 * elementSize )
+		{
+			// full precision, stored in data set byte order
+			if ( data.remaining() < SCALEOFFSET_HEADER_SIZE + output.length )
+				throw new IOException( "scale-offset chunk too short" );
+			final ByteBuffer values = data.duplicate();
+			values.position( p + SCALEOFFSET_HEADER_SIZE );
+			values.get( output );
+			return out;
+		}
+		if ( minbits < 0 || minbits > 8 * elementSize || minbits > 32 )
+			throw new IOException( "invalid scale-offset minbits " + minbits );
+		if ( data.remaining() < SCALEOFFSET_HEADER_SIZE + ( ( long ) numElements * minbits + 7 ) / 8 )
+			throw new IOException( "scale-offset chunk too short" );
+
+		final boolean fillDefined = parameters[ ChunkedDataSet.SCALEOFFSET_PARM_FILLAVAIL ] != 0;
+		final long fillValue = parameters[ ChunkedDataSet.SCALEOFFSET_PARM_FILLVAL ];
+		final long fillCode = ( 1L << minbits ) - 1;
+		int src = p + SCALEOFFSET_HEADER_SIZE;
+		long bits = 0;
+		int numBits = 0;
+		for ( int i = 0; i < numElements; ++i )
+		{
+			while ( numBits < minbits )
+			{
+				bits = ( bits << 8 ) | ( data.get( src++ ) & 0xff );
+				numBits += 8;
+			}
+			numBits -= minbits;
+			final long v = ( bits >>> numBits ) & fillCode;
+			final long value = ( fillDefined && v == fillCode ) ? fillValue : v + minval;
+			switch ( elementSize )
+			{
+			case 1:
+				out.put( ( byte ) value );
+				break;
+			case 2:
+				out.putShort( ( short ) value );
+				break;
+			case 4:
+				out.putInt( ( int ) value );
+				break;
+			default:
+				out.putLong( value );
+				break;
+			}
+		}
+		out.rewind();
+		return out;
+	}
+
+	private static ByteBuffer unshuffle( final ByteBuffer data, final int elementSize )
+	{
+		final int n = data.remaining();
+		final int numElements = n / elementSize;
+		final byte[] output = new byte[ n ];
+		final int p = data.position();
+		for ( int b = 0; b < elementSize; ++b )
+			for ( int i = 0; i < numElements; ++i )
+				output[ i * elementSize + b ] = data.get( p + b * numElements + i );
+		// trailing bytes that do not form a full element are not shuffled
+		for ( int i = numElements * elementSize; i < n; ++i )
+			output[ i ] = data.get( p + i );
+		return ByteBuffer.wrap( output );
+	}
+
+	@Override
+	public void closeAllDataSets()
+	{
+		fallback.closeAllDataSets();
+	}
+
+	@Override
+	public void close()
+	{
+		fallback.close();
+		try
+		{
+			file.close();
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary sidecar file, stored next to a bdv hdf5 file, that holds
+ * all metadata that {@link Hdf5ImageLoader} otherwise reads from the hdf5 file
+ * piecemeal: the resolutions, subdivisions, and pixel type of every setup and
+ * the {@link DimsAndExistence} of every (timepoint, setup, level).
+ * <p>
+ * The index records the size and modification time of the hdf5 file and of
+ * its partition files. {@link #load(File, List)} returns {@code null} if any
+ * of these changed, so a stale index is never used.
+ */
+public class MetadataIndex
+{
+	/**
+	 * Suffix appended to the hdf5 file name to obtain the index file name.
+	 */
+	public static final String SUFFIX = ".bdvidx";
+
+	private static final int MAGIC = 0x42445649; // "BDVI"
+
+	private static final int VERSION = 2;
+
+	private final HashMap< Integer, double[][] > resolutions;
+
+	private final HashMap< Integer, int[][] > subdivisions;
+
+	private final HashMap< Integer, String > dataTypes;
+
+	private final HashMap< ViewLevelId, DimsAndExistence > dims;
+
+	public MetadataIndex()
+	{
+		resolutions = new HashMap< Integer, double[][] >();
+		subdivisions = new HashMap< Integer, int[][] >();
+		dataTypes = new HashMap< Integer, String >();
+		dims = new HashMap< ViewLevelId, DimsAndExistence >();
+	}
+
+	public static File getIndexFile( final File hdf5File )
+	{
+		return new File( hdf5File.getPath() + SUFFIX );
+	}
+
+	public synchronized void putMipmapInfo( final int setupId, final double[][] setupResolutions, final int[][] setupSubdivisions )
+	{
+		resolutions.put( setupId, setupResolutions );
+		subdivisions.put( setupId, setupSubdivisions );
+	}
+
+	/**
+	 * @param dataType
+	 *            name of the pixel type of the setup's {@code cells} data
+	 *            sets, for example {@code "uint16"}.
+	 */
+	public synchronized void putDataType( final int setupId, final String dataType )
+	{
+		dataTypes.put( setupId, dataType );
+	}
+
+	public synchronized void putDimsAndExistence( final ViewLevelId id, final DimsAndExistence dimsAndExistence )
+	{
+		dims.put( id, dimsAndExistence );
+	}
+
+	/**
+	 * @return resolutions of the given setup, or {@code null} if the setup is
+	 *         not in the index.
+	 */
+	public synchronized double[][] getResolutions( final int setupId )
+	{
+		return resolutions.get( setupId );
+	}
+
+	/**
+	 * @return subdivisions of the given setup, or {@code null} if the setup is
+	 *         not in the index.
+	 */
+	public synchronized int[][] getSubdivisions( final int setupId )
+	{
+		return subdivisions.get( setupId );
+	}
+
+	/**
+	 * @return name of the pixel type of the given setup, or {@code null} if
+	 *         it is not in the index.
+	 */
+	public synchronized String getDataType( final int setupId )
+	{
+		return dataTypes.get( setupId );
+	}
+
+	public synchronized Map< ViewLevelId, DimsAndExistence > getDimsAndExistence()
+	{
+		return new HashMap< ViewLevelId, DimsAndExistence >( dims );
+	}
+
+	/**
+	 * Load the index of the given hdf5 file.
+	 *
+	 * @return the index, or {@code null} if there is no index, it cannot be
+	 *         read, or it is out of date.
+	 */
+	public static MetadataIndex load( final File hdf5File, final List< Partition > partitions )
+	{
+		final File indexFile = getIndexFile( hdf5File );
+		if ( !indexFile.isFile() )
+			return null;
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ), 1 << 16 ) );
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+				return null;
+			final long[] stamps = new long[ in.readInt() ];
+			for ( int i = 0; i < stamps.length; ++i )
+				stamps[ i ] = in.readLong();
+			if ( !Arrays.equals( stamps, getFileStamps( hdf5File, partitions ) ) )
+				return null;
+
+			final MetadataIndex index = new MetadataIndex();
+			final int numSetups = in.readInt();
+			for ( int i = 0; i < numSetups; ++i )
+			{
+				final int setupId = in.readInt();
+				final int numLevels = in.readInt();
+				final double[][] res = new double[ numLevels ][ 3 ];
+				final int[][] sub = new int[ numLevels ][ 3 ];
+				for ( int l = 0; l < numLevels; ++l )
+					for ( int d = 0; d < 3; ++d )
+						res[ l ][ d ] = in.readDouble();
+				for ( int l = 0; l < numLevels; ++l )
+					for ( int d = 0; d < 3; ++d )
+						sub[ l ][ d ] = in.readInt();
+				final String dataType = in.readUTF();
+				index.resolutions.put( setupId, res );
+				index.subdivisions.put( setupId, sub );
+				if ( !dataType.isEmpty() )
+					index.dataTypes.put( setupId, dataType );
+			}
+			final int numViews = in.readInt();
+			for ( int i = 0; i < numViews; ++i )
+			{
+				final ViewLevelId id = new ViewLevelId( in.readInt(), in.readInt(), in.readInt() );
+				final boolean exists = in.readBoolean();
+				final long[] dimensions = new long[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+					dimensions[ d ] = in.readLong();
+				index.dims.put( id, new DimsAndExistence( dimensions, exists ) );
+			}
+			return index;
+		}
+		catch ( final IOException e )
+		{
+			return null;
+		}
+		finally
+		{
+			if ( in != null )
+				try
+				{
+					in.close();
+				}
+				catch ( final IOException e )
+				{}
+		}
+	}
+
+	/**
+	 * Save the index of the given hdf5 file. The index is written to a
+	 * temporary file which is then renamed, so that readers never see a
+	 * partially written index.
+	 */
+	public synchronized void save( final File hdf5File, final List< Partition > partitions ) throws IOException
+	{
+		final File indexFile = getIndexFile( hdf5File );
+		final File tmpFile = new File( indexFile.getPath() + ".tmp" );
+		final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ), 1 << 16 ) );
+		try
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			final long[] stamps = getFileStamps( hdf5File, partitions );
+			out.writeInt( stamps.length );
+			for ( final long stamp : stamps )
+				out.writeLong( stamp );
+
+			out.writeInt( resolutions.size() );
+			for ( final Map.Entry< Integer, double[][] > entry : resolutions.entrySet() )
+			{
+				final double[][] res = entry.getValue();
+				final int[][] sub = subdivisions.get( entry.getKey() );
+				out.writeInt( entry.getKey() );
+				out.writeInt( res.length );
+				for ( final double[] r : res )
+					for ( int d = 0; d < 3; ++d )
+						out.writeDouble( r[ d ] );
+				for ( final int[] s : sub )
+					for ( int d = 0; d < 3; ++d )
+						out.writeInt( s[ d ] );
+				final String dataType = dataTypes.get( entry.getKey() );
+				out.writeUTF( dataType == null ? "" : dataType );
+			}
+
+			out.writeInt( dims.size() );
+			for ( final Map.Entry< ViewLevelId, DimsAndExistence > entry : dims.entrySet() )
+			{
+				final ViewLevelId id = entry.getKey();
+				out.writeInt( id.getTimePointId() );
+				out.writeInt( id.getViewSetupId() );
+				out.writeInt( id.getLevel() );
+				out.writeBoolean( entry.getValue().exists() );
+				for ( final long d : entry.getValue().getDimensions() )
+					out.writeLong( d );
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		if ( indexFile.exists() )
+			indexFile.delete();
+		if ( !tmpFile.renameTo( indexFile ) )
+		{
+			tmpFile.delete();
+			throw new IOException( "could not write " + indexFile );
+		}
+	}
+
+	/**
+	 * Size and modification time of the hdf5 file and of every partition
+	 * file.
+	 */
+	private static long[] getFileStamps( final File hdf5File, final List< Partition > partitions )
+	{
+		final ArrayList< File > files = new ArrayList< File >();
+		files.add( hdf5File );
+		for ( final Partition partition : partitions )
+		{
+			// relative partition paths are relative to the hdf5 file, as in
+			// PartitionedHDF5Access
+			File file = new File( partition.getPath() );
+			if ( !file.isAbsolute() && hdf5File.getParentFile() != null )
+				file = new File( hdf5File.getParentFile(), partition.getPath() );
+			files.add( file );
+		}
+		final long[] stamps = new long[ 2 * files.size() ];
+		for ( int i = 0; i < files.size(); ++i )
+		{
+			stamps[ 2 * i ] = files.get( i ).length();
+			stamps[ 2 * i + 1 ] = files.get( i ).lastModified();
+		}
+		return stamps;
+	}
+}
@@ -0,0 +1,341 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bdv.CellStatistics;
+
+/**
+ * Access a dataset that is split into {@link Partition partitions} by opening
+ * each partition file directly, instead of going through the external links
+ * of the master file. Requests are routed by (timepoint, setup) using the
+ * partition maps, and ids are translated to the ids within the partition
+ * file. Each partition has its own {@link IHDF5Access} (with its own reader
+ * and open data set cache). If these read the partition files without the
+ * HDF5 library (see {@link MappedHDF5Access}), reads from different
+ * partitions, which may be on different disks or file servers, proceed in
+ * parallel.
+ * <p>
+ * Partition files are opened when first accessed. Views that are not covered
+ * by a partition, or whose partition file cannot be opened, are read through
+ * the master file.
+ */
+class PartitionedHDF5Access implements IHDF5Access
+{
+	public interface AccessFactory
+	{
+		/**
+		 * Open an access to the given hdf5 file.
+		 */
+		public IHDF5Access open( File hdf5File ) throws Exception;
+	}
+
+	/**
+	 * A partition file, opened lazily. Only opening the file is synchronized,
+	 * once it is open (or has failed to open) the access is returned without
+	 * locking.
+	 */
+	private class PartitionFile
+	{
+		private final File file;
+
+		private volatile IHDF5Access access;
+
+		private volatile boolean failed = false;
+
+		PartitionFile( final File file )
+		{
+			this.file = file;
+		}
+
+		/**
+		 * @return the access, or {@code null} if the file cannot be opened.
+		 */
+		IHDF5Access getAccess()
+		{
+			final IHDF5Access a = access;
+			if ( a != null || failed )
+				return a;
+			return open();
+		}
+
+		private synchronized IHDF5Access open()
+		{
+			if ( access == null && !failed )
+			{
+				try
+				{
+					access = factory.open( file );
+				}
+				catch ( final Exception e )
+				{
+					// read through the master file instead. If the partition
+					// is really missing, the loader reports that when it
+					// checks for the image data.
+					failed = true;
+				}
+			}
+			return access;
+		}
+
+		IHDF5Access getAccessIfOpen()
+		{
+			return access;
+		}
+	}
+
+	/**
+	 * Where a (timepoint, setup) of the sequence is stored.
+	 */
+	private static class Route
+	{
+		final PartitionFile partition;
+
+		final int timepoint;
+
+		final int setup;
+
+		Route( final PartitionFile partition, final int timepoint, final int setup )
+		{
+			this.partition = partition;
+			this.timepoint = timepoint;
+			this.setup = setup;
+		}
+	}
+
+	private final IHDF5Access master;
+
+	private final AccessFactory factory;
+
+	private final List< PartitionFile > partitionFiles;
+
+	/**
+	 * Maps {@code (timepoint << 32) | setup} to {@link Route}.
+	 */
+	private final HashMap< Long, Route > routes;
+
+	/**
+	 * @param master
+	 *            access to the master file.
+	 * @param masterFile
+	 *            the master file. Relative partition paths are resolved
+	 *            against its directory.
+	 * @param partitions
+	 *            the partitions of the dataset.
+	 * @param factory
+	 *            opens partition files.
+	 */
+	public PartitionedHDF5Access( final IHDF5Access master, final File masterFile, final List< Partition > partitions, final AccessFactory factory )
+	{
+		this.master = master;
+		this.factory = factory;
+		partitionFiles = new ArrayList< PartitionFile >();
+		routes = new HashMap< Long, Route >();
+		for ( final Partition partition : partitions )
+		{
+			File file = new File( partition.getPath() );
+			if ( !file.isAbsolute() && masterFile.getParentFile() != null )
+				file = new File( masterFile.getParentFile(), partition.getPath() );
+			final PartitionFile partitionFile = new PartitionFile( file );
+			partitionFiles.add( partitionFile );
+			for ( final Map.Entry< Integer, Integer > t : partition.getTimepointIdSequenceToPartition().entrySet() )
+				for ( final Map.Entry< Integer, Integer > s : partition.getSetupIdSequenceToPartition().entrySet() )
+					routes.put( key( t.getKey(), s.getKey() ), new Route( partitionFile, t.getValue(), s.getValue() ) );
+		}
+	}
+
+	private static long key( final int timepoint, final int setup )
+	{
+		return ( ( long ) timepoint << 32 ) | ( setup & 0xffffffffl );
+	}
+
+	/**
+	 * @return the route for the given view, or {@code null} if it has to be
+	 *         read through the master file.
+	 */
+	private Route route( final int timepoint, final int setup )
+	{
+		final Route route = routes.get( key( timepoint, setup ) );
+		if ( route == null || route.partition.getAccess() == null )
+			return null;
+		return route;
+	}
+
+	@Override
+	public DimsAndExistence getDimsAndExistence( final ViewLevelId id )
+	{
+		final Route r = route( id.getTimePointId(), id.getViewSetupId() );
+		if ( r == null )
+			return master.getDimsAndExistence( id );
+		return r.partition.getAccess().getDimsAndExistence( new ViewLevelId( r.timepoint, r.setup, id.getLevel() ) );
+	}
+
+	@Override
+	public double[][] readConstantCells( final ViewLevelId id )
+	{
+		final Route r = route( id.getTimePointId(), id.getViewSetupId() );
+		if ( r == null )
+			return master.readConstantCells( id );
+		return r.partition.getAccess().readConstantCells( new ViewLevelId( r.timepoint, r.setup, id.getLevel() ) );
+	}
+
+	@Override
+	public CellStatistics readCellStatistics( final ViewLevelId id )
+	{
+		final Route r = route( id.getTimePointId(), id.getViewSetupId() );
+		if ( r == null )
+			return master.readCellStatistics( id );
+		return r.partition.getAccess().readCellStatistics( new ViewLevelId( r.timepoint, r.setup, id.getLevel() ) );
+	}
+
+	/**
+	 * Time-chunked cells are only read from the master file. (Partitions are
+	 * split by timepoint, so a time chunk could span several partitions.)
+	 */
+	@Override
+	public TimeChunkedLayout readTimeChunkedLayout( final int setup, final int level )
+	{
+		return master.readTimeChunkedLayout( setup, level );
+	}
+
+	@Override
+	public short[] readTimeChunkedShortBlock( final int setup, final int level, final int firstRow, final int numRows, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		return master.readTimeChunkedShortBlock( setup, level, firstRow, numRows, dimensions, min );
+	}
+
+	@Override
+	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min );
+		return r.partition.getAccess().readShortMDArrayBlockWithOffset( r.timepoint, r.setup, level, dimensions, min );
+	}
+
+	@Override
+	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final short[] dataBlock ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return r.partition.getAccess().readShortMDArrayBlockWithOffset( r.timepoint, r.setup, level, dimensions, min, dataBlock );
+	}
+
+	@Override
+	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readShortMDArrayBlockWithOffsetAsFloat( timepoint, setup, level, dimensions, min );
+		return r.partition.getAccess().readShortMDArrayBlockWithOffsetAsFloat( r.timepoint, r.setup, level, dimensions, min );
+	}
+
+	@Override
+	public float[] readShortMDArrayBlockWithOffsetAsFloat( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readShortMDArrayBlockWithOffsetAsFloat( timepoint, setup, level, dimensions, min, dataBlock );
+		return r.partition.getAccess().readShortMDArrayBlockWithOffsetAsFloat( r.timepoint, r.setup, level, dimensions, min, dataBlock );
+	}
+
+	@Override
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min );
+		return r.partition.getAccess().readByteMDArrayBlockWithOffset( r.timepoint, r.setup, level, dimensions, min );
+	}
+
+	@Override
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final byte[] dataBlock ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return r.partition.getAccess().readByteMDArrayBlockWithOffset( r.timepoint, r.setup, level, dimensions, min, dataBlock );
+	}
+
+	@Override
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min );
+		return r.partition.getAccess().readFloatMDArrayBlockWithOffset( r.timepoint, r.setup, level, dimensions, min );
+	}
+
+	@Override
+	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	{
+		final Route r = route( timepoint, setup );
+		if ( r == null )
+			return master.readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
+		return r.partition.getAccess().readFloatMDArrayBlockWithOffset( r.timepoint, r.setup, level, dimensions, min, dataBlock );
+	}
+
+	/**
+	 * Number of partition files.
+	 */
+	public int numPartitions()
+	{
+		return partitionFiles.size();
+	}
+
+	@Override
+	public void closeAllDataSets()
+	{
+		master.closeAllDataSets();
+		for ( final PartitionFile partitionFile : partitionFiles )
+		{
+			final IHDF5Access access = partitionFile.getAccessIfOpen();
+			if ( access != null )
+				access.closeAllDataSets();
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		master.close();
+		for ( final PartitionFile partitionFile : partitionFiles )
+		{
+			final IHDF5Access access = partitionFile.getAccessIfOpen();
+			if ( access != null )
+				access.close();
+		}
+	}
+}
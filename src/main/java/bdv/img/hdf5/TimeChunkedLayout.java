@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.util.HashMap;
+
+/**
+ * Describes the time-chunked cells data set of a setup and mipmap level (see
+ * {@link Util#getTimeChunkedCellsPath(int, int)}): the timepoint id of each
+ * row, and how many consecutive rows are stored in one chunk.
+ */
+class TimeChunkedLayout
+{
+	private final int[] timepoints;
+
+	private final int chunkSize;
+
+	private final HashMap< Integer, Integer > timepointToRow;
+
+	public TimeChunkedLayout( final int[] timepoints, final int chunkSize )
+	{
+		this.timepoints = timepoints;
+		this.chunkSize = Math.max( chunkSize, 1 );
+		timepointToRow = new HashMap< Integer, Integer >();
+		for ( int row = 0; row < timepoints.length; ++row )
+			timepointToRow.put( timepoints[ row ], row );
+	}
+
+	/**
+	 * @return the row of the given timepoint, or -1 if it is not contained.
+	 */
+	public int getRow( final int timepoint )
+	{
+		final Integer row = timepointToRow.get( timepoint );
+		return row == null ? -1 : row;
+	}
+
+	/**
+	 * @return the timepoints of the chunk containing {@code timepoint}, in row
+	 *         order, or just {@code timepoint} if it is not contained.
+	 */
+	public int[] getChunkTimepoints( final int timepoint )
+	{
+		final int row = getRow( timepoint );
+		if ( row < 0 )
+			return new int[] { timepoint };
+		final int first = row - row % chunkSize;
+		final int last = Math.min( first + chunkSize, timepoints.length );
+		final int[] chunk = new int[ last - first ];
+		System.arraycopy( timepoints, first, chunk, 0, chunk.length );
+		return chunk;
+	}
+
+	public int getChunkSize()
+	{
+		return chunkSize;
+	}
+}
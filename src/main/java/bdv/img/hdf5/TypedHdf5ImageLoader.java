@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import bdv.ViewerImgLoader;
+import bdv.img.cache.VolatileGlobalCellCache;
+import bdv.spimdata.WrapBasicImgLoader;
+
+/**
+ * Presents an {@link Hdf5ImageLoader} as a {@link ViewerImgLoader} that
+ * supports setups of any pixel type. {@link Hdf5ImageLoader#getSetupImgLoader(int)}
+ * only supports {@link UnsignedShortType} setups, while
+ * {@link #getSetupImgLoader(int)} returns the
+ * {@link Hdf5ImageLoader#getTypedSetupImgLoader(int) typed loader} of each
+ * setup. See {@link WrapBasicImgLoader#wrapImgLoaderIfNecessary}.
+ */
+public class TypedHdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
+{
+	private final Hdf5ImageLoader source;
+
+	public TypedHdf5ImageLoader( final Hdf5ImageLoader source )
+	{
+		this.source = source;
+	}
+
+	public Hdf5ImageLoader getSource()
+	{
+		return source;
+	}
+
+	@Override
+	public Hdf5ImageLoader.TypedSetupImgLoader< ?, ?, ? > getSetupImgLoader( final int setupId )
+	{
+		return source.getTypedSetupImgLoader( setupId );
+	}
+
+	@Override
+	public VolatileGlobalCellCache getCache()
+	{
+		return source.getCache();
+	}
+
+	/**
+	 * Check whether {@code imgLoader} has setups that are not
+	 * {@link UnsignedShortType}, and must be wrapped to be loaded through the
+	 * {@link ViewerImgLoader} interface.
+	 */
+	public static boolean isNecessary( final Hdf5ImageLoader imgLoader, final Iterable< Integer > setupIds )
+	{
+		for ( final int setupId : setupIds )
+		{
+			final Hdf5ImageLoader.TypedSetupImgLoader< ?, ?, ? > loader = imgLoader.getTypedSetupImgLoader( setupId );
+			if ( loader != null && !( loader instanceof Hdf5ImageLoader.SetupImgLoader ) )
+				return true;
+		}
+		return false;
+	}
+}
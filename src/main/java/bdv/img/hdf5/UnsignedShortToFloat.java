@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Convert unsigned 16-bit data, stored in {@code short[]} arrays, to
+ * {@code float[]}.
+ * <p>
+ * The conversion loop has no branches and no dependencies between
+ * iterations, so that the JIT compiler can vectorize it. Blocks of at least
+ * {@link #getParallelThreshold()} elements (initially the value of system
+ * property {@value #PARALLEL_THRESHOLD_PROPERTY}, or 1M elements) are split
+ * into chunks that are converted in parallel on a shared pool of daemon
+ * threads. Typical cells are much smaller than that and are converted on the
+ * calling thread.
+ */
+public class UnsignedShortToFloat
+{
+	public static final String PARALLEL_THRESHOLD_PROPERTY = "bdv.hdf5.parallelConversionThreshold";
+
+	private static volatile int parallelThreshold = Integer.getInteger( PARALLEL_THRESHOLD_PROPERTY, 1 << 20 );
+
+	private static ExecutorService executor;
+
+	private UnsignedShortToFloat()
+	{}
+
+	/**
+	 * Convert elements {@code [from, to)} of {@code src} into the same
+	 * elements of {@code dst}.
+	 */
+	public static void convert( final short[] src, final float[] dst, final int from, final int to )
+	{
+		for ( int i = from; i < to; ++i )
+			dst[ i ] = src[ i ] & 0xffff;
+	}
+
+	/**
+	 * Convert the first {@code length} elements of {@code src} into
+	 * {@code dst}, in parallel if {@code length} is at least
+	 * {@link #getParallelThreshold()}.
+	 */
+	public static void convert( final short[] src, final float[] dst, final int length )
+	{
+		if ( length < parallelThreshold )
+			convert( src, dst, 0, length );
+		else
+			convert( src, dst, length, getExecutor(), Runtime.getRuntime().availableProcessors() );
+	}
+
+	/**
+	 * Convert the first {@code length} elements of {@code src} into
+	 * {@code dst}, split into {@code numTasks} chunks that are converted by
+	 * the given {@link ExecutorService}. Returns when all chunks are done.
+	 */
+	public static void convert( final short[] src, final float[] dst, final int length, final ExecutorService executor, final int numTasks )
+	{
+		if ( numTasks <= 1 )
+		{
+			convert( src, dst, 0, length );
+			return;
+		}
+		final int chunkSize = ( length - 1 ) / numTasks + 1;
+		final List< Future< Void > > futures = new ArrayList< Future< Void > >( numTasks );
+		for ( int from = 0; from < length; from += chunkSize )
+		{
+			final int chunkFrom = from;
+			final int chunkTo = Math.min( from + chunkSize, length );
+			futures.add( executor.submit( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					convert( src, dst, chunkFrom, chunkTo );
+					return null;
+				}
+			} ) );
+		}
+		boolean interrupted = false;
+		for ( final Future< Void > future : futures )
+		{
+			while ( true )
+			{
+				try
+				{
+					future.get();
+					break;
+				}
+				catch ( final InterruptedException e )
+				{
+					// the chunks write into dst, so wait for them anyway
+					interrupted = true;
+				}
+				catch ( final ExecutionException e )
+				{
+					throw new RuntimeException( e.getCause() );
+				}
+			}
+		}
+		if ( interrupted )
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Blocks with at least this many elements are converted in parallel by
+	 * {@link #convert(short[], float[], int)}.
+	 */
+	public static int getParallelThreshold()
+	{
+		return parallelThreshold;
+	}
+
+	public static void setParallelThreshold( final int threshold )
+	{
+		parallelThreshold = threshold;
+	}
+
+	private static synchronized ExecutorService getExecutor()
+	{
+		if ( executor == null )
+			executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+			{
+				private int i = 0;
+
+				@Override
+				public synchronized Thread newThread( final Runnable r )
+				{
+					final Thread thread = new Thread( r, "UnsignedShortToFloat-" + i++ );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+		return executor;
+	}
+}
@@ -36,6 +36,30 @@ public class Util
 
 	final static private String cellsFormatString = "%s/cells";
 
+	final static private String constantCellsFormatString = "%s/constant";
+
+	final static private String cellStatisticsFormatString = "%s/statistics";
+
+	/**
+	 * Name of the attribute of the cell statistics data set that holds the
+	 * histogram bin counts of a mipmap level.
+	 */
+	final static public String histogramAttribute = "histogram";
+
+	/**
+	 * Name of the attribute of the cell statistics data set that holds the
+	 * { min, max } range of the histogram.
+	 */
+	final static public String histogramRangeAttribute = "histogramRange";
+
+	final static private String timeChunkedCellsFormatString = "s%02d/%d/tcells";
+
+	/**
+	 * Name of the attribute of the time-chunked cells data set that holds the
+	 * timepoint id of each row (see {@link #getTimeChunkedCellsPath(int, int)}).
+	 */
+	final static public String timepointsAttribute = "timepoints";
+
 	final static private String resolutionsFormatString = "s%02d/resolutions";
 
 	final static private String subdivisionsFormatString = "s%02d/subdivisions";
@@ -70,6 +94,58 @@ public class Util
 		return String.format( cellsFormatString, getGroupPath( viewLevelId ) );
 	}
 
+	/**
+	 * Path of the table of constant cells of a mipmap level. Each row of the
+	 * table holds the flattened index of a cell in the cell grid and the value
+	 * of all pixels in that cell.
+	 */
+	public static String getConstantCellsPath( final int timepoint, final int setup, final int level )
+	{
+		return String.format( constantCellsFormatString, getGroupPath( timepoint, setup, level ) );
+	}
+
+	public static String getConstantCellsPath( final ViewId viewId, final int level )
+	{
+		return String.format( constantCellsFormatString, getGroupPath( viewId, level ) );
+	}
+
+	public static String getConstantCellsPath( final ViewLevelId viewLevelId )
+	{
+		return String.format( constantCellsFormatString, getGroupPath( viewLevelId ) );
+	}
+
+	/**
+	 * Path of the statistics of the cells of a mipmap level. Row {@code i} of
+	 * the table holds { min, max, mean, number of pixels } of the cell with
+	 * flattened index {@code i} in the cell grid. See {@link bdv.CellStatistics}.
+	 */
+	public static String getCellStatisticsPath( final int timepoint, final int setup, final int level )
+	{
+		return String.format( cellStatisticsFormatString, getGroupPath( timepoint, setup, level ) );
+	}
+
+	public static String getCellStatisticsPath( final ViewId viewId, final int level )
+	{
+		return String.format( cellStatisticsFormatString, getGroupPath( viewId, level ) );
+	}
+
+	public static String getCellStatisticsPath( final ViewLevelId viewLevelId )
+	{
+		return String.format( cellStatisticsFormatString, getGroupPath( viewLevelId ) );
+	}
+
+	/**
+	 * Path of the optional 4D data set that holds the cells of all timepoints
+	 * of a setup and mipmap level. Dimensions are (x, y, z, row), where the
+	 * row of each timepoint is given by the {@link #timepointsAttribute}
+	 * attribute. Chunks span several rows, so that the same cell of
+	 * consecutive timepoints is read with one access.
+	 */
+	public static String getTimeChunkedCellsPath( final int setup, final int level )
+	{
+		return String.format( timeChunkedCellsFormatString, setup, level );
+	}
+
 	public static String getResolutionsPath( final int setupId )
 	{
 		return String.format( resolutionsFormatString, setupId );
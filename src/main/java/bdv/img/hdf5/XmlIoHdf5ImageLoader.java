@@ -46,9 +46,15 @@ import net.imglib2.util.ValuePair;
 
 import org.jdom2.Element;
 
+import bdv.img.cache.FetcherThreads;
+
 @ImgLoaderIo( format = "bdv.hdf5", type = Hdf5ImageLoader.class )
 public class XmlIoHdf5ImageLoader implements XmlIoBasicImgLoader< Hdf5ImageLoader >
 {
+	public static final String MEMORY_MAPPED_ATTRIBUTE_NAME = "memoryMapped";
+
+	public static final String PARTITIONED_ACCESS_ATTRIBUTE_NAME = "partitionedAccess";
+
 	@Override
 	public Element toXml( final Hdf5ImageLoader imgLoader, final File basePath )
 	{
@@ -57,6 +63,11 @@ public class XmlIoHdf5ImageLoader implements XmlIoBasicImgLoader< Hdf5ImageLoade
 		elem.addContent( XmlHelpers.pathElement( "hdf5", imgLoader.getHdf5File(), basePath ) );
 		for ( final Partition partition : imgLoader.getPartitions() )
 			elem.addContent( partitionToXml( partition, basePath ) );
+		imgLoader.getFetcherThreads().toXml( elem, Hdf5ImageLoader.DEFAULT_FETCHER_THREADS );
+		if ( imgLoader.isMemoryMapped() )
+			elem.setAttribute( MEMORY_MAPPED_ATTRIBUTE_NAME, "true" );
+		if ( imgLoader.getPartitionedAccess() )
+			elem.setAttribute( PARTITIONED_ACCESS_ATTRIBUTE_NAME, "true" );
 		return elem;
 	}
 
@@ -67,7 +78,13 @@ public class XmlIoHdf5ImageLoader implements XmlIoBasicImgLoader< Hdf5ImageLoade
 		final ArrayList< Partition > partitions = new ArrayList< Partition >();
 		for ( final Element p : elem.getChildren( "partition" ) )
 			partitions.add( partitionFromXml( p, basePath ) );
-		return new Hdf5ImageLoader( new File( path ), partitions, sequenceDescription );
+		final Hdf5ImageLoader imgLoader = new Hdf5ImageLoader( new File( path ), partitions, sequenceDescription );
+		final FetcherThreads fetcherThreads = FetcherThreads.fromXml( elem, Hdf5ImageLoader.DEFAULT_FETCHER_THREADS );
+		if ( !fetcherThreads.equals( Hdf5ImageLoader.DEFAULT_FETCHER_THREADS ) )
+			imgLoader.setFetcherThreads( fetcherThreads );
+		imgLoader.setMemoryMapped( Boolean.parseBoolean( elem.getAttributeValue( MEMORY_MAPPED_ATTRIBUTE_NAME ) ) );
+		imgLoader.setPartitionedAccess( Boolean.parseBoolean( elem.getAttributeValue( PARTITIONED_ACCESS_ATTRIBUTE_NAME ) ) );
+		return imgLoader;
 	}
 
 	private Element partitionToXml( final Partition partition, final File basePath )
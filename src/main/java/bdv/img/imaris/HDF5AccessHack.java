@@ -58,6 +58,7 @@ import java.lang.reflect.Field;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 
+import bdv.img.cache.ArrayPool;
 import bdv.img.hdf5.DimsAndExistence;
 import bdv.img.hdf5.Util;
 import bdv.img.hdf5.ViewLevelId;
@@ -182,7 +183,7 @@ public class HDF5AccessHack implements IHDF5Access
 	@Override
 	public synchronized byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final byte[] dataBlock = new byte[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final byte[] dataBlock = ArrayPool.getInstance().takeBytes( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
 		readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
 		return dataBlock;
 	}
@@ -207,14 +208,14 @@ public class HDF5AccessHack implements IHDF5Access
 	@Override
 	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final short[] dataBlock = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final short[] dataBlock = ArrayPool.getInstance().takeShorts( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
 		readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
 		return dataBlock;
 	}
 
 	// TODO: this could be unified with readByteMDArrayBlockWithOffset? (final Object dataBlock, int H5T_NATIVE_type)?
 	@Override
-	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final short[] dataBlock ) throws InterruptedException
+	public synchronized short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final short[] dataBlock ) throws InterruptedException
 	{
 		if ( Thread.interrupted() )
 			throw new InterruptedException();
@@ -233,14 +234,14 @@ public class HDF5AccessHack implements IHDF5Access
 	@Override
 	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final float[] dataBlock = new float[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final float[] dataBlock = ArrayPool.getInstance().takeFloats( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
 		readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
 		return dataBlock;
 	}
 
 	// TODO: this could be unified with readByteMDArrayBlockWithOffset? (final Object dataBlock, int H5T_NATIVE_type)?
 	@Override
-	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	public synchronized float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
 	{
 		if ( Thread.interrupted() )
 			throw new InterruptedException();
@@ -52,7 +52,9 @@ import bdv.img.cache.Cache;
 import bdv.img.cache.CacheArrayLoader;
 import bdv.img.cache.CacheHints;
 import bdv.img.cache.CachedCellImg;
+import bdv.img.cache.FetcherThreads;
 import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.SharedCellCacheService;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.img.cache.VolatileImgCells;
 import bdv.img.cache.VolatileImgCells.CellCache;
@@ -78,6 +80,13 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 
 	private VolatileGlobalCellCache cache;
 
+	/**
+	 * Default configuration of fetcher threads for this loader.
+	 */
+	public static final FetcherThreads DEFAULT_FETCHER_THREADS = new FetcherThreads( 1 );
+
+	protected FetcherThreads fetcherThreads = DEFAULT_FETCHER_THREADS;
+
 	private CacheArrayLoader< A > loader;
 
 	private final HashMap< Integer, SetupImgLoader > setupImgLoaders;
@@ -99,6 +108,16 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 
 	private boolean isOpen = false;
 
+	/**
+	 * Shared cache to use, or {@code null} if this loader owns its cache.
+	 */
+	private SharedCellCacheService sharedCache = null;
+
+	/**
+	 * Namespace of this loader in {@link #sharedCache}.
+	 */
+	private int namespace = 0;
+
 	private void open()
 	{
 		if ( !isOpen )
@@ -127,7 +146,16 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 					throw new RuntimeException( e );
 				}
 				loader = dataType.createArrayLoader( hdf5Access );
-				cache = new VolatileGlobalCellCache( maxNumTimepoints, maxNumSetups, maxNumLevels, 1 );
+				if ( sharedCache != null )
+				{
+					cache = sharedCache.getCache();
+					namespace = sharedCache.register( hdf5File.getAbsolutePath() );
+				}
+				else
+				{
+					cache = new VolatileGlobalCellCache( maxNumTimepoints, maxNumSetups, maxNumLevels, 0 );
+					fetcherThreads.applyTo( cache );
+				}
 
 				for ( final BasicViewSetup setup : setups )
 				{
@@ -155,7 +183,7 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 
 		final int priority = mipmapInfo.getMaxLevel() - level;
 		final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
-		final CellCache< A > c = cache.new VolatileCellCache< A >( timepointId, setupId, level, cacheHints, loader );
+		final CellCache< A > c = cache.new VolatileCellCache< A >( namespace, timepointId, setupId, level, cacheHints, loader );
 		final VolatileImgCells< A > cells = new VolatileImgCells< A >( c, new Fraction(), dimensions, cellDimensions );
 		final CachedCellImg< T, A > img = new CachedCellImg< T, A >( cells );
 		return img;
@@ -168,6 +196,32 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 		return cache;
 	}
 
+	/**
+	 * Configure the fetcher threads of the cache (see {@link FetcherThreads}).
+	 */
+	public synchronized void setFetcherThreads( final FetcherThreads fetcherThreads )
+	{
+		this.fetcherThreads = fetcherThreads;
+		if ( cache != null && sharedCache == null )
+			fetcherThreads.applyTo( cache );
+	}
+
+	public FetcherThreads getFetcherThreads()
+	{
+		return fetcherThreads;
+	}
+
+	/**
+	 * Load cells into the given shared cache instead of a cache owned by this
+	 * loader. Must be called before the loader is opened.
+	 */
+	public synchronized void useSharedCache( final SharedCellCacheService sharedCache )
+	{
+		if ( isOpen )
+			throw new IllegalStateException( "loader is already open" );
+		this.sharedCache = sharedCache;
+	}
+
 	@Override
 	public SetupImgLoader getSetupImgLoader( final int setupId )
 	{
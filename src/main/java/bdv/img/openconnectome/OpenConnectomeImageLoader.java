@@ -28,6 +28,7 @@
  */
 package bdv.img.openconnectome;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -42,7 +43,10 @@ import bdv.ViewerSetupImgLoader;
 import bdv.img.cache.Cache;
 import bdv.img.cache.CacheHints;
 import bdv.img.cache.CachedCellImg;
+import bdv.img.cache.DiskCachedArrayLoader;
+import bdv.img.cache.FetcherThreads;
 import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.PersistentBlockCache;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.img.cache.VolatileImgCells;
 import bdv.img.cache.VolatileImgCells.CellCache;
@@ -72,11 +76,28 @@ public class OpenConnectomeImageLoader extends AbstractViewerSetupImgLoader< Uns
 
 	private final VolatileGlobalCellCache cache;
 
+	/**
+	 * Default configuration of fetcher threads for this loader. For many concurrent requests
+	 * to a high-latency server, consider
+	 * {@link FetcherThreads#latencyBound(int, int)}.
+	 */
+	public static final FetcherThreads DEFAULT_FETCHER_THREADS = new FetcherThreads( 10 );
+
+	protected FetcherThreads fetcherThreads = DEFAULT_FETCHER_THREADS;
+
 	private final OpenConnectomeVolatileArrayLoader loader;
 
+	/**
+	 * If non-null, used instead of {@link #loader}.
+	 */
+	private DiskCachedArrayLoader< VolatileByteArray > diskCachedLoader;
+
+	private final String datasetId;
+
 	public OpenConnectomeImageLoader( final String baseUrl, final String token, final String mode )
 	{
 		super( new UnsignedByteType(), new VolatileUnsignedByteType() );
+		datasetId = baseUrl + "/" + token + "/" + mode;
 
 		final OpenConnectomeTokenInfo info = tryFetchTokenInfo( baseUrl, token, 20 );
 
@@ -87,7 +108,8 @@ public class OpenConnectomeImageLoader extends AbstractViewerSetupImgLoader< Uns
 		blockDimensions = info.getLevelCellDimensions();
 		mipmapTransforms = info.getLevelTransforms( mode );
 
-		cache = new VolatileGlobalCellCache( 1, 1, numScales, 10 );
+		cache = new VolatileGlobalCellCache( 1, 1, numScales, 0 );
+		fetcherThreads.applyTo( cache );
 		System.out.println( info.getOffsets( mode )[ 0 ][ 2 ] + " " + imageDimensions[ 0 ][ 2 ] );
 
 		loader = new OpenConnectomeVolatileArrayLoader(
@@ -261,7 +283,7 @@ public class OpenConnectomeImageLoader extends AbstractViewerSetupImgLoader< Uns
 
 		final int priority = numScales - 1 - level;
 		final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
-		final CellCache< VolatileByteArray > c = cache.new VolatileCellCache< VolatileByteArray >( timepointId, setupId, level, cacheHints, loader );
+		final CellCache< VolatileByteArray > c = cache.new VolatileCellCache< VolatileByteArray >( timepointId, setupId, level, cacheHints, diskCachedLoader != null ? diskCachedLoader : loader );
 		final VolatileImgCells< VolatileByteArray > cells = new VolatileImgCells< VolatileByteArray >( c, new Fraction(), dimensions, cellDimensions );
 		final CachedCellImg< T, VolatileByteArray > img = new CachedCellImg< T, VolatileByteArray >( cells );
 		return img;
@@ -273,6 +295,37 @@ public class OpenConnectomeImageLoader extends AbstractViewerSetupImgLoader< Uns
 		return cache;
 	}
 
+	/**
+	 * Configure the fetcher threads of the cache (see {@link FetcherThreads}).
+	 */
+	public synchronized void setFetcherThreads( final FetcherThreads fetcherThreads )
+	{
+		this.fetcherThreads = fetcherThreads;
+		if ( cache != null )
+			fetcherThreads.applyTo( cache );
+	}
+
+	public FetcherThreads getFetcherThreads()
+	{
+		return fetcherThreads;
+	}
+
+	/**
+	 * Keep fetched cells in a persistent local {@link PersistentBlockCache},
+	 * so that each cell is fetched over the network only once, also across
+	 * sessions. Images obtained before this call keep fetching directly.
+	 *
+	 * @param baseDirectory
+	 *            directory containing the disk caches of all datasets.
+	 * @param maxBytes
+	 *            size limit for the disk cache of this dataset.
+	 */
+	public void setDiskCache( final File baseDirectory, final long maxBytes ) throws IOException
+	{
+		final PersistentBlockCache diskCache = PersistentBlockCache.open( baseDirectory, datasetId, maxBytes );
+		diskCachedLoader = new DiskCachedArrayLoader< VolatileByteArray >( loader, diskCache );
+	}
+
 	@Override
 	public ViewerSetupImgLoader< ?, ? > getSetupImgLoader( final int setupId )
 	{
@@ -36,6 +36,8 @@ import mpicbg.spim.data.generic.sequence.XmlIoBasicImgLoader;
 
 import org.jdom2.Element;
 
+import bdv.img.cache.FetcherThreads;
+
 @ImgLoaderIo( format = "openconnectome", type = OpenConnectomeImageLoader.class )
 public class XmlIoOpenConnectomeImageLoader implements XmlIoBasicImgLoader< OpenConnectomeImageLoader >
 {
@@ -51,6 +53,10 @@ public class XmlIoOpenConnectomeImageLoader implements XmlIoBasicImgLoader< Open
 		final String baseUrl = elem.getChildText( "baseUrl" );
 		final String token = elem.getChildText( "token" );
 		final String mode = elem.getChildText( "mode" );
-		return new OpenConnectomeImageLoader( baseUrl, token, mode );
+		final OpenConnectomeImageLoader imgLoader = new OpenConnectomeImageLoader( baseUrl, token, mode );
+		final FetcherThreads fetcherThreads = FetcherThreads.fromXml( elem, OpenConnectomeImageLoader.DEFAULT_FETCHER_THREADS );
+		if ( !fetcherThreads.equals( OpenConnectomeImageLoader.DEFAULT_FETCHER_THREADS ) )
+			imgLoader.setFetcherThreads( fetcherThreads );
+		return imgLoader;
 	}
 }
@@ -28,6 +28,7 @@
  */
 package bdv.img.remote;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -49,7 +50,11 @@ import bdv.AbstractViewerSetupImgLoader;
 import bdv.ViewerImgLoader;
 import bdv.img.cache.CacheHints;
 import bdv.img.cache.CachedCellImg;
+import bdv.img.cache.DiskCachedArrayLoader;
+import bdv.img.cache.FetcherThreads;
 import bdv.img.cache.LoadingStrategy;
+import bdv.img.cache.PersistentBlockCache;
+import bdv.img.cache.SharedCellCacheService;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.img.cache.VolatileImgCells;
 import bdv.img.cache.VolatileImgCells.CellCache;
@@ -70,8 +75,22 @@ public class RemoteImageLoader implements ViewerImgLoader
 
 	protected VolatileGlobalCellCache cache;
 
+	/**
+	 * Default configuration of fetcher threads for this loader. For many concurrent requests
+	 * to a high-latency server, consider
+	 * {@link FetcherThreads#latencyBound(int, int)}.
+	 */
+	public static final FetcherThreads DEFAULT_FETCHER_THREADS = new FetcherThreads( 10 );
+
+	protected FetcherThreads fetcherThreads = DEFAULT_FETCHER_THREADS;
+
 	protected RemoteVolatileShortArrayLoader shortLoader;
 
+	/**
+	 * If non-null, used instead of {@link #shortLoader}.
+	 */
+	protected DiskCachedArrayLoader< VolatileShortArray > diskCachedLoader;
+
 	/**
 	 * TODO
 	 */
@@ -99,6 +118,16 @@ public class RemoteImageLoader implements ViewerImgLoader
 
 	private boolean isOpen = false;
 
+	/**
+	 * Shared cache to use, or {@code null} if this loader owns its cache.
+	 */
+	private SharedCellCacheService sharedCache = null;
+
+	/**
+	 * Namespace of this loader in {@link #sharedCache}.
+	 */
+	private int namespace = 0;
+
 	private void open() throws IOException
 	{
 		if ( ! isOpen )
@@ -116,11 +145,20 @@ public class RemoteImageLoader implements ViewerImgLoader
 						new InputStreamReader( url.openStream() ),
 						RemoteImageLoaderMetaData.class );
 				shortLoader = new RemoteVolatileShortArrayLoader( this );
-				cache = new VolatileGlobalCellCache(
-						metadata.maxNumTimepoints,
-						metadata.maxNumSetups,
-						metadata.maxNumLevels,
-						10 );
+				if ( sharedCache != null )
+				{
+					cache = sharedCache.getCache();
+					namespace = sharedCache.register( baseUrl );
+				}
+				else
+				{
+					cache = new VolatileGlobalCellCache(
+							metadata.maxNumTimepoints,
+							metadata.maxNumSetups,
+							metadata.maxNumLevels,
+							0 );
+					fetcherThreads.applyTo( cache );
+				}
 				cellsDimensions = metadata.createCellsDimensions();
 				for ( final int setupId : metadata.perSetupMipmapInfo.keySet() )
 					setupImgLoaders.put( setupId, new SetupImgLoader( setupId ) );
@@ -140,6 +178,37 @@ public class RemoteImageLoader implements ViewerImgLoader
 		}
 	}
 
+	/**
+	 * Clear the cache, or unregister from the shared cache (see
+	 * {@link #useSharedCache(SharedCellCacheService)}). Images that were
+	 * obtained from this loader before {@link #close()} will stop working.
+	 * Requesting images after {@link #close()} will cause the loader to be
+	 * opened again.
+	 */
+	public void close()
+	{
+		if ( isOpen )
+		{
+			synchronized ( this )
+			{
+				if ( !isOpen )
+					return;
+				isOpen = false;
+
+				if ( sharedCache != null )
+				{
+					sharedCache.unregister( namespace );
+					namespace = 0;
+				}
+				else
+				{
+					cache.clearCache();
+					cache.shutdownFetcherThreads();
+				}
+			}
+		}
+	}
+
 	@Override
 	public VolatileGlobalCellCache getCache()
 	{
@@ -147,6 +216,49 @@ public class RemoteImageLoader implements ViewerImgLoader
 		return cache;
 	}
 
+	/**
+	 * Configure the fetcher threads of the cache (see {@link FetcherThreads}).
+	 */
+	public synchronized void setFetcherThreads( final FetcherThreads fetcherThreads )
+	{
+		this.fetcherThreads = fetcherThreads;
+		if ( cache != null && sharedCache == null )
+			fetcherThreads.applyTo( cache );
+	}
+
+	public FetcherThreads getFetcherThreads()
+	{
+		return fetcherThreads;
+	}
+
+	/**
+	 * Load cells into the given shared cache instead of a cache owned by this
+	 * loader. Must be called before the loader is opened.
+	 */
+	public synchronized void useSharedCache( final SharedCellCacheService sharedCache )
+	{
+		if ( isOpen )
+			throw new IllegalStateException( "loader is already open" );
+		this.sharedCache = sharedCache;
+	}
+
+	/**
+	 * Keep fetched cells in a persistent local {@link PersistentBlockCache},
+	 * so that each cell is fetched over the network only once, also across
+	 * sessions. Images obtained before this call keep fetching directly.
+	 *
+	 * @param baseDirectory
+	 *            directory containing the disk caches of all datasets.
+	 * @param maxBytes
+	 *            size limit for the disk cache of this dataset.
+	 */
+	public void setDiskCache( final File baseDirectory, final long maxBytes ) throws IOException
+	{
+		tryopen();
+		final PersistentBlockCache diskCache = PersistentBlockCache.open( baseDirectory, baseUrl, maxBytes );
+		diskCachedLoader = new DiskCachedArrayLoader< VolatileShortArray >( shortLoader, diskCache );
+	}
+
 	public MipmapInfo getMipmapInfo( final int setupId )
 	{
 		tryopen();
@@ -213,7 +325,7 @@ public class RemoteImageLoader implements ViewerImgLoader
 
 		final int priority = mipmapInfo.getMaxLevel() - level;
 		final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
-		final CellCache< VolatileShortArray > c = cache.new VolatileCellCache< VolatileShortArray >( timepointId, setupId, level, cacheHints, shortLoader );
+		final CellCache< VolatileShortArray > c = cache.new VolatileCellCache< VolatileShortArray >( namespace, timepointId, setupId, level, cacheHints, diskCachedLoader != null ? diskCachedLoader : shortLoader );
 		final VolatileImgCells< VolatileShortArray > cells = new VolatileImgCells< VolatileShortArray >( c, new Fraction(), dimensions, cellDimensions );
 		final CachedCellImg< T, VolatileShortArray > img = new CachedCellImg< T, VolatileShortArray >( cells );
 		return img;
@@ -32,8 +32,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
 
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import bdv.img.cache.ArrayPool;
 import bdv.img.cache.CacheArrayLoader;
 
 public class RemoteVolatileShortArrayLoader implements CacheArrayLoader< VolatileShortArray >
@@ -52,7 +54,8 @@ public class RemoteVolatileShortArrayLoader implements CacheArrayLoader< Volatil
 	public VolatileShortArray loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
 		final int index = imgLoader.getCellIndex( timepoint, setup, level, min );
-		final short[] data = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		final ArrayPool pool = ArrayPool.getInstance();
+		final short[] data = pool.takeShorts( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
 		try
 		{
 			final URL url = new URL( String.format( "%s?p=cell/%d/%d/%d/%d/%d/%d/%d/%d/%d/%d",
@@ -68,18 +71,24 @@ public class RemoteVolatileShortArrayLoader implements CacheArrayLoader< Volatil
 					min[ 1 ],
 					min[ 2 ] ) );
 			final InputStream s = url.openStream();
-			final byte[] buf = new byte[ data.length * 2 ];
-			for ( int i = 0, l = s.read( buf, 0, buf.length ); l > 0; i += l, l = s.read( buf, i, buf.length - i ) );
-			for ( int i = 0, j = 0; i < data.length; ++i, j += 2 )
-				data[ i ] = ( short ) ( ( ( buf[ j ] & 0xff ) << 8 ) | ( buf[ j + 1 ] & 0xff ) );
+			final byte[] buf = pool.takeBytes( data.length * 2 );
+			int i = 0;
+			for ( int l = s.read( buf, 0, buf.length ); l > 0; i += l, l = s.read( buf, i, buf.length - i ) );
+			// pooled arrays are not zeroed
+			Arrays.fill( buf, i, buf.length, ( byte ) 0 );
+			for ( int k = 0, j = 0; k < data.length; ++k, j += 2 )
+				data[ k ] = ( short ) ( ( ( buf[ j ] & 0xff ) << 8 ) | ( buf[ j + 1 ] & 0xff ) );
+			pool.recycle( buf );
 			s.close();
 		}
 		catch ( final MalformedURLException e )
 		{
+			Arrays.fill( data, ( short ) 0 );
 			e.printStackTrace();
 		}
 		catch ( final IOException e )
 		{
+			Arrays.fill( data, ( short ) 0 );
 			e.printStackTrace();
 		}
 		return new VolatileShortArray( data, true );
@@ -40,6 +40,8 @@ import mpicbg.spim.data.generic.sequence.XmlIoBasicImgLoader;
 
 import org.jdom2.Element;
 
+import bdv.img.cache.FetcherThreads;
+
 @ImgLoaderIo( format = "bdv.remote", type = RemoteImageLoader.class )
 public class XmlIoRemoteImageLoader implements XmlIoBasicImgLoader< RemoteImageLoader >
 {
@@ -50,6 +52,7 @@ public class XmlIoRemoteImageLoader implements XmlIoBasicImgLoader< RemoteImageL
 		final Element elem = new Element( "ImageLoader" );
 		elem.setAttribute( IMGLOADER_FORMAT_ATTRIBUTE_NAME, "bdv.remote" );
 		elem.addContent( XmlHelpers.textElement( "baseUrl", imgLoader.baseUrl ) );
+		imgLoader.getFetcherThreads().toXml( elem, RemoteImageLoader.DEFAULT_FETCHER_THREADS );
 		return elem;
 	}
 
@@ -59,7 +62,11 @@ public class XmlIoRemoteImageLoader implements XmlIoBasicImgLoader< RemoteImageL
 		final String baseUrl = elem.getChildText( "baseUrl" );
 		try
 		{
-			return new RemoteImageLoader( baseUrl );
+			final RemoteImageLoader imgLoader = new RemoteImageLoader( baseUrl );
+			final FetcherThreads fetcherThreads = FetcherThreads.fromXml( elem, RemoteImageLoader.DEFAULT_FETCHER_THREADS );
+			if ( !fetcherThreads.equals( RemoteImageLoader.DEFAULT_FETCHER_THREADS ) )
+				imgLoader.setFetcherThreads( fetcherThreads );
+			return imgLoader;
 		}
 		catch ( final IOException e )
 		{
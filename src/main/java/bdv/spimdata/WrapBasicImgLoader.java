@@ -39,9 +39,12 @@ import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.Volatile;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
 import bdv.ViewerImgLoader;
 import bdv.ViewerSetupImgLoader;
 import bdv.img.cache.Cache;
+import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.hdf5.TypedHdf5ImageLoader;
 
 public class WrapBasicImgLoader implements ViewerImgLoader
 {
@@ -55,6 +58,10 @@ public class WrapBasicImgLoader implements ViewerImgLoader
 	 * or {@link ViewerSetupImgLoader#getVolatileImageType()} on the wrapper
 	 * will throw an {@link UnsupportedOperationException}.
 	 *
+	 * An {@link Hdf5ImageLoader} with setups that are not
+	 * {@link UnsignedShortType} is replaced by a {@link TypedHdf5ImageLoader},
+	 * which is a {@link ViewerImgLoader} for all of them.
+	 *
 	 * @param spimData
 	 * @return {@code true} if wrapping was necessary, {@code false} if
 	 *         {@code spimData} had a {@link ViewerImgLoader} already.
@@ -69,7 +76,11 @@ public class WrapBasicImgLoader implements ViewerImgLoader
 			return true;
 		}
 		else
+		{
+			if ( imgLoader instanceof Hdf5ImageLoader && TypedHdf5ImageLoader.isNecessary( ( Hdf5ImageLoader ) imgLoader, seq.getViewSetups().keySet() ) )
+				setImgLoader( seq, new TypedHdf5ImageLoader( ( Hdf5ImageLoader ) imgLoader ) );
 			return false;
+		}
 	}
 
 	public static boolean removeWrapperIfPresent( final AbstractSpimData< ? > spimData )
@@ -81,6 +92,11 @@ public class WrapBasicImgLoader implements ViewerImgLoader
 			setImgLoader( seq, ( ( WrapBasicImgLoader ) imgLoader ).source );
 			return true;
 		}
+		else if ( imgLoader instanceof TypedHdf5ImageLoader )
+		{
+			setImgLoader( seq, ( ( TypedHdf5ImageLoader ) imgLoader ).getSource() );
+			return true;
+		}
 		else
 			return false;
 	}
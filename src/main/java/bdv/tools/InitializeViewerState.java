@@ -36,11 +36,15 @@ import net.imglib2.histogram.DiscreteFrequencyDistribution;
 import net.imglib2.histogram.Histogram1d;
 import net.imglib2.histogram.Real1dBinMapper;
 import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.util.LinAlgHelpers;
 import net.imglib2.view.Views;
+import bdv.AbstractSpimSource;
+import bdv.CellStatistics;
 import bdv.tools.brightness.MinMaxGroup;
 import bdv.tools.brightness.SetupAssignments;
+import bdv.tools.transformation.TransformedSource;
 import bdv.util.Affine3DHelpers;
 import bdv.viewer.Source;
 import bdv.viewer.ViewerPanel;
@@ -162,7 +166,13 @@ public class InitializeViewerState
 	}
 
 	/**
-	 * TODO
+	 * Set the display range of the first min-max group to the range between
+	 * the given quantiles of the current source. If the source has integer
+	 * pixels and {@link CellStatistics} with a histogram (see
+	 * {@link AbstractSpimSource#getCellStatistics(int, int)}), these are used
+	 * and no pixel data is read. Otherwise, the center slice of the lowest
+	 * resolution of an {@link UnsignedShortType} source is read. (The min-max
+	 * group has integer bounds, so other sources are left alone.)
 	 *
 	 * @param cumulativeMinCutoff
 	 * @param cumulativeMaxCutoff
@@ -175,6 +185,16 @@ public class InitializeViewerState
 		final int timepoint = state.getCurrentTimepoint();
 		if ( !source.isPresent( timepoint ) )
 			return;
+
+		final CellStatistics statistics = getCellStatistics( source, timepoint, source.getNumMipmapLevels() - 1 );
+		if ( statistics != null && statistics.getHistogram() != null && source.getType() instanceof IntegerType )
+		{
+			final MinMaxGroup minmax = setupAssignments.getMinMaxGroups().get( 0 );
+			minmax.getMinBoundedValue().setCurrentValue( ( int ) Math.floor( statistics.getQuantile( cumulativeMinCutoff ) ) );
+			minmax.getMaxBoundedValue().setCurrentValue( ( int ) Math.ceil( statistics.getQuantile( cumulativeMaxCutoff ) ) );
+			return;
+		}
+
 		if ( !UnsignedShortType.class.isInstance( source.getType() ) )
 			return;
 		@SuppressWarnings( "unchecked" )
@@ -203,4 +223,19 @@ public class InitializeViewerState
 		minmax.getMinBoundedValue().setCurrentValue( min );
 		minmax.getMaxBoundedValue().setCurrentValue( max );
 	}
+
+	/**
+	 * Get {@link CellStatistics} of a source, which may be wrapped in
+	 * {@link TransformedSource}s.
+	 *
+	 * @return statistics, or {@code null} if they are not available.
+	 */
+	private static CellStatistics getCellStatistics( Source< ? > source, final int timepoint, final int level )
+	{
+		while ( source instanceof TransformedSource )
+			source = ( ( TransformedSource< ? > ) source ).getWrappedSource();
+		if ( source instanceof AbstractSpimSource )
+			return ( ( AbstractSpimSource< ? > ) source ).getCellStatistics( timepoint, level );
+		return null;
+	}
 }
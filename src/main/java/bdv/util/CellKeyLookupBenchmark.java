@@ -0,0 +1,283 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.util;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bdv.img.cache.ConcurrentLongHashMap;
+import bdv.img.cache.VolatileGlobalCellCache;
+
+/**
+ * Measure the throughput of cell lookups by (timepoint, setup, level, index):
+ * the previous path, which allocates a key object for each lookup and
+ * searches a {@link ConcurrentHashMap}, and the current
+ * {@link VolatileGlobalCellCache} path, which maps (timepoint, setup, level)
+ * to a view-level id, packs it with the index into a {@code long}, and
+ * searches a {@link ConcurrentLongHashMap}.
+ * <p>
+ * All cells are in the map, so every lookup hits. Lookups visit the cells in
+ * random order and are run on {@code numThreads} threads at the same time.
+ * Each variant is repeated until it has run for at least a second, after a
+ * warm-up of the same length. Lookups/s summed over all threads are printed.
+ * <p>
+ * Usage: {@code CellKeyLookupBenchmark [numThreads [numCellsPerLevel]]}
+ */
+public class CellKeyLookupBenchmark
+{
+	private static final long RUN_NANOS = 1000000000l;
+
+	private static final int numTimepoints = 10;
+
+	private static final int numSetups = 4;
+
+	private static final int numLevels = 4;
+
+	/**
+	 * The key of the previous {@link VolatileGlobalCellCache} lookup path.
+	 */
+	private static final class Key
+	{
+		private final int timepoint;
+
+		private final int setup;
+
+		private final int level;
+
+		private final int index;
+
+		private final int hashcode;
+
+		public Key( final int timepoint, final int setup, final int level, final int index )
+		{
+			this.timepoint = timepoint;
+			this.setup = setup;
+			this.level = level;
+			this.index = index;
+
+			final long value = ( ( index * numLevels + level ) * numSetups + setup ) * numTimepoints + timepoint;
+			hashcode = ( int ) ( value ^ ( value >>> 32 ) );
+		}
+
+		@Override
+		public boolean equals( final Object other )
+		{
+			if ( this == other )
+				return true;
+			if ( !( other instanceof Key ) )
+				return false;
+			final Key that = ( Key ) other;
+			return ( this.timepoint == that.timepoint ) && ( this.setup == that.setup ) && ( this.level == that.level ) && ( this.index == that.index );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashcode;
+		}
+	}
+
+	/**
+	 * Gives access to the view-level ids and cell keys of
+	 * {@link VolatileGlobalCellCache}.
+	 */
+	private static final class CellKeys extends VolatileGlobalCellCache
+	{
+		public CellKeys()
+		{
+			super( numTimepoints, numSetups, numLevels, 0 );
+		}
+
+		public long key( final int timepoint, final int setup, final int level, final int index )
+		{
+			return cellKey( getViewLevelId( timepoint, setup, level ), index );
+		}
+	}
+
+	private interface Variant
+	{
+		/**
+		 * Look up the cells with the given coordinates.
+		 *
+		 * @return the number of cells found.
+		 */
+		public int lookup( int[] timepoints, int[] setups, int[] levels, int[] indices );
+	}
+
+	public static void benchmark( final int numThreads, final int numCellsPerLevel )
+	{
+		final int numCells = numTimepoints * numSetups * numLevels * numCellsPerLevel;
+		final int[] timepoints = new int[ numCells ];
+		final int[] setups = new int[ numCells ];
+		final int[] levels = new int[ numCells ];
+		final int[] indices = new int[ numCells ];
+		int i = 0;
+		for ( int t = 0; t < numTimepoints; ++t )
+			for ( int s = 0; s < numSetups; ++s )
+				for ( int l = 0; l < numLevels; ++l )
+					for ( int c = 0; c < numCellsPerLevel; ++c )
+					{
+						timepoints[ i ] = t;
+						setups[ i ] = s;
+						levels[ i ] = l;
+						indices[ i ] = c;
+						++i;
+					}
+
+		final Object cell = new Object();
+		final ConcurrentHashMap< Key, Object > keyMap = new ConcurrentHashMap< Key, Object >();
+		final CellKeys cellKeys = new CellKeys();
+		final ConcurrentLongHashMap< Object > longMap = new ConcurrentLongHashMap< Object >();
+		for ( i = 0; i < numCells; ++i )
+		{
+			keyMap.put( new Key( timepoints[ i ], setups[ i ], levels[ i ], indices[ i ] ), cell );
+			longMap.put( cellKeys.key( timepoints[ i ], setups[ i ], levels[ i ], indices[ i ] ), cell );
+		}
+
+		// visit cells in random order
+		final Random random = new Random( 1 );
+		for ( i = numCells - 1; i > 0; --i )
+		{
+			final int j = random.nextInt( i + 1 );
+			swap( timepoints, i, j );
+			swap( setups, i, j );
+			swap( levels, i, j );
+			swap( indices, i, j );
+		}
+
+		final Variant[] variants = new Variant[] {
+				new Variant()
+				{
+					@Override
+					public int lookup( final int[] timepoints, final int[] setups, final int[] levels, final int[] indices )
+					{
+						int found = 0;
+						for ( int i = 0; i < timepoints.length; ++i )
+							if ( keyMap.get( new Key( timepoints[ i ], setups[ i ], levels[ i ], indices[ i ] ) ) != null )
+								++found;
+						return found;
+					}
+
+					@Override
+					public String toString()
+					{
+						return "ConcurrentHashMap<Key>";
+					}
+				},
+				new Variant()
+				{
+					@Override
+					public int lookup( final int[] timepoints, final int[] setups, final int[] levels, final int[] indices )
+					{
+						int found = 0;
+						for ( int i = 0; i < timepoints.length; ++i )
+							if ( longMap.get( cellKeys.key( timepoints[ i ], setups[ i ], levels[ i ], indices[ i ] ) ) != null )
+								++found;
+						return found;
+					}
+
+					@Override
+					public String toString()
+					{
+						return "ConcurrentLongHashMap";
+					}
+				}
+		};
+
+		for ( final Variant variant : variants )
+		{
+			run( variant, numThreads, timepoints, setups, levels, indices );
+			final double lookupsPerSecond = run( variant, numThreads, timepoints, setups, levels, indices );
+			System.out.println( String.format( "%d cells, %2d threads, %-24s: %8.1f M lookups/s", numCells, numThreads, variant, lookupsPerSecond / 1e6 ) );
+		}
+	}
+
+	private static void swap( final int[] array, final int i, final int j )
+	{
+		final int tmp = array[ i ];
+		array[ i ] = array[ j ];
+		array[ j ] = tmp;
+	}
+
+	/**
+	 * @return lookups per second, summed over all threads.
+	 */
+	private static double run( final Variant variant, final int numThreads, final int[] timepoints, final int[] setups, final int[] levels, final int[] indices )
+	{
+		final long[] numLookups = new long[ numThreads ];
+		final Thread[] threads = new Thread[ numThreads ];
+		for ( int t = 0; t < numThreads; ++t )
+		{
+			final int thread = t;
+			threads[ t ] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					long n = 0;
+					final long t0 = System.nanoTime();
+					do
+					{
+						if ( variant.lookup( timepoints, setups, levels, indices ) != timepoints.length )
+							throw new IllegalStateException( "cells missing from the map" );
+						n += timepoints.length;
+					}
+					while ( System.nanoTime() - t0 < RUN_NANOS );
+					numLookups[ thread ] = n;
+				}
+			};
+		}
+		final long t0 = System.nanoTime();
+		for ( final Thread thread : threads )
+			thread.start();
+		for ( final Thread thread : threads )
+		{
+			try
+			{
+				thread.join();
+			}
+			catch ( final InterruptedException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+		final long t = System.nanoTime() - t0;
+		long n = 0;
+		for ( final long l : numLookups )
+			n += l;
+		return ( double ) n / t * 1e9;
+	}
+
+	public static void main( final String[] args )
+	{
+		final int numThreads = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 1;
+		final int numCellsPerLevel = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 1000;
+		benchmark( numThreads, numCellsPerLevel );
+	}
+}
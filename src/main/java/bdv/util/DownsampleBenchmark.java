@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imglib2.RandomAccess;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import bdv.export.DownsampleKernel;
+
+/**
+ * Measure the throughput of averaging {@link UnsignedShortType} blocks by 2 in
+ * each dimension: the previous per-pixel path (accumulate
+ * {@code getRealDouble()} of a {@link RandomAccess} into a {@code double[]},
+ * then {@code setReal()} the averages), the {@link DownsampleKernel} reading
+ * the block through a {@link RandomAccess} as the export does, and the
+ * {@link DownsampleKernel} on primitive arrays alone.
+ * <p>
+ * Each variant is repeated until it has run for at least a second, after a
+ * warm-up of the same length. Source elements/s are printed.
+ * <p>
+ * Usage: {@code DownsampleBenchmark [maxBlockSize]}
+ */
+public class DownsampleBenchmark
+{
+	private static final long RUN_NANOS = 1000000000l;
+
+	private static final int[] factor = new int[] { 2, 2, 2 };
+
+	private interface Variant
+	{
+		public void downsample( ArrayImg< UnsignedShortType, ShortArray > source, ArrayImg< UnsignedShortType, ShortArray > target );
+	}
+
+	public static void benchmark( final int maxBlockSize )
+	{
+		final DownsampleKernel kernel = new DownsampleKernel();
+		final Variant[] variants = new Variant[] {
+				new Variant()
+				{
+					private double[] accumulator = new double[ 0 ];
+
+					@Override
+					public void downsample( final ArrayImg< UnsignedShortType, ShortArray > source, final ArrayImg< UnsignedShortType, ShortArray > target )
+					{
+						final int ox = ( int ) target.dimension( 0 );
+						final int oy = ( int ) target.dimension( 1 );
+						final int sx = ( int ) source.dimension( 0 );
+						final int sy = ( int ) source.dimension( 1 );
+						final int sz = ( int ) source.dimension( 2 );
+						final int numPixels = ( int ) target.size();
+						if ( accumulator.length < numPixels )
+							accumulator = new double[ numPixels ];
+						Arrays.fill( accumulator, 0, numPixels, 0 );
+						final RandomAccess< UnsignedShortType > in = source.randomAccess();
+						int i = 0;
+						for ( int z = 0, bz = 0; z < sz; ++z )
+						{
+							for ( int y = 0, by = 0; y < sy; ++y )
+							{
+								for ( int x = 0, bx = 0; x < sx; ++x )
+								{
+									accumulator[ i ] += in.get().getRealDouble();
+									in.fwd( 0 );
+									if ( ++bx == factor[ 0 ] )
+									{
+										bx = 0;
+										++i;
+									}
+								}
+								in.move( -sx, 0 );
+								in.fwd( 1 );
+								if ( ++by == factor[ 1 ] )
+									by = 0;
+								else
+									i -= ox;
+							}
+							in.move( -sy, 1 );
+							in.fwd( 2 );
+							if ( ++bz == factor[ 2 ] )
+								bz = 0;
+							else
+								i -= ox * oy;
+						}
+						final double scale = 1.0 / ( factor[ 0 ] * factor[ 1 ] * factor[ 2 ] );
+						int j = 0;
+						for ( final UnsignedShortType t : target )
+							t.setReal( accumulator[ j++ ] * scale );
+					}
+
+					@Override
+					public String toString()
+					{
+						return "per-pixel";
+					}
+				},
+				new Variant()
+				{
+					@Override
+					public void downsample( final ArrayImg< UnsignedShortType, ShortArray > source, final ArrayImg< UnsignedShortType, ShortArray > target )
+					{
+						final long[] outDim = new long[ 3 ];
+						target.dimensions( outDim );
+						kernel.downsample( source.randomAccess(), new long[ 3 ], outDim, factor, target.update( null ) );
+					}
+
+					@Override
+					public String toString()
+					{
+						return "kernel";
+					}
+				},
+				new Variant()
+				{
+					@Override
+					public void downsample( final ArrayImg< UnsignedShortType, ShortArray > source, final ArrayImg< UnsignedShortType, ShortArray > target )
+					{
+						final int[] outDim = new int[] { ( int ) target.dimension( 0 ), ( int ) target.dimension( 1 ), ( int ) target.dimension( 2 ) };
+						kernel.downsample( source.update( null ).getCurrentStorageArray(), target.update( null ).getCurrentStorageArray(), outDim, factor );
+					}
+
+					@Override
+					public String toString()
+					{
+						return "kernel (arrays)";
+					}
+				}
+		};
+
+		final Random random = new Random( 1 );
+		for ( int size = 32; size * size * size <= maxBlockSize; size *= 2 )
+		{
+			final short[] data = new short[ size * size * size ];
+			for ( int i = 0; i < data.length; ++i )
+				data[ i ] = ( short ) random.nextInt( 65536 );
+			final ArrayImg< UnsignedShortType, ShortArray > source = ArrayImgs.unsignedShorts( data, size, size, size );
+			final ArrayImg< UnsignedShortType, ShortArray > target = ArrayImgs.unsignedShorts( size / 2, size / 2, size / 2 );
+			for ( final Variant variant : variants )
+			{
+				run( variant, source, target );
+				final double elementsPerSecond = run( variant, source, target );
+				System.out.println( String.format( "%4d^3 %-16s: %8.1f M elements/s", size, variant, elementsPerSecond / 1e6 ) );
+			}
+		}
+	}
+
+	/**
+	 * @return downsampled source elements per second.
+	 */
+	private static double run( final Variant variant, final ArrayImg< UnsignedShortType, ShortArray > source, final ArrayImg< UnsignedShortType, ShortArray > target )
+	{
+		long n = 0;
+		final long t0 = System.nanoTime();
+		long t;
+		do
+		{
+			variant.downsample( source, target );
+			++n;
+			t = System.nanoTime() - t0;
+		}
+		while ( t < RUN_NANOS );
+		return ( double ) n * source.size() / t * 1e9;
+	}
+
+	public static void main( final String[] args )
+	{
+		final int maxBlockSize = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 256 * 256 * 256;
+		benchmark( maxBlockSize );
+	}
+}
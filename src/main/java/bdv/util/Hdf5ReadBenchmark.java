@@ -0,0 +1,236 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import net.imglib2.Dimensions;
+import bdv.img.cache.ArrayPool;
+import bdv.img.hdf5.Hdf5ImageLoader;
+import bdv.img.hdf5.Hdf5VolatileShortArrayLoader;
+import bdv.spimdata.SequenceDescriptionMinimal;
+import bdv.spimdata.XmlIoSpimDataMinimal;
+
+/**
+ * Measure how cell read throughput of a bdv hdf5 dataset scales with the
+ * number of reading threads, reading through the HDF5 library and reading
+ * from the memory-mapped file (see
+ * {@link Hdf5ImageLoader#setMemoryMapped(boolean)}). The HDF5 library
+ * serializes all calls, so only the memory-mapped reads are expected to scale.
+ * <p>
+ * For each thread count 1, 2, 4, ..., up to the given maximum, and for each
+ * way of reading, the dataset is opened anew and the cells of one mipmap level
+ * of the first timepoint are read. Cells/s and MB/s are printed.
+ * Each thread count is run twice, first without and then with recycling of
+ * the loaded arrays through the {@link ArrayPool}, and the bytes allocated by
+ * the reading threads (if the JVM can measure it) and the garbage collection
+ * time are printed for both. The benchmark recycles each array right after
+ * reading it, so the pooled run shows the best case. The cache recycles only
+ * the arrays of cells evicted in byte-budgeted mode, and only a few frames
+ * after eviction (see {@link bdv.img.cache.VolatileGlobalCellCache#setRecycleDelayFrames(int)}).
+ * So it saves less, depending on how many cells are evicted per frame and on
+ * the size of the {@link ArrayPool}.
+ * To measure the disk and not the operating system page cache, use a dataset
+ * larger than memory or drop the page cache between runs.
+ * <p>
+ * Usage: {@code Hdf5ReadBenchmark <xml> [maxThreads] [level]}
+ */
+public class Hdf5ReadBenchmark
+{
+	public static void benchmark( final String xmlFilename, final int maxThreads, final int level ) throws SpimDataException, InterruptedException
+	{
+		for ( int numThreads = 1; numThreads <= maxThreads; numThreads *= 2 )
+		{
+			for ( final boolean mapped : new boolean[] { false, true } )
+			{
+				final SequenceDescriptionMinimal seq = new XmlIoSpimDataMinimal().load( xmlFilename ).getSequenceDescription();
+				if ( !( seq.getImgLoader() instanceof Hdf5ImageLoader ) )
+				{
+					System.err.println( "not a hdf5 dataset" );
+					return;
+				}
+				final Hdf5ImageLoader imgLoader = ( Hdf5ImageLoader ) seq.getImgLoader();
+				imgLoader.setMemoryMapped( mapped );
+				final int timepointId = seq.getTimePoints().getTimePointsOrdered().get( 0 ).getId();
+				final List< Cell > cells = new ArrayList< Cell >();
+				for ( final BasicViewSetup setup : seq.getViewSetupsOrdered() )
+					addCells( imgLoader, timepointId, setup.getId(), level, cells );
+
+				for ( final boolean pooled : new boolean[] { false, true } )
+				{
+					final ArrayPool pool = ArrayPool.getInstance();
+					pool.clear();
+					final long maxPooledBytes = pool.getMaxPooledBytes();
+					if ( !pooled )
+						pool.setMaxPooledBytes( 0 );
+					final long gcTime0 = getGcTimeMillis();
+					final long[] result = readCells( imgLoader.getShortArrayLoader(), cells, numThreads );
+					final long gcTime = getGcTimeMillis() - gcTime0;
+					pool.setMaxPooledBytes( maxPooledBytes );
+
+					final double seconds = result[ 1 ] / 1e9;
+					System.out.println( String.format( "%3d threads, %-6s %-8s: %8.1f cells/s %8.1f MB/s (%d cells in %.2f s), allocated %s, gc %d ms",
+							numThreads, mapped ? "mapped" : "jhdf5", pooled ? "pooled" : "unpooled", cells.size() / seconds, result[ 0 ] / seconds / 1e6, cells.size(), seconds,
+							result[ 2 ] < 0 ? "n/a" : String.format( "%.1f MB", result[ 2 ] / 1e6 ), gcTime ) );
+				}
+				imgLoader.close();
+			}
+		}
+	}
+
+	private static long getGcTimeMillis()
+	{
+		long time = 0;
+		for ( final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+			time += Math.max( 0, gc.getCollectionTime() );
+		return time;
+	}
+
+	/**
+	 * @return bytes allocated by the current thread so far, or -1 if the JVM
+	 *         does not support measuring it.
+	 */
+	private static long getAllocatedBytes()
+	{
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if ( bean instanceof com.sun.management.ThreadMXBean )
+		{
+			final com.sun.management.ThreadMXBean b = ( com.sun.management.ThreadMXBean ) bean;
+			if ( b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled() )
+				return b.getThreadAllocatedBytes( Thread.currentThread().getId() );
+		}
+		return -1;
+	}
+
+	private static class Cell
+	{
+		final int timepoint;
+
+		final int setup;
+
+		final int level;
+
+		final int[] dimensions;
+
+		final long[] min;
+
+		Cell( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min )
+		{
+			this.timepoint = timepoint;
+			this.setup = setup;
+			this.level = level;
+			this.dimensions = dimensions;
+			this.min = min;
+		}
+	}
+
+	private static void addCells( final Hdf5ImageLoader imgLoader, final int timepoint, final int setup, final int level, final List< Cell > cells )
+	{
+		final Hdf5ImageLoader.TypedSetupImgLoader< ?, ?, ? > setupImgLoader = imgLoader.getTypedSetupImgLoader( setup );
+		if ( level >= setupImgLoader.numMipmapLevels() )
+			return;
+		final Dimensions size = setupImgLoader.getImageSize( timepoint, level );
+		if ( size == null )
+			return;
+		final int[] cellDimensions = setupImgLoader.getMipmapInfo().getSubdivisions()[ level ];
+		final long[] min = new long[ 3 ];
+		for ( min[ 2 ] = 0; min[ 2 ] < size.dimension( 2 ); min[ 2 ] += cellDimensions[ 2 ] )
+			for ( min[ 1 ] = 0; min[ 1 ] < size.dimension( 1 ); min[ 1 ] += cellDimensions[ 1 ] )
+				for ( min[ 0 ] = 0; min[ 0 ] < size.dimension( 0 ); min[ 0 ] += cellDimensions[ 0 ] )
+				{
+					final int[] dimensions = new int[ 3 ];
+					for ( int d = 0; d < 3; ++d )
+						dimensions[ d ] = ( int ) Math.min( cellDimensions[ d ], size.dimension( d ) - min[ d ] );
+					cells.add( new Cell( timepoint, setup, level, dimensions, min.clone() ) );
+				}
+	}
+
+	/**
+	 * @return { bytes read, elapsed nanoseconds, bytes allocated by the
+	 *         reading threads (or -1 if unknown) }
+	 */
+	private static long[] readCells( final Hdf5VolatileShortArrayLoader loader, final List< Cell > cells, final int numThreads ) throws InterruptedException
+	{
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong allocated = new AtomicLong();
+		final ArrayPool pool = ArrayPool.getInstance();
+		final Thread[] threads = new Thread[ numThreads ];
+		for ( int i = 0; i < numThreads; ++i )
+			threads[ i ] = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final long allocated0 = getAllocatedBytes();
+					try
+					{
+						for ( int c = next.getAndIncrement(); c < cells.size(); c = next.getAndIncrement() )
+						{
+							final Cell cell = cells.get( c );
+							pool.recycle( loader.loadArray( cell.timepoint, cell.setup, cell.level, cell.dimensions, cell.min ) );
+							bytes.addAndGet( 2l * cell.dimensions[ 0 ] * cell.dimensions[ 1 ] * cell.dimensions[ 2 ] );
+						}
+					}
+					catch ( final InterruptedException e )
+					{}
+					if ( allocated0 < 0 || allocated.get() < 0 )
+						allocated.set( -1 );
+					else
+						allocated.addAndGet( getAllocatedBytes() - allocated0 );
+				}
+			} );
+		final long t0 = System.nanoTime();
+		for ( final Thread thread : threads )
+			thread.start();
+		for ( final Thread thread : threads )
+			thread.join();
+		final long t1 = System.nanoTime();
+		return new long[] { bytes.get(), t1 - t0, allocated.get() };
+	}
+
+	public static void main( final String[] args ) throws Exception
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "usage: Hdf5ReadBenchmark <xml> [maxThreads] [level]" );
+			return;
+		}
+		final int maxThreads = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : Runtime.getRuntime().availableProcessors();
+		final int level = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 0;
+		benchmark( args[ 0 ], maxThreads, level );
+	}
+}
@@ -58,7 +58,7 @@ public class PrintSequenceMipmapInfo
 			{
 				final int setupId = setup.getId();
 				System.out.println( "setup " + setupId );
-				final int numLevels = imgLoader.getSetupImgLoader( setupId ).numMipmapLevels();
+				final int numLevels = imgLoader.getTypedSetupImgLoader( setupId ).numMipmapLevels();
 				final ViewRegistration reg = spimData.getViewRegistrations().getViewRegistration( timepointId, setupId );
 				final AffineTransform3D model = reg.getModel();
 				final double[] scale = new double[ 3 ];
@@ -69,7 +69,7 @@ public class PrintSequenceMipmapInfo
 				System.out.println( "    normalized voxel scale:" );
 				for ( int level = 0; level < numLevels; ++level )
 				{
-					final MipmapInfo mipmapInfo = imgLoader.getSetupImgLoader( setupId ).getMipmapInfo();
+					final MipmapInfo mipmapInfo = imgLoader.getTypedSetupImgLoader( setupId ).getMipmapInfo();
 					final double[] res = mipmapInfo.getResolutions()[ level ];
 					final double[] voxelScale = new double[ 3 ];
 					for ( int d = 0; d < 3; ++d )
@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.util;
+
+import java.util.Random;
+
+import bdv.img.hdf5.UnsignedShortToFloat;
+
+/**
+ * Measure the throughput of unsigned 16-bit to float conversion for blocks of
+ * different sizes: the previous path (HDF5 converts signed shorts to float,
+ * then the sign is fixed in a second pass over the float array), the
+ * single-threaded {@link UnsignedShortToFloat} loop, and the same loop split
+ * across all processors.
+ * <p>
+ * Each variant is repeated until it has run for at least a second, after a
+ * warm-up of the same length so that the JIT compiler has compiled (and
+ * vectorized) the loops. Elements/s are printed.
+ * <p>
+ * Usage: {@code UnsignedShortToFloatBenchmark [maxBlockSize]}
+ */
+public class UnsignedShortToFloatBenchmark
+{
+	private static final long RUN_NANOS = 1000000000l;
+
+	private interface Conversion
+	{
+		public void convert( short[] src, float[] dst );
+	}
+
+	public static void benchmark( final int maxBlockSize )
+	{
+		final int numProcessors = Runtime.getRuntime().availableProcessors();
+		final Conversion[] conversions = new Conversion[] {
+				new Conversion()
+				{
+					@Override
+					public void convert( final short[] src, final float[] dst )
+					{
+						for ( int i = 0; i < src.length; ++i )
+							dst[ i ] = src[ i ];
+						for ( int i = 0; i < dst.length; ++i )
+							dst[ i ] = ( ( short ) dst[ i ] ) & 0xffff;
+					}
+
+					@Override
+					public String toString()
+					{
+						return "two-pass";
+					}
+				},
+				new Conversion()
+				{
+					@Override
+					public void convert( final short[] src, final float[] dst )
+					{
+						UnsignedShortToFloat.convert( src, dst, 0, src.length );
+					}
+
+					@Override
+					public String toString()
+					{
+						return "serial";
+					}
+				},
+				new Conversion()
+				{
+					@Override
+					public void convert( final short[] src, final float[] dst )
+					{
+						final int threshold = UnsignedShortToFloat.getParallelThreshold();
+						UnsignedShortToFloat.setParallelThreshold( 0 );
+						UnsignedShortToFloat.convert( src, dst, src.length );
+						UnsignedShortToFloat.setParallelThreshold( threshold );
+					}
+
+					@Override
+					public String toString()
+					{
+						return String.format( "parallel (%d)", numProcessors );
+					}
+				}
+		};
+
+		final Random random = new Random( 1 );
+		for ( int size = 32; size * size * size <= maxBlockSize; size *= 2 )
+		{
+			final int numElements = size * size * size;
+			final short[] src = new short[ numElements ];
+			for ( int i = 0; i < numElements; ++i )
+				src[ i ] = ( short ) random.nextInt( 65536 );
+			final float[] dst = new float[ numElements ];
+			for ( final Conversion conversion : conversions )
+			{
+				run( conversion, src, dst );
+				final double elementsPerSecond = run( conversion, src, dst );
+				System.out.println( String.format( "%4d^3 %-14s: %8.1f M elements/s", size, conversion, elementsPerSecond / 1e6 ) );
+			}
+		}
+	}
+
+	/**
+	 * @return converted elements per second.
+	 */
+	private static double run( final Conversion conversion, final short[] src, final float[] dst )
+	{
+		long n = 0;
+		final long t0 = System.nanoTime();
+		long t;
+		do
+		{
+			conversion.convert( src, dst );
+			++n;
+			t = System.nanoTime() - t0;
+		}
+		while ( t < RUN_NANOS );
+		return ( double ) n * src.length / t * 1e9;
+	}
+
+	public static void main( final String[] args )
+	{
+		final int maxBlockSize = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 256 * 256 * 256;
+		benchmark( maxBlockSize );
+	}
+}
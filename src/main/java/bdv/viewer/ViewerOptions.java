@@ -31,6 +31,7 @@ package bdv.viewer;
 import org.scijava.ui.behaviour.io.InputTriggerConfig;
 
 import bdv.BehaviourTransformEventHandler3D;
+import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.viewer.animate.MessageOverlayAnimator;
 import bdv.viewer.render.AccumulateProjector;
 import bdv.viewer.render.AccumulateProjectorARGB;
@@ -184,6 +185,40 @@ public class ViewerOptions
 		return this;
 	}
 
+	/**
+	 * Set the byte budget for loaded cell data in the
+	 * {@link VolatileGlobalCellCache}. When a budget is set, loaded cells are
+	 * evicted explicitly when the budget is exceeded, instead of being held by
+	 * soft references.
+	 *
+	 * @param b
+	 *            byte budget for loaded cell data. If &le; 0, loaded cells are
+	 *            held by soft references.
+	 * @see VolatileGlobalCellCache#setMaxCacheSizeInBytes(long)
+	 */
+	public ViewerOptions maxCacheSizeInBytes( final long b )
+	{
+		values.maxCacheSizeInBytes = b;
+		return this;
+	}
+
+	/**
+	 * Set the size limit for the off-heap tier of the
+	 * {@link VolatileGlobalCellCache}. Cells evicted because the
+	 * {@link #maxCacheSizeInBytes(long) byte budget} is exceeded are kept in
+	 * direct memory up to this limit.
+	 *
+	 * @param b
+	 *            maximum amount of direct memory for evicted cells. If &le; 0,
+	 *            the off-heap tier is disabled.
+	 * @see VolatileGlobalCellCache#setMaxOffHeapCacheSizeInBytes(long)
+	 */
+	public ViewerOptions maxOffHeapCacheSizeInBytes( final long b )
+	{
+		values.maxOffHeapCacheSizeInBytes = b;
+		return this;
+	}
+
 	/**
 	 * Read-only {@link ViewerOptions} values.
 	 */
@@ -211,6 +246,10 @@ public class ViewerOptions
 
 		private InputTriggerConfig inputTriggerConfig = null;
 
+		private long maxCacheSizeInBytes = -1;
+
+		private long maxOffHeapCacheSizeInBytes = -1;
+
 		public ViewerOptions optionsFromValues()
 		{
 			return new ViewerOptions().
@@ -224,7 +263,9 @@ public class ViewerOptions
 				msgOverlay( msgOverlay ).
 				transformEventHandlerFactory( transformEventHandlerFactory ).
 				accumulateProjectorFactory( accumulateProjectorFactory ).
-				inputTriggerConfig( inputTriggerConfig );
+				inputTriggerConfig( inputTriggerConfig ).
+				maxCacheSizeInBytes( maxCacheSizeInBytes ).
+				maxOffHeapCacheSizeInBytes( maxOffHeapCacheSizeInBytes );
 		}
 
 		public int getWidth()
@@ -281,5 +322,15 @@ public class ViewerOptions
 		{
 			return inputTriggerConfig;
 		}
+
+		public long getMaxCacheSizeInBytes()
+		{
+			return maxCacheSizeInBytes;
+		}
+
+		public long getMaxOffHeapCacheSizeInBytes()
+		{
+			return maxOffHeapCacheSizeInBytes;
+		}
 	}
 }
@@ -63,6 +63,7 @@ import javax.swing.event.ChangeListener;
 import org.jdom2.Element;
 
 import bdv.img.cache.Cache;
+import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.util.Affine3DHelpers;
 import bdv.util.InvokeOnEDT;
 import bdv.util.Prefs;
@@ -265,6 +266,15 @@ public class ViewerPanel extends JPanel implements OverlayRenderer, TransformLis
 		display.addOverlayRenderer( renderTarget );
 		display.addOverlayRenderer( this );
 
+		if ( cache instanceof VolatileGlobalCellCache )
+		{
+			final VolatileGlobalCellCache c = ( VolatileGlobalCellCache ) cache;
+			if ( options.getMaxCacheSizeInBytes() > 0 )
+				c.setMaxCacheSizeInBytes( options.getMaxCacheSizeInBytes() );
+			if ( options.getMaxOffHeapCacheSizeInBytes() > 0 )
+				c.setMaxOffHeapCacheSizeInBytes( options.getMaxOffHeapCacheSizeInBytes() );
+		}
+
 		renderingExecutorService = Executors.newFixedThreadPool( options.getNumRenderingThreads() );
 		imageRenderer = new MultiResolutionRenderer(
 				renderTarget, painterThread,
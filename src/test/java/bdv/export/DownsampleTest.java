@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Check that {@link Downsample} computes the same averages with the
+ * {@link DownsampleKernel} (used for {@link ArrayImg} outputs) as with its
+ * generic neighborhood loop (used otherwise).
+ */
+public class DownsampleTest
+{
+	private static final long[] outDim = new long[] { 7, 5, 4 };
+
+	private static final int[][] factors = new int[][] { { 2, 2, 2 }, { 3, 1, 2 }, { 1, 4, 1 }, { 1, 1, 1 } };
+
+	@Test
+	public void testUnsignedShort()
+	{
+		final Random random = new Random( 1 );
+		for ( final int[] factor : factors )
+		{
+			final ArrayImg< UnsignedShortType, ? > source = ArrayImgs.unsignedShorts( sourceDim( factor ) );
+			for ( final UnsignedShortType t : source )
+				t.set( random.nextInt( 65536 ) );
+			compare( source, ArrayImgs.unsignedShorts( outDim ), ArrayImgs.unsignedShorts( outDim ), factor, 0 );
+		}
+	}
+
+	@Test
+	public void testUnsignedByte()
+	{
+		final Random random = new Random( 1 );
+		for ( final int[] factor : factors )
+		{
+			final ArrayImg< UnsignedByteType, ? > source = ArrayImgs.unsignedBytes( sourceDim( factor ) );
+			for ( final UnsignedByteType t : source )
+				t.set( random.nextInt( 256 ) );
+			compare( source, ArrayImgs.unsignedBytes( outDim ), ArrayImgs.unsignedBytes( outDim ), factor, 0 );
+		}
+	}
+
+	@Test
+	public void testFloat()
+	{
+		final Random random = new Random( 1 );
+		for ( final int[] factor : factors )
+		{
+			final ArrayImg< FloatType, ? > source = ArrayImgs.floats( sourceDim( factor ) );
+			for ( final FloatType t : source )
+				t.set( random.nextFloat() * 1000 - 500 );
+			compare( source, ArrayImgs.floats( outDim ), ArrayImgs.floats( outDim ), factor, 1e-3 );
+		}
+	}
+
+	/**
+	 * Integer averages are rounded to the nearest value, and 16-bit values
+	 * are unsigned.
+	 */
+	@Test
+	public void testRounding()
+	{
+		final DownsampleKernel kernel = new DownsampleKernel();
+		final short[] target = new short[ 3 ];
+		kernel.downsample( new short[] { 1, 2, 1, 1, ( short ) 0xffff, ( short ) 0xfffe }, target, new int[] { 3, 1, 1 }, new int[] { 2, 1, 1 } );
+		assertArrayEquals( new short[] { 2, 1, ( short ) 0xffff }, target );
+
+		final byte[] byteTarget = new byte[ 2 ];
+		kernel.downsample( new byte[] { ( byte ) 255, ( byte ) 254, ( byte ) 200, 0 }, byteTarget, new int[] { 1, 2, 1 }, new int[] { 1, 1, 2 } );
+		assertArrayEquals( new byte[] { ( byte ) 228, ( byte ) 127 }, byteTarget );
+	}
+
+	private static long[] sourceDim( final int[] factor )
+	{
+		final long[] dim = new long[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			dim[ d ] = outDim[ d ] * factor[ d ];
+		return dim;
+	}
+
+	/**
+	 * Downsample {@code source} into the {@link ArrayImg} {@code kernelOutput}
+	 * and, through a view that is not an {@link ArrayImg}, into
+	 * {@code genericOutput}, and compare.
+	 */
+	private static < T extends RealType< T > > void compare(
+			final RandomAccessibleInterval< T > source,
+			final ArrayImg< T, ? > kernelOutput,
+			final ArrayImg< T, ? > genericOutput,
+			final int[] factor,
+			final double delta )
+	{
+		Downsample.downsample( source, kernelOutput, factor );
+		Downsample.downsample( source, Views.interval( genericOutput, genericOutput ), factor );
+		final Cursor< T > k = kernelOutput.localizingCursor();
+		final Cursor< T > g = genericOutput.cursor();
+		while ( k.hasNext() )
+		{
+			final double expected = g.next().getRealDouble();
+			final double actual = k.next().getRealDouble();
+			assertEquals( "factor " + factor[ 0 ] + "," + factor[ 1 ] + "," + factor[ 2 ] + " at " + k.getLongPosition( 0 ) + "," + k.getLongPosition( 1 ) + "," + k.getLongPosition( 2 ), expected, actual, delta );
+		}
+	}
+}
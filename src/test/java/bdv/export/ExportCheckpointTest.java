@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import mpicbg.spim.data.sequence.ViewId;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that an {@link ExportCheckpoint} manifest restores the recorded
+ * progress when an export is resumed.
+ */
+public class ExportCheckpointTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ViewId view = new ViewId( 1, 2 );
+
+	private final ViewId otherView = new ViewId( 3, 4 );
+
+	@Test
+	public void testResume() throws IOException
+	{
+		final File hdf5File = createHdf5File();
+		final ExportCheckpoint checkpoint = new ExportCheckpoint( hdf5File, false );
+		recordProgress( checkpoint );
+		checkpoint.close();
+		assertTrue( ExportCheckpoint.canResume( hdf5File ) );
+
+		final ExportCheckpoint resumed = new ExportCheckpoint( hdf5File, true );
+		assertProgress( resumed );
+		resumed.close();
+
+		// the manifest is compacted when it is opened, resume again
+		final ExportCheckpoint resumedAgain = new ExportCheckpoint( hdf5File, true );
+		assertProgress( resumedAgain );
+		resumedAgain.close();
+	}
+
+	@Test
+	public void testStartOver() throws IOException
+	{
+		final File hdf5File = createHdf5File();
+		final ExportCheckpoint checkpoint = new ExportCheckpoint( hdf5File, false );
+		recordProgress( checkpoint );
+		checkpoint.close();
+
+		final ExportCheckpoint restarted = new ExportCheckpoint( hdf5File, false );
+		assertFalse( restarted.isViewComplete( otherView ) );
+		assertFalse( restarted.isLevelComplete( view, 0 ) );
+		assertEquals( 0, restarted.getNumCompletedPlanes( view, 1 ) );
+		restarted.close();
+	}
+
+	@Test
+	public void testCannotResumeWithoutHdf5File() throws IOException
+	{
+		final File hdf5File = createHdf5File();
+		new ExportCheckpoint( hdf5File, false ).close();
+		assertTrue( hdf5File.delete() );
+		assertFalse( ExportCheckpoint.canResume( hdf5File ) );
+	}
+
+	/**
+	 * A record that was only partially written (for example, because the
+	 * export was killed) is ignored. Everything before it is restored.
+	 */
+	@Test
+	public void testTruncatedRecord() throws IOException
+	{
+		final File hdf5File = createHdf5File();
+		final ExportCheckpoint checkpoint = new ExportCheckpoint( hdf5File, false );
+		recordProgress( checkpoint );
+		checkpoint.viewCompleted( view );
+		checkpoint.close();
+
+		// cut the last record ("view complete") in half
+		final File manifest = ExportCheckpoint.getManifestFile( hdf5File );
+		truncate( manifest, manifest.length() - 8 );
+
+		final ExportCheckpoint resumed = new ExportCheckpoint( hdf5File, true );
+		assertProgress( resumed );
+		assertFalse( resumed.isViewComplete( view ) );
+		resumed.close();
+	}
+
+	/**
+	 * A manifest that is not a manifest is discarded.
+	 */
+	@Test
+	public void testInvalidManifest() throws IOException
+	{
+		final File hdf5File = createHdf5File();
+		final FileOutputStream out = new FileOutputStream( ExportCheckpoint.getManifestFile( hdf5File ) );
+		out.write( "not a manifest".getBytes( "UTF-8" ) );
+		out.close();
+
+		final ExportCheckpoint resumed = new ExportCheckpoint( hdf5File, true );
+		assertFalse( resumed.isViewComplete( otherView ) );
+		assertEquals( 0, resumed.getNumCompletedPlanes( view, 1 ) );
+		resumed.close();
+	}
+
+	/**
+	 * A level that is reset is written from scratch, and its view is no
+	 * longer complete, also after resuming.
+	 */
+	@Test
+	public void testLevelReset() throws IOException
+	{
+		final File hdf5File = createHdf5File();
+		final ExportCheckpoint checkpoint = new ExportCheckpoint( hdf5File, false );
+		recordProgress( checkpoint );
+		checkpoint.levelCompleted( otherView, 0 );
+		checkpoint.levelReset( otherView, 0 );
+		checkpoint.levelReset( view, 1 );
+		checkpoint.close();
+
+		final ExportCheckpoint resumed = new ExportCheckpoint( hdf5File, true );
+		assertFalse( resumed.isViewComplete( otherView ) );
+		assertFalse( resumed.isLevelComplete( otherView, 0 ) );
+		assertEquals( 0, resumed.getNumCompletedPlanes( view, 1 ) );
+		assertTrue( resumed.isLevelComplete( view, 0 ) );
+		resumed.close();
+	}
+
+	private File createHdf5File() throws IOException
+	{
+		// the checkpoint does not look into the hdf5 file, it only has to exist
+		return folder.newFile( "export.h5" );
+	}
+
+	private void recordProgress( final ExportCheckpoint checkpoint )
+	{
+		checkpoint.planesCompleted( view, 0, 4 );
+		checkpoint.levelCompleted( view, 0 );
+		checkpoint.planesCompleted( view, 1, 1 );
+		checkpoint.planesCompleted( view, 1, 2 );
+		checkpoint.viewCompleted( otherView );
+	}
+
+	private void assertProgress( final ExportCheckpoint checkpoint )
+	{
+		assertTrue( checkpoint.isLevelComplete( view, 0 ) );
+		assertEquals( 4, checkpoint.getNumCompletedPlanes( view, 0 ) );
+		assertFalse( checkpoint.isLevelComplete( view, 1 ) );
+		assertEquals( 2, checkpoint.getNumCompletedPlanes( view, 1 ) );
+		assertEquals( 0, checkpoint.getNumCompletedPlanes( view, 2 ) );
+		assertTrue( checkpoint.isViewComplete( otherView ) );
+	}
+
+	private static void truncate( final File file, final long length ) throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+		try
+		{
+			raf.setLength( length );
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Check ordering, de-duplication, and cancellation of
+ * {@link ConcurrentFetchQueues}.
+ */
+public class ConcurrentFetchQueuesTest
+{
+	@Test
+	public void testPriorityOrder() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		queues.put( "low", 2, false );
+		queues.put( "high", 0, false );
+		queues.put( "medium", 1, false );
+		queues.put( "high first", 0, true );
+		assertEquals( "high first", queues.take() );
+		assertEquals( "high", queues.take() );
+		assertEquals( "medium", queues.take() );
+		assertEquals( "low", queues.take() );
+		assertEquals( 0, queues.size() );
+	}
+
+	@Test
+	public void testDuplicatesAreQueuedOnce() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		queues.put( "a", 1, false );
+		queues.put( "a", 1, false );
+		queues.put( "a", 2, true );
+		assertEquals( 1, queues.size() );
+		assertEquals( 1, queues.getQueueSizes()[ 1 ] );
+		assertEquals( 0, queues.getQueueSizes()[ 2 ] );
+		assertEquals( "a", queues.take() );
+		assertEquals( 0, queues.size() );
+
+		// a taken element can be queued again
+		queues.put( "a", 1, false );
+		assertEquals( 1, queues.size() );
+	}
+
+	/**
+	 * Putting an element with a higher priority moves it up. The superseded
+	 * entry is discarded, so the element is taken only once.
+	 */
+	@Test
+	public void testRequeueWithHigherPriority() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		queues.put( "a", 2, false );
+		queues.put( "b", 1, false );
+		queues.put( "a", 0, false );
+		assertEquals( 2, queues.size() );
+		assertEquals( "a", queues.take() );
+		assertEquals( "b", queues.take() );
+		queues.put( "c", 2, false );
+		assertEquals( "c", queues.take() );
+		assertEquals( 0, queues.size() );
+	}
+
+	/**
+	 * After {@link ConcurrentFetchQueues#clear()}, elements queued before are
+	 * only taken after newly queued ones (as prefetch elements).
+	 */
+	@Test
+	public void testClearDemotesToPrefetch() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		queues.put( "a", 0, false );
+		queues.put( "b", 1, false );
+		queues.clear();
+		assertEquals( 1, queues.getGeneration() );
+		queues.put( "c", 2, false );
+		assertEquals( "c", queues.take() );
+		assertEquals( "a", queues.take() );
+		assertEquals( "b", queues.take() );
+		assertEquals( 0, queues.size() );
+	}
+
+	/**
+	 * An element that is put again after {@link ConcurrentFetchQueues#clear()}
+	 * is no longer a prefetch element, and it is taken only once.
+	 */
+	@Test
+	public void testPutAfterClear() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		queues.put( "a", 0, false );
+		queues.put( "b", 0, false );
+		queues.clear();
+		queues.put( "b", 2, false );
+		assertEquals( 2, queues.size() );
+		assertEquals( "b", queues.take() );
+		assertEquals( "a", queues.take() );
+		assertEquals( 0, queues.size() );
+	}
+
+	/**
+	 * If the prefetch deque is full, the entry at its back is dropped to make
+	 * room.
+	 */
+	@Test
+	public void testPrefetchCapacity() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3, 2 );
+		queues.put( "a", 1, false );
+		queues.put( "b", 1, false );
+		queues.put( "c", 1, false );
+		queues.clear();
+		queues.put( "d", 0, false );
+		assertEquals( "d", queues.take() );
+		assertEquals( "a", queues.take() );
+		assertEquals( "c", queues.take() );
+		assertEquals( 0, queues.size() );
+	}
+
+	@Test
+	public void testRemoveAll() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		queues.put( "a", 0, false );
+		queues.put( "b", 1, false );
+		queues.put( "c", 2, false );
+		queues.put( "b", 0, false ); // superseded entry is not counted
+		queues.clear();
+		queues.put( "d", 1, false );
+		assertEquals( "d", queues.take() ); // moves "a", "b" to prefetch
+		assertEquals( 3, queues.removeAll() );
+		assertEquals( 0, queues.size() );
+		final int[] sizes = queues.getQueueSizes();
+		for ( final int size : sizes )
+			assertEquals( 0, size );
+
+		queues.put( "e", 2, false );
+		assertEquals( "e", queues.take() );
+		assertEquals( 0, queues.size() );
+	}
+
+	/**
+	 * Elements that are put while {@link ConcurrentFetchQueues#removeAll()}
+	 * runs must be either removed by it or stay queued.
+	 */
+	@Test
+	public void testRemoveAllKeepsConcurrentPuts() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< Integer > queues = new ConcurrentFetchQueues< Integer >( 3 );
+		final int numElements = 100000;
+		final Thread putter = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				for ( int i = 0; i < numElements; ++i )
+					queues.put( i, i % 3, false );
+			}
+		};
+		putter.start();
+		int removed = 0;
+		while ( putter.isAlive() )
+			removed += queues.removeAll();
+		putter.join();
+		removed += queues.removeAll();
+		assertEquals( numElements, removed );
+		assertEquals( 0, queues.size() );
+	}
+
+	@Test
+	public void testTakeBlocksUntilPut() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		final AtomicReference< String > taken = new AtomicReference< String >();
+		final CountDownLatch done = new CountDownLatch( 1 );
+		final Thread taker = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					taken.set( queues.take() );
+				}
+				catch ( final InterruptedException e )
+				{}
+				done.countDown();
+			}
+		};
+		taker.start();
+		assertFalse( done.await( 100, TimeUnit.MILLISECONDS ) );
+		queues.put( "a", 1, false );
+		assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+		assertEquals( "a", taken.get() );
+	}
+
+	@Test
+	public void testTakeIsInterruptible() throws InterruptedException
+	{
+		final ConcurrentFetchQueues< String > queues = new ConcurrentFetchQueues< String >( 3 );
+		final CountDownLatch interrupted = new CountDownLatch( 1 );
+		final Thread taker = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					queues.take();
+				}
+				catch ( final InterruptedException e )
+				{
+					interrupted.countDown();
+				}
+			}
+		};
+		taker.start();
+		Thread.sleep( 100 );
+		taker.interrupt();
+		assertTrue( interrupted.await( 10, TimeUnit.SECONDS ) );
+	}
+}
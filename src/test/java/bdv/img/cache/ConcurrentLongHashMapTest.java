@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Check {@link ConcurrentLongHashMap} with tombstones, rehashing, and
+ * concurrent access.
+ */
+public class ConcurrentLongHashMapTest
+{
+	@Test
+	public void testPutGetRemove()
+	{
+		final ConcurrentLongHashMap< String > map = new ConcurrentLongHashMap< String >();
+		assertNull( map.get( 0 ) );
+		assertNull( map.put( 0, "zero" ) );
+		assertNull( map.put( Long.MAX_VALUE, "max" ) );
+		assertEquals( "zero", map.put( 0, "zero again" ) );
+		assertEquals( "zero again", map.get( 0 ) );
+		assertEquals( "max", map.get( Long.MAX_VALUE ) );
+		assertEquals( 2, map.size() );
+
+		assertFalse( map.remove( 0, "zero" ) );
+		assertTrue( map.remove( 0, "zero again" ) );
+		assertNull( map.get( 0 ) );
+		assertNull( map.remove( 0 ) );
+		assertEquals( "max", map.remove( Long.MAX_VALUE ) );
+		assertEquals( 0, map.size() );
+
+		// a removed key (tombstone) can be put again
+		assertNull( map.put( 0, "again" ) );
+		assertEquals( "again", map.get( 0 ) );
+		assertEquals( 1, map.size() );
+	}
+
+	/**
+	 * Enough keys to rehash every segment several times, with removals in
+	 * between that leave tombstones.
+	 */
+	@Test
+	public void testManyKeys()
+	{
+		final ConcurrentLongHashMap< Long > map = new ConcurrentLongHashMap< Long >();
+		final int n = 100000;
+		for ( long key = 0; key < n; ++key )
+			map.put( key, key );
+		for ( long key = 0; key < n; key += 2 )
+			assertEquals( Long.valueOf( key ), map.remove( key ) );
+		for ( long key = n; key < 2 * n; ++key )
+			map.put( key, key );
+		assertEquals( n / 2 + n, map.size() );
+		for ( long key = 0; key < 2 * n; ++key )
+		{
+			if ( key < n && key % 2 == 0 )
+				assertNull( map.get( key ) );
+			else
+				assertEquals( Long.valueOf( key ), map.get( key ) );
+		}
+
+		final ArrayList< Long > values = map.values();
+		Collections.sort( values );
+		assertEquals( map.size(), values.size() );
+		assertEquals( Long.valueOf( 1 ), values.get( 0 ) );
+		assertEquals( Long.valueOf( 2 * n - 1 ), values.get( values.size() - 1 ) );
+
+		map.clear();
+		assertEquals( 0, map.size() );
+		assertNull( map.get( 1 ) );
+		assertTrue( map.values().isEmpty() );
+	}
+
+	/**
+	 * Concurrent writers on disjoint keys, and a concurrent reader that must
+	 * never see a value associated with a different key.
+	 */
+	@Test
+	public void testConcurrentPuts() throws InterruptedException
+	{
+		final ConcurrentLongHashMap< Long > map = new ConcurrentLongHashMap< Long >();
+		final int numThreads = 4;
+		final int numKeysPerThread = 50000;
+		final AtomicReference< String > error = new AtomicReference< String >();
+		final Thread[] writers = new Thread[ numThreads ];
+		for ( int t = 0; t < numThreads; ++t )
+		{
+			final int threadNum = t;
+			writers[ t ] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for ( long i = 0; i < numKeysPerThread; ++i )
+					{
+						final long key = i * numThreads + threadNum;
+						map.put( key, key );
+						if ( i % 3 == 0 )
+							map.remove( key );
+					}
+				}
+			};
+		}
+		final Thread reader = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				for ( int round = 0; round < 10; ++round )
+					for ( long key = 0; key < numThreads * numKeysPerThread; ++key )
+					{
+						final Long value = map.get( key );
+						if ( value != null && value != key )
+							error.compareAndSet( null, "key " + key + " has value " + value );
+					}
+			}
+		};
+		for ( final Thread writer : writers )
+			writer.start();
+		reader.start();
+		for ( final Thread writer : writers )
+			writer.join();
+		reader.join();
+		assertNull( error.get() );
+
+		int expectedSize = 0;
+		for ( long key = 0; key < numThreads * numKeysPerThread; ++key )
+		{
+			final boolean removed = ( key / numThreads ) % 3 == 0;
+			if ( removed )
+				assertNull( map.get( key ) );
+			else
+			{
+				assertEquals( Long.valueOf( key ), map.get( key ) );
+				++expectedSize;
+			}
+		}
+		assertEquals( expectedSize, map.size() );
+	}
+}
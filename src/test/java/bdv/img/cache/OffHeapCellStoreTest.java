@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+
+import org.junit.Test;
+
+/**
+ * Check that {@link OffHeapCellStore} keeps the data of cells and stays within
+ * its budget.
+ */
+public class OffHeapCellStoreTest
+{
+	/**
+	 * size of a cell of {@link #cell(int)} in bytes.
+	 */
+	private static final int CELL_BYTES = 200;
+
+	@Test
+	public void testRoundTrip()
+	{
+		final OffHeapCellStore< Integer > store = new OffHeapCellStore< Integer >( 10 * CELL_BYTES );
+		assertTrue( store.put( 1, cell( 1 ) ) );
+		final float[] floats = new float[] { 0.5f, -1, Float.NaN };
+		assertTrue( store.put( 2, new VolatileFloatArray( floats, true ) ) );
+		assertEquals( 2, store.size() );
+
+		final VolatileAccess data = store.take( 1 );
+		assertTrue( data instanceof VolatileShortArray );
+		assertTrue( data.isValid() );
+		assertArrayEquals( cell( 1 ).getCurrentStorageArray(), ( ( VolatileShortArray ) data ).getCurrentStorageArray() );
+		assertArrayEquals( floats, ( ( VolatileFloatArray ) store.take( 2 ) ).getCurrentStorageArray(), 0 );
+
+		// taking removes the cell from the store
+		assertNull( store.take( 1 ) );
+		assertEquals( 0, store.size() );
+		assertEquals( 0, store.getUsedBytes() );
+		assertEquals( 2, store.getHits() );
+		assertEquals( 1, store.getMisses() );
+	}
+
+	@Test
+	public void testDropLeastRecentlyUsed()
+	{
+		final OffHeapCellStore< Integer > store = new OffHeapCellStore< Integer >( 3 * CELL_BYTES );
+		for ( int i = 0; i < 3; ++i )
+			assertTrue( store.put( i, cell( i ) ) );
+		assertTrue( store.put( 0, cell( 0 ) ) ); // replaces, now most recent
+		assertTrue( store.put( 3, cell( 3 ) ) );
+		assertEquals( 3, store.size() );
+		assertEquals( 1, store.getDrops() );
+		assertEquals( 3 * CELL_BYTES, store.getUsedBytes() );
+		assertTrue( store.getAllocatedBytes() <= store.getMaxBytes() );
+
+		assertNull( store.take( 1 ) );
+		for ( final int i : new int[] { 0, 2, 3 } )
+			assertArrayEquals( cell( i ).getCurrentStorageArray(), ( ( VolatileShortArray ) store.take( i ) ).getCurrentStorageArray() );
+	}
+
+	@Test
+	public void testCellLargerThanBudget()
+	{
+		final OffHeapCellStore< Integer > store = new OffHeapCellStore< Integer >( CELL_BYTES - 1 );
+		assertFalse( store.put( 0, cell( 0 ) ) );
+		assertEquals( 0, store.size() );
+		assertEquals( 0, store.getAllocatedBytes() );
+	}
+
+	@Test
+	public void testShrinkBudget()
+	{
+		final OffHeapCellStore< Integer > store = new OffHeapCellStore< Integer >( 4 * CELL_BYTES );
+		for ( int i = 0; i < 4; ++i )
+			store.put( i, cell( i ) );
+		store.take( 3 ); // the buffer is kept for reuse
+		assertEquals( 4 * CELL_BYTES, store.getAllocatedBytes() );
+
+		store.setMaxBytes( 2 * CELL_BYTES );
+		assertEquals( 2, store.size() );
+		assertEquals( 2 * CELL_BYTES, store.getUsedBytes() );
+		assertTrue( store.getAllocatedBytes() <= 2 * CELL_BYTES );
+		assertNull( store.take( 0 ) );
+		assertArrayEquals( cell( 2 ).getCurrentStorageArray(), ( ( VolatileShortArray ) store.take( 2 ) ).getCurrentStorageArray() );
+
+		store.clear();
+		assertEquals( 0, store.size() );
+		assertEquals( 0, store.getAllocatedBytes() );
+	}
+
+	/**
+	 * A valid cell of {@link #CELL_BYTES} bytes with contents depending on
+	 * {@code i}.
+	 */
+	private static VolatileShortArray cell( final int i )
+	{
+		final short[] data = new short[ CELL_BYTES / 2 ];
+		for ( int j = 0; j < data.length; ++j )
+			data[ j ] = ( short ) ( i * 1000 + j );
+		return new VolatileShortArray( data, true );
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Check the eviction order and pinning rules of {@link SegmentedLruPolicy}.
+ * All elements have a size of one byte, unless noted otherwise.
+ */
+public class SegmentedLruPolicyTest
+{
+	@Test
+	public void testEvictLeastRecentlyUsed()
+	{
+		final SegmentedLruPolicy< String > policy = new SegmentedLruPolicy< String >( 3 );
+		for ( final String e : new String[] { "a", "b", "c", "d", "e" } )
+			policy.add( e, 1 );
+		assertEquals( Arrays.asList( "a", "b" ), policy.evict( null ) );
+		assertEquals( 3, policy.size() );
+		assertEquals( 3, policy.getBytes() );
+		assertEquals( Collections.emptyList(), policy.evict( null ) );
+	}
+
+	/**
+	 * An element that was accessed again survives a scan of elements that are
+	 * added only once, even though it is the oldest.
+	 */
+	@Test
+	public void testScanResistance()
+	{
+		final SegmentedLruPolicy< String > policy = new SegmentedLruPolicy< String >( 4 );
+		policy.add( "a", 1 );
+		policy.add( "b", 1 );
+		policy.touch( "a" );
+		for ( final String e : new String[] { "c", "d", "e", "f" } )
+			policy.add( e, 1 );
+		assertEquals( Arrays.asList( "b", "c" ), policy.evict( null ) );
+		policy.add( "g", 1 );
+		assertEquals( Arrays.asList( "d" ), policy.evict( null ) );
+	}
+
+	/**
+	 * If the protected segment exceeds its share of the budget, its least
+	 * recently used elements are demoted to probation and evicted first.
+	 */
+	@Test
+	public void testDemoteProtected()
+	{
+		final SegmentedLruPolicy< String > policy = new SegmentedLruPolicy< String >( 10 );
+		policy.add( "a", 4 );
+		policy.add( "b", 4 );
+		policy.touch( "a" );
+		policy.touch( "b" );
+		policy.touch( "a" );
+		assertEquals( Collections.emptyList(), policy.evict( null ) );
+
+		// protected segment holds at most 8 bytes: "b" is demoted
+		policy.add( "c", 1 );
+		policy.touch( "c" );
+		policy.setMaxBytes( 5 );
+		assertEquals( Arrays.asList( "b" ), policy.evict( null ) );
+		assertEquals( 5, policy.getBytes() );
+	}
+
+	@Test
+	public void testPinnedElementsAreNotEvicted()
+	{
+		final SegmentedLruPolicy< String > policy = new SegmentedLruPolicy< String >( 2 );
+		policy.add( "a", 1 );
+		policy.add( "b", 1 );
+		policy.add( "c", 1 );
+		final HashSet< String > pinned = new HashSet< String >( Arrays.asList( "a" ) );
+		assertEquals( Arrays.asList( "b" ), policy.evict( pinning( pinned ) ) );
+		assertEquals( 2, policy.size() );
+
+		// "a" was moved to the most recently used end when it was passed over
+		pinned.clear();
+		policy.add( "d", 1 );
+		assertEquals( Arrays.asList( "c" ), policy.evict( pinning( pinned ) ) );
+		policy.add( "e", 1 );
+		assertEquals( Arrays.asList( "a" ), policy.evict( pinning( pinned ) ) );
+	}
+
+	@Test
+	public void testAllPinnedExceedsBudget()
+	{
+		final SegmentedLruPolicy< String > policy = new SegmentedLruPolicy< String >( 1 );
+		policy.add( "a", 1 );
+		policy.add( "b", 1 );
+		policy.touch( "b" );
+		final HashSet< String > pinned = new HashSet< String >( Arrays.asList( "a", "b" ) );
+		assertEquals( Collections.emptyList(), policy.evict( pinning( pinned ) ) );
+		assertEquals( 2, policy.getBytes() );
+
+		pinned.remove( "b" );
+		assertEquals( Arrays.asList( "b" ), policy.evict( pinning( pinned ) ) );
+		assertEquals( 1, policy.getBytes() );
+	}
+
+	@Test
+	public void testRemoveAndClear()
+	{
+		final SegmentedLruPolicy< String > policy = new SegmentedLruPolicy< String >( 10 );
+		policy.add( "a", 3 );
+		policy.add( "b", 4 );
+		policy.touch( "b" );
+		policy.add( "a", 3 ); // already present, only touched
+		assertEquals( 7, policy.getBytes() );
+		assertTrue( policy.remove( "b" ) );
+		assertFalse( policy.remove( "b" ) );
+		assertEquals( 3, policy.getBytes() );
+
+		final List< String > removed = policy.clear();
+		assertEquals( Arrays.asList( "a" ), removed );
+		assertEquals( 0, policy.getBytes() );
+		assertEquals( 0, policy.size() );
+	}
+
+	private static SegmentedLruPolicy.Pinning< String > pinning( final HashSet< String > pinned )
+	{
+		return new SegmentedLruPolicy.Pinning< String >()
+		{
+			@Override
+			public boolean isPinned( final String element )
+			{
+				return pinned.contains( element );
+			}
+		};
+	}
+}
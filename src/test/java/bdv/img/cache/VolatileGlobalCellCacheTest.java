@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+
+import org.junit.Test;
+
+/**
+ * Check that view-level ids of {@link VolatileGlobalCellCache} are stable
+ * across {@link VolatileGlobalCellCache#clearCache()} and are reused when a
+ * namespace is unregistered, and that the data of evicted cells is recycled
+ * only after {@link VolatileGlobalCellCache#getRecycleDelayFrames()} frames.
+ */
+public class VolatileGlobalCellCacheTest
+{
+	@Test
+	public void testViewLevelIdsSurviveClearCache()
+	{
+		final VolatileGlobalCellCache cache = new VolatileGlobalCellCache( 1, 1, 4, 0 );
+		final int a = cache.getViewLevelId( 0, 0, 0 );
+		final int b = cache.getViewLevelId( 1, 0, 0 );
+		final int c = cache.getViewLevelId( -1, 1 << 30, 0 );
+		assertTrue( a != b );
+		assertTrue( b != c );
+		for ( int i = 0; i < 10; ++i )
+		{
+			cache.clearCache();
+			assertEquals( a, cache.getViewLevelId( 0, 0, 0 ) );
+			assertEquals( b, cache.getViewLevelId( 1, 0, 0 ) );
+			assertEquals( c, cache.getViewLevelId( -1, 1 << 30, 0 ) );
+		}
+		// a new combination gets the next id, none were used up by clearing
+		assertEquals( c + 1, cache.getViewLevelId( 2, 0, 0 ) );
+	}
+
+	@Test
+	public void testViewLevelIdsReusedAfterUnregister()
+	{
+		final VolatileGlobalCellCache cache = new VolatileGlobalCellCache( 1, 1, 4, 0 );
+		final int namespace = cache.registerNamespace( "first" );
+		final int a = cache.getViewLevelId( namespace, 0, 0, 0 );
+		cache.getViewLevelId( namespace, 1, 0, 0 );
+		cache.unregisterNamespace( namespace );
+
+		final int other = cache.registerNamespace( "second" );
+		assertEquals( namespace, other );
+		assertEquals( a, cache.getViewLevelId( other, 5, 0, 0 ) );
+		assertEquals( namespace, VolatileGlobalCellCache.getNamespace( VolatileGlobalCellCache.cellKey( a, 0 ) ) );
+	}
+
+	/**
+	 * Cell size that is not used elsewhere, so that the {@link ArrayPool}
+	 * holds no other arrays of that length.
+	 */
+	private static final int CELL_SIZE = 4099;
+
+	private static final CacheArrayLoader< VolatileShortArray > loader = new CacheArrayLoader< VolatileShortArray >()
+	{
+		@Override
+		public int getBytesPerElement()
+		{
+			return 2;
+		}
+
+		@Override
+		public VolatileShortArray loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min )
+		{
+			return new VolatileShortArray( dimensions[ 0 ], true );
+		}
+
+		@Override
+		public VolatileShortArray emptyArray( final int[] dimensions )
+		{
+			return new VolatileShortArray( 1, false );
+		}
+	};
+
+	private static short[] load( final VolatileGlobalCellCache cache, final int index )
+	{
+		final CacheHints hints = new CacheHints( LoadingStrategy.BLOCKING, 0, false );
+		final VolatileCell< ? > cell = cache.createGlobal( new int[] { CELL_SIZE }, new long[] { index * CELL_SIZE }, 0, 0, 0, index, hints, loader );
+		return ( ( VolatileShortArray ) cell.getData() ).getCurrentStorageArray();
+	}
+
+	@Test
+	public void testEvictedDataRecycledAfterDelay()
+	{
+		final ArrayPool pool = ArrayPool.getInstance();
+		final VolatileGlobalCellCache cache = new VolatileGlobalCellCache( 1, 1, 1, 0, 2l * 2 * CELL_SIZE );
+		final short[] first = load( cache, 0 );
+		load( cache, 1 );
+		cache.prepareNextFrame();
+
+		// evicts cell 0, which was not accessed in this frame
+		load( cache, 2 );
+		final long recycled = pool.getNumRecycled();
+		for ( int i = 1; i < cache.getRecycleDelayFrames(); ++i )
+		{
+			cache.prepareNextFrame();
+			assertEquals( recycled, pool.getNumRecycled() );
+		}
+		cache.prepareNextFrame();
+		assertEquals( recycled + 1, pool.getNumRecycled() );
+		assertSame( first, pool.takeShorts( CELL_SIZE ) );
+		cache.shutdownFetcherThreads();
+	}
+
+	@Test
+	public void testEvictedDataNotRecycledWithoutDelay()
+	{
+		final ArrayPool pool = ArrayPool.getInstance();
+		final VolatileGlobalCellCache cache = new VolatileGlobalCellCache( 1, 1, 1, 0, 2l * 2 * CELL_SIZE );
+		cache.setRecycleDelayFrames( 0 );
+		load( cache, 0 );
+		load( cache, 1 );
+		cache.prepareNextFrame();
+		load( cache, 2 );
+		final long recycled = pool.getNumRecycled();
+		for ( int i = 0; i < 2 * VolatileGlobalCellCache.DEFAULT_RECYCLE_DELAY_FRAMES; ++i )
+			cache.prepareNextFrame();
+		assertEquals( recycled, pool.getNumRecycled() );
+		cache.shutdownFetcherThreads();
+	}
+}
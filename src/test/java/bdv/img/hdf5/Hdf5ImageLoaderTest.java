@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.WriteSequenceToHdf5;
+import bdv.spimdata.SequenceDescriptionMinimal;
+
+/**
+ * Export images with {@link WriteSequenceToHdf5} and load them with
+ * {@link Hdf5ImageLoader}. 8-bit setups are loaded through
+ * {@link Hdf5ImageLoader#getTypedSetupImgLoader(int)}, 16-bit setups also
+ * through {@link Hdf5ImageLoader#getSetupImgLoader(int)}.
+ */
+public class Hdf5ImageLoaderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final int[] cellDimensions = new int[] { 16, 16, 16 };
+
+	private static final long[] imageDimensions = new long[] { 40, 36, 20 };
+
+	@Test
+	public void testUnsignedByte() throws Exception
+	{
+		final ArrayImg< UnsignedByteType, ByteArray > img = ArrayImgs.unsignedBytes( imageDimensions );
+		int i = 0;
+		for ( final UnsignedByteType t : img )
+			t.set( ( 7 * i++ ) % 256 );
+
+		final Hdf5ImageLoader imgLoader = export( img );
+		try
+		{
+			final Hdf5ImageLoader.TypedSetupImgLoader< ?, ?, ? > setupImgLoader = imgLoader.getTypedSetupImgLoader( 0 );
+			assertTrue( setupImgLoader.getImageType() instanceof UnsignedByteType );
+			assertEquals( 2, setupImgLoader.numMipmapLevels() );
+			assertSameValues( img, setupImgLoader.getImage( 0, 0 ) );
+
+			try
+			{
+				imgLoader.getSetupImgLoader( 0 );
+				fail( "expected UnsupportedOperationException for an 8-bit setup" );
+			}
+			catch ( final UnsupportedOperationException e )
+			{}
+
+			final TypedHdf5ImageLoader typed = new TypedHdf5ImageLoader( imgLoader );
+			assertTrue( TypedHdf5ImageLoader.isNecessary( imgLoader, Collections.singleton( 0 ) ) );
+			assertTrue( typed.getSetupImgLoader( 0 ).getImageType() instanceof UnsignedByteType );
+		}
+		finally
+		{
+			imgLoader.close();
+		}
+	}
+
+	@Test
+	public void testUnsignedShort() throws Exception
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( imageDimensions );
+		int i = 0;
+		for ( final UnsignedShortType t : img )
+			t.set( ( 1009 * i++ ) % 65536 );
+
+		final Hdf5ImageLoader imgLoader = export( img );
+		try
+		{
+			final Hdf5ImageLoader.SetupImgLoader setupImgLoader = imgLoader.getSetupImgLoader( 0 );
+			assertTrue( setupImgLoader == imgLoader.getTypedSetupImgLoader( 0 ) );
+			assertSameValues( img, setupImgLoader.getImage( 0, 0 ) );
+			assertTrue( !TypedHdf5ImageLoader.isNecessary( imgLoader, Collections.singleton( 0 ) ) );
+		}
+		finally
+		{
+			imgLoader.close();
+		}
+	}
+
+	/**
+	 * Write {@code img} as timepoint 0 of setup 0 with two mipmap levels, and
+	 * open the file, like the loopback loader of {@link WriteSequenceToHdf5}.
+	 */
+	private Hdf5ImageLoader export( final RandomAccessibleInterval< ? extends RealType< ? > > img ) throws Exception
+	{
+		final File file = new File( folder.getRoot(), "export.h5" );
+		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo(
+				new int[][] { { 1, 1, 1 }, { 2, 2, 2 } },
+				new int[][] { cellDimensions, cellDimensions } );
+		final Partition partition = new Partition( file.getPath(),
+				Collections.singletonMap( 0, 0 ),
+				Collections.singletonMap( 0, 0 ) );
+		write( img, partition, mipmapInfo );
+
+		final HashMap< Integer, TimePoint > timepoints = new HashMap< Integer, TimePoint >();
+		timepoints.put( 0, new TimePoint( 0 ) );
+		final HashMap< Integer, BasicViewSetup > setups = new HashMap< Integer, BasicViewSetup >();
+		setups.put( 0, new BasicViewSetup( 0, null, img, null ) );
+		final SequenceDescriptionMinimal seq = new SequenceDescriptionMinimal( new TimePoints( timepoints ), setups, null, null );
+		return new Hdf5ImageLoader( file, null, seq );
+	}
+
+	@SuppressWarnings( { "unchecked", "rawtypes" } )
+	private static void write( final RandomAccessibleInterval img, final Partition partition, final ExportMipmapInfo mipmapInfo )
+	{
+		WriteSequenceToHdf5.writeViewToHdf5PartitionFile(
+				img, partition, 0, 0, mipmapInfo, true, false, null, null, 1, null );
+	}
+
+	private static void assertSameValues( final RandomAccessibleInterval< ? extends RealType< ? > > expected, final RandomAccessibleInterval< ? extends RealType< ? > > actual )
+	{
+		for ( int d = 0; d < expected.numDimensions(); ++d )
+			assertEquals( expected.dimension( d ), actual.dimension( d ) );
+		final Cursor< ? extends RealType< ? > > e = Views.flatIterable( expected ).cursor();
+		final Cursor< ? extends RealType< ? > > a = Views.flatIterable( actual ).cursor();
+		while ( e.hasNext() )
+			assertEquals( e.next().getRealDouble(), a.next().getRealDouble(), 0 );
+	}
+}
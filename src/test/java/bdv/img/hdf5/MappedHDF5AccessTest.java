@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.WriteSequenceToHdf5;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+
+/**
+ * Export an image with {@link WriteSequenceToHdf5} and check that
+ * {@link MappedHDF5Access} reads the same cells as {@link HDF5AccessHack},
+ * without falling back to JHDF5.
+ */
+public class MappedHDF5AccessTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final int[] cellDimensions = new int[] { 16, 16, 16 };
+
+	@Test
+	public void testScaleOffset() throws Exception
+	{
+		checkExportedFile( false );
+	}
+
+	@Test
+	public void testScaleOffsetDeflate() throws Exception
+	{
+		checkExportedFile( true );
+	}
+
+	private void checkExportedFile( final boolean deflate ) throws Exception
+	{
+		final File file = new File( folder.getRoot(), "export.h5" );
+		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo(
+				new int[][] { { 1, 1, 1 }, { 2, 2, 2 } },
+				new int[][] { cellDimensions, cellDimensions } );
+		final Partition partition = new Partition( file.getPath(),
+				Collections.singletonMap( 0, 0 ),
+				Collections.singletonMap( 0, 0 ) );
+		WriteSequenceToHdf5.writeViewToHdf5PartitionFile(
+				createImage(), partition, 0, 0, mipmapInfo, true, deflate, null, null, 1, null );
+
+		final IHDF5Reader reader = HDF5Factory.openForReading( file );
+		final HDF5AccessHack hack = new HDF5AccessHack( reader );
+		final MappedHDF5Access mapped = new MappedHDF5Access( file, hack );
+		try
+		{
+			for ( int level = 0; level < 2; ++level )
+				compareLevel( hack, mapped, level );
+			assertTrue( "fallback used for " + mapped.getFallbackDataSets(), mapped.getFallbackDataSets().isEmpty() );
+		}
+		finally
+		{
+			mapped.close();
+		}
+	}
+
+	/**
+	 * Cells with a small value range (few bits per value), a large value
+	 * range (full precision), and constant cells.
+	 */
+	private static ArrayImg< UnsignedShortType, ShortArray > createImage()
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( 40, 36, 20 );
+		final Random random = new Random( 1 );
+		final Cursor< UnsignedShortType > c = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			final int x = c.getIntPosition( 0 );
+			final int y = c.getIntPosition( 1 );
+			final int z = c.getIntPosition( 2 );
+			if ( x < 16 )
+				c.get().set( 1000 + ( x + 3 * y + 7 * z ) % 300 );
+			else if ( x < 32 )
+				c.get().set( random.nextInt( 65536 ) );
+			else
+				c.get().set( 42 );
+		}
+		return img;
+	}
+
+	private static void compareLevel( final IHDF5Access expected, final IHDF5Access actual, final int level ) throws InterruptedException
+	{
+		final ViewLevelId id = new ViewLevelId( 0, 0, level );
+		final long[] dimensions = expected.getDimsAndExistence( id ).getDimensions();
+		final int[] size = new int[ 3 ];
+		final long[] min = new long[ 3 ];
+		for ( min[ 2 ] = 0; min[ 2 ] < dimensions[ 2 ]; min[ 2 ] += cellDimensions[ 2 ] )
+			for ( min[ 1 ] = 0; min[ 1 ] < dimensions[ 1 ]; min[ 1 ] += cellDimensions[ 1 ] )
+				for ( min[ 0 ] = 0; min[ 0 ] < dimensions[ 0 ]; min[ 0 ] += cellDimensions[ 0 ] )
+				{
+					for ( int d = 0; d < 3; ++d )
+						size[ d ] = ( int ) Math.min( cellDimensions[ d ], dimensions[ d ] - min[ d ] );
+					final short[] e = expected.readShortMDArrayBlockWithOffset( 0, 0, level, size, min, new short[ size[ 0 ] * size[ 1 ] * size[ 2 ] ] );
+					final short[] a = actual.readShortMDArrayBlockWithOffset( 0, 0, level, size, min, new short[ size[ 0 ] * size[ 1 ] * size[ 2 ] ] );
+					assertArrayEquals( "level " + level + " cell at " + min[ 0 ] + "," + min[ 1 ] + "," + min[ 2 ], e, a );
+				}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies
+ * %%
+ * Copyright (C) 2012 - 2015 BigDataViewer authors
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check that a {@link MetadataIndex} is saved and loaded completely, and that
+ * an out-of-date index is not loaded.
+ */
+public class MetadataIndexTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final List< Partition > noPartitions = Collections.< Partition >emptyList();
+
+	@Test
+	public void testSaveLoad() throws IOException
+	{
+		final File hdf5File = folder.newFile( "dataset.h5" );
+		createIndex().save( hdf5File, noPartitions );
+		assertTrue( MetadataIndex.getIndexFile( hdf5File ).isFile() );
+
+		final MetadataIndex index = MetadataIndex.load( hdf5File, noPartitions );
+		assertNotNull( index );
+		assertArrayEquals( new double[][] { { 1, 1, 1 }, { 2, 2, 1 } }, index.getResolutions( 0 ) );
+		assertArrayEquals( new int[][] { { 32, 32, 4 }, { 16, 16, 16 } }, index.getSubdivisions( 0 ) );
+		assertEquals( "uint16", index.getDataType( 0 ) );
+		assertArrayEquals( new double[][] { { 1, 1, 1 } }, index.getResolutions( 5 ) );
+		assertNull( index.getDataType( 5 ) );
+		assertNull( index.getResolutions( 1 ) );
+
+		final Map< ViewLevelId, DimsAndExistence > dims = index.getDimsAndExistence();
+		assertEquals( 3, dims.size() );
+		final DimsAndExistence level1 = dims.get( new ViewLevelId( 2, 0, 1 ) );
+		assertTrue( level1.exists() );
+		assertArrayEquals( new long[] { 50, 40, 30 }, level1.getDimensions() );
+		assertFalse( dims.get( new ViewLevelId( 3, 5, 0 ) ).exists() );
+	}
+
+	@Test
+	public void testNoIndex() throws IOException
+	{
+		final File hdf5File = folder.newFile( "dataset.h5" );
+		assertNull( MetadataIndex.load( hdf5File, noPartitions ) );
+	}
+
+	@Test
+	public void testHdf5FileChanged() throws IOException
+	{
+		final File hdf5File = folder.newFile( "dataset.h5" );
+		createIndex().save( hdf5File, noPartitions );
+		append( hdf5File );
+		assertNull( MetadataIndex.load( hdf5File, noPartitions ) );
+	}
+
+	@Test
+	public void testPartitionFileChanged() throws IOException
+	{
+		final File hdf5File = folder.newFile( "dataset.h5" );
+		final File partitionFile = folder.newFile( "dataset-00.h5" );
+		final List< Partition > partitions = Collections.singletonList( new Partition(
+				partitionFile.getPath(),
+				Collections.singletonMap( 2, 2 ),
+				Collections.singletonMap( 0, 0 ) ) );
+		createIndex().save( hdf5File, partitions );
+		assertNotNull( MetadataIndex.load( hdf5File, partitions ) );
+
+		// the index must be loaded with the same partitions
+		assertNull( MetadataIndex.load( hdf5File, noPartitions ) );
+
+		append( partitionFile );
+		assertNull( MetadataIndex.load( hdf5File, partitions ) );
+	}
+
+	/**
+	 * A relative partition path is relative to the directory of the hdf5
+	 * file, not to the working directory.
+	 */
+	@Test
+	public void testRelativePartitionFileChanged() throws IOException
+	{
+		final File hdf5File = folder.newFile( "dataset.h5" );
+		final File partitionFile = folder.newFile( "dataset-00.h5" );
+		final List< Partition > partitions = Collections.singletonList( new Partition(
+				partitionFile.getName(),
+				Collections.singletonMap( 2, 2 ),
+				Collections.singletonMap( 0, 0 ) ) );
+		createIndex().save( hdf5File, partitions );
+		assertNotNull( MetadataIndex.load( hdf5File, partitions ) );
+
+		append( partitionFile );
+		assertNull( MetadataIndex.load( hdf5File, partitions ) );
+	}
+
+	@Test
+	public void testCorruptIndex() throws IOException
+	{
+		final File hdf5File = folder.newFile( "dataset.h5" );
+		final FileOutputStream out = new FileOutputStream( MetadataIndex.getIndexFile( hdf5File ) );
+		out.write( new byte[] { 0x42, 0x44, 0x56 } );
+		out.close();
+		assertNull( MetadataIndex.load( hdf5File, noPartitions ) );
+	}
+
+	private static MetadataIndex createIndex()
+	{
+		final MetadataIndex index = new MetadataIndex();
+		index.putMipmapInfo( 0, new double[][] { { 1, 1, 1 }, { 2, 2, 1 } }, new int[][] { { 32, 32, 4 }, { 16, 16, 16 } } );
+		index.putDataType( 0, "uint16" );
+		index.putMipmapInfo( 5, new double[][] { { 1, 1, 1 } }, new int[][] { { 64, 64, 64 } } );
+		index.putDimsAndExistence( new ViewLevelId( 2, 0, 0 ), new DimsAndExistence( new long[] { 100, 80, 30 }, true ) );
+		index.putDimsAndExistence( new ViewLevelId( 2, 0, 1 ), new DimsAndExistence( new long[] { 50, 40, 30 }, true ) );
+		index.putDimsAndExistence( new ViewLevelId( 3, 5, 0 ), new DimsAndExistence( new long[] { 0, 0, 0 }, false ) );
+		return index;
+	}
+
+	private static void append( final File file ) throws IOException
+	{
+		final FileOutputStream out = new FileOutputStream( file, true );
+		out.write( 1 );
+		out.close();
+	}
+}